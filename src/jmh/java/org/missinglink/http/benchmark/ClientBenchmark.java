@@ -0,0 +1,78 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.missinglink.http.client.HttpClient;
+import org.missinglink.http.exception.InvalidUriException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Micro benchmarks of the request building hot paths which do not touch the
+ * network: URI building, query parsing and the BASIC authorization header.
+ *
+ * @author alex.sherwin
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientBenchmark {
+
+  private static final String URI = "http://www.example.com:8080/some/path/to/a/resource";
+  private static final String QUERY_URI = URI + "?alpha=1&beta=two%20words&gamma=%C3%A9t%C3%A9&delta=&epsilon=5";
+
+  private HttpClient authenticated;
+
+  public ClientBenchmark() {
+    super();
+  }
+
+  @Setup
+  public void setup() throws InvalidUriException {
+    authenticated = HttpClient.uri(URI).credentials("benchmark-user", "benchmark-password").toHttpClient();
+  }
+
+  @Benchmark
+  public String buildUri() throws InvalidUriException {
+    return HttpClient.uri(URI).query("alpha", "1").query("beta", "two words").query("gamma", "\u00e9t\u00e9").toHttpClient().getUri();
+  }
+
+  @Benchmark
+  public String parseQuery() throws InvalidUriException {
+    return HttpClient.uri(QUERY_URI).toHttpClient().getUri();
+  }
+
+  @Benchmark
+  public String authorizationHeader() {
+    return authenticated.getAuthorization();
+  }
+
+}
@@ -0,0 +1,80 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.missinglink.tools.StreamUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the {@link StreamUtils} loops which copy request entities to
+ * the connection and buffer response entities.
+ *
+ * @author alex.sherwin
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityBenchmark {
+
+  @Param({"1024", "65536", "1048576"})
+  private int entitySize;
+
+  private byte[] entity;
+
+  public EntityBenchmark() {
+    super();
+  }
+
+  @Setup
+  public void setup() {
+    entity = new byte[entitySize];
+    for (int i = 0; i < entity.length; i++) {
+      entity[i] = (byte) i;
+    }
+  }
+
+  @Benchmark
+  public long copyEntity() throws IOException {
+    final ByteArrayOutputStream os = new ByteArrayOutputStream(entity.length);
+    return StreamUtils.copy(new ByteArrayInputStream(entity), os);
+  }
+
+  @Benchmark
+  public byte[] bufferEntity() throws IOException {
+    return StreamUtils.inputStreamToByteArray(new ByteArrayInputStream(entity));
+  }
+
+}
@@ -0,0 +1,113 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.missinglink.http.client.HttpClient;
+import org.missinglink.http.client.HttpConnectionPool;
+import org.missinglink.http.client.HttpResponse;
+import org.missinglink.http.client.NioTransport;
+import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.server.AbstractHttpServerTest;
+import org.missinglink.tools.StreamUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end round trips of {@link HttpClient#invoke()} against the in-process
+ * {@link com.sun.net.httpserver.HttpServer} of the tests, over kept alive
+ * connections.
+ *
+ * @author alex.sherwin
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark extends AbstractHttpServerTest {
+
+  private static final String POST_ENTITY = "benchmark entity";
+
+  private HttpConnectionPool pool;
+  private NioTransport nioTransport;
+  private byte[] keyStore;
+
+  public RoundTripBenchmark() {
+    super();
+  }
+
+  @Setup
+  public void setup() throws Exception {
+    startHttpServer();
+    startHttpsServer();
+    pool = new HttpConnectionPool();
+    nioTransport = new NioTransport();
+    keyStore = StreamUtils.inputStreamToByteArray(getKeyStore());
+  }
+
+  @TearDown
+  public void tearDown() {
+    nioTransport.close();
+    pool.closeIdle();
+    stopHttpsServer();
+    stopHttpServer();
+  }
+
+  @Benchmark
+  public HttpResponse get() throws HttpClientException {
+    return check(HttpClient.uri(getHttpServerUri() + PING_CONTEXT).connectionPool(pool).toHttpClient().invoke());
+  }
+
+  @Benchmark
+  public HttpResponse getNio() throws HttpClientException {
+    return check(HttpClient.uri(getHttpServerUri() + PING_CONTEXT).connectionPool(pool).transport(nioTransport).toHttpClient().invoke());
+  }
+
+  @Benchmark
+  public HttpResponse post() throws HttpClientException {
+    return check(HttpClient.uri(getHttpServerUri() + ECHO_CONTEXT).connectionPool(pool).post().contentType("text/plain").entity(POST_ENTITY).toHttpClient().invoke());
+  }
+
+  @Benchmark
+  public HttpResponse getHttps() throws HttpClientException {
+    return check(HttpClient.uri(getHttpsServerUri() + PING_CONTEXT).connectionPool(pool).keyStore(new ByteArrayInputStream(keyStore), KEYSTORE_PASSWORD).toHttpClient()
+        .invoke());
+  }
+
+  // a failing round trip would measure the error path
+  private static HttpResponse check(final HttpResponse response) {
+    if (200 != response.getStatus()) {
+      throw new IllegalStateException("Unexpected status " + response.getStatus() + " for " + response.getHttpClient().getUri());
+    }
+    return response;
+  }
+
+}
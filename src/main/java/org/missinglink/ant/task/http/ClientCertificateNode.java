@@ -0,0 +1,93 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.ant.task.http;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.tools.ant.types.DataType;
+import org.missinglink.http.client.ClientCertificate;
+
+/**
+ * The PKCS12 or JKS keystore holding the client certificate presented to
+ * HTTPS servers which require one.
+ *
+ * @author alex.sherwin
+ *
+ */
+public class ClientCertificateNode extends DataType {
+
+  private File file;
+  private String password;
+  private String type;
+  private String alias;
+
+  private FileContent content;
+
+  public ClientCertificateNode() {
+    super();
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public void setFile(final File file) {
+    this.file = file;
+    this.content = null == file ? null : new FileContent(file);
+  }
+
+  public String getPassword() {
+    return password;
+  }
+
+  public void setPassword(final String password) {
+    this.password = password;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public void setType(final String type) {
+    this.type = type;
+  }
+
+  public String getAlias() {
+    return alias;
+  }
+
+  public void setAlias(final String alias) {
+    this.alias = alias;
+  }
+
+  /**
+   * Create the client certificate from the keystore file, which is read again
+   * only once it changes so the key is loaded once per build.
+   *
+   * @return The {@link ClientCertificate}
+   * @throws IOException if the keystore cannot be read
+   */
+  public ClientCertificate toClientCertificate() throws IOException {
+    return ClientCertificate.of(content.get(), password, null == type || type.length() == 0 ? null : type.toUpperCase(), null == alias || alias.length() == 0 ? null : alias);
+  }
+
+  public boolean isValid() {
+    return null != file;
+  }
+
+}
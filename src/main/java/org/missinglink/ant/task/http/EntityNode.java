@@ -29,6 +29,7 @@ public class EntityNode extends DataType {
   private File file;
   private String value;
   private boolean binary = false;
+  private boolean compress = false;
 
   public EntityNode() {
     super();
@@ -66,6 +67,14 @@ public class EntityNode extends DataType {
     return binary;
   }
 
+  public void setCompress(final boolean compress) {
+    this.compress = compress;
+  }
+
+  public boolean getCompress() {
+    return compress;
+  }
+
   public boolean isValid() {
     return null != text && text.length() > 0 || null != file || null != value;
   }
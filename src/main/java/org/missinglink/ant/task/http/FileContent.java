@@ -0,0 +1,65 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.ant.task.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.missinglink.tools.StreamUtils;
+
+/**
+ * The content of a file, kept while the file is unchanged.
+ *
+ * @author alex.sherwin
+ *
+ */
+class FileContent {
+
+  private final File file;
+
+  private byte[] content;
+  private long contentLastModified;
+  private long contentLength;
+
+  FileContent(final File file) {
+    this.file = file;
+  }
+
+  /**
+   * Read the file, the content is kept and only read again once the file
+   * changes.
+   *
+   * @return The file content
+   * @throws IOException on failure
+   */
+  synchronized byte[] get() throws IOException {
+    if (null == content || file.lastModified() != contentLastModified || file.length() != contentLength) {
+      final InputStream is = new FileInputStream(file);
+      try {
+        contentLastModified = file.lastModified();
+        contentLength = file.length();
+        content = StreamUtils.inputStreamToByteArray(is);
+      } finally {
+        is.close();
+      }
+    }
+    return content;
+  }
+
+}
@@ -0,0 +1,253 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.ant.task.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.missinglink.http.client.Http2Transport;
+import org.missinglink.http.client.HttpClient;
+import org.missinglink.http.client.HttpConnectionPool;
+import org.missinglink.http.client.HttpResponse;
+import org.missinglink.http.client.HttpTransport;
+import org.missinglink.http.client.NioTransport;
+import org.missinglink.http.exception.HttpClientException;
+
+/**
+ * Executes nested <code>http</code> requests on a bounded number of threads
+ * sharing one {@link HttpConnectionPool}, failures are collected and reported
+ * once all requests finished.
+ * <p>
+ * With <code>pipelined</code> set, the idempotent requests without entity,
+ * <code>outFile</code> or cache are sent with HTTP/1.1 pipelining over a
+ * {@link NioTransport}, one connection per origin, see
+ * {@link HttpClient#invokePipelined(List)}; the other requests run as usual.
+ * </p>
+ * <p>
+ * With <code>http2</code> set, all requests are sent with a
+ * {@link Http2Transport}, which multiplexes the requests to an origin as
+ * concurrent streams over one connection; pipelined requests are sent as
+ * concurrent streams as well.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class HttpBatchTask extends Task {
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  // ant parameters
+  private int threads = 4;
+  private boolean failOnError = true;
+  private String failuresProperty;
+  private boolean pipelined = false;
+  private boolean http2 = false;
+
+  private final List<HttpClientTask> requests = new ArrayList<HttpClientTask>();
+
+  public HttpBatchTask() {
+    super();
+  }
+
+  @Override
+  public void execute() {
+    super.execute();
+
+    if (threads < 1) {
+      throw new BuildException("threads must be at least 1, was " + threads);
+    }
+    if (requests.isEmpty()) {
+      log("No requests to execute", Project.MSG_VERBOSE);
+      return;
+    }
+
+    // one connection per thread and route, kept alive between the requests
+    final HttpConnectionPool pool = new HttpConnectionPool(threads, HttpConnectionPool.DEFAULT_IDLE_TIMEOUT, true);
+    final HttpTransport transport;
+    try {
+      transport = http2 ? new Http2Transport() : pipelined ? new NioTransport() : null;
+    } catch (final IOException e) {
+      throw new BuildException(e);
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, requests.size()), new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(r, "httpbatch-" + THREAD_COUNT.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+    final long start = System.currentTimeMillis();
+    final Map<HttpClientTask, String> failed = new ConcurrentHashMap<HttpClientTask, String>();
+    try {
+      final List<HttpClientTask> sequential = new ArrayList<HttpClientTask>(requests.size());
+      final Map<String, List<HttpClientTask>> routes = new LinkedHashMap<String, List<HttpClientTask>>();
+      for (final HttpClientTask request : requests) {
+        request.shareConnectionPool(pool);
+        request.shareTransport(transport);
+        if (pipelined) {
+          try {
+            final HttpClient httpClient = request.preparePipelined();
+            if (null != httpClient) {
+              List<HttpClientTask> route = routes.get(httpClient.getRoute());
+              if (null == route) {
+                route = new ArrayList<HttpClientTask>();
+                routes.put(httpClient.getRoute(), route);
+              }
+              route.add(request);
+              continue;
+            }
+          } catch (final BuildException e) {
+            failed.put(request, String.valueOf(e.getMessage()));
+            continue;
+          }
+        }
+        sequential.add(request);
+      }
+
+      final List<Future<?>> futures = new ArrayList<Future<?>>(requests.size());
+      for (final List<HttpClientTask> route : routes.values()) {
+        log("Pipelining " + route.size() + " HTTP requests to " + route.get(0).getHttpClient().getRoute(), Project.MSG_VERBOSE);
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            pipeline(route, failed);
+          }
+        }));
+      }
+      for (final HttpClientTask request : sequential) {
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              request.perform();
+            } catch (final RuntimeException e) {
+              failed.put(request, String.valueOf(e.getMessage()));
+            }
+          }
+        }));
+      }
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } catch (final ExecutionException e) {
+      throw new BuildException(e.getCause());
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BuildException("Interrupted while waiting for HTTP requests", e);
+    } finally {
+      executor.shutdownNow();
+      pool.closeIdle();
+      if (null != transport) {
+        transport.close();
+      }
+    }
+
+    final List<String> failures = new ArrayList<String>();
+    for (final HttpClientTask request : requests) {
+      if (failed.containsKey(request)) {
+        failures.add(request.getUrl() + " - " + failed.get(request));
+      }
+    }
+
+    log("Batch of " + requests.size() + " HTTP requests on " + threads + " threads finished in " + (System.currentTimeMillis() - start) + " ms, " + failures.size() + " failed", Project.MSG_INFO);
+    log("Connection pool:\t" + pool.getStats(), Project.MSG_VERBOSE);
+
+    if (null != failuresProperty && failuresProperty.length() > 0) {
+      getProject().setProperty(failuresProperty, Integer.toString(failures.size()));
+    }
+
+    if (!failures.isEmpty()) {
+      final StringBuilder sb = new StringBuilder();
+      sb.append(failures.size()).append(" of ").append(requests.size()).append(" HTTP requests failed:");
+      for (final String failure : failures) {
+        sb.append("\n\t").append(failure);
+      }
+      if (failOnError) {
+        throw new BuildException(sb.toString());
+      }
+      log(sb.toString(), Project.MSG_WARN);
+    }
+  }
+
+  private void pipeline(final List<HttpClientTask> route, final Map<HttpClientTask, String> failed) {
+    final List<HttpClient> httpClients = new ArrayList<HttpClient>(route.size());
+    for (final HttpClientTask request : route) {
+      httpClients.add(request.getHttpClient());
+    }
+    final List<HttpResponse> responses;
+    try {
+      responses = HttpClient.invokePipelined(httpClients);
+    } catch (final HttpClientException e) {
+      for (final HttpClientTask request : route) {
+        failed.put(request, String.valueOf(e.getMessage()));
+      }
+      return;
+    }
+    for (int i = 0; i < route.size(); i++) {
+      try {
+        route.get(i).handleResponse(responses.get(i));
+      } catch (final BuildException e) {
+        failed.put(route.get(i), String.valueOf(e.getMessage()));
+      }
+    }
+  }
+
+  public void addConfiguredHttp(final HttpClientTask http) {
+    http.setTaskName("http");
+    http.setOwningTarget(getOwningTarget());
+    http.setLocation(getLocation());
+    http.init();
+    requests.add(http);
+  }
+
+  public void setThreads(final int threads) {
+    this.threads = threads;
+  }
+
+  public void setFailOnError(final boolean failOnError) {
+    this.failOnError = failOnError;
+  }
+
+  public void setFailuresProperty(final String failuresProperty) {
+    this.failuresProperty = failuresProperty;
+  }
+
+  public void setPipelined(final boolean pipelined) {
+    this.pipelined = pipelined;
+  }
+
+  public void setHttp2(final boolean http2) {
+    this.http2 = http2;
+  }
+
+}
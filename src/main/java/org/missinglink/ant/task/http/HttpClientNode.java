@@ -0,0 +1,341 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.ant.task.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.apache.tools.ant.types.DataType;
+import org.missinglink.http.client.HttpClient.HttpClientBuilder;
+import org.missinglink.http.client.HttpConnectionPool;
+import org.missinglink.http.client.RetryPolicy;
+import org.missinglink.http.client.SslContextCache;
+
+/**
+ * Long-lived client configuration declared once as
+ * <code>&lt;httpclient id="..."&gt;</code> and referenced by any number of
+ * <code>&lt;http clientref="..."&gt;</code> tasks.
+ * <p>
+ * The tasks share one {@link HttpConnectionPool} owned by this node, so
+ * connections opened by one task are reused by the next, and share the
+ * credentials, keystore, default headers, timeouts and retry policy. Settings
+ * of a task take precedence over the ones of the node.
+ * </p>
+ * <p>
+ * Setting the TLS session cache size or timeout gives the node a
+ * {@link SslContextCache} of its own, otherwise the JVM wide one is used.
+ * </p>
+ * <p>
+ * A node declared with <code>refid</code> stands for the referenced one and
+ * shares its pool, it takes no attributes or nested elements of its own.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class HttpClientNode extends DataType {
+
+  private int maxPerRoute = HttpConnectionPool.DEFAULT_MAX_PER_ROUTE;
+  private long idleTimeout = HttpConnectionPool.DEFAULT_IDLE_TIMEOUT;
+  private long leaseTimeout = HttpConnectionPool.DEFAULT_LEASE_TIMEOUT;
+  private boolean compressed = false;
+  private int maxAttempts = 1;
+  private long retryBackoff = RetryPolicy.DEFAULT_INITIAL_BACKOFF;
+  private long retryMaxBackoff = RetryPolicy.DEFAULT_MAX_BACKOFF;
+  private double retryJitter = RetryPolicy.DEFAULT_JITTER;
+  private boolean retryNonIdempotent = false;
+  private int connectTimeout = 0;
+  private int readTimeout = 0;
+  private long deadline = 0L;
+  private int tlsSessionCacheSize = SslContextCache.JDK_DEFAULT;
+  private int tlsSessionTimeout = SslContextCache.JDK_DEFAULT;
+  private CredentialsNode credentials;
+  private KeyStoreNode keystore;
+  private ClientCertificateNode clientCertificate;
+  private HeadersNode headers;
+
+  // created on first use, shared by all referencing tasks
+  private HttpConnectionPool connectionPool;
+  private SslContextCache sslContextCache;
+  private RetryPolicy retryPolicy;
+
+  public HttpClientNode() {
+    super();
+  }
+
+  /**
+   * Apply the configuration of this node to builder, the caller applies its
+   * own settings afterwards to override them.
+   *
+   * @param builder HttpClientBuilder
+   * @return The builder
+   * @throws IOException if the keystore cannot be read
+   */
+  public HttpClientBuilder configure(final HttpClientBuilder builder) throws IOException {
+    if (isReference()) {
+      return getRef().configure(builder);
+    }
+    if (null != credentials && credentials.isValid()) {
+      builder.credentials(credentials.getUsername(), credentials.getPassword());
+    }
+    if (null != keystore && keystore.isValid()) {
+      builder.keyStore(keystore.getFile() != null ? new ByteArrayInputStream(keystore.getContent()) : null, keystore.getPassword(), keystore.getTrustAll());
+    }
+    if (null != clientCertificate && clientCertificate.isValid()) {
+      builder.clientCertificate(clientCertificate.toClientCertificate());
+    }
+    if (null != headers && headers.isValid()) {
+      for (final HeaderNode header : headers.getHeaders()) {
+        builder.header(header.getName(), header.getValue());
+      }
+    }
+    return builder.connectionPool(getConnectionPool()).compressed(compressed).connectTimeout(connectTimeout).readTimeout(readTimeout).deadline(deadline).retryPolicy(getRetryPolicy()).sslContextCache(getSslContextCache());
+  }
+
+  /**
+   * @return The connection pool shared by the referencing tasks
+   */
+  public synchronized HttpConnectionPool getConnectionPool() {
+    if (isReference()) {
+      return getRef().getConnectionPool();
+    }
+    if (null == connectionPool) {
+      connectionPool = new HttpConnectionPool(maxPerRoute, idleTimeout, true, leaseTimeout);
+    }
+    return connectionPool;
+  }
+
+  /**
+   * @return The cache of the HTTPS socket factories, the JVM wide one unless
+   *         the TLS session cache size or timeout is set
+   */
+  public synchronized SslContextCache getSslContextCache() {
+    if (isReference()) {
+      return getRef().getSslContextCache();
+    }
+    if (null == sslContextCache) {
+      if (SslContextCache.JDK_DEFAULT == tlsSessionCacheSize && SslContextCache.JDK_DEFAULT == tlsSessionTimeout) {
+        sslContextCache = SslContextCache.getDefault();
+      } else {
+        sslContextCache = new SslContextCache(SslContextCache.DEFAULT_MAX_ENTRIES, tlsSessionCacheSize, tlsSessionTimeout);
+      }
+    }
+    return sslContextCache;
+  }
+
+  /**
+   * @return The retry policy, or null if requests are sent only once
+   */
+  public synchronized RetryPolicy getRetryPolicy() {
+    if (isReference()) {
+      return getRef().getRetryPolicy();
+    }
+    if (null == retryPolicy && maxAttempts > 1) {
+      retryPolicy = RetryPolicy.maxAttempts(maxAttempts).backoff(retryBackoff, retryMaxBackoff).jitter(retryJitter).retryNonIdempotent(retryNonIdempotent).toRetryPolicy();
+    }
+    return retryPolicy;
+  }
+
+  /**
+   * @return The node referenced by refid
+   */
+  protected HttpClientNode getRef() {
+    return getCheckedRef(HttpClientNode.class, getDataTypeName());
+  }
+
+  public void addConfiguredCredentials(final CredentialsNode credentials) {
+    checkChildrenAllowed();
+    this.credentials = credentials;
+  }
+
+  public void addConfiguredKeystore(final KeyStoreNode keystore) {
+    checkChildrenAllowed();
+    this.keystore = keystore;
+  }
+
+  public void addConfiguredClientCertificate(final ClientCertificateNode clientCertificate) {
+    checkChildrenAllowed();
+    this.clientCertificate = clientCertificate;
+  }
+
+  public void addConfiguredHeaders(final HeadersNode headers) {
+    checkChildrenAllowed();
+    this.headers = headers;
+  }
+
+  public int getMaxPerRoute() {
+    if (isReference()) {
+      return getRef().getMaxPerRoute();
+    }
+    return maxPerRoute;
+  }
+
+  public void setMaxPerRoute(final int maxPerRoute) {
+    checkAttributesAllowed();
+    this.maxPerRoute = maxPerRoute;
+  }
+
+  public long getIdleTimeout() {
+    if (isReference()) {
+      return getRef().getIdleTimeout();
+    }
+    return idleTimeout;
+  }
+
+  public void setIdleTimeout(final long idleTimeout) {
+    checkAttributesAllowed();
+    this.idleTimeout = idleTimeout;
+  }
+
+  public long getLeaseTimeout() {
+    if (isReference()) {
+      return getRef().getLeaseTimeout();
+    }
+    return leaseTimeout;
+  }
+
+  public void setLeaseTimeout(final long leaseTimeout) {
+    checkAttributesAllowed();
+    this.leaseTimeout = leaseTimeout;
+  }
+
+  public void setCompressed(final boolean compressed) {
+    checkAttributesAllowed();
+    this.compressed = compressed;
+  }
+
+  public int getMaxAttempts() {
+    if (isReference()) {
+      return getRef().getMaxAttempts();
+    }
+    return maxAttempts;
+  }
+
+  public void setMaxAttempts(final int maxAttempts) {
+    checkAttributesAllowed();
+    this.maxAttempts = maxAttempts;
+  }
+
+  public long getRetryBackoff() {
+    if (isReference()) {
+      return getRef().getRetryBackoff();
+    }
+    return retryBackoff;
+  }
+
+  public void setRetryBackoff(final long retryBackoff) {
+    checkAttributesAllowed();
+    this.retryBackoff = retryBackoff;
+  }
+
+  public long getRetryMaxBackoff() {
+    if (isReference()) {
+      return getRef().getRetryMaxBackoff();
+    }
+    return retryMaxBackoff;
+  }
+
+  public void setRetryMaxBackoff(final long retryMaxBackoff) {
+    checkAttributesAllowed();
+    this.retryMaxBackoff = retryMaxBackoff;
+  }
+
+  public double getRetryJitter() {
+    if (isReference()) {
+      return getRef().getRetryJitter();
+    }
+    return retryJitter;
+  }
+
+  public void setRetryJitter(final double retryJitter) {
+    checkAttributesAllowed();
+    this.retryJitter = retryJitter;
+  }
+
+  public boolean getRetryNonIdempotent() {
+    if (isReference()) {
+      return getRef().getRetryNonIdempotent();
+    }
+    return retryNonIdempotent;
+  }
+
+  public void setRetryNonIdempotent(final boolean retryNonIdempotent) {
+    checkAttributesAllowed();
+    this.retryNonIdempotent = retryNonIdempotent;
+  }
+
+  public int getConnectTimeout() {
+    if (isReference()) {
+      return getRef().getConnectTimeout();
+    }
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout(final int connectTimeout) {
+    checkAttributesAllowed();
+    this.connectTimeout = connectTimeout;
+  }
+
+  public int getReadTimeout() {
+    if (isReference()) {
+      return getRef().getReadTimeout();
+    }
+    return readTimeout;
+  }
+
+  public void setReadTimeout(final int readTimeout) {
+    checkAttributesAllowed();
+    this.readTimeout = readTimeout;
+  }
+
+  public long getDeadline() {
+    if (isReference()) {
+      return getRef().getDeadline();
+    }
+    return deadline;
+  }
+
+  public void setDeadline(final long deadline) {
+    checkAttributesAllowed();
+    this.deadline = deadline;
+  }
+
+  public int getTlsSessionCacheSize() {
+    if (isReference()) {
+      return getRef().getTlsSessionCacheSize();
+    }
+    return tlsSessionCacheSize;
+  }
+
+  public void setTlsSessionCacheSize(final int tlsSessionCacheSize) {
+    checkAttributesAllowed();
+    this.tlsSessionCacheSize = tlsSessionCacheSize;
+  }
+
+  public int getTlsSessionTimeout() {
+    if (isReference()) {
+      return getRef().getTlsSessionTimeout();
+    }
+    return tlsSessionTimeout;
+  }
+
+  public void setTlsSessionTimeout(final int tlsSessionTimeout) {
+    checkAttributesAllowed();
+    this.tlsSessionTimeout = tlsSessionTimeout;
+  }
+
+}
@@ -16,26 +16,33 @@
 
 package org.missinglink.ant.task.http;
 
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.lang.reflect.Field;
+import java.net.HttpURLConnection;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map.Entry;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DefaultLogger;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.Reference;
+import org.missinglink.http.client.GzipRequestEntity;
 import org.missinglink.http.client.HttpClient;
+import org.missinglink.http.client.HttpCache;
 import org.missinglink.http.client.HttpClient.HttpClientBuilder;
+import org.missinglink.http.client.HttpConnectionPool;
 import org.missinglink.http.client.HttpMethod;
 import org.missinglink.http.client.HttpResponse;
+import org.missinglink.http.client.HttpTiming;
+import org.missinglink.http.client.HttpTransport;
+import org.missinglink.http.client.JfrHttpClientListener;
+import org.missinglink.http.client.RequestEntity;
+import org.missinglink.http.client.RetryPolicy;
+import org.missinglink.http.client.TlsSession;
 import org.missinglink.http.exception.HttpCertificateException;
 import org.missinglink.http.exception.HttpInvocationException;
 
@@ -49,10 +56,24 @@ public class HttpClientTask extends Task {
   private String url;
   private String statusProperty;
   private String entityProperty;
+  private String timingProperty;
+  private boolean jfr = false;
+  private long maxEntitySize = -1L;
+  private Boolean compressed;
+  private Integer maxAttempts;
+  private Long retryBackoff;
+  private Long retryMaxBackoff;
+  private Double retryJitter;
+  private Boolean retryNonIdempotent;
+  private Integer connectTimeout;
+  private Integer readTimeout;
+  private Long deadline;
   private File outFile;
   private HttpMethod method;
+  private Reference clientRef;
   private CredentialsNode credentials;
   private KeyStoreNode keystore;
+  private ClientCertificateNode clientCertificate;
   private EntityNode entity;
   private HeadersNode headers;
   private QueryNode query;
@@ -65,6 +86,13 @@ public class HttpClientTask extends Task {
   private boolean followRedirects = true;
   private boolean setContentLengthHeader = false;
   private boolean update = true;
+  private int segments = 1;
+  private boolean resume = false;
+  private boolean conditional = false;
+  private File cacheDir;
+  private long cacheMaxSize = HttpCache.DEFAULT_MAX_SIZE;
+  private HttpConnectionPool connectionPool;
+  private HttpTransport transport;
   private int logLevel = Project.MSG_INFO;
 
   // http task parameters
@@ -94,9 +122,32 @@ public class HttpClientTask extends Task {
       return;
     }
 
+    logRequest();
+
     // invoke HttpClient
     HttpResponse response = null;
+    try {
+      if (null == outFile) {
+        response = httpClient.invoke();
+      } else {
+        // stream the entity to the file rather than buffering it in memory
+        mkdirs(outFile);
+        response = httpClient.invoke(outFile);
+      }
+    } catch (final HttpInvocationException e) {
+      throw new BuildException(e);
+    } catch (final HttpCertificateException e) {
+      throw new BuildException(e);
+    } catch (final Throwable t) {
+      throw new BuildException(t);
+    }
+
+    if (null != response) {
+      handleResponse(response);
+    }
+  }
 
+  protected void logRequest() {
     log("********************", Project.MSG_VERBOSE);
     log("HTTP Request", Project.MSG_VERBOSE);
     log("********************", Project.MSG_VERBOSE);
@@ -130,11 +181,14 @@ public class HttpClientTask extends Task {
       log("Query Parameters:\tno", Project.MSG_VERBOSE);
     }
     if (printRequest) {
-      log("Entity:\t\t" + (null == httpClient.getEntity() ? "no" : "yes"), Project.MSG_INFO);
+      log("Entity:\t\t" + (httpClient.hasEntity() ? "yes" : "no"), Project.MSG_INFO);
     } else {
-      log("Entity:\t\t" + (null == httpClient.getEntity() ? "no" : "yes"), Project.MSG_VERBOSE);
+      log("Entity:\t\t" + (httpClient.hasEntity() ? "yes" : "no"), Project.MSG_VERBOSE);
+    }
+    if (null != httpClient.getRequestEntity()) {
+      log("Entity streamed from:\t" + httpClient.getRequestEntity(), Project.MSG_VERBOSE);
     }
-    if (null != httpClient.getEntity() && printRequest) {
+    if (httpClient.hasEntity() && printRequest) {
       try {
         log("------ BEGIN ENTITY ------", Project.MSG_INFO);
         log(httpClient.getEntityAsString(), Project.MSG_INFO);
@@ -144,90 +198,141 @@ public class HttpClientTask extends Task {
         throw new BuildException(e);
       }
     }
+  }
 
-    try {
-      response = httpClient.invoke();
-    } catch (final HttpInvocationException e) {
-      throw new BuildException(e);
-    } catch (final HttpCertificateException e) {
-      throw new BuildException(e);
-    } catch (final Throwable t) {
-      throw new BuildException(t);
+  /**
+   * Write the phases of timing, in milliseconds, to properties prefixed with
+   * timingProperty.
+   *
+   * @param timing HttpTiming
+   */
+  private void setTimingProperties(final HttpTiming timing) {
+    if (null == getTimingProperty() || getTimingProperty().length() == 0) {
+      return;
     }
+    setTimingProperty("dns", timing.getDns());
+    setTimingProperty("connect", timing.getConnect());
+    setTimingProperty("tls", timing.getTls());
+    setTimingProperty("firstByte", timing.getFirstByte());
+    setTimingProperty("transfer", timing.getTransfer());
+    setTimingProperty("total", timing.getTotal());
+    getProject().setProperty(getTimingProperty() + ".connectionReused", Boolean.toString(timing.isConnectionReused()));
+  }
 
-    if (null != response) {
+  /**
+   * Write the handshake of tlsSession to properties prefixed with
+   * timingProperty: <code>tlsHandshake</code> is <code>full</code>,
+   * <code>resumed</code> or <code>none</code> on a kept alive connection.
+   *
+   * @param tlsSession TlsSession
+   */
+  private void setTlsProperties(final TlsSession tlsSession) {
+    if (null == getTimingProperty() || getTimingProperty().length() == 0) {
+      return;
+    }
+    getProject().setProperty(getTimingProperty() + ".tlsHandshake", tlsSession.isFullHandshake() ? "full" : tlsSession.isResumed() ? "resumed" : "none");
+    if (null != tlsSession.getProtocol()) {
+      getProject().setProperty(getTimingProperty() + ".tlsProtocol", tlsSession.getProtocol());
+    }
+    getProject().setProperty(getTimingProperty() + ".tlsCipherSuite", tlsSession.getCipherSuite());
+  }
 
-      // Issue 21 - Write status to a property
-      if (null != getStatusProperty() && getStatusProperty().length() > 0) {
-        getProject().setProperty(getStatusProperty(), Integer.toString(response.getStatus()));
-      }
+  private void setTimingProperty(final String phase, final long nanos) {
+    getProject().setProperty(getTimingProperty() + "." + phase, String.format(Locale.ENGLISH, "%.3f", Double.valueOf(HttpTiming.toMillis(nanos))));
+  }
 
-      log("", Project.MSG_VERBOSE);
-      log("********************", Project.MSG_VERBOSE);
-      log("HTTP Response", Project.MSG_VERBOSE);
-      log("********************", Project.MSG_VERBOSE);
-      log("Status:\t\t" + response.getStatus(), Project.MSG_VERBOSE);
+  protected void handleResponse(final HttpResponse response) {
+    final String uri = httpClient.getUri();
 
-      if (isInfo()) {
-        log("Response Status: " + response.getStatus(), Project.MSG_INFO);
-      }
+    // Issue 21 - Write status to a property
+    if (null != getStatusProperty() && getStatusProperty().length() > 0) {
+      getProject().setProperty(getStatusProperty(), Integer.toString(response.getStatus()));
+    }
 
-      if (printResponseHeaders) {
-        log("Headers:\t\t" + (response.getHeaders().size() == 0 ? "no" : "yes"), Project.MSG_INFO);
-      } else {
-        log("Headers:\t\t" + (response.getHeaders().size() == 0 ? "no" : "yes"), Project.MSG_VERBOSE);
+    log("", Project.MSG_VERBOSE);
+    log("********************", Project.MSG_VERBOSE);
+    log("HTTP Response", Project.MSG_VERBOSE);
+    log("********************", Project.MSG_VERBOSE);
+    log("Status:\t\t" + response.getStatus(), Project.MSG_VERBOSE);
+    if (null != httpClient.getCache()) {
+      log("Cache:\t\t" + (response.isCached() ? "hit" : "miss"), Project.MSG_VERBOSE);
+    }
+    if (null != httpClient.getRetryPolicy()) {
+      log("Attempts:\t\t" + response.getAttempts(), Project.MSG_VERBOSE);
+    }
+    if (null != response.getDecodedContentEncoding()) {
+      log("Decoded:\t\t" + response.getDecodedContentEncoding(), Project.MSG_VERBOSE);
+    }
+    if (httpClient.getRequestEntity() instanceof GzipRequestEntity) {
+      final GzipRequestEntity gzip = (GzipRequestEntity) httpClient.getRequestEntity();
+      if (gzip.getRatio() >= 0) {
+        log(String.format(Locale.ENGLISH, "Compressed:\t\t%d -> %d bytes (%.1f%%)", gzip.getRawLength(), gzip.getCompressedLength(), gzip.getRatio() * 100), Project.MSG_VERBOSE);
       }
-      if (response.getHeaders().size() > 0 && printResponseHeaders) {
-        for (final Entry<String, List<String>> entry : response.getHeaders().entrySet()) {
-          for (final String value : entry.getValue()) {
-            if (null == entry.getKey()) {
-              log("\t" + value);
-            } else {
-              log("\t" + entry.getKey() + ": " + value);
-            }
+    }
+    if (null != response.getTiming()) {
+      log("Timing:\t\t" + response.getTiming(), Project.MSG_VERBOSE);
+      setTimingProperties(response.getTiming());
+    }
+    if (null != response.getTlsSession()) {
+      log("TLS:\t\t" + response.getTlsSession(), Project.MSG_VERBOSE);
+      setTlsProperties(response.getTlsSession());
+    }
+
+    if (isInfo()) {
+      log("Response Status: " + response.getStatus(), Project.MSG_INFO);
+    }
+
+    if (printResponseHeaders) {
+      log("Headers:\t\t" + (response.getHeaders().size() == 0 ? "no" : "yes"), Project.MSG_INFO);
+    } else {
+      log("Headers:\t\t" + (response.getHeaders().size() == 0 ? "no" : "yes"), Project.MSG_VERBOSE);
+    }
+    if (response.getHeaders().size() > 0 && printResponseHeaders) {
+      for (final Entry<String, List<String>> entry : response.getHeaders().entrySet()) {
+        for (final String value : entry.getValue()) {
+          if (null == entry.getKey()) {
+            log("\t" + value);
+          } else {
+            log("\t" + entry.getKey() + ": " + value);
           }
         }
+      }
+    } else {
+      log("Headers:\t\tno");
+    }
+
+    final boolean responseHasEntity = null != response.getEntity();
+    if (null == outFile) {
+      if (printResponse) {
+        log("Entity:\t\t" + (null == response.getEntity() ? "no" : "yes"), Project.MSG_INFO);
       } else {
-        log("Headers:\t\tno");
+        log("Entity:\t\t" + (null == response.getEntity() ? "no" : "yes"), Project.MSG_VERBOSE);
       }
+      if (responseHasEntity) {
+        final String respEntity = response.getEntityAsString();
 
-      final boolean responseHasEntity = null != response.getEntity();
-      if (null == outFile) {
-        if (printResponse) {
-          log("Entity:\t\t" + (null == response.getEntity() ? "no" : "yes"), Project.MSG_INFO);
-        } else {
-          log("Entity:\t\t" + (null == response.getEntity() ? "no" : "yes"), Project.MSG_VERBOSE);
+        // Issue 21 - Write entity to a property
+        if (null != getEntityProperty() && getEntityProperty().length() > 0) {
+          getProject().setProperty(getEntityProperty(), respEntity);
         }
-        if (responseHasEntity) {
-          final String respEntity = response.getEntityAsString();
-
-          // Issue 21 - Write entity to a property
-          if (null != getEntityProperty() && getEntityProperty().length() > 0) {
-            getProject().setProperty(getEntityProperty(), respEntity);
-          }
 
-          if (printResponse) {
-            log("------ BEGIN ENTITY ------", Project.MSG_INFO);
-            log(respEntity, Project.MSG_INFO);
-            log("------- END ENTITY -------", Project.MSG_INFO);
-          }
-        }
-      } else if (responseHasEntity) {
-        try {
-          mkdirs(outFile);
-          final OutputStream fos = new BufferedOutputStream(new FileOutputStream(outFile));
-          fos.write(response.getEntity());
-          fos.flush();
-          fos.close();
-          log("Entity written to file:\t" + outFile.getAbsolutePath(), Project.MSG_INFO);
-        } catch (final Throwable t) {
-          throw new BuildException("Failed to write response entity to file: " + outFile.getAbsolutePath() + " - " + t.getMessage(), t);
+        if (printResponse) {
+          log("------ BEGIN ENTITY ------", Project.MSG_INFO);
+          log(respEntity, Project.MSG_INFO);
+          log("------- END ENTITY -------", Project.MSG_INFO);
         }
       }
-
-      if (response.getStatus() != expected && failOnUnexpected) {
-        throw new BuildException("Expected Status [" + expected + "] but got [" + response.getStatus() + "] for URI [" + uri + "]");
+    } else if (null != response.getEntityFile()) {
+      if (response.getEntityOffset() > 0) {
+        log("Download resumed at byte:\t" + response.getEntityOffset(), Project.MSG_INFO);
       }
+      log("Entity written to file:\t" + response.getEntityFile().getAbsolutePath() + " (" + response.getEntityLength() + " bytes)", Project.MSG_INFO);
+    }
+
+    if (isNotModified(response)) {
+      log("Entity not modified, keeping file:\t" + outFile.getAbsolutePath(), Project.MSG_INFO);
+    } else if (response.getStatus() != expected && failOnUnexpected) {
+      throw new BuildException("Expected Status [" + expected + "] but got [" + response.getStatus() + "] for URI [" + uri + "]");
     }
   }
 
@@ -268,6 +373,11 @@ public class HttpClientTask extends Task {
     return logLevel == Project.MSG_VERBOSE || logLevel == Project.MSG_DEBUG;
   }
 
+  // a conditional download of an unchanged outFile succeeds
+  protected boolean isNotModified(final HttpResponse response) {
+    return conditional && null != outFile && HttpURLConnection.HTTP_NOT_MODIFIED == response.getStatus();
+  }
+
   protected boolean outputIsAvailable() {
     return outFile == null || !outFile.exists() || update;
   }
@@ -287,12 +397,28 @@ public class HttpClientTask extends Task {
   }
 
   protected void initHttpClient() {
+    httpClient = createHttpClient();
+  }
+
+  /**
+   * Build a new {@link HttpClient} from the task configuration, without
+   * changing the state of the task.
+   *
+   * @return The {@link HttpClient}
+   */
+  protected HttpClient createHttpClient() {
     try {
       HttpClientBuilder builder = HttpClient.uri(url);
 
       // set method, default to GET
       builder = builder.method(null == method ? HttpMethod.GET : method);
 
+      // apply the shared <httpclient>, the settings below override it
+      final HttpClientNode client = getClient();
+      if (null != client) {
+        builder = client.configure(builder);
+      }
+
       // set credentials
       if (null != credentials && credentials.isValid()) {
         builder = builder.credentials(credentials.getUsername(), credentials.getPassword());
@@ -300,7 +426,12 @@ public class HttpClientTask extends Task {
 
       // set keystore
       if (null != keystore && keystore.isValid()) {
-        builder = builder.keyStore(keystore.getFile() != null ? new FileInputStream(keystore.getFile()) : null, keystore.getPassword(), keystore.getTrustAll());
+        builder = builder.keyStore(keystore.getFile() != null ? new ByteArrayInputStream(keystore.getContent()) : null, keystore.getPassword(), keystore.getTrustAll());
+      }
+
+      // set the client certificate
+      if (null != clientCertificate && clientCertificate.isValid()) {
+        builder = builder.clientCertificate(clientCertificate.toClientCertificate());
       }
 
       // set headers
@@ -314,6 +445,64 @@ public class HttpClientTask extends Task {
         builder.followRedirects(followRedirects);
       }
 
+      // download outFile as concurrent byte ranges
+      if (segments > 1) {
+        builder = builder.segments(segments);
+      }
+
+      // download outFile through a sidecar which a later run resumes from
+      builder = builder.resume(resume);
+
+      // only download outFile again if it changed since the last run
+      builder = builder.conditional(conditional);
+
+      // share the connection pool of an enclosing batch
+      if (null != connectionPool) {
+        builder = builder.connectionPool(connectionPool);
+      }
+      if (null != transport) {
+        builder = builder.transport(transport);
+      }
+
+      // record the requests in Java Flight Recorder recordings
+      if (jfr) {
+        if (JfrHttpClientListener.isAvailable()) {
+          builder = builder.listener(JfrHttpClientListener.getDefault());
+        } else {
+          log("Java Flight Recorder is not available on this JVM, requests are not recorded", Project.MSG_WARN);
+        }
+      }
+
+      builder = builder.maxEntitySize(maxEntitySize);
+      if (null != compressed) {
+        builder = builder.compressed(compressed.booleanValue());
+      }
+
+      if (null != connectTimeout) {
+        builder = builder.connectTimeout(connectTimeout.intValue());
+      }
+      if (null != readTimeout) {
+        builder = builder.readTimeout(readTimeout.intValue());
+      }
+      if (null != deadline) {
+        builder = builder.deadline(deadline.longValue());
+      }
+
+      // retry transient failures, unset retry attributes fall back to the shared <httpclient>
+      if (null != maxAttempts || null != retryBackoff || null != retryMaxBackoff || null != retryJitter || null != retryNonIdempotent) {
+        final int attempts = null != maxAttempts ? maxAttempts.intValue() : null != client ? client.getMaxAttempts() : 1;
+        final long backoff = null != retryBackoff ? retryBackoff.longValue() : null != client ? client.getRetryBackoff() : RetryPolicy.DEFAULT_INITIAL_BACKOFF;
+        final long maxBackoff = null != retryMaxBackoff ? retryMaxBackoff.longValue() : null != client ? client.getRetryMaxBackoff() : RetryPolicy.DEFAULT_MAX_BACKOFF;
+        final double jitter = null != retryJitter ? retryJitter.doubleValue() : null != client ? client.getRetryJitter() : RetryPolicy.DEFAULT_JITTER;
+        final boolean nonIdempotent = null != retryNonIdempotent ? retryNonIdempotent.booleanValue() : null != client && client.getRetryNonIdempotent();
+        builder = builder.retryPolicy(attempts > 1 ? RetryPolicy.maxAttempts(attempts).backoff(backoff, maxBackoff).jitter(jitter).retryNonIdempotent(nonIdempotent).toRetryPolicy() : null);
+      }
+
+      // answer GET and HEAD requests from the on-disk cache
+      if (null != cacheDir) {
+        builder = builder.cache(HttpCache.getShared(cacheDir, cacheMaxSize));
+      }
+
       // set query parameters
       if (null != query && query.isValid()) {
         for (final QueryParameterNode qp : query.getParameters()) {
@@ -325,37 +514,75 @@ public class HttpClientTask extends Task {
       builder.setContentLength(setContentLengthHeader);
       if (null != entity && entity.isValid()) {
         if (null != entity.getFile()) {
-          // 1. prefer file
-          final FileInputStream is = new FileInputStream(entity.getFile());
-          final ByteArrayOutputStream os = new ByteArrayOutputStream();
-          final byte[] buf = new byte[1024];
-          try {
-            for (int num; (num = is.read(buf)) != -1;) {
-              os.write(buf, 0, num);
-            }
-          } catch (final IOException e) {
-            throw new BuildException(e);
-          } finally {
-            is.close();
-          }
-
-          builder = builder.entity(new ByteArrayInputStream(os.toByteArray()), entity.getBinary());
+          // 1. prefer file, streamed to the connection
+          builder = builder.entity(entity.getFile(), entity.getCompress());
         } else if (null != entity.getValue() && entity.getValue().length() > 0) {
           // 2. prefer value attribute
-          builder = builder.entity(entity.getValue());
+          builder = entity.getCompress() ? builder.entity(RequestEntity.of(entity.getValue().getBytes()), true) : builder.entity(entity.getValue());
+        } else if (entity.getCompress()) {
+          // 3. fall back to text content, compressed as sent
+          builder = builder.entity(RequestEntity.of(entity.getText().getBytes()), true);
         } else {
-          // 3. fall back to text content
           builder = builder.entity(entity.getText(), entity.getBinary());
         }
       }
 
-      httpClient = builder.toHttpClient();
+      return builder.toHttpClient();
 
     } catch (final Throwable t) {
       throw new BuildException(t);
     }
   }
 
+  /**
+   * @return The {@link HttpClientNode} referenced by clientref, or null
+   */
+  protected HttpClientNode getClient() {
+    if (null == clientRef) {
+      return null;
+    }
+    final Object client = clientRef.getReferencedObject(getProject());
+    if (!(client instanceof HttpClientNode)) {
+      throw new BuildException("clientref [" + clientRef.getRefId() + "] does not refer to an httpclient");
+    }
+    return (HttpClientNode) client;
+  }
+
+  // not an ant attribute, used by HttpBatchTask
+  void shareConnectionPool(final HttpConnectionPool connectionPool) {
+    this.connectionPool = connectionPool;
+  }
+
+  // the client set up by the last execution
+  HttpClient getHttpClient() {
+    return httpClient;
+  }
+
+  // not an ant attribute, used by HttpBatchTask
+  void shareTransport(final HttpTransport transport) {
+    this.transport = transport;
+  }
+
+  /**
+   * Set up and log the request for {@link HttpBatchTask} to send on a
+   * pipelined connection, the response is passed to
+   * {@link #handleResponse(HttpResponse)}.
+   *
+   * @return The {@link HttpClient}, or null if the request has to be sent on
+   *         its own
+   */
+  HttpClient preparePipelined() {
+    if (null != outFile || null != cacheDir) {
+      return null;
+    }
+    initHttpClient();
+    if (!httpClient.isPipelineable()) {
+      return null;
+    }
+    logRequest();
+    return httpClient;
+  }
+
   public void addConfiguredCredentials(final CredentialsNode credentials) {
     this.credentials = credentials;
   }
@@ -364,6 +591,10 @@ public class HttpClientTask extends Task {
     this.keystore = keystore;
   }
 
+  public void addConfiguredClientCertificate(final ClientCertificateNode clientCertificate) {
+    this.clientCertificate = clientCertificate;
+  }
+
   public void addConfiguredEntity(final EntityNode entity) {
     this.entity = entity;
   }
@@ -392,6 +623,10 @@ public class HttpClientTask extends Task {
     this.outFile = outFile;
   }
 
+  public void setClientRef(final Reference clientRef) {
+    this.clientRef = clientRef;
+  }
+
   public HttpMethod getMethod() {
     return method;
   }
@@ -408,6 +643,10 @@ public class HttpClientTask extends Task {
     this.printResponse = printResponse;
   }
 
+  public int getExpected() {
+    return expected;
+  }
+
   public void setExpected(final int expected) {
     this.expected = expected;
   }
@@ -444,6 +683,70 @@ public class HttpClientTask extends Task {
     this.update = update;
   }
 
+  public void setSegments(final int segments) {
+    this.segments = segments;
+  }
+
+  public void setResume(final boolean resume) {
+    this.resume = resume;
+  }
+
+  public void setConditional(final boolean conditional) {
+    this.conditional = conditional;
+  }
+
+  public void setCacheDir(final File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  public void setCacheMaxSize(final long cacheMaxSize) {
+    this.cacheMaxSize = cacheMaxSize;
+  }
+
+  public void setJfr(final boolean jfr) {
+    this.jfr = jfr;
+  }
+
+  public void setMaxEntitySize(final long maxEntitySize) {
+    this.maxEntitySize = maxEntitySize;
+  }
+
+  public void setCompressed(final boolean compressed) {
+    this.compressed = Boolean.valueOf(compressed);
+  }
+
+  public void setMaxAttempts(final int maxAttempts) {
+    this.maxAttempts = Integer.valueOf(maxAttempts);
+  }
+
+  public void setRetryBackoff(final long retryBackoff) {
+    this.retryBackoff = Long.valueOf(retryBackoff);
+  }
+
+  public void setRetryMaxBackoff(final long retryMaxBackoff) {
+    this.retryMaxBackoff = Long.valueOf(retryMaxBackoff);
+  }
+
+  public void setRetryJitter(final double retryJitter) {
+    this.retryJitter = Double.valueOf(retryJitter);
+  }
+
+  public void setRetryNonIdempotent(final boolean retryNonIdempotent) {
+    this.retryNonIdempotent = Boolean.valueOf(retryNonIdempotent);
+  }
+
+  public void setConnectTimeout(final int connectTimeout) {
+    this.connectTimeout = Integer.valueOf(connectTimeout);
+  }
+
+  public void setReadTimeout(final int readTimeout) {
+    this.readTimeout = Integer.valueOf(readTimeout);
+  }
+
+  public void setDeadline(final long deadline) {
+    this.deadline = Long.valueOf(deadline);
+  }
+
   public String getEntityProperty() {
     return entityProperty;
   }
@@ -451,4 +754,12 @@ public class HttpClientTask extends Task {
   public void setEntityProperty(final String entityProperty) {
     this.entityProperty = entityProperty;
   }
+
+  public String getTimingProperty() {
+    return timingProperty;
+  }
+
+  public void setTimingProperty(final String timingProperty) {
+    this.timingProperty = timingProperty;
+  }
 }
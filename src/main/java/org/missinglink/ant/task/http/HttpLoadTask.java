@@ -0,0 +1,422 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.ant.task.http;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.missinglink.http.client.HttpClient;
+import org.missinglink.http.client.HttpConnectionPool;
+import org.missinglink.http.client.HttpResponse;
+import org.missinglink.tools.LatencyHistogram;
+
+/**
+ * Sends the nested <code>http</code> request template repeatedly for a
+ * duration or count and records latency percentiles, errors and throughput,
+ * optionally failing the build if they breach service level objectives.
+ * <p>
+ * With a <code>rate</code> the requests are scheduled at a constant arrival
+ * rate whatever the response times (open model), queueing for the
+ * <code>threads</code> workers if they fall behind. The latency of a request
+ * is measured from its scheduled start, so the queueing delay of a slow server
+ * is not hidden (coordinated omission). Without a <code>rate</code> every
+ * worker sends its next request once the previous one completed (closed
+ * model).
+ * </p>
+ * <p>
+ * A request fails if it throws or its status is not the <code>expected</code>
+ * status of the template. Latencies are recorded for every response in a
+ * {@link LatencyHistogram} and set as properties in milliseconds.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class HttpLoadTask extends Task {
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private static final double[] PERCENTILES = {50d, 90d, 95d, 99d, 99.9d};
+  private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p95", "p99", "p999"};
+
+  // ant parameters
+  private int threads = 8;
+  private double rate = 0d;
+  private double duration = 0d;
+  private long count = 0L;
+  private String propertyPrefix = "httpload";
+  private File reportFile;
+  private Double maxP50;
+  private Double maxP95;
+  private Double maxP99;
+  private Double maxErrorRate;
+  private Double minThroughput;
+  private boolean failOnBreach = true;
+
+  private HttpClientTask template;
+
+  // load state
+  private final LatencyHistogram histogram = new LatencyHistogram();
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong unanswered = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicReference<String> firstError = new AtomicReference<String>();
+  private final AtomicLong lastCompletion = new AtomicLong();
+
+  public HttpLoadTask() {
+    super();
+  }
+
+  @Override
+  public void execute() {
+    super.execute();
+
+    if (null == template) {
+      throw new BuildException("A nested http request template is required");
+    }
+    if (threads < 1) {
+      throw new BuildException("threads must be at least 1, was " + threads);
+    }
+    if (duration <= 0d && count <= 0L) {
+      throw new BuildException("Either duration or count must be set");
+    }
+    if (rate < 0d) {
+      throw new BuildException("rate cannot be negative, was " + rate);
+    }
+
+    // fail on an invalid template before any load is generated
+    final HttpClient probe = template.createHttpClient();
+    final String uri = probe.getUri();
+    final String method = probe.getMethod().name();
+
+    final HttpConnectionPool pool = new HttpConnectionPool(threads, HttpConnectionPool.DEFAULT_IDLE_TIMEOUT, true);
+    template.shareConnectionPool(pool);
+    final ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(r, "httpload-" + THREAD_COUNT.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+    log("Load " + method + " " + uri + (rate > 0d ? " at " + format(rate) + " requests/s" : " as fast as possible") + " on " + threads + " threads", Project.MSG_INFO);
+
+    final long start = System.nanoTime();
+    final long end = duration > 0d ? start + (long) (duration * 1e9) : Long.MAX_VALUE;
+    lastCompletion.set(start);
+    try {
+      if (rate > 0d) {
+        schedule(executor, start, end);
+      } else {
+        for (int i = 0; i < threads; i++) {
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              while (System.nanoTime() < end && claim()) {
+                send(System.nanoTime());
+              }
+            }
+          });
+        }
+      }
+      executor.shutdown();
+      while (!executor.awaitTermination(1L, TimeUnit.SECONDS)) {
+        log("Waiting for " + (sent.get() - completed()) + " outstanding requests", Project.MSG_VERBOSE);
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BuildException("Interrupted while generating load", e);
+    } finally {
+      executor.shutdownNow();
+      pool.closeIdle();
+    }
+
+    report(uri, method, (lastCompletion.get() - start) / 1e9);
+  }
+
+  // open model: request i is due at start + i / rate, whether or not the
+  // previous ones completed
+  private void schedule(final ExecutorService executor, final long start, final long end) throws InterruptedException {
+    for (long i = 0; count <= 0L || i < count; i++) {
+      final long scheduled = start + (long) (i * 1e9 / rate);
+      if (scheduled >= end) {
+        return;
+      }
+      for (long wait; (wait = scheduled - System.nanoTime()) > 0;) {
+        LockSupport.parkNanos(wait);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+      sent.incrementAndGet();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          send(scheduled);
+        }
+      });
+    }
+  }
+
+  // closed model: take the next of count requests
+  private boolean claim() {
+    for (long n = sent.get(); count <= 0L || n < count; n = sent.get()) {
+      if (sent.compareAndSet(n, n + 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void send(final long scheduled) {
+    try {
+      final HttpResponse response = template.createHttpClient().invoke();
+      histogram.record((System.nanoTime() - scheduled) / 1000L);
+      if (response.getStatus() != template.getExpected()) {
+        error("Expected Status [" + template.getExpected() + "] but got [" + response.getStatus() + "]");
+      }
+    } catch (final Exception e) {
+      unanswered.incrementAndGet();
+      error(e.getClass().getName() + ": " + e.getMessage());
+    } finally {
+      final long now = System.nanoTime();
+      for (long last = lastCompletion.get(); now > last && !lastCompletion.compareAndSet(last, now); last = lastCompletion.get()) {
+        // retry
+      }
+    }
+  }
+
+  private void error(final String message) {
+    errors.incrementAndGet();
+    if (firstError.compareAndSet(null, message)) {
+      log("First failed request: " + message, Project.MSG_WARN);
+    } else {
+      log("Failed request: " + message, Project.MSG_DEBUG);
+    }
+  }
+
+  private void report(final String uri, final String method, final double seconds) {
+    final long requests = completed();
+    final double throughput = seconds > 0d ? requests / seconds : 0d;
+    final double errorRate = requests > 0L ? 100d * errors.get() / requests : 0d;
+
+    setProperty("requests", Long.toString(requests));
+    setProperty("errors", Long.toString(errors.get()));
+    setProperty("errorRate", format(errorRate));
+    setProperty("throughput", format(throughput));
+    setProperty("duration", format(seconds));
+    setProperty("min", millis(histogram.getMin()));
+    setProperty("mean", format(histogram.getMean() / 1000d));
+    setProperty("max", millis(histogram.getMax()));
+    final StringBuilder percentiles = new StringBuilder();
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      final String value = millis(histogram.getValueAtPercentile(PERCENTILES[i]));
+      setProperty(PERCENTILE_NAMES[i], value);
+      percentiles.append(' ').append(PERCENTILE_NAMES[i]).append('=').append(value);
+    }
+
+    log(requests + " requests in " + format(seconds) + " s, " + format(throughput) + " requests/s, " + errors.get() + " failed (" + format(errorRate) + "%)", Project.MSG_INFO);
+    log("Latency ms: min=" + millis(histogram.getMin()) + " mean=" + format(histogram.getMean() / 1000d) + percentiles + " max=" + millis(histogram.getMax()), Project.MSG_INFO);
+
+    final List<String> breaches = new ArrayList<String>();
+    checkMax(breaches, "p50 latency", histogram.getValueAtPercentile(50d) / 1000d, maxP50, " ms");
+    checkMax(breaches, "p95 latency", histogram.getValueAtPercentile(95d) / 1000d, maxP95, " ms");
+    checkMax(breaches, "p99 latency", histogram.getValueAtPercentile(99d) / 1000d, maxP99, " ms");
+    checkMax(breaches, "error rate", errorRate, maxErrorRate, "%");
+    if (null != minThroughput && throughput < minThroughput.doubleValue()) {
+      breaches.add("throughput " + format(throughput) + " requests/s < " + format(minThroughput.doubleValue()) + " requests/s");
+    }
+    setProperty("breaches", Integer.toString(breaches.size()));
+
+    if (null != reportFile) {
+      writeReport(uri, method, requests, seconds, throughput, errorRate, breaches);
+    }
+
+    if (!breaches.isEmpty()) {
+      final StringBuilder sb = new StringBuilder();
+      sb.append("SLO breached for ").append(method).append(" ").append(uri).append(':');
+      for (final String breach : breaches) {
+        sb.append("\n\t").append(breach);
+      }
+      if (failOnBreach) {
+        throw new BuildException(sb.toString());
+      }
+      log(sb.toString(), Project.MSG_WARN);
+    }
+  }
+
+  // requests which failed before a response was read have no latency
+  private long completed() {
+    return histogram.getTotalCount() + unanswered.get();
+  }
+
+  private static void checkMax(final List<String> breaches, final String name, final double value, final Double max, final String unit) {
+    if (null != max && value > max.doubleValue()) {
+      breaches.add(name + " " + format(value) + unit + " > " + format(max.doubleValue()) + unit);
+    }
+  }
+
+  private void writeReport(final String uri, final String method, final long requests, final double seconds, final double throughput, final double errorRate, final List<String> breaches) {
+    final File dir = reportFile.getAbsoluteFile().getParentFile();
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new BuildException("Could not make directories for " + dir.getAbsolutePath());
+    }
+    final StringBuilder json = new StringBuilder(512);
+    json.append("{\n");
+    json.append("  \"uri\": ").append(quote(uri)).append(",\n");
+    json.append("  \"method\": ").append(quote(method)).append(",\n");
+    json.append("  \"threads\": ").append(threads).append(",\n");
+    json.append("  \"rate\": ").append(format(rate)).append(",\n");
+    json.append("  \"duration\": ").append(format(seconds)).append(",\n");
+    json.append("  \"requests\": ").append(requests).append(",\n");
+    json.append("  \"errors\": ").append(errors.get()).append(",\n");
+    json.append("  \"errorRate\": ").append(format(errorRate)).append(",\n");
+    json.append("  \"throughput\": ").append(format(throughput)).append(",\n");
+    json.append("  \"latencyMillis\": {\n");
+    json.append("    \"min\": ").append(millis(histogram.getMin())).append(",\n");
+    json.append("    \"mean\": ").append(format(histogram.getMean() / 1000d)).append(",\n");
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      json.append("    \"").append(PERCENTILE_NAMES[i]).append("\": ").append(millis(histogram.getValueAtPercentile(PERCENTILES[i]))).append(",\n");
+    }
+    json.append("    \"max\": ").append(millis(histogram.getMax())).append("\n");
+    json.append("  },\n");
+    json.append("  \"breaches\": [");
+    for (int i = 0; i < breaches.size(); i++) {
+      json.append(i > 0 ? ", " : "").append(quote(breaches.get(i)));
+    }
+    json.append("]\n");
+    json.append("}\n");
+
+    try {
+      final Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+      try {
+        writer.write(json.toString());
+      } finally {
+        writer.close();
+      }
+    } catch (final IOException e) {
+      throw new BuildException("Could not write load report " + reportFile.getAbsolutePath(), e);
+    }
+    log("Load report written to " + reportFile.getAbsolutePath(), Project.MSG_VERBOSE);
+  }
+
+  private void setProperty(final String name, final String value) {
+    getProject().setProperty(propertyPrefix + "." + name, value);
+  }
+
+  private static String millis(final long micros) {
+    return format(micros / 1000d);
+  }
+
+  private static String format(final double value) {
+    return String.format(Locale.ENGLISH, "%.3f", Double.valueOf(value));
+  }
+
+  private static String quote(final String str) {
+    final StringBuilder sb = new StringBuilder(str.length() + 2).append('"');
+    for (int i = 0; i < str.length(); i++) {
+      final char c = str.charAt(i);
+      if ('"' == c || '\\' == c) {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", Integer.valueOf(c)));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  public void addConfiguredHttp(final HttpClientTask http) {
+    if (null != template) {
+      throw new BuildException("Only one nested http request template is supported");
+    }
+    http.setTaskName("http");
+    http.setOwningTarget(getOwningTarget());
+    http.setLocation(getLocation());
+    http.init();
+    template = http;
+  }
+
+  public void setThreads(final int threads) {
+    this.threads = threads;
+  }
+
+  public void setRate(final double rate) {
+    this.rate = rate;
+  }
+
+  public void setDuration(final double duration) {
+    this.duration = duration;
+  }
+
+  public void setCount(final long count) {
+    this.count = count;
+  }
+
+  public void setPropertyPrefix(final String propertyPrefix) {
+    this.propertyPrefix = propertyPrefix;
+  }
+
+  public void setReportFile(final File reportFile) {
+    this.reportFile = reportFile;
+  }
+
+  public void setMaxP50(final Double maxP50) {
+    this.maxP50 = maxP50;
+  }
+
+  public void setMaxP95(final Double maxP95) {
+    this.maxP95 = maxP95;
+  }
+
+  public void setMaxP99(final Double maxP99) {
+    this.maxP99 = maxP99;
+  }
+
+  public void setMaxErrorRate(final Double maxErrorRate) {
+    this.maxErrorRate = maxErrorRate;
+  }
+
+  public void setMinThroughput(final Double minThroughput) {
+    this.minThroughput = minThroughput;
+  }
+
+  public void setFailOnBreach(final boolean failOnBreach) {
+    this.failOnBreach = failOnBreach;
+  }
+
+}
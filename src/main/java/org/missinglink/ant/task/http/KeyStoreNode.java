@@ -17,6 +17,7 @@
 package org.missinglink.ant.task.http;
 
 import java.io.File;
+import java.io.IOException;
 
 import org.apache.tools.ant.types.DataType;
 
@@ -30,6 +31,8 @@ public class KeyStoreNode extends DataType {
   private String password;
   private boolean trustAll = false;
 
+  private FileContent content;
+
   public KeyStoreNode() {
     super();
   }
@@ -48,6 +51,7 @@ public class KeyStoreNode extends DataType {
 
   public void setFile(final File file) {
     this.file = file;
+    this.content = null == file ? null : new FileContent(file);
   }
 
   public String getPassword() {
@@ -58,6 +62,17 @@ public class KeyStoreNode extends DataType {
     this.password = password;
   }
 
+  /**
+   * Read the keystore file, the content is kept and only read again once the
+   * file changes.
+   *
+   * @return The keystore file content, or null if no file is set
+   * @throws IOException on failure
+   */
+  public byte[] getContent() throws IOException {
+    return null == content ? null : content.get();
+  }
+
   public boolean isValid() {
     return null != file || trustAll;
   }
@@ -0,0 +1,202 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * The connections in flight for one invocation, which are closed when the
+ * invocation is cancelled, either explicitly or by a watchdog once its
+ * deadline has passed.
+ * <p>
+ * The cancellation of the invocation running on the current thread is held in
+ * a thread local, so the connections opened by nested requests such as
+ * conditional or cached downloads are registered with it as well. Blocking
+ * reads and writes on a closed connection fail right away, which interrupting
+ * the thread alone would not achieve.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+final class Cancellation {
+
+  private static final ThreadLocal<Cancellation> CURRENT = new ThreadLocal<Cancellation>();
+
+  // expires the invocations which ran past their deadline
+  private static final Timer WATCHDOG = new Timer("http-deadline", true);
+
+  private final Set<Closeable> connections = new HashSet<Closeable>();
+  private boolean cancelled;
+  private long deadline;
+  private boolean expired;
+
+  Cancellation() {
+    super();
+  }
+
+  /**
+   * @return The cancellation of the invocation running on the current thread,
+   *         or null
+   */
+  static Cancellation current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Make cancellation the one of the current thread.
+   *
+   * @param cancellation Cancellation, may be null
+   * @return The previous cancellation of the current thread, to be restored
+   *         with {@link #exit(Cancellation)}
+   */
+  static Cancellation enter(final Cancellation cancellation) {
+    final Cancellation previous = CURRENT.get();
+    CURRENT.set(cancellation);
+    return previous;
+  }
+
+  /**
+   * @param previous Cancellation returned by {@link #enter(Cancellation)}
+   */
+  static void exit(final Cancellation previous) {
+    if (null == previous) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+
+  /**
+   * Register a connection which is about to be used.
+   *
+   * @param connection Closeable closing the connection
+   * @throws IOException if the invocation has already been cancelled
+   */
+  synchronized void register(final Closeable connection) throws IOException {
+    if (cancelled) {
+      connection.close();
+      throw new InterruptedIOException("Request cancelled");
+    }
+    connections.add(connection);
+  }
+
+  /**
+   * @param connection Closeable which is no longer used
+   */
+  synchronized void unregister(final Closeable connection) {
+    connections.remove(connection);
+  }
+
+  /**
+   * Cancel the invocation, closing all connections in flight.
+   * <p>
+   * A connection still waiting for its response is closed right away. The
+   * response stream of a {@link java.net.HttpURLConnection} cannot be closed
+   * while a read is blocked on it, so the connections are closed from a
+   * separate thread to keep the caller from waiting on that read.
+   * </p>
+   */
+  void cancel() {
+    final Closeable[] inFlight;
+    synchronized (this) {
+      cancelled = true;
+      inFlight = connections.toArray(new Closeable[connections.size()]);
+      connections.clear();
+    }
+    if (inFlight.length > 0) {
+      final Thread closer = new Thread("http-cancel") {
+        @Override
+        public void run() {
+          for (final Closeable connection : inFlight) {
+            try {
+              connection.close();
+            } catch (final IOException e) {
+              // closing anyway
+            }
+          }
+        }
+      };
+      closer.setDaemon(true);
+      closer.start();
+    }
+  }
+
+  /**
+   * Cancel the invocation once millis have passed, see {@link #isExpired()}.
+   *
+   * @param millis long
+   * @return The watchdog task, to be cancelled once the invocation is done
+   */
+  synchronized TimerTask expireAfter(final long millis) {
+    deadline = System.currentTimeMillis() + millis;
+    final TimerTask watchdog = new TimerTask() {
+      @Override
+      public void run() {
+        synchronized (Cancellation.this) {
+          expired = true;
+        }
+        Cancellation.this.cancel();
+      }
+    };
+    WATCHDOG.schedule(watchdog, millis);
+    return watchdog;
+  }
+
+  /**
+   * Forget the deadline set by {@link #expireAfter(long)}.
+   */
+  synchronized void clearDeadline() {
+    deadline = 0L;
+  }
+
+  /**
+   * @return true if a deadline is set
+   */
+  synchronized boolean hasDeadline() {
+    return deadline > 0;
+  }
+
+  /**
+   * @return the milliseconds left until the deadline, or
+   *         {@link Long#MAX_VALUE} if none is set
+   */
+  synchronized long getRemaining() {
+    return deadline > 0 ? Math.max(0L, deadline - System.currentTimeMillis()) : Long.MAX_VALUE;
+  }
+
+  /**
+   * @return true if the invocation was cancelled as it ran past its deadline
+   */
+  synchronized boolean isExpired() {
+    return expired;
+  }
+
+  /**
+   * @return true if {@link #cancel()} was called
+   */
+  synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+}
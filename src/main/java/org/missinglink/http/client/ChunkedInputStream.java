@@ -0,0 +1,151 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes an entity sent with <code>Transfer-Encoding: chunked</code>.
+ * <p>
+ * Chunk extensions and trailers are read and discarded. The end of the entity
+ * is reported once the last chunk and the trailers have been read, without
+ * reading past them, so the underlying connection can carry the next response.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+final class ChunkedInputStream extends InputStream {
+
+  static final int MAX_LINE_LENGTH = 8 * 1024;
+
+  private final InputStream in;
+  private long remaining;
+  private boolean last;
+
+  ChunkedInputStream(final InputStream in) {
+    this.in = in;
+  }
+
+  @Override
+  public int read() throws IOException {
+    final byte[] b = new byte[1];
+    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    if (0 == len) {
+      return 0;
+    }
+    if (0 == remaining && !nextChunk()) {
+      return -1;
+    }
+    final int n = in.read(b, off, (int) Math.min(len, remaining));
+    if (n < 0) {
+      throw new EOFException("Premature end of chunked entity");
+    }
+    remaining -= n;
+    if (0 == remaining) {
+      readCrlf();
+    }
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return (int) Math.min(remaining, in.available());
+  }
+
+  /**
+   * @return true once the last chunk and trailers have been read
+   */
+  boolean isComplete() {
+    return last;
+  }
+
+  private boolean nextChunk() throws IOException {
+    if (last) {
+      return false;
+    }
+    final String line = readLine(in);
+    if (null == line) {
+      throw new EOFException("Premature end of chunked entity");
+    }
+    final int extension = line.indexOf(';');
+    final String size = (extension < 0 ? line : line.substring(0, extension)).trim();
+    try {
+      remaining = Long.parseLong(size, 16);
+    } catch (final NumberFormatException e) {
+      throw new IOException("Invalid chunk size [" + line + "]");
+    }
+    if (remaining < 0) {
+      throw new IOException("Invalid chunk size [" + line + "]");
+    }
+    if (0 == remaining) {
+      // trailers end with an empty line
+      String trailer;
+      do {
+        trailer = readLine(in);
+      } while (null != trailer && trailer.length() > 0);
+      last = true;
+      return false;
+    }
+    return true;
+  }
+
+  private void readCrlf() throws IOException {
+    final String line = readLine(in);
+    if (null == line || line.length() > 0) {
+      throw new IOException("Missing CRLF after chunk");
+    }
+  }
+
+  /**
+   * Read a line terminated by LF, dropping a preceding CR.
+   *
+   * @param in InputStream
+   * @return The line as ISO-8859-1, or null at the end of the stream before
+   *         any byte was read
+   * @throws IOException on failure or when a line exceeds
+   *           {@link #MAX_LINE_LENGTH}
+   */
+  static String readLine(final InputStream in) throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    int c;
+    while ((c = in.read()) >= 0) {
+      if ('\n' == c) {
+        final int length = sb.length();
+        if (length > 0 && '\r' == sb.charAt(length - 1)) {
+          sb.setLength(length - 1);
+        }
+        return sb.toString();
+      }
+      if (sb.length() >= MAX_LINE_LENGTH) {
+        throw new IOException("Line exceeds " + MAX_LINE_LENGTH + " bytes");
+      }
+      sb.append((char) c);
+    }
+    if (0 == sb.length()) {
+      return null;
+    }
+    throw new EOFException("Premature end of line");
+  }
+
+}
@@ -0,0 +1,267 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509KeyManager;
+
+import org.missinglink.tools.StreamUtils;
+
+/**
+ * The identity presented to HTTPS servers which require a client certificate
+ * (mutual TLS): a PKCS12 or JKS {@link KeyStore} holding the private key and
+ * its certificate chain, kept apart from the {@link KeyStore} of trusted
+ * certificates.
+ * <p>
+ * When the {@link KeyStore} holds more than one private key, the alias selects
+ * the one to present, otherwise the JDK picks a key matching the issuers the
+ * server accepts. Loading the private key is expensive, the
+ * {@link KeyManager KeyManagers} are cached by {@link SslContextCache} for the
+ * content, passwords, type and alias of the identity.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public final class ClientCertificate {
+
+  public static final String PKCS12 = "PKCS12";
+  public static final String JKS = "JKS";
+
+  // the first bytes of a JKS keystore
+  private static final int JKS_MAGIC = 0xfeedfeed;
+
+  private final InputStream is;
+  private final String password;
+  private final String type;
+  private final String alias;
+  private byte[] bytes;
+
+  private ClientCertificate(final InputStream is, final byte[] bytes, final String password, final String type, final String alias) {
+    this.is = is;
+    this.bytes = bytes;
+    this.password = password;
+    this.type = type;
+    this.alias = alias;
+  }
+
+  /**
+   * Create an identity from a {@link KeyStore} whose type is detected from its
+   * content, presenting whichever key the JDK selects.
+   *
+   * @param is InputStream the {@link KeyStore} content, read once
+   * @param password String the password of the {@link KeyStore} and its key
+   * @return The {@link ClientCertificate}
+   */
+  public static ClientCertificate of(final InputStream is, final String password) {
+    return of(is, password, null, null);
+  }
+
+  /**
+   * Create an identity from a {@link KeyStore}.
+   *
+   * @param is InputStream the {@link KeyStore} content, read once
+   * @param password String the password of the {@link KeyStore} and its key
+   * @param type String {@link #PKCS12} or {@link #JKS}, or null to detect the
+   *          type from the content
+   * @param alias String the alias of the key to present, or null to let the
+   *          JDK select one
+   * @return The {@link ClientCertificate}
+   */
+  public static ClientCertificate of(final InputStream is, final String password, final String type, final String alias) {
+    if (null == is) {
+      throw new IllegalArgumentException("A client certificate keystore is required");
+    }
+    return new ClientCertificate(is, null, password, type, alias);
+  }
+
+  /**
+   * Create an identity from {@link KeyStore} content already in memory.
+   *
+   * @param bytes byte[] the {@link KeyStore} content
+   * @param password String the password of the {@link KeyStore} and its key
+   * @param type String {@link #PKCS12} or {@link #JKS}, or null to detect the
+   *          type from the content
+   * @param alias String the alias of the key to present, or null to let the
+   *          JDK select one
+   * @return The {@link ClientCertificate}
+   */
+  public static ClientCertificate of(final byte[] bytes, final String password, final String type, final String alias) {
+    if (null == bytes) {
+      throw new IllegalArgumentException("A client certificate keystore is required");
+    }
+    return new ClientCertificate(null, bytes, password, type, alias);
+  }
+
+  /**
+   * Return the {@link KeyStore} content, the stream is read once and kept so
+   * the identity can be used repeatedly.
+   *
+   * @return The {@link KeyStore} content
+   * @throws IOException on failure
+   */
+  public synchronized byte[] getBytes() throws IOException {
+    if (null == bytes) {
+      bytes = StreamUtils.inputStreamToByteArray(is);
+    }
+    return bytes;
+  }
+
+  /**
+   * @return the password
+   */
+  public String getPassword() {
+    return password;
+  }
+
+  /**
+   * @return the type, or null if it is detected from the content
+   */
+  public String getType() {
+    return type;
+  }
+
+  /**
+   * @return the alias of the key to present, or null if the JDK selects one
+   */
+  public String getAlias() {
+    return alias;
+  }
+
+  /**
+   * Load the private key, which {@link SslContextCache} does once per
+   * identity.
+   *
+   * @return The {@link KeyManager KeyManagers} presenting the identity
+   * @throws GeneralSecurityException if the key cannot be recovered
+   * @throws IOException if the {@link KeyStore} cannot be read
+   */
+  KeyManager[] createKeyManagers() throws GeneralSecurityException, IOException {
+    final byte[] content = getBytes();
+    final char[] passphrase = null == password ? new char[] {} : password.toCharArray();
+    final KeyStore ks = KeyStore.getInstance(null != type ? type : detectType(content));
+    ks.load(new ByteArrayInputStream(content), passphrase);
+    if (null != alias && !ks.isKeyEntry(alias)) {
+      throw new KeyStoreException("Client certificate keystore has no private key with alias [" + alias + "]");
+    }
+
+    final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    kmf.init(ks, passphrase);
+    final KeyManager[] keyManagers = kmf.getKeyManagers();
+    if (null != alias) {
+      for (int i = 0; i < keyManagers.length; i++) {
+        if (keyManagers[i] instanceof X509KeyManager) {
+          keyManagers[i] = new AliasKeyManager((X509KeyManager) keyManagers[i], alias);
+        }
+      }
+    }
+    return keyManagers;
+  }
+
+  static String detectType(final byte[] content) {
+    if (content.length >= 4 && JKS_MAGIC == ((content[0] & 0xff) << 24 | (content[1] & 0xff) << 16 | (content[2] & 0xff) << 8 | content[3] & 0xff)) {
+      return JKS;
+    }
+    return PKCS12;
+  }
+
+  @Override
+  public String toString() {
+    return (null != type ? type : "keystore") + (null != alias ? " [" + alias + "]" : "");
+  }
+
+  /**
+   * Presents the key of one alias, whatever issuers the server accepts. The
+   * PKIX key manager prefixes the aliases of the {@link KeyStore}, which are
+   * matched as well.
+   */
+  private static final class AliasKeyManager extends X509ExtendedKeyManager {
+
+    private final X509KeyManager delegate;
+    private final String alias;
+
+    private AliasKeyManager(final X509KeyManager delegate, final String alias) {
+      this.delegate = delegate;
+      this.alias = alias;
+    }
+
+    @Override
+    public String chooseClientAlias(final String[] keyTypes, final Principal[] issuers, final Socket socket) {
+      return choose(keyTypes);
+    }
+
+    @Override
+    public String chooseEngineClientAlias(final String[] keyTypes, final Principal[] issuers, final SSLEngine engine) {
+      return choose(keyTypes);
+    }
+
+    private String choose(final String[] keyTypes) {
+      for (final String keyType : keyTypes) {
+        final String[] aliases = delegate.getClientAliases(keyType, null);
+        if (null != aliases) {
+          for (final String candidate : aliases) {
+            if (candidate.equals(alias) || candidate.endsWith("." + alias)) {
+              return candidate;
+            }
+          }
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public String[] getClientAliases(final String keyType, final Principal[] issuers) {
+      return delegate.getClientAliases(keyType, issuers);
+    }
+
+    @Override
+    public String[] getServerAliases(final String keyType, final Principal[] issuers) {
+      return delegate.getServerAliases(keyType, issuers);
+    }
+
+    @Override
+    public String chooseServerAlias(final String keyType, final Principal[] issuers, final Socket socket) {
+      return delegate.chooseServerAlias(keyType, issuers, socket);
+    }
+
+    @Override
+    public X509Certificate[] getCertificateChain(final String alias) {
+      return delegate.getCertificateChain(alias);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(final String alias) {
+      return delegate.getPrivateKey(alias);
+    }
+
+  }
+
+}
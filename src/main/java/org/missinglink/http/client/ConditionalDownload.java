@@ -0,0 +1,133 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Properties;
+
+import org.missinglink.http.client.HttpClient.HttpClientBuilder;
+import org.missinglink.http.exception.HttpCertificateException;
+import org.missinglink.http.exception.HttpInvocationException;
+
+/**
+ * Downloads the entity of a GET request into a file only if it changed since
+ * the last download.
+ * <p>
+ * The ETag and Last-Modified of a downloaded entity are recorded in a
+ * <code>.validators</code> sidecar of the file. While the file and a sidecar
+ * for the same URI exist, the request carries <code>If-None-Match</code> and
+ * <code>If-Modified-Since</code>, and a 304 (Not Modified) response leaves
+ * the file untouched.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+final class ConditionalDownload {
+
+  static final String VALIDATORS_SUFFIX = ".validators";
+
+  private static final String URI = "uri";
+  private static final String ETAG = "etag";
+  private static final String LAST_MODIFIED = "lastModified";
+
+  private final HttpClient httpClient;
+  private final File file;
+  private final File validators;
+
+  ConditionalDownload(final HttpClient httpClient, final File file) {
+    this.httpClient = httpClient;
+    this.file = file;
+    this.validators = new File(file.getPath() + VALIDATORS_SUFFIX);
+  }
+
+  HttpResponse invoke() throws HttpInvocationException, HttpCertificateException {
+    HttpClient client = httpClient;
+    final Properties previous = readValidators();
+    if (null != previous) {
+      final HttpClientBuilder builder = httpClient.copyWithoutEntity().build();
+      if (null != previous.getProperty(ETAG)) {
+        builder.header("If-None-Match", previous.getProperty(ETAG));
+      }
+      if (null != previous.getProperty(LAST_MODIFIED)) {
+        builder.header("If-Modified-Since", previous.getProperty(LAST_MODIFIED));
+      }
+      client = builder.toHttpClient();
+    }
+
+    final HttpResponse response = client.download(file);
+    if (HttpURLConnection.HTTP_OK == response.getStatus() && null != response.getEntityFile()) {
+      try {
+        writeValidators(response);
+      } catch (final IOException e) {
+        throw new HttpInvocationException("Failed to write validators " + validators.getAbsolutePath(), e);
+      }
+    }
+    return response;
+  }
+
+  // the recorded validators, as long as they still describe the file
+  private Properties readValidators() throws HttpInvocationException {
+    if (!file.isFile() || !validators.isFile()) {
+      return null;
+    }
+    final Properties properties = new Properties();
+    try {
+      final InputStream is = new FileInputStream(validators);
+      try {
+        properties.load(is);
+      } finally {
+        is.close();
+      }
+    } catch (final IOException e) {
+      throw new HttpInvocationException("Failed to read validators " + validators.getAbsolutePath(), e);
+    }
+    return httpClient.getUri().equals(properties.getProperty(URI)) ? properties : null;
+  }
+
+  private void writeValidators(final HttpResponse response) throws IOException {
+    final String etag = response.getHeaderSingleValue("ETag");
+    final String lastModified = response.getHeaderSingleValue("Last-Modified");
+    if (null == etag && null == lastModified) {
+      if (validators.exists() && !validators.delete()) {
+        throw new IOException("Could not delete " + validators.getAbsolutePath());
+      }
+      return;
+    }
+    final Properties properties = new Properties();
+    properties.setProperty(URI, httpClient.getUri());
+    if (null != etag) {
+      properties.setProperty(ETAG, etag);
+    }
+    if (null != lastModified) {
+      properties.setProperty(LAST_MODIFIED, lastModified);
+    }
+    final OutputStream os = new FileOutputStream(validators);
+    try {
+      properties.store(os, null);
+    } finally {
+      os.close();
+    }
+  }
+
+}
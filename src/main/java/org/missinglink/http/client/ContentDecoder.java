@@ -0,0 +1,160 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Negotiates and decodes compressed response entities for
+ * {@link HttpClient#isCompressed()}.
+ * <p>
+ * Requests advertise <code>Accept-Encoding: gzip, deflate</code> unless the
+ * header was set explicitly. Range requests never do, as their byte offsets
+ * refer to the uncompressed entity. A gzip or deflate encoded entity is
+ * decoded while it is read, and <code>Content-Encoding</code> and
+ * <code>Content-Length</code> are removed from the response as they describe
+ * the bytes on the wire, see {@link HttpResponse#getDecodedContentEncoding()}.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+final class ContentDecoder {
+
+  static final String ACCEPT_ENCODING = "Accept-Encoding";
+  static final String SUPPORTED_ENCODINGS = "gzip, deflate";
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private ContentDecoder() {
+    super();
+  }
+
+  /**
+   * An {@link InflaterInputStream} which releases its {@link Inflater} when
+   * closed.
+   */
+  private static final class DeflateInputStream extends InflaterInputStream {
+    private DeflateInputStream(final InputStream in, final boolean nowrap) {
+      super(in, new Inflater(nowrap), BUFFER_SIZE);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        inf.end();
+      }
+    }
+  }
+
+  /**
+   * @param httpClient HttpClient
+   * @return The Accept-Encoding header to add to the request, or null
+   */
+  static String acceptEncoding(final HttpClient httpClient) {
+    if (!accepts(httpClient)) {
+      return null;
+    }
+    for (final String header : httpClient.getHeaders().keySet()) {
+      if (ACCEPT_ENCODING.equalsIgnoreCase(header)) {
+        return null;
+      }
+    }
+    return SUPPORTED_ENCODINGS;
+  }
+
+  /**
+   * Decode the entity of response if it is gzip or deflate encoded.
+   *
+   * @param httpClient HttpClient
+   * @param response HttpResponse whose headers were read
+   * @param is InputStream of the entity
+   * @return The decoded entity, or is
+   * @throws IOException on failure
+   */
+  static InputStream decode(final HttpClient httpClient, final HttpResponse response, final InputStream is) throws IOException {
+    final String contentEncoding = response.getHeaderSingleValue("Content-Encoding");
+    if (null == contentEncoding || !accepts(httpClient)) {
+      return is;
+    }
+    final String encoding = contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+    final boolean gzip = "gzip".equals(encoding) || "x-gzip".equals(encoding);
+    if (!gzip && !"deflate".equals(encoding)) {
+      return is;
+    }
+
+    // an empty entity, as of a HEAD request, has nothing to decode
+    final PushbackInputStream in = new PushbackInputStream(is, 2);
+    final int first = in.read();
+    if (first < 0) {
+      return in;
+    }
+    final int second = in.read();
+    if (second >= 0) {
+      in.unread(second);
+    }
+    in.unread(first);
+
+    final InputStream decoded;
+    if (gzip) {
+      decoded = new GZIPInputStream(in, BUFFER_SIZE);
+    } else {
+      // deflate should be zlib wrapped, some servers send it raw
+      final boolean zlib = second >= 0 && (first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0;
+      decoded = new DeflateInputStream(in, !zlib);
+    }
+
+    removeHeader(response, "Content-Encoding");
+    removeHeader(response, "Content-Length");
+    response.setContentEncoding(null);
+    response.setContentLength(-1);
+    response.setDecodedContentEncoding(encoding);
+    return decoded;
+  }
+
+  private static boolean accepts(final HttpClient httpClient) {
+    if (!httpClient.isCompressed()) {
+      return false;
+    }
+    for (final String header : httpClient.getHeaders().keySet()) {
+      if ("Range".equalsIgnoreCase(header)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void removeHeader(final HttpResponse response, final String name) {
+    for (final Iterator<Map.Entry<String, List<String>>> it = response.getHeaders().entrySet().iterator(); it.hasNext();) {
+      if (name.equalsIgnoreCase(it.next().getKey())) {
+        it.remove();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,149 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A {@link ResponseSink} which transfers the response entity into a file with
+ * {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}, memory
+ * use stays constant regardless of the entity size. A 304 (Not Modified)
+ * response leaves the file untouched.
+ * <p>
+ * The entity is written to a temporary file next to the target, which is
+ * renamed over it once the entity is complete, so a failed or truncated
+ * download leaves a previous version of the file in place.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class FileResponseSink extends ResponseSink {
+
+  /**
+   * Number of bytes requested from the channel per transfer.
+   */
+  public static final long TRANSFER_SIZE = 8L * 1024 * 1024;
+
+  private final File file;
+
+  public FileResponseSink(final File file) {
+    super();
+    this.file = file;
+  }
+
+  @Override
+  public long receive(final HttpResponse response, final InputStream is) throws IOException {
+    if (HttpURLConnection.HTTP_NOT_MODIFIED == response.getStatus()) {
+      // the file already holds the entity
+      return 0L;
+    }
+    mkdirs(file);
+    final File tmp = File.createTempFile("." + file.getName() + "-", ".tmp", file.getAbsoluteFile().getParentFile());
+    boolean complete = false;
+    try {
+      final FileOutputStream fos = new FileOutputStream(tmp);
+      final long count;
+      try {
+        count = transfer(is, fos.getChannel(), 0L, Long.MAX_VALUE);
+      } finally {
+        fos.close();
+      }
+      // a connection dropped early ends the stream without an error
+      final long expected = HttpMethod.HEAD == response.getHttpClient().getMethod() ? -1L : response.getContentLength();
+      if (expected >= 0 && count != expected) {
+        throw new IOException("Download of " + file.getAbsolutePath() + " incomplete after " + count + " of " + expected + " bytes");
+      }
+      rename(tmp, file);
+      response.setEntityFile(file);
+      complete = true;
+      return count;
+    } finally {
+      // never leave a partial entity behind
+      if (!complete) {
+        tmp.delete();
+      }
+    }
+  }
+
+  /**
+   * Rename from to to, replacing an existing to.
+   *
+   * @param from File
+   * @param to File
+   * @throws IOException on failure
+   */
+  protected static void rename(final File from, final File to) throws IOException {
+    // renaming over an existing file fails on some platforms
+    if (!from.renameTo(to) && !(to.delete() && from.renameTo(to))) {
+      throw new IOException("Could not rename " + from.getAbsolutePath() + " to " + to.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Transfer from an {@link InputStream} into a file channel until the end of
+   * the stream or count bytes, the channel position is not changed.
+   *
+   * @param is InputStream
+   * @param channel FileChannel
+   * @param position long the file position to start at, at most the file size
+   * @param count long the maximum number of bytes to transfer
+   * @return The number of bytes transferred
+   * @throws IOException on failure
+   */
+  protected static long transfer(final InputStream is, final FileChannel channel, final long position, final long count) throws IOException {
+    final ReadableByteChannel source = Channels.newChannel(is);
+    long transferred = 0L;
+    for (long num; transferred < count && (num = channel.transferFrom(source, position + transferred, Math.min(TRANSFER_SIZE, count - transferred))) > 0;) {
+      transferred += num;
+    }
+    return transferred;
+  }
+
+  /**
+   * Create the missing parent directories of file.
+   *
+   * @param file File
+   * @throws IOException on failure
+   */
+  protected static void mkdirs(final File file) throws IOException {
+    final File dir = file.getAbsoluteFile().getParentFile();
+    if (null != dir && !dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Could not make directories for " + dir.getAbsolutePath());
+    }
+  }
+
+  /**
+   * @return the file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public String toString() {
+    return file.getAbsolutePath();
+  }
+
+}
@@ -0,0 +1,246 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A {@link RequestEntity} which gzip compresses another entity as it is
+ * streamed to the connection, sent with <code>Content-Encoding: gzip</code>.
+ * <p>
+ * The compressed content is produced while the connection reads it, so
+ * neither the entity nor its compressed form is held in memory. As the
+ * compressed length is not known up front the entity is sent chunked.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class GzipRequestEntity extends RequestEntity {
+
+  public static final String CONTENT_ENCODING = "gzip";
+
+  private static final int GZIP_MAGIC = 0x8b1f;
+  private static final int TRAILER_SIZE = 8;
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private final RequestEntity entity;
+  private final int level;
+
+  private volatile long rawLength = -1L;
+  private volatile long compressedLength = -1L;
+
+  /**
+   * @param entity RequestEntity to compress
+   * @param level int the {@link Deflater} compression level
+   */
+  public GzipRequestEntity(final RequestEntity entity, final int level) {
+    super();
+    if (null == entity) {
+      throw new IllegalArgumentException("entity must not be null");
+    }
+    if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid compression level " + level);
+    }
+    this.entity = entity;
+    this.level = level;
+  }
+
+  /**
+   * @param entity RequestEntity to compress with the default compression level
+   */
+  public GzipRequestEntity(final RequestEntity entity) {
+    this(entity, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  @Override
+  public InputStream openStream() throws IOException {
+    return new CompressingInputStream(entity.openStream());
+  }
+
+  /**
+   * @return -1 as the compressed length is only known once it is sent
+   */
+  @Override
+  public long getContentLength() {
+    return -1L;
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return entity.isRepeatable();
+  }
+
+  /**
+   * @return the uncompressed entity
+   */
+  public RequestEntity getEntity() {
+    return entity;
+  }
+
+  /**
+   * @return the number of uncompressed bytes of the last completely sent
+   *         stream, or -1 if none was sent yet
+   */
+  public long getRawLength() {
+    return rawLength;
+  }
+
+  /**
+   * @return the number of compressed bytes of the last completely sent
+   *         stream, including the gzip header and trailer, or -1 if none was
+   *         sent yet
+   */
+  public long getCompressedLength() {
+    return compressedLength;
+  }
+
+  /**
+   * @return the compressed length as a fraction of the uncompressed length of
+   *         the last completely sent stream, or -1 if unknown
+   */
+  public double getRatio() {
+    final long raw = rawLength;
+    final long compressed = compressedLength;
+    if (raw <= 0 || compressed < 0) {
+      return -1d;
+    }
+    return (double) compressed / raw;
+  }
+
+  @Override
+  public String toString() {
+    return entity + " (" + CONTENT_ENCODING + ")";
+  }
+
+  /**
+   * Produces the gzip member for an uncompressed stream as it is read.
+   */
+  private final class CompressingInputStream extends InputStream {
+
+    private final InputStream in;
+    private final Deflater deflater = new Deflater(level, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] input = new byte[BUFFER_SIZE];
+    private final byte[] output = new byte[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private boolean trailer;
+    private boolean done;
+    private long raw;
+    private long compressed;
+    private boolean closed;
+
+    private CompressingInputStream(final InputStream in) {
+      this.in = in;
+      // header: magic, CM=deflate, no flags, no mtime, no XFL, OS unknown
+      output[0] = (byte) GZIP_MAGIC;
+      output[1] = (byte) (GZIP_MAGIC >> 8);
+      output[2] = Deflater.DEFLATED;
+      output[9] = (byte) 0xff;
+      limit = 10;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      if (len == 0) {
+        return 0;
+      }
+      while (pos == limit) {
+        if (!fill()) {
+          return -1;
+        }
+      }
+      final int num = Math.min(len, limit - pos);
+      System.arraycopy(output, pos, b, off, num);
+      pos += num;
+      compressed += num;
+      if (done && pos == limit) {
+        rawLength = raw;
+        compressedLength = compressed;
+      }
+      return num;
+    }
+
+    // refill the output buffer, false once the trailer has been read
+    private boolean fill() throws IOException {
+      if (done) {
+        return false;
+      }
+      pos = 0;
+      limit = 0;
+      if (trailer) {
+        writeTrailer();
+        return true;
+      }
+      if (deflater.needsInput() && !eof) {
+        final int num = in.read(input);
+        if (num == -1) {
+          eof = true;
+          deflater.finish();
+        } else if (num > 0) {
+          crc.update(input, 0, num);
+          raw += num;
+          deflater.setInput(input, 0, num);
+        }
+      }
+      limit = deflater.deflate(output);
+      if (deflater.finished()) {
+        trailer = true;
+      }
+      return true;
+    }
+
+    private void writeTrailer() {
+      writeInt(crc.getValue(), 0);
+      writeInt(raw, 4);
+      limit = TRAILER_SIZE;
+      done = true;
+    }
+
+    // little endian, as the gzip format mandates
+    private void writeInt(final long value, final int offset) {
+      for (int i = 0; i < 4; i++) {
+        output[offset + i] = (byte) (value >> 8 * i);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        deflater.end();
+        in.close();
+      }
+    }
+
+  }
+
+}
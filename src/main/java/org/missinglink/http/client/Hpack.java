@@ -0,0 +1,479 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HPACK header compression for HTTP/2, see RFC 7541.
+ * <p>
+ * An {@link Encoder} and a {@link Decoder} each keep the dynamic table of one
+ * direction of a connection, header blocks have to be encoded and decoded in
+ * the order they are sent. Headers are name and value pairs of
+ * <code>String[2]</code> with lower case names; values are octets and are
+ * mapped to ISO-8859-1 characters.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+final class Hpack {
+
+  static final int DEFAULT_TABLE_SIZE = 4096;
+
+  // the size of an entry is the length of its name and value plus 32
+  private static final int ENTRY_OVERHEAD = 32;
+
+  private static final String ISO_8859_1 = "ISO-8859-1";
+
+  private static final String[][] STATIC_TABLE = {
+    {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"}, {":path", "/index.html"},
+    {":scheme", "http"}, {":scheme", "https"}, {":status", "200"}, {":status", "204"}, {":status", "206"},
+    {":status", "304"}, {":status", "400"}, {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+    {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+    {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""}, {"content-disposition", ""},
+    {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""}, {"content-location", ""}, {"content-range", ""},
+    {"content-type", ""}, {"cookie", ""}, {"date", ""}, {"etag", ""}, {"expect", ""},
+    {"expires", ""}, {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+    {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""},
+    {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""}, {"proxy-authorization", ""}, {"range", ""},
+    {"referer", ""}, {"refresh", ""}, {"retry-after", ""}, {"server", ""}, {"set-cookie", ""},
+    {"strict-transport-security", ""}, {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+    {"www-authenticate", ""}
+  };
+
+  // 1 based index of the first static entry with a name, and of a name and
+  // value pair
+  private static final Map<String, Integer> STATIC_NAMES = new HashMap<String, Integer>();
+  private static final Map<String, Integer> STATIC_ENTRIES = new HashMap<String, Integer>();
+
+  // credentials are never added to a table, so an intermediary cannot learn
+  // them by probing its compression
+  private static final Set<String> SENSITIVE = new HashSet<String>(Arrays.asList("authorization", "proxy-authorization", "cookie"));
+
+  // values which rarely repeat are not worth a table entry
+  private static final Set<String> NOT_INDEXED = new HashSet<String>(Arrays.asList(":path", "content-length", "range", "if-range", "if-none-match", "if-modified-since", "if-unmodified-since"));
+
+  // the code of each octet and of the end of string, most significant bit
+  // first, see RFC 7541 Appendix B
+  private static final int[] HUFFMAN_CODES = {
+    0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+    0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+    0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+    0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+    0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+    0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+    0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+    0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+    0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+    0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+    0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+    0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+    0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+    0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+    0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+    0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+    0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+    0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+    0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+    0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+    0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+    0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+    0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+    0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+    0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+    0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+    0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+    0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+    0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+    0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+    0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+    0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+    0x3fffffff
+  };
+
+  private static final byte[] HUFFMAN_LENGTHS = {
+    13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+    28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+    6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+    5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+    13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+    7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+    15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+    6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+    20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+    24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+    22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+    21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+    26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+    19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+    20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+    26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+    30
+  };
+
+  private static final int EOS = 256;
+
+  // binary tree of the Huffman codes, the two children of node n are at 2n
+  // and 2n + 1, a negative child is the leaf of symbol -child - 1
+  private static final int[] HUFFMAN_TREE = new int[2 * 2 * HUFFMAN_CODES.length];
+
+  static {
+    for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+      STATIC_NAMES.put(STATIC_TABLE[i][0], Integer.valueOf(i + 1));
+      STATIC_ENTRIES.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], Integer.valueOf(i + 1));
+    }
+    int nodes = 1;
+    for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+      int node = 0;
+      for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit > 0; bit--) {
+        final int child = 2 * node + (HUFFMAN_CODES[symbol] >>> bit & 1);
+        if (0 == HUFFMAN_TREE[child]) {
+          HUFFMAN_TREE[child] = nodes++;
+        }
+        node = HUFFMAN_TREE[child];
+      }
+      HUFFMAN_TREE[2 * node + (HUFFMAN_CODES[symbol] & 1)] = -symbol - 1;
+    }
+  }
+
+  private Hpack() {
+    super();
+  }
+
+  /**
+   * The dynamic table of one direction, newest entry first.
+   */
+  private static class Table {
+
+    private final List<String[]> entries = new ArrayList<String[]>();
+    private int size;
+    private int maxSize = DEFAULT_TABLE_SIZE;
+
+    void add(final String name, final String value) {
+      final int entrySize = size(name, value);
+      evict(maxSize - entrySize);
+      // an entry larger than the table empties it
+      if (entrySize <= maxSize) {
+        entries.add(0, new String[] {name, value});
+        size += entrySize;
+      }
+    }
+
+    void setMaxSize(final int maxSize) {
+      this.maxSize = maxSize;
+      evict(maxSize);
+    }
+
+    /**
+     * @param index int 1 based index into the static and then the dynamic table
+     */
+    String[] get(final int index) throws IOException {
+      if (index > 0 && index <= STATIC_TABLE.length) {
+        return STATIC_TABLE[index - 1];
+      }
+      if (index > STATIC_TABLE.length && index - STATIC_TABLE.length <= entries.size()) {
+        return entries.get(index - STATIC_TABLE.length - 1);
+      }
+      throw new IOException("Invalid HPACK table index " + index);
+    }
+
+    /**
+     * @return The index of the name and value pair, the negated index of the
+     *         name, or 0 if neither is in the table
+     */
+    int find(final String name, final String value) {
+      final Integer entry = STATIC_ENTRIES.get(name + '\0' + value);
+      if (null != entry) {
+        return entry.intValue();
+      }
+      int nameIndex = 0;
+      for (int i = 0; i < entries.size(); i++) {
+        final String[] e = entries.get(i);
+        if (e[0].equals(name)) {
+          if (e[1].equals(value)) {
+            return STATIC_TABLE.length + i + 1;
+          }
+          if (0 == nameIndex) {
+            nameIndex = STATIC_TABLE.length + i + 1;
+          }
+        }
+      }
+      final Integer staticName = STATIC_NAMES.get(name);
+      return null != staticName ? -staticName.intValue() : -nameIndex;
+    }
+
+    private void evict(final int limit) {
+      while (size > limit && !entries.isEmpty()) {
+        final String[] e = entries.remove(entries.size() - 1);
+        size -= size(e[0], e[1]);
+      }
+    }
+
+    private static int size(final String name, final String value) {
+      return name.length() + value.length() + ENTRY_OVERHEAD;
+    }
+
+  }
+
+  /**
+   * Encodes the header blocks of the requests sent on a connection.
+   */
+  static final class Encoder {
+
+    private final Table table = new Table();
+    private int pendingMaxSize = -1;
+
+    /**
+     * Apply the SETTINGS_HEADER_TABLE_SIZE of the peer, the change is
+     * signalled at the start of the next header block.
+     *
+     * @param maxSize int
+     */
+    void setMaxTableSize(final int maxSize) {
+      // a table of at most the default size is enough for requests
+      final int effective = Math.min(maxSize, DEFAULT_TABLE_SIZE);
+      if (effective != table.maxSize) {
+        table.setMaxSize(effective);
+        pendingMaxSize = effective;
+      }
+    }
+
+    /**
+     * @param headers List of name and value pairs, names in lower case
+     * @return The header block
+     * @throws IOException if a header cannot be represented as ISO-8859-1
+     */
+    byte[] encode(final List<String[]> headers) throws IOException {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+      if (pendingMaxSize >= 0) {
+        writeInt(out, 0x20, 5, pendingMaxSize);
+        pendingMaxSize = -1;
+      }
+      for (final String[] header : headers) {
+        final String name = header[0];
+        final String value = null == header[1] ? "" : header[1];
+        final boolean sensitive = SENSITIVE.contains(name);
+        final int found = table.find(name, value);
+        if (found > 0 && !sensitive) {
+          // indexed header field
+          writeInt(out, 0x80, 7, found);
+          continue;
+        }
+        final int nameIndex = found > 0 ? found : -found;
+        if (sensitive) {
+          writeInt(out, 0x10, 4, nameIndex);
+        } else if (NOT_INDEXED.contains(name)) {
+          writeInt(out, 0x00, 4, nameIndex);
+        } else {
+          writeInt(out, 0x40, 6, nameIndex);
+          table.add(name, value);
+        }
+        if (0 == nameIndex) {
+          writeString(out, name);
+        }
+        writeString(out, value);
+      }
+      return out.toByteArray();
+    }
+
+  }
+
+  /**
+   * Decodes the header blocks of the responses received on a connection.
+   */
+  static final class Decoder {
+
+    private final Table table = new Table();
+    private final int maxTableSize;
+
+    /**
+     * @param maxTableSize int the SETTINGS_HEADER_TABLE_SIZE sent to the peer
+     */
+    Decoder(final int maxTableSize) {
+      this.maxTableSize = maxTableSize;
+      table.setMaxSize(maxTableSize);
+    }
+
+    /**
+     * @param block byte[] a complete header block
+     * @return The name and value pairs in order
+     * @throws IOException if the block is malformed
+     */
+    List<String[]> decode(final byte[] block) throws IOException {
+      final List<String[]> headers = new ArrayList<String[]>();
+      final int[] pos = {0};
+      while (pos[0] < block.length) {
+        final int b = block[pos[0]] & 0xff;
+        if ((b & 0x80) != 0) {
+          final String[] entry = table.get(readInt(block, pos, 7));
+          headers.add(new String[] {entry[0], entry[1]});
+        } else if ((b & 0xc0) == 0x40) {
+          final String[] header = readLiteral(block, pos, 6);
+          table.add(header[0], header[1]);
+          headers.add(header);
+        } else if ((b & 0xe0) == 0x20) {
+          final int size = readInt(block, pos, 5);
+          if (size > maxTableSize) {
+            throw new IOException("HPACK table size " + size + " exceeds " + maxTableSize);
+          }
+          table.setMaxSize(size);
+        } else {
+          // without indexing or never indexed
+          headers.add(readLiteral(block, pos, 4));
+        }
+      }
+      return headers;
+    }
+
+    private String[] readLiteral(final byte[] block, final int[] pos, final int prefix) throws IOException {
+      final int nameIndex = readInt(block, pos, prefix);
+      final String name = 0 == nameIndex ? readString(block, pos) : table.get(nameIndex)[0];
+      return new String[] {name, readString(block, pos)};
+    }
+
+  }
+
+  static void writeInt(final ByteArrayOutputStream out, final int flags, final int prefix, final int value) {
+    final int max = (1 << prefix) - 1;
+    if (value < max) {
+      out.write(flags | value);
+      return;
+    }
+    out.write(flags | max);
+    int rest = value - max;
+    while (rest >= 0x80) {
+      out.write(rest & 0x7f | 0x80);
+      rest >>>= 7;
+    }
+    out.write(rest);
+  }
+
+  static int readInt(final byte[] block, final int[] pos, final int prefix) throws IOException {
+    final int max = (1 << prefix) - 1;
+    int value = block[pos[0]++] & max;
+    if (value < max) {
+      return value;
+    }
+    for (int shift = 0;; shift += 7) {
+      if (pos[0] >= block.length || shift > 28) {
+        throw new IOException("Invalid HPACK integer");
+      }
+      final int b = block[pos[0]++] & 0xff;
+      value += (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+
+  static void writeString(final ByteArrayOutputStream out, final String value) throws UnsupportedEncodingException {
+    final byte[] octets = value.getBytes(ISO_8859_1);
+    final int huffmanLength = huffmanLength(octets);
+    if (huffmanLength < octets.length) {
+      writeInt(out, 0x80, 7, huffmanLength);
+      huffmanEncode(out, octets);
+    } else {
+      writeInt(out, 0x00, 7, octets.length);
+      out.write(octets, 0, octets.length);
+    }
+  }
+
+  static String readString(final byte[] block, final int[] pos) throws IOException {
+    if (pos[0] >= block.length) {
+      throw new IOException("Truncated HPACK string");
+    }
+    final boolean huffman = (block[pos[0]] & 0x80) != 0;
+    final int length = readInt(block, pos, 7);
+    if (length > block.length - pos[0]) {
+      throw new IOException("Truncated HPACK string");
+    }
+    final int start = pos[0];
+    pos[0] += length;
+    return huffman ? huffmanDecode(block, start, length) : new String(block, start, length, ISO_8859_1);
+  }
+
+  static int huffmanLength(final byte[] octets) {
+    long bits = 0;
+    for (final byte b : octets) {
+      bits += HUFFMAN_LENGTHS[b & 0xff];
+    }
+    return (int) ((bits + 7) / 8);
+  }
+
+  static void huffmanEncode(final ByteArrayOutputStream out, final byte[] octets) {
+    long buffer = 0;
+    int bits = 0;
+    for (final byte b : octets) {
+      final int length = HUFFMAN_LENGTHS[b & 0xff];
+      buffer = buffer << length | HUFFMAN_CODES[b & 0xff] & 0xffffffffL;
+      bits += length;
+      while (bits >= 8) {
+        bits -= 8;
+        out.write((int) (buffer >>> bits));
+      }
+      buffer &= (1L << bits) - 1;
+    }
+    if (bits > 0) {
+      // padded with the most significant bits of the end of string code
+      out.write((int) (buffer << 8 - bits | 0xff >>> bits));
+    }
+  }
+
+  static String huffmanDecode(final byte[] block, final int off, final int length) throws IOException {
+    final StringBuilder sb = new StringBuilder(length * 8 / 5);
+    int node = 0;
+    int padding = 0;
+    boolean ones = true;
+    for (int i = off; i < off + length; i++) {
+      final int b = block[i] & 0xff;
+      for (int bit = 7; bit >= 0; bit--) {
+        final int set = b >>> bit & 1;
+        final int child = HUFFMAN_TREE[2 * node + set];
+        if (child < 0) {
+          if (-child - 1 == EOS) {
+            throw new IOException("HPACK string contains the end of string code");
+          }
+          sb.append((char) (-child - 1));
+          node = 0;
+          padding = 0;
+          ones = true;
+        } else if (0 == child) {
+          throw new IOException("Invalid HPACK Huffman code");
+        } else {
+          node = child;
+          padding++;
+          ones &= 1 == set;
+        }
+      }
+    }
+    if (padding > 7 || !ones) {
+      throw new IOException("Invalid HPACK Huffman padding");
+    }
+    return sb.toString();
+  }
+
+}
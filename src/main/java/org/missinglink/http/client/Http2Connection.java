@@ -0,0 +1,966 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A HTTP/2 connection on which the requests of many threads are multiplexed
+ * as concurrent streams, see RFC 7540.
+ * <p>
+ * A daemon reader thread parses the frames received on the socket, decodes
+ * header blocks in order and hands response headers and entity bytes to their
+ * {@link Stream}; the thread of an exchange writes its frames under a write
+ * lock. Received entity bytes are buffered per stream up to its flow control
+ * window, which is only opened again once they have been read, so a slow
+ * reader holds back its own stream rather than the connection. Sent entity
+ * bytes wait for the windows granted by the server.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+final class Http2Connection implements Closeable {
+
+  static final byte[] PREFACE = {'P', 'R', 'I', ' ', '*', ' ', 'H', 'T', 'T', 'P', '/', '2', '.', '0', '\r', '\n', '\r', '\n', 'S', 'M', '\r', '\n', '\r', '\n'};
+
+  static final int FRAME_HEADER_LENGTH = 9;
+
+  static final int DATA = 0x0;
+  static final int HEADERS = 0x1;
+  static final int PRIORITY = 0x2;
+  static final int RST_STREAM = 0x3;
+  static final int SETTINGS = 0x4;
+  static final int PUSH_PROMISE = 0x5;
+  static final int PING = 0x6;
+  static final int GOAWAY = 0x7;
+  static final int WINDOW_UPDATE = 0x8;
+  static final int CONTINUATION = 0x9;
+
+  static final int FLAG_END_STREAM = 0x1;
+  static final int FLAG_ACK = 0x1;
+  static final int FLAG_END_HEADERS = 0x4;
+  static final int FLAG_PADDED = 0x8;
+  static final int FLAG_PRIORITY = 0x20;
+
+  static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+  static final int SETTINGS_ENABLE_PUSH = 0x2;
+  static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+  static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+  static final int NO_ERROR = 0x0;
+  static final int PROTOCOL_ERROR = 0x1;
+  static final int FRAME_SIZE_ERROR = 0x6;
+  static final int REFUSED_STREAM = 0x7;
+  static final int CANCEL = 0x8;
+
+  static final int DEFAULT_WINDOW_SIZE = 65535;
+  static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+  private final Socket socket;
+  private final String route;
+  private final InputStream in;
+  private final OutputStream out;
+  private final int initialWindowSize;
+  private final int connectionWindowSize;
+  private final int maxFrameSize;
+  private final int headerTableSize;
+
+  // frames are written and header blocks encoded in stream order
+  private final Object writeLock = new Object();
+  private final Hpack.Encoder encoder = new Hpack.Encoder();
+
+  // reader thread only
+  private final Hpack.Decoder decoder;
+
+  private final Object lock = new Object();
+  private final Map<Integer, Stream> streams = new HashMap<Integer, Stream>();
+  private int nextStreamId = 1;
+  private int openStreams;
+  private int maxConcurrentStreams = Integer.MAX_VALUE;
+  private int peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+  private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+  private long sendWindow = DEFAULT_WINDOW_SIZE;
+  private int receivedUnacked;
+  private boolean goAway;
+  private IOException failure;
+
+  // the handshake is reported with the first response
+  private TlsSession tlsSession;
+  private boolean tlsSessionTaken;
+
+  /**
+   * Signals that the server did not process a stream, because it refused it
+   * or is shutting the connection down, so it is safe to send the request
+   * again on another connection.
+   */
+  static class RefusedStreamException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    RefusedStreamException(final String message) {
+      super(message);
+    }
+
+  }
+
+  /**
+   * @param socket Socket connected, and for HTTPS handshaken with ALPN "h2"
+   * @param route String
+   * @param initialWindowSize int the flow control window of each stream
+   * @param connectionWindowSize int the flow control window of the connection
+   * @param maxFrameSize int the largest frame the server may send
+   * @param headerTableSize int the HPACK table size the server may use
+   * @throws IOException on failure
+   */
+  Http2Connection(final Socket socket, final String route, final int initialWindowSize, final int connectionWindowSize, final int maxFrameSize, final int headerTableSize) throws IOException {
+    this.socket = socket;
+    this.route = route;
+    this.in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+    this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+    this.initialWindowSize = initialWindowSize;
+    this.connectionWindowSize = connectionWindowSize;
+    this.maxFrameSize = maxFrameSize;
+    this.headerTableSize = headerTableSize;
+    this.decoder = new Hpack.Decoder(headerTableSize);
+  }
+
+  /**
+   * Send the connection preface and settings and start reading frames.
+   *
+   * @throws IOException on failure
+   */
+  void start() throws IOException {
+    final byte[] settings = new byte[4 * 6];
+    int pos = setting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+    pos = setting(settings, pos, SETTINGS_INITIAL_WINDOW_SIZE, initialWindowSize);
+    pos = setting(settings, pos, SETTINGS_MAX_FRAME_SIZE, maxFrameSize);
+    setting(settings, pos, SETTINGS_HEADER_TABLE_SIZE, headerTableSize);
+    synchronized (writeLock) {
+      out.write(PREFACE);
+      writeFrame(SETTINGS, 0, 0, settings, 0, settings.length, false);
+      if (connectionWindowSize > DEFAULT_WINDOW_SIZE) {
+        writeFrame(WINDOW_UPDATE, 0, 0, int32(connectionWindowSize - DEFAULT_WINDOW_SIZE), 0, 4, false);
+      }
+      out.flush();
+    }
+    final Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        read();
+      }
+    }, "http2-" + route);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * @return true if new streams can be opened
+   */
+  boolean isOpen() {
+    synchronized (lock) {
+      return !goAway && null == failure;
+    }
+  }
+
+  /**
+   * @return the number of streams the server accepts at once
+   */
+  int getMaxConcurrentStreams() {
+    synchronized (lock) {
+      return maxConcurrentStreams;
+    }
+  }
+
+  /**
+   * @return the route
+   */
+  String getRoute() {
+    return route;
+  }
+
+  /**
+   * @param tlsSession TlsSession describing the handshake of the connection
+   */
+  void setTlsSession(final TlsSession tlsSession) {
+    synchronized (lock) {
+      this.tlsSession = tlsSession;
+    }
+  }
+
+  /**
+   * @return The handshake of the connection for the first caller, the session
+   *         of a kept alive connection for the others, or null for plain
+   *         HTTP
+   */
+  TlsSession takeTlsSession() {
+    synchronized (lock) {
+      if (null == tlsSession || !tlsSessionTaken) {
+        tlsSessionTaken = true;
+        return tlsSession;
+      }
+      return tlsSession.reused();
+    }
+  }
+
+  /**
+   * Open a stream by sending its request headers, waiting while the server
+   * does not accept more concurrent streams.
+   *
+   * @param headers List of name and value pairs, the pseudo-headers first
+   * @param endStream boolean true if the request has no entity
+   * @param readTimeout int milliseconds to wait for the stream, the window
+   *          of the entity and the response, or 0 to wait indefinitely
+   * @return The {@link Stream}
+   * @throws RefusedStreamException if the connection no longer accepts streams
+   * @throws IOException on failure
+   */
+  Stream newStream(final List<String[]> headers, final boolean endStream, final int readTimeout) throws IOException {
+    synchronized (lock) {
+      final long deadline = deadline(readTimeout);
+      while (openStreams >= maxConcurrentStreams && !goAway && null == failure) {
+        await(deadline, "Waiting for a stream on " + route + " timed out");
+      }
+      if (goAway || null != failure) {
+        throw new RefusedStreamException("Connection to " + route + " no longer accepts streams");
+      }
+      openStreams++;
+    }
+    Stream stream = null;
+    try {
+      synchronized (writeLock) {
+        synchronized (lock) {
+          stream = new Stream(nextStreamId, peerInitialWindowSize, readTimeout);
+          streams.put(Integer.valueOf(stream.id), stream);
+          nextStreamId += 2;
+          // stream identifiers cannot be reused, a new connection is needed
+          if (nextStreamId < 0) {
+            goAway = true;
+          }
+        }
+        stream.localClosed = endStream;
+        final byte[] block = encoder.encode(headers);
+        int off = 0;
+        int type = HEADERS;
+        do {
+          final int length = Math.min(block.length - off, peerMaxFrameSize());
+          final boolean last = off + length == block.length;
+          writeFrame(type, (last ? FLAG_END_HEADERS : 0) | (endStream && HEADERS == type ? FLAG_END_STREAM : 0), stream.id, block, off, length, last);
+          off += length;
+          type = CONTINUATION;
+        } while (off < block.length);
+      }
+      return stream;
+    } catch (final IOException e) {
+      if (null == stream) {
+        synchronized (lock) {
+          openStreams--;
+          lock.notifyAll();
+        }
+      } else {
+        stream.fail(e);
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (lock) {
+      goAway = true;
+      if (null != failure) {
+        return;
+      }
+    }
+    try {
+      final byte[] payload = new byte[8];
+      System.arraycopy(int32(0), 0, payload, 0, 4);
+      synchronized (writeLock) {
+        writeFrame(GOAWAY, 0, 0, payload, 0, payload.length, true);
+      }
+    } catch (final IOException e) {
+      // closed anyway
+    }
+    fail(new SocketException("Connection to " + route + " closed"));
+  }
+
+  /**
+   * An exchange on the connection, closed by the thread of the exchange once
+   * the response has been read or is abandoned.
+   */
+  final class Stream implements Closeable {
+
+    private final int id;
+    private final int readTimeout;
+    // guarded by lock
+    private long streamSendWindow;
+    private List<String[]> responseHeaders;
+    private final LinkedList<byte[]> data = new LinkedList<byte[]>();
+    private int dataOffset;
+    private int buffered;
+    private int streamReceivedUnacked;
+    private boolean remoteClosed;
+    private boolean localClosed;
+    private boolean released;
+    private IOException streamFailure;
+
+    private final InputStream input = new Input();
+
+    private Stream(final int id, final int sendWindow, final int readTimeout) {
+      this.id = id;
+      this.streamSendWindow = sendWindow;
+      this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return the stream identifier, 1 for the first stream of a connection
+     */
+    int getId() {
+      return id;
+    }
+
+    /**
+     * Send the request entity, ending the stream.
+     *
+     * @param is InputStream
+     * @throws IOException on failure
+     */
+    void writeEntity(final InputStream is) throws IOException {
+      final byte[] buf = new byte[DEFAULT_MAX_FRAME_SIZE];
+      for (int num; (num = is.read(buf)) != -1;) {
+        for (int off = 0; off < num;) {
+          final int granted = acquireWindow(num - off);
+          synchronized (writeLock) {
+            writeFrame(DATA, 0, id, buf, off, granted, true);
+          }
+          off += granted;
+        }
+      }
+      synchronized (writeLock) {
+        writeFrame(DATA, FLAG_END_STREAM, id, buf, 0, 0, true);
+      }
+      synchronized (lock) {
+        localClosed = true;
+        releaseIfDone();
+      }
+    }
+
+    /**
+     * Wait for the final response headers.
+     *
+     * @return The name and value pairs, including the pseudo-headers
+     * @throws RefusedStreamException if the server did not process the stream
+     * @throws IOException on failure
+     */
+    List<String[]> awaitHeaders() throws IOException {
+      synchronized (lock) {
+        final long deadline = deadline(readTimeout);
+        while (null == responseHeaders) {
+          checkFailure();
+          if (remoteClosed) {
+            throw new EOFException("Stream " + id + " to " + route + " ended without a response");
+          }
+          await(deadline, "Read from " + route + " timed out");
+        }
+        return responseHeaders;
+      }
+    }
+
+    /**
+     * @return The response entity, reads block until bytes arrive
+     */
+    InputStream getInputStream() {
+      return input;
+    }
+
+    /**
+     * Release the stream, resetting it if it has not ended yet.
+     */
+    @Override
+    public void close() {
+      final boolean reset;
+      final int unread;
+      synchronized (lock) {
+        reset = !(remoteClosed && localClosed) && null == streamFailure && null == failure;
+        // unread bytes still count against the connection window
+        unread = buffered;
+        data.clear();
+        buffered = 0;
+        if (null == streamFailure) {
+          streamFailure = new SocketException("Stream " + id + " to " + route + " closed");
+        }
+        streams.remove(Integer.valueOf(id));
+        release();
+        lock.notifyAll();
+      }
+      try {
+        if (reset) {
+          synchronized (writeLock) {
+            writeFrame(RST_STREAM, 0, id, int32(CANCEL), 0, 4, true);
+          }
+        }
+        consumed(0, 0, unread);
+      } catch (final IOException e) {
+        // the connection failed
+      }
+    }
+
+    // lock held
+
+    private void checkFailure() throws IOException {
+      final IOException e = null != streamFailure ? streamFailure : failure;
+      if (null != e) {
+        if (e instanceof RefusedStreamException) {
+          throw new RefusedStreamException(e.getMessage());
+        }
+        final IOException thrown = new SocketException(e.getMessage());
+        thrown.initCause(e);
+        throw thrown;
+      }
+    }
+
+    private void releaseIfDone() {
+      if (remoteClosed && localClosed) {
+        release();
+      }
+    }
+
+    private void release() {
+      if (!released) {
+        released = true;
+        openStreams--;
+        lock.notifyAll();
+      }
+    }
+
+    private int acquireWindow(final int wanted) throws IOException {
+      synchronized (lock) {
+        final long deadline = deadline(readTimeout);
+        while (streamSendWindow <= 0 || sendWindow <= 0) {
+          checkFailure();
+          await(deadline, "Waiting for the flow control window of " + route + " timed out");
+        }
+        checkFailure();
+        final int granted = (int) Math.min(wanted, Math.min(streamSendWindow, Math.min(sendWindow, peerMaxFrameSize)));
+        streamSendWindow -= granted;
+        sendWindow -= granted;
+        return granted;
+      }
+    }
+
+    // reader thread
+
+    private void fail(final IOException e) {
+      synchronized (lock) {
+        if (null == streamFailure) {
+          streamFailure = e;
+        }
+        streams.remove(Integer.valueOf(id));
+        release();
+      }
+    }
+
+    private final class Input extends InputStream {
+
+      @Override
+      public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+      }
+
+      @Override
+      public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (0 == len) {
+          return 0;
+        }
+        int n = 0;
+        final int update;
+        synchronized (lock) {
+          final long deadline = deadline(readTimeout);
+          while (data.isEmpty()) {
+            // a response received completely is read to its end
+            if (remoteClosed) {
+              return -1;
+            }
+            checkFailure();
+            await(deadline, "Read from " + route + " timed out");
+          }
+          while (n < len && !data.isEmpty()) {
+            final byte[] head = data.getFirst();
+            final int count = Math.min(len - n, head.length - dataOffset);
+            System.arraycopy(head, dataOffset, b, off + n, count);
+            n += count;
+            dataOffset += count;
+            if (dataOffset == head.length) {
+              data.removeFirst();
+              dataOffset = 0;
+            }
+          }
+          buffered -= n;
+          streamReceivedUnacked += n;
+          // open the window again once half of it has been read
+          if (!remoteClosed && streamReceivedUnacked >= initialWindowSize / 2) {
+            update = streamReceivedUnacked;
+            streamReceivedUnacked = 0;
+          } else {
+            update = 0;
+          }
+        }
+        consumed(id, update, n);
+        return n;
+      }
+
+      @Override
+      public int available() {
+        synchronized (lock) {
+          return buffered;
+        }
+      }
+
+    }
+
+  }
+
+  // hand back the window of n bytes read, and streamUpdate bytes of a stream
+  private void consumed(final int streamId, final int streamUpdate, final int n) throws IOException {
+    final int update;
+    synchronized (lock) {
+      receivedUnacked += n;
+      if (receivedUnacked >= connectionWindowSize / 2) {
+        update = receivedUnacked;
+        receivedUnacked = 0;
+      } else {
+        update = 0;
+      }
+    }
+    if (0 == streamUpdate && 0 == update) {
+      return;
+    }
+    synchronized (writeLock) {
+      if (streamUpdate > 0) {
+        writeFrame(WINDOW_UPDATE, 0, streamId, int32(streamUpdate), 0, 4, false);
+      }
+      if (update > 0) {
+        writeFrame(WINDOW_UPDATE, 0, 0, int32(update), 0, 4, false);
+      }
+      out.flush();
+    }
+  }
+
+  // reader thread
+
+  private void read() {
+    try {
+      final byte[] header = new byte[FRAME_HEADER_LENGTH];
+      for (;;) {
+        if (!readFully(header, true)) {
+          throw new EOFException("Connection closed by " + route);
+        }
+        final int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+        final int type = header[3] & 0xff;
+        final int flags = header[4] & 0xff;
+        final int streamId = readInt32(header, 5) & 0x7fffffff;
+        if (length > maxFrameSize) {
+          throw protocolError(FRAME_SIZE_ERROR, "Frame of " + length + " bytes exceeds " + maxFrameSize);
+        }
+        if (!isValidLength(type, flags, length)) {
+          throw protocolError(FRAME_SIZE_ERROR, "Frame of type " + type + " with invalid length " + length);
+        }
+        final byte[] payload = new byte[length];
+        readFully(payload, false);
+        onFrame(type, flags, streamId, payload);
+      }
+    } catch (final IOException e) {
+      fail(e);
+    } catch (final RuntimeException e) {
+      // a dead reader must not leave the streams waiting
+      fail(new IOException(e));
+    }
+  }
+
+  // RFC 9113 section 6, the payload lengths the frame types require
+  private static boolean isValidLength(final int type, final int flags, final int length) {
+    switch (type) {
+    case DATA:
+      return (flags & FLAG_PADDED) == 0 || length >= 1;
+    case HEADERS:
+      return length >= ((flags & FLAG_PADDED) != 0 ? 1 : 0) + ((flags & FLAG_PRIORITY) != 0 ? 5 : 0);
+    case PRIORITY:
+      return 5 == length;
+    case RST_STREAM:
+    case WINDOW_UPDATE:
+      return 4 == length;
+    case SETTINGS:
+      return 0 == length % 6 && ((flags & FLAG_ACK) == 0 || 0 == length);
+    case PING:
+      return 8 == length;
+    case GOAWAY:
+      return length >= 8;
+    default:
+      return true;
+    }
+  }
+
+  private void onFrame(final int type, final int flags, final int streamId, final byte[] payload) throws IOException {
+    switch (type) {
+    case DATA:
+      onData(flags, streamId, payload);
+      break;
+    case HEADERS:
+      onHeaders(flags, streamId, payload);
+      break;
+    case RST_STREAM:
+      final int code = readInt32(payload, 0);
+      final Stream reset = stream(streamId);
+      if (null != reset) {
+        reset.fail(REFUSED_STREAM == code ? new RefusedStreamException("Stream refused by " + route) : new IOException("Stream reset by " + route + " with error code " + code));
+      }
+      break;
+    case SETTINGS:
+      if ((flags & FLAG_ACK) == 0) {
+        onSettings(payload);
+      }
+      break;
+    case PING:
+      if ((flags & FLAG_ACK) == 0) {
+        synchronized (writeLock) {
+          writeFrame(PING, FLAG_ACK, 0, payload, 0, payload.length, true);
+        }
+      }
+      break;
+    case GOAWAY:
+      onGoAway(readInt32(payload, 0) & 0x7fffffff, readInt32(payload, 4));
+      break;
+    case WINDOW_UPDATE:
+      final int increment = readInt32(payload, 0) & 0x7fffffff;
+      synchronized (lock) {
+        if (0 == streamId) {
+          sendWindow += increment;
+        } else {
+          final Stream stream = streams.get(Integer.valueOf(streamId));
+          if (null != stream) {
+            stream.streamSendWindow += increment;
+          }
+        }
+        lock.notifyAll();
+      }
+      break;
+    case PUSH_PROMISE:
+      // disabled by the settings sent
+      throw protocolError("Unexpected PUSH_PROMISE");
+    case CONTINUATION:
+      throw protocolError("Unexpected CONTINUATION");
+    default:
+      // PRIORITY and unknown frames are ignored
+      break;
+    }
+  }
+
+  private void onData(final int flags, final int streamId, final byte[] payload) throws IOException {
+    final int padding = (flags & FLAG_PADDED) != 0 ? (payload[0] & 0xff) + 1 : 0;
+    final int length = payload.length - padding;
+    if (length < 0) {
+      throw protocolError("Invalid padding");
+    }
+    final boolean endStream = (flags & FLAG_END_STREAM) != 0;
+    int unused = padding;
+    synchronized (lock) {
+      final Stream stream = streams.get(Integer.valueOf(streamId));
+      if (null == stream || null != stream.streamFailure) {
+        // reset or closed, the bytes only count against the connection
+        unused += length;
+      } else {
+        if (length > 0) {
+          final byte[] bytes = new byte[length];
+          System.arraycopy(payload, padding > 0 ? 1 : 0, bytes, 0, length);
+          stream.data.add(bytes);
+          stream.buffered += length;
+        }
+        if (endStream) {
+          stream.remoteClosed = true;
+          stream.releaseIfDone();
+        }
+        lock.notifyAll();
+      }
+    }
+    if (unused > 0) {
+      consumed(0, 0, unused);
+    }
+  }
+
+  private void onHeaders(final int flags, final int streamId, final byte[] payload) throws IOException {
+    int off = 0;
+    int end = payload.length;
+    if ((flags & FLAG_PADDED) != 0) {
+      end -= payload[0] & 0xff;
+      off++;
+    }
+    if ((flags & FLAG_PRIORITY) != 0) {
+      off += 5;
+    }
+    if (off > end) {
+      throw protocolError("Invalid padding");
+    }
+    final ByteArrayOutputStream block = new ByteArrayOutputStream(Math.max(end - off, 0));
+    block.write(payload, off, end - off);
+    if ((flags & FLAG_END_HEADERS) == 0) {
+      readContinuation(streamId, block);
+    }
+    // decoded in order whatever happened to the stream
+    final List<String[]> headers = decoder.decode(block.toByteArray());
+    synchronized (lock) {
+      final Stream stream = streams.get(Integer.valueOf(streamId));
+      if (null == stream) {
+        return;
+      }
+      if (null == stream.responseHeaders) {
+        final String status = pseudoHeader(headers, ":status");
+        // interim 1xx responses are skipped
+        if (null == status || status.length() != 3 || '1' != status.charAt(0)) {
+          stream.responseHeaders = headers;
+        }
+      }
+      if ((flags & FLAG_END_STREAM) != 0) {
+        stream.remoteClosed = true;
+        stream.releaseIfDone();
+      }
+      lock.notifyAll();
+    }
+  }
+
+  private void readContinuation(final int streamId, final ByteArrayOutputStream block) throws IOException {
+    final byte[] header = new byte[FRAME_HEADER_LENGTH];
+    for (;;) {
+      readFully(header, false);
+      final int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+      if (CONTINUATION != (header[3] & 0xff) || (readInt32(header, 5) & 0x7fffffff) != streamId || length > maxFrameSize) {
+        throw protocolError("Expected CONTINUATION of stream " + streamId);
+      }
+      final byte[] payload = new byte[length];
+      readFully(payload, false);
+      block.write(payload, 0, length);
+      if ((header[4] & FLAG_END_HEADERS) != 0) {
+        return;
+      }
+    }
+  }
+
+  private void onSettings(final byte[] payload) throws IOException {
+    for (int pos = 0; pos + 6 <= payload.length; pos += 6) {
+      final int id = (payload[pos] & 0xff) << 8 | payload[pos + 1] & 0xff;
+      final int value = readInt32(payload, pos + 2);
+      switch (id) {
+      case SETTINGS_HEADER_TABLE_SIZE:
+        synchronized (writeLock) {
+          encoder.setMaxTableSize(value);
+        }
+        break;
+      case SETTINGS_MAX_CONCURRENT_STREAMS:
+        synchronized (lock) {
+          maxConcurrentStreams = value;
+          lock.notifyAll();
+        }
+        break;
+      case SETTINGS_INITIAL_WINDOW_SIZE:
+        synchronized (lock) {
+          // applies to the open streams as well
+          for (final Stream stream : streams.values()) {
+            stream.streamSendWindow += value - peerInitialWindowSize;
+          }
+          peerInitialWindowSize = value;
+          lock.notifyAll();
+        }
+        break;
+      case SETTINGS_MAX_FRAME_SIZE:
+        synchronized (lock) {
+          peerMaxFrameSize = value;
+        }
+        break;
+      default:
+        break;
+      }
+    }
+    synchronized (writeLock) {
+      writeFrame(SETTINGS, FLAG_ACK, 0, payload, 0, 0, true);
+    }
+  }
+
+  private void onGoAway(final int lastStreamId, final int errorCode) {
+    final List<Stream> refused = new ArrayList<Stream>();
+    synchronized (lock) {
+      goAway = true;
+      for (final Stream stream : streams.values()) {
+        if (stream.id > lastStreamId) {
+          refused.add(stream);
+        }
+      }
+      lock.notifyAll();
+    }
+    for (final Stream stream : refused) {
+      stream.fail(new RefusedStreamException("Connection to " + route + " going away with error code " + errorCode));
+    }
+  }
+
+  private void fail(final IOException e) {
+    final List<Stream> failed;
+    synchronized (lock) {
+      if (null == failure) {
+        failure = e;
+      }
+      failed = new ArrayList<Stream>(streams.values());
+      lock.notifyAll();
+    }
+    for (final Stream stream : failed) {
+      stream.fail(e);
+    }
+    try {
+      socket.close();
+    } catch (final IOException ce) {
+      // ignore
+    }
+  }
+
+  private Stream stream(final int streamId) {
+    synchronized (lock) {
+      return streams.get(Integer.valueOf(streamId));
+    }
+  }
+
+  private IOException protocolError(final String message) {
+    return protocolError(PROTOCOL_ERROR, message);
+  }
+
+  private IOException protocolError(final int errorCode, final String message) {
+    try {
+      final byte[] payload = new byte[8];
+      System.arraycopy(int32(errorCode), 0, payload, 4, 4);
+      synchronized (writeLock) {
+        writeFrame(GOAWAY, 0, 0, payload, 0, payload.length, true);
+      }
+    } catch (final IOException e) {
+      // failing anyway
+    }
+    return new IOException("HTTP/2 protocol error on " + route + ": " + message);
+  }
+
+  private boolean readFully(final byte[] b, final boolean eofAllowed) throws IOException {
+    for (int off = 0; off < b.length;) {
+      final int n = in.read(b, off, b.length - off);
+      if (n < 0) {
+        if (eofAllowed && 0 == off) {
+          return false;
+        }
+        throw new EOFException("Connection closed by " + route + " within a frame");
+      }
+      off += n;
+    }
+    return true;
+  }
+
+  // writeLock held
+
+  private void writeFrame(final int type, final int flags, final int streamId, final byte[] payload, final int off, final int length, final boolean flush) throws IOException {
+    final byte[] header = new byte[FRAME_HEADER_LENGTH];
+    header[0] = (byte) (length >>> 16);
+    header[1] = (byte) (length >>> 8);
+    header[2] = (byte) length;
+    header[3] = (byte) type;
+    header[4] = (byte) flags;
+    System.arraycopy(int32(streamId), 0, header, 5, 4);
+    try {
+      out.write(header);
+      out.write(payload, off, length);
+      if (flush) {
+        out.flush();
+      }
+    } catch (final IOException e) {
+      fail(e);
+      throw e;
+    }
+  }
+
+  private int peerMaxFrameSize() {
+    synchronized (lock) {
+      return peerMaxFrameSize;
+    }
+  }
+
+  // lock held
+
+  private void await(final long deadline, final String timeoutMessage) throws InterruptedIOException {
+    try {
+      if (deadline <= 0) {
+        lock.wait();
+        return;
+      }
+      final long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        throw new SocketTimeoutException(timeoutMessage);
+      }
+      lock.wait(remaining);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting on " + route);
+    }
+  }
+
+  private static long deadline(final int timeout) {
+    return timeout > 0 ? System.currentTimeMillis() + timeout : 0L;
+  }
+
+  static String pseudoHeader(final List<String[]> headers, final String name) {
+    for (final String[] header : headers) {
+      if (name.equals(header[0])) {
+        return header[1];
+      }
+    }
+    return null;
+  }
+
+  static byte[] int32(final int value) {
+    return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+  }
+
+  static int readInt32(final byte[] b, final int off) {
+    return (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16 | (b[off + 2] & 0xff) << 8 | b[off + 3] & 0xff;
+  }
+
+  private static int setting(final byte[] settings, final int pos, final int id, final int value) {
+    settings[pos] = (byte) (id >>> 8);
+    settings[pos + 1] = (byte) id;
+    System.arraycopy(int32(value), 0, settings, pos + 2, 4);
+    return pos + 6;
+  }
+
+}
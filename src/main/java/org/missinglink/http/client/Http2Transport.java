@@ -0,0 +1,728 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * {@link HttpTransport} speaking HTTP/2, which multiplexes the concurrent
+ * requests to a route as streams over a single connection, see
+ * {@link Http2Connection}.
+ * <p>
+ * HTTPS connections negotiate HTTP/2 with ALPN, which needs Java 9 or later
+ * (or Java 8 update 252), see {@link #isAlpnAvailable()}; a server which does
+ * not select "h2" is remembered and its requests are delegated to
+ * {@link HttpTransport#getDefault()}. Plain HTTP connections speak HTTP/2 with
+ * prior knowledge ("h2c") unless disabled with
+ * {@link Http2TransportBuilder#priorKnowledge(boolean)}, in which case they
+ * are delegated as well.
+ * </p>
+ * <p>
+ * Request headers are HPACK compressed, see {@link Hpack}, so headers
+ * repeated across the requests of a build cost a byte or two each. The flow
+ * control windows, the largest frame received and the HPACK table size are
+ * tuned with {@link #builder()}. Each exchange still leases a slot from the
+ * {@link HttpConnectionPool} of its {@link HttpClient}, which bounds the
+ * concurrent streams per route; the connection itself is owned by the
+ * transport and kept until the server closes it or {@link #close()} is
+ * called. {@link #executePipelined(List)} sends all requests of a route as
+ * concurrent streams. Redirects to the same protocol are followed like
+ * {@link java.net.HttpURLConnection} does.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class Http2Transport extends HttpTransport {
+
+  public static final int DEFAULT_INITIAL_WINDOW_SIZE = 1024 * 1024;
+  public static final int DEFAULT_CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+  public static final int DEFAULT_MAX_FRAME_SIZE = Http2Connection.DEFAULT_MAX_FRAME_SIZE;
+  public static final int DEFAULT_HEADER_TABLE_SIZE = Hpack.DEFAULT_TABLE_SIZE;
+
+  /**
+   * The number of redirects followed, the default of
+   * {@link java.net.HttpURLConnection}.
+   */
+  public static final int MAX_REDIRECTS = 20;
+
+  private static final String H2 = "h2";
+
+  // streams a pipeline keeps open at once on a connection
+  private static final int PIPELINE_DEPTH = 100;
+
+  // connection specific headers are not allowed in HTTP/2
+  private static final Set<String> CONNECTION_HEADERS = new HashSet<String>(Arrays.asList("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "host", "content-length"));
+
+  private static final Method SET_APPLICATION_PROTOCOLS = method(SSLParameters.class, "setApplicationProtocols", String[].class);
+  private static final Method GET_APPLICATION_PROTOCOL = method(SSLSocket.class, "getApplicationProtocol");
+  private static final Method SET_ENDPOINT_IDENTIFICATION_ALGORITHM = method(SSLParameters.class, "setEndpointIdentificationAlgorithm", String.class);
+
+  private int initialWindowSize = DEFAULT_INITIAL_WINDOW_SIZE;
+  private int connectionWindowSize = DEFAULT_CONNECTION_WINDOW_SIZE;
+  private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+  private int headerTableSize = DEFAULT_HEADER_TABLE_SIZE;
+  private boolean priorKnowledge = true;
+
+  private final Map<String, Route> routes = new HashMap<String, Route>();
+
+  /**
+   * Create a transport with the default settings.
+   */
+  public Http2Transport() {
+    super();
+  }
+
+  /**
+   * @return A {@link Http2TransportBuilder} to tune the settings of a new
+   *         transport
+   */
+  public static Http2TransportBuilder builder() {
+    return new Http2TransportBuilder(new Http2Transport());
+  }
+
+  /**
+   * @return true if the running JVM supports ALPN, without it HTTPS requests
+   *         are sent with HTTP/1.1
+   */
+  public static boolean isAlpnAvailable() {
+    return null != SET_APPLICATION_PROTOCOLS && null != GET_APPLICATION_PROTOCOL;
+  }
+
+  /**
+   * The connection of a route, connected by the first request to it.
+   */
+  private static final class Route {
+    private Http2Connection connection;
+    // the server did not negotiate HTTP/2
+    private boolean http11;
+  }
+
+  /**
+   * A request of an exchange, which differs from the {@link HttpClient} when a
+   * redirect is followed.
+   */
+  private static final class Request {
+    private final URI uri;
+    private final String method;
+    private final boolean sendEntity;
+    private final boolean followRedirects;
+    private URI location;
+
+    private Request(final URI uri, final String method, final boolean sendEntity, final boolean followRedirects) {
+      this.uri = uri;
+      this.method = method;
+      this.sendEntity = sendEntity;
+      this.followRedirects = followRedirects;
+    }
+  }
+
+  /**
+   * Hands the {@link HttpConnectionPool} lease of an exchange back, the
+   * connection stays with the transport.
+   */
+  private static final class Multiplexed implements HttpConnectionPool.PooledConnection {
+    private final Http2Connection connection;
+
+    private Multiplexed(final Http2Connection connection) {
+      this.connection = connection;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return connection.isOpen();
+    }
+
+    @Override
+    public void close() {
+      // shared by the other streams of the route
+    }
+  }
+
+  @Override
+  public HttpResponse execute(final HttpClient httpClient, final ResponseSink sink) throws IOException, GeneralSecurityException, InterruptedException {
+    URI uri = URI.create(httpClient.getUri());
+    String method = httpClient.getMethod().name();
+    boolean sendEntity = httpClient.hasEntity();
+    // the phases of followed redirects add up
+    final HttpTiming timing = new HttpTiming();
+    for (int redirects = 0;; redirects++) {
+      final Http2Connection connection = connection(httpClient, uri, timing);
+      if (null == connection) {
+        if (0 == redirects) {
+          return HttpTransport.getDefault().execute(httpClient, sink);
+        }
+        // the redirect leads to a server without HTTP/2
+        throw new IOException("Cannot follow the redirect to " + uri + " which does not support HTTP/2");
+      }
+      final Request request = new Request(uri, method, sendEntity, httpClient.getFollowRedirects() && redirects < MAX_REDIRECTS);
+      final HttpResponse response = exchange(httpClient, connection, request, sink, timing);
+      if (null == request.location) {
+        timing.finish();
+        response.setTiming(timing);
+        return response;
+      }
+      // like HttpURLConnection, only a POST becomes a GET
+      if ("POST".equals(method) && 307 != response.getStatus() && 308 != response.getStatus()) {
+        method = "GET";
+        sendEntity = false;
+      }
+      uri = request.location;
+    }
+  }
+
+  @Override
+  public List<HttpResponse> executePipelined(final List<HttpClient> httpClients) throws IOException, GeneralSecurityException, InterruptedException {
+    final List<HttpResponse> responses = new ArrayList<HttpResponse>(httpClients.size());
+    if (httpClients.isEmpty()) {
+      return responses;
+    }
+    // the first response carries the time spent connecting
+    HttpTiming timing = new HttpTiming();
+    final Http2Connection connection = connection(httpClients.get(0), URI.create(httpClients.get(0).getUri()), timing);
+    if (null == connection) {
+      return HttpTransport.getDefault().executePipelined(httpClients);
+    }
+    final HttpConnectionPool connectionPool = httpClients.get(0).getConnectionPool();
+    final HttpConnectionPool.Lease lease = connectionPool.lease(connection.getRoute());
+    final Http2Connection.Stream[] streams = new Http2Connection.Stream[httpClients.size()];
+    final Request[] requests = new Request[httpClients.size()];
+    try {
+      final int depth = Math.max(1, Math.min(PIPELINE_DEPTH, connection.getMaxConcurrentStreams()));
+      for (int sent = 0; responses.size() < streams.length;) {
+        for (; sent < streams.length && sent - responses.size() < depth; sent++) {
+          final HttpClient httpClient = httpClients.get(sent);
+          requests[sent] = new Request(URI.create(httpClient.getUri()), httpClient.getMethod().name(), false, httpClient.getFollowRedirects());
+          streams[sent] = connection.newStream(requestHeaders(httpClient, requests[sent], -1L), true, httpClient.getReadTimeout());
+          httpClient.fireConnectionAcquired(streams[sent].getId() > 1);
+        }
+
+        // a response waits from the end of its predecessor
+        final int i = responses.size();
+        final HttpClient httpClient = httpClients.get(i);
+        final HttpResponse response = new HttpResponse(httpClient);
+        response.setTlsSession(connection.takeTlsSession());
+        final long waiting = System.nanoTime();
+        readHead(streams[i], response);
+        final long firstByte = System.nanoTime();
+        httpClient.fireFirstByteReceived();
+        response.setEntity(httpClient.readEntity(response, ContentDecoder.decode(httpClient, response, streams[i].getInputStream())));
+        response.setEntityLength(response.getEntity().length);
+        timing.addFirstByte(firstByte - waiting);
+        timing.addTransfer(System.nanoTime() - firstByte);
+        timing.finish();
+        response.setTiming(timing);
+        timing = new HttpTiming();
+        streams[i].close();
+        // a redirect is followed by sending the request again on its own
+        responses.add(null == redirect(httpClient, requests[i], response) ? response : null);
+      }
+      return responses;
+    } catch (final InterruptedIOException e) {
+      throw e;
+    } catch (final IOException e) {
+      // the remaining requests are idempotent and sent again one at a time
+      return responses;
+    } finally {
+      for (final Http2Connection.Stream stream : streams) {
+        if (null != stream) {
+          stream.close();
+        }
+      }
+      connectionPool.release(lease, new Multiplexed(connection));
+    }
+  }
+
+  /**
+   * Close the connections of all routes.
+   */
+  @Override
+  public void close() {
+    final List<Http2Connection> connections = new ArrayList<Http2Connection>();
+    synchronized (routes) {
+      for (final Route route : routes.values()) {
+        synchronized (route) {
+          if (null != route.connection) {
+            connections.add(route.connection);
+            route.connection = null;
+          }
+        }
+      }
+    }
+    for (final Http2Connection connection : connections) {
+      connection.close();
+    }
+  }
+
+  /**
+   * @return the flow control window of each stream in bytes
+   */
+  public int getInitialWindowSize() {
+    return initialWindowSize;
+  }
+
+  /**
+   * @return the flow control window of each connection in bytes
+   */
+  public int getConnectionWindowSize() {
+    return connectionWindowSize;
+  }
+
+  /**
+   * @return the largest frame the server may send in bytes
+   */
+  public int getMaxFrameSize() {
+    return maxFrameSize;
+  }
+
+  /**
+   * @return the size of the HPACK table the server may use to compress
+   *         response headers
+   */
+  public int getHeaderTableSize() {
+    return headerTableSize;
+  }
+
+  /**
+   * @return true if plain HTTP requests are sent with HTTP/2 without upgrade
+   */
+  public boolean isPriorKnowledge() {
+    return priorKnowledge;
+  }
+
+  private HttpResponse exchange(final HttpClient httpClient, final Http2Connection connection, final Request request, final ResponseSink sink, final HttpTiming timing) throws IOException, InterruptedException {
+    final HttpConnectionPool connectionPool = httpClient.getConnectionPool();
+    final HttpConnectionPool.Lease lease = connectionPool.lease(connection.getRoute());
+    final Cancellation cancellation = Cancellation.current();
+    Http2Connection.Stream stream = null;
+    try {
+      byte[] bytes = null;
+      RequestEntity requestEntity = null;
+      long length = -1L;
+      if (request.sendEntity) {
+        if (null != httpClient.getEntity()) {
+          bytes = httpClient.isBinaryEntity() ? httpClient.getEntityAsByteArray() : httpClient.getEntityAsString().getBytes();
+          length = bytes.length;
+        } else {
+          requestEntity = httpClient.getRequestEntity();
+          length = requestEntity.getContentLength();
+        }
+      }
+
+      final long sending = System.nanoTime();
+      try {
+        stream = connection.newStream(requestHeaders(httpClient, request, length), !request.sendEntity, httpClient.getReadTimeout());
+      } catch (final Http2Connection.RefusedStreamException e) {
+        // nothing was sent
+        throw new StaleConnectionException(e);
+      }
+      if (null != cancellation) {
+        cancellation.register(stream);
+      }
+      httpClient.fireConnectionAcquired(stream.getId() > 1);
+
+      final HttpResponse response = new HttpResponse(httpClient);
+      response.setTlsSession(connection.takeTlsSession());
+      try {
+        if (null != bytes) {
+          stream.writeEntity(new ByteArrayInputStream(bytes));
+        } else if (null != requestEntity) {
+          final InputStream is = requestEntity.openStream();
+          try {
+            stream.writeEntity(is);
+          } finally {
+            is.close();
+          }
+        }
+        readHead(stream, response);
+      } catch (final Http2Connection.RefusedStreamException e) {
+        // the server did not process the stream
+        if (isReplayable(httpClient, request)) {
+          throw new StaleConnectionException(e);
+        }
+        throw e;
+      }
+
+      final long firstByte = System.nanoTime();
+      timing.addFirstByte(firstByte - sending);
+      httpClient.fireFirstByteReceived();
+      request.location = redirect(httpClient, request, response);
+      if (null == request.location) {
+        final InputStream decoded = ContentDecoder.decode(httpClient, response, stream.getInputStream());
+        if (null == sink) {
+          response.setEntity(httpClient.readEntity(response, decoded));
+          response.setEntityLength(response.getEntity().length);
+        } else {
+          response.setEntityLength(sink.receive(response, decoded));
+        }
+      }
+      timing.addTransfer(System.nanoTime() - firstByte);
+      return response;
+    } finally {
+      if (null != stream) {
+        if (null != cancellation) {
+          cancellation.unregister(stream);
+        }
+        stream.close();
+      }
+      connectionPool.release(lease, new Multiplexed(connection));
+    }
+  }
+
+  /**
+   * Return the connection of the route of uri, connecting it if there is none
+   * which accepts streams.
+   *
+   * @return The {@link Http2Connection}, or null if the route is served with
+   *         HTTP/1.1
+   */
+  private Http2Connection connection(final HttpClient httpClient, final URI uri, final HttpTiming timing) throws IOException, GeneralSecurityException {
+    final boolean https = HttpClient.HTTPS.equalsIgnoreCase(uri.getScheme());
+    if (https ? !isAlpnAvailable() : !priorKnowledge) {
+      return null;
+    }
+    final String key = HttpConnectionPool.route(uri.getScheme(), uri.getHost(), uri.getPort() < 0 ? null : Integer.valueOf(uri.getPort()));
+    Route route;
+    synchronized (routes) {
+      route = routes.get(key);
+      if (null == route) {
+        route = new Route();
+        routes.put(key, route);
+      }
+    }
+    // the other requests to the route wait for its connection
+    synchronized (route) {
+      if (route.http11) {
+        return null;
+      }
+      if (null == route.connection || !route.connection.isOpen()) {
+        route.connection = connect(httpClient, uri, key, https, timing);
+        route.http11 = null == route.connection;
+      }
+      return route.connection;
+    }
+  }
+
+  private Http2Connection connect(final HttpClient httpClient, final URI uri, final String route, final boolean https, final HttpTiming timing) throws IOException, GeneralSecurityException {
+    final int port = uri.getPort() < 0 ? https ? 443 : 80 : uri.getPort();
+    final long resolving = System.nanoTime();
+    final InetAddress address = InetAddress.getByName(uri.getHost());
+    final long connecting = System.nanoTime();
+    timing.addDns(connecting - resolving);
+
+    Socket socket = new Socket();
+    TlsSession tlsSession = null;
+    try {
+      socket.setTcpNoDelay(true);
+      socket.connect(new InetSocketAddress(address, port), httpClient.getConnectTimeout());
+      final long connected = System.nanoTime();
+      timing.addConnect(connected - connecting);
+      if (https) {
+        final SSLSocket sslSocket = (SSLSocket) socketFactory(httpClient).createSocket(socket, uri.getHost(), port, true);
+        socket = sslSocket;
+        negotiate(sslSocket, !httpClient.isTrustAll());
+        final long handshaking = System.currentTimeMillis();
+        sslSocket.startHandshake();
+        timing.addTls(System.nanoTime() - connected);
+        tlsSession = TlsSession.handshake(sslSocket.getSession(), handshaking, System.nanoTime() - connected);
+        httpClient.fireTlsHandshakeCompleted();
+        if (!H2.equals(applicationProtocol(sslSocket))) {
+          socket.close();
+          return null;
+        }
+      }
+      final Http2Connection connection = new Http2Connection(socket, route, initialWindowSize, connectionWindowSize, maxFrameSize, headerTableSize);
+      connection.setTlsSession(tlsSession);
+      connection.start();
+      return connection;
+    } catch (final IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  private static SSLSocketFactory socketFactory(final HttpClient httpClient) throws GeneralSecurityException, IOException {
+    final SSLSocketFactory factory = httpClient.getSslContextCache().getSocketFactory(httpClient);
+    return null != factory ? factory : HttpsURLConnection.getDefaultSSLSocketFactory();
+  }
+
+  // offer h2 and http/1.1 with ALPN, and verify the host name unless all
+  // servers are trusted
+  private static void negotiate(final SSLSocket sslSocket, final boolean verifyHostname) throws IOException {
+    final SSLParameters parameters = sslSocket.getSSLParameters();
+    try {
+      SET_APPLICATION_PROTOCOLS.invoke(parameters, new Object[] {new String[] {H2, "http/1.1"}});
+      if (verifyHostname) {
+        SET_ENDPOINT_IDENTIFICATION_ALGORITHM.invoke(parameters, "HTTPS");
+      }
+    } catch (final IllegalAccessException e) {
+      throw new IOException("ALPN is not available: " + e.getMessage());
+    } catch (final InvocationTargetException e) {
+      throw new IOException("ALPN is not available: " + e.getCause());
+    }
+    sslSocket.setSSLParameters(parameters);
+  }
+
+  private static String applicationProtocol(final SSLSocket sslSocket) {
+    try {
+      return (String) GET_APPLICATION_PROTOCOL.invoke(sslSocket);
+    } catch (final IllegalAccessException e) {
+      return null;
+    } catch (final InvocationTargetException e) {
+      return null;
+    }
+  }
+
+  private static Method method(final Class<?> type, final String name, final Class<?>... parameterTypes) {
+    try {
+      return type.getMethod(name, parameterTypes);
+    } catch (final NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static List<String[]> requestHeaders(final HttpClient httpClient, final Request request, final long length) {
+    final Map<String, String> headers = new HashMap<String, String>();
+    for (final Entry<String, String> header : httpClient.getHeaders().entrySet()) {
+      headers.put(header.getKey().toLowerCase(Locale.ENGLISH), header.getValue());
+    }
+
+    final List<String[]> block = new ArrayList<String[]>();
+    String authority = headers.get("host");
+    if (null == authority) {
+      authority = request.uri.getPort() < 0 ? request.uri.getHost() : request.uri.getHost() + ":" + request.uri.getPort();
+    }
+    block.add(new String[] {":method", request.method});
+    block.add(new String[] {":scheme", request.uri.getScheme().toLowerCase(Locale.ENGLISH)});
+    block.add(new String[] {":authority", authority});
+    block.add(new String[] {":path", requestTarget(request.uri)});
+    if (!headers.containsKey("user-agent")) {
+      block.add(new String[] {"user-agent", "Java/" + System.getProperty("java.version")});
+    }
+    if (!headers.containsKey("accept")) {
+      block.add(new String[] {"accept", "*/*"});
+    }
+    final String authorization = httpClient.getAuthorization();
+    if (null != authorization && !headers.containsKey("authorization")) {
+      block.add(new String[] {"authorization", authorization});
+    }
+    final String acceptEncoding = ContentDecoder.acceptEncoding(httpClient);
+    if (null != acceptEncoding) {
+      block.add(new String[] {ContentDecoder.ACCEPT_ENCODING.toLowerCase(Locale.ENGLISH), acceptEncoding});
+    }
+    for (final Entry<String, String> header : headers.entrySet()) {
+      if (!CONNECTION_HEADERS.contains(header.getKey())) {
+        block.add(new String[] {header.getKey(), header.getValue()});
+      }
+    }
+    if (request.sendEntity) {
+      if (!headers.containsKey("content-type")) {
+        block.add(new String[] {"content-type", "application/x-www-form-urlencoded"});
+      }
+      if (length >= 0) {
+        block.add(new String[] {"content-length", Long.toString(length)});
+      }
+    }
+    return block;
+  }
+
+  private static void readHead(final Http2Connection.Stream stream, final HttpResponse response) throws IOException {
+    final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+    String status = null;
+    for (final String[] header : stream.awaitHeaders()) {
+      if (":status".equals(header[0])) {
+        status = header[1];
+      } else if (!header[0].startsWith(":")) {
+        List<String> values = headers.get(header[0]);
+        if (null == values) {
+          values = new ArrayList<String>(1);
+          headers.put(header[0], values);
+        }
+        values.add(header[1]);
+      }
+    }
+    try {
+      response.setStatus(Integer.parseInt(status));
+    } catch (final NumberFormatException e) {
+      throw new IOException("Invalid :status [" + status + "]");
+    }
+    // the status line is kept under the null key like HttpURLConnection does,
+    // HTTP/2 has no reason phrase
+    final List<String> statusLine = new ArrayList<String>(1);
+    statusLine.add("HTTP/2 " + status);
+    headers.put(null, statusLine);
+    response.setHeaders(headers);
+    response.readHeaderFields();
+  }
+
+  /**
+   * @return The location to follow, or null if the response is final
+   */
+  private static URI redirect(final HttpClient httpClient, final Request request, final HttpResponse response) {
+    final int status = response.getStatus();
+    if (!request.followRedirects || status < 300 || status > 308 || 304 == status || 305 == status || 306 == status) {
+      return null;
+    }
+    final String location = response.getHeaderSingleValue("Location");
+    if (null == location) {
+      return null;
+    }
+    final URI target;
+    try {
+      target = request.uri.resolve(location.trim());
+    } catch (final IllegalArgumentException e) {
+      return null;
+    }
+    // a streamed entity cannot be sent twice
+    if (!request.uri.getScheme().equalsIgnoreCase(target.getScheme()) || !isReplayable(httpClient, request)) {
+      return null;
+    }
+    return target;
+  }
+
+  private static boolean isReplayable(final HttpClient httpClient, final Request request) {
+    return !request.sendEntity || null != httpClient.getEntity() || httpClient.getRequestEntity().isRepeatable();
+  }
+
+  private static String requestTarget(final URI uri) {
+    final String path = uri.getRawPath();
+    final StringBuilder sb = new StringBuilder(null == path || path.length() == 0 ? "/" : path);
+    if (null != uri.getRawQuery()) {
+      sb.append('?').append(uri.getRawQuery());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Builder of a {@link Http2Transport} with tuned settings.
+   */
+  public static class Http2TransportBuilder {
+
+    private final Http2Transport transport;
+
+    protected Http2TransportBuilder(final Http2Transport transport) {
+      super();
+      this.transport = transport;
+    }
+
+    /**
+     * Set the flow control window of each stream, the number of response
+     * bytes the server may send ahead of them being read, defaults to
+     * {@link Http2Transport#DEFAULT_INITIAL_WINDOW_SIZE}.
+     *
+     * @param initialWindowSize int bytes
+     * @return The {@link Http2TransportBuilder}
+     */
+    public Http2TransportBuilder initialWindowSize(final int initialWindowSize) {
+      if (initialWindowSize < 1) {
+        throw new IllegalArgumentException("initialWindowSize must be at least 1, was " + initialWindowSize);
+      }
+      transport.initialWindowSize = initialWindowSize;
+      return this;
+    }
+
+    /**
+     * Set the flow control window shared by the streams of a connection,
+     * defaults to {@link Http2Transport#DEFAULT_CONNECTION_WINDOW_SIZE}.
+     *
+     * @param connectionWindowSize int bytes, at least 65535
+     * @return The {@link Http2TransportBuilder}
+     */
+    public Http2TransportBuilder connectionWindowSize(final int connectionWindowSize) {
+      if (connectionWindowSize < Http2Connection.DEFAULT_WINDOW_SIZE) {
+        throw new IllegalArgumentException("connectionWindowSize must be at least " + Http2Connection.DEFAULT_WINDOW_SIZE + ", was " + connectionWindowSize);
+      }
+      transport.connectionWindowSize = connectionWindowSize;
+      return this;
+    }
+
+    /**
+     * Set the largest frame the server may send, defaults to
+     * {@link Http2Transport#DEFAULT_MAX_FRAME_SIZE}.
+     *
+     * @param maxFrameSize int bytes, between 16384 and 16777215
+     * @return The {@link Http2TransportBuilder}
+     */
+    public Http2TransportBuilder maxFrameSize(final int maxFrameSize) {
+      if (maxFrameSize < Http2Connection.DEFAULT_MAX_FRAME_SIZE || maxFrameSize > 0xffffff) {
+        throw new IllegalArgumentException("maxFrameSize must be between 16384 and 16777215, was " + maxFrameSize);
+      }
+      transport.maxFrameSize = maxFrameSize;
+      return this;
+    }
+
+    /**
+     * Set the size of the HPACK table the server may use to compress response
+     * headers, defaults to {@link Http2Transport#DEFAULT_HEADER_TABLE_SIZE}.
+     *
+     * @param headerTableSize int bytes, 0 disables the table
+     * @return The {@link Http2TransportBuilder}
+     */
+    public Http2TransportBuilder headerTableSize(final int headerTableSize) {
+      if (headerTableSize < 0) {
+        throw new IllegalArgumentException("headerTableSize cannot be negative, was " + headerTableSize);
+      }
+      transport.headerTableSize = headerTableSize;
+      return this;
+    }
+
+    /**
+     * Send plain HTTP requests with HTTP/2 without upgrade, the default, or
+     * delegate them to {@link HttpTransport#getDefault()}.
+     *
+     * @param priorKnowledge boolean
+     * @return The {@link Http2TransportBuilder}
+     */
+    public Http2TransportBuilder priorKnowledge(final boolean priorKnowledge) {
+      transport.priorKnowledge = priorKnowledge;
+      return this;
+    }
+
+    /**
+     * @return The {@link Http2Transport}
+     */
+    public Http2Transport toHttp2Transport() {
+      return transport;
+    }
+
+  }
+
+}
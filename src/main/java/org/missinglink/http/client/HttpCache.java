@@ -0,0 +1,923 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.FileLock;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.missinglink.http.client.HttpClient.HttpClientBuilder;
+import org.missinglink.http.exception.HttpCertificateException;
+import org.missinglink.http.exception.HttpInvocationException;
+import org.missinglink.tools.StreamUtils;
+
+/**
+ * On-disk cache of GET and HEAD responses following the caching rules of RFC
+ * 9111, shared by all {@link HttpClient} instances and processes using the
+ * same directory.
+ * <p>
+ * A response is stored when its status is cacheable by default, it carries no
+ * <code>no-store</code> or <code>private</code> directive, its
+ * <code>Vary</code> header is not <code>*</code> and it has an explicit or
+ * heuristic freshness lifetime or a validator. Responses to requests with
+ * credentials are only stored when marked <code>public</code>. As a shared
+ * cache, <code>s-maxage</code> takes precedence over <code>max-age</code>. A
+ * fresh response is served from disk, a stale one is revalidated with
+ * <code>If-None-Match</code> and <code>If-Modified-Since</code>. The request
+ * directives <code>no-store</code>, <code>no-cache</code> and
+ * <code>max-age</code> are honoured, requests carrying their own conditional
+ * or range headers bypass the cache. A successful response to an unsafe
+ * request such as POST, PUT or DELETE invalidates the responses stored for its
+ * URI and for the URIs of its <code>Location</code> and
+ * <code>Content-Location</code> headers.
+ * </p>
+ * <p>
+ * Entities are stored once per content digest. Entries are evicted least
+ * recently used first once the stored bytes exceed the maximum size. All
+ * changes to the directory are made under a file lock, so parallel builds can
+ * share it.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class HttpCache {
+
+  public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+  static final String META_SUFFIX = ".meta";
+  static final String BODY_SUFFIX = ".body";
+  private static final String TMP_SUFFIX = ".tmp";
+  private static final String LOCK_FILE = ".lock";
+
+  // temporary files older than this were left behind by a failed process
+  private static final long ORPHAN_AGE = 60L * 60 * 1000;
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private static final List<Integer> CACHEABLE_STATUS = Arrays.asList(200, 203, 204, 300, 301, 308, 404, 405, 410, 414, 501);
+
+  private static final List<String> CONDITIONAL_HEADERS = Arrays.asList("range", "if-range", "if-match", "if-none-match", "if-modified-since", "if-unmodified-since");
+
+  private static final Map<String, Object> MONITORS = new HashMap<String, Object>();
+
+  private static final Map<String, HttpCache> SHARED = new HashMap<String, HttpCache>();
+
+  private final File directory;
+  private final long maxSize;
+  private final Object monitor;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param directory File the cache directory, created if missing
+   * @param maxSize long the maximum number of bytes to keep stored
+   * @throws IOException if the directory cannot be created
+   */
+  public HttpCache(final File directory, final long maxSize) throws IOException {
+    super();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not make cache directory " + directory.getAbsolutePath());
+    }
+    this.directory = directory.getCanonicalFile();
+    this.maxSize = maxSize;
+    // file locks are held by the JVM, threads are kept apart per directory
+    synchronized (MONITORS) {
+      Object m = MONITORS.get(this.directory.getPath());
+      if (null == m) {
+        m = new Object();
+        MONITORS.put(this.directory.getPath(), m);
+      }
+      this.monitor = m;
+    }
+  }
+
+  /**
+   * Return the cache of directory shared within the JVM, so all clients using
+   * the directory with the same maximum size share its hit and miss counts.
+   *
+   * @param directory File the cache directory, created if missing
+   * @param maxSize long the maximum number of bytes to keep stored
+   * @return The shared {@link HttpCache}
+   * @throws IOException if the directory cannot be created
+   */
+  public static HttpCache getShared(final File directory, final long maxSize) throws IOException {
+    final String key = directory.getCanonicalPath() + File.pathSeparator + maxSize;
+    synchronized (SHARED) {
+      HttpCache cache = SHARED.get(key);
+      if (null == cache) {
+        cache = new HttpCache(directory, maxSize);
+        SHARED.put(key, cache);
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * @param httpClient HttpClient
+   * @return true if the request of httpClient may be answered by this cache
+   */
+  public boolean accepts(final HttpClient httpClient) {
+    if (HttpMethod.GET != httpClient.getMethod() && HttpMethod.HEAD != httpClient.getMethod() || httpClient.hasEntity()) {
+      return false;
+    }
+    for (final String header : httpClient.getHeaders().keySet()) {
+      if (CONDITIONAL_HEADERS.contains(header.toLowerCase(Locale.ENGLISH))) {
+        return false;
+      }
+    }
+    return !directives(requestHeader(httpClient, "Cache-Control")).containsKey("no-store");
+  }
+
+  /**
+   * Answer the request of httpClient from the cache, revalidating or fetching
+   * and storing the response as needed.
+   *
+   * @param httpClient HttpClient
+   * @param sink ResponseSink, or null to buffer the entity in the response
+   * @return The {@link HttpResponse}
+   * @throws HttpInvocationException on failure
+   * @throws HttpCertificateException on HTTPS failure
+   */
+  HttpResponse invoke(final HttpClient httpClient, final ResponseSink sink) throws HttpInvocationException, HttpCertificateException {
+    final String key = key(httpClient);
+    final Properties entry;
+    try {
+      entry = load(key, httpClient);
+    } catch (final IOException e) {
+      throw new HttpInvocationException("Failed to read cache entry from " + directory.getAbsolutePath(), e);
+    }
+
+    if (null != entry && isFresh(httpClient, entry)) {
+      final HttpResponse response = serve(httpClient, entry, sink);
+      if (null != response) {
+        hits.incrementAndGet();
+        return response;
+      }
+    }
+
+    // fetch or revalidate
+    HttpClient network = httpClient;
+    final boolean revalidate = null != entry && (null != entry.getProperty("header.etag") || null != entry.getProperty("header.last-modified"));
+    if (revalidate) {
+      final HttpClientBuilder builder = httpClient.copyWithoutEntity().build();
+      if (null != entry.getProperty("header.etag")) {
+        builder.header("If-None-Match", entry.getProperty("header.etag"));
+      }
+      if (null != entry.getProperty("header.last-modified")) {
+        builder.header("If-Modified-Since", entry.getProperty("header.last-modified"));
+      }
+      network = builder.toHttpClient();
+    }
+
+    final long requestTime = System.currentTimeMillis();
+    final HttpResponse response = network.exchange(new StoreSink(httpClient, key, sink, requestTime, revalidate));
+    if (revalidate && HttpURLConnection.HTTP_NOT_MODIFIED == response.getStatus()) {
+      try {
+        refresh(key, entry, response, requestTime);
+      } catch (final IOException e) {
+        throw new HttpInvocationException("Failed to update cache entry in " + directory.getAbsolutePath(), e);
+      }
+      final HttpResponse revalidated = serve(httpClient, entry, sink);
+      if (null != revalidated) {
+        hits.incrementAndGet();
+        // the time spent on the conditional request
+        revalidated.setTiming(response.getTiming());
+        revalidated.setTlsSession(response.getTlsSession());
+        return revalidated;
+      }
+      // evicted in the meantime
+      return httpClient.exchange(sink);
+    }
+    misses.incrementAndGet();
+    return response;
+  }
+
+  /**
+   * Drop the responses stored for the target of an unsafe request which
+   * succeeded, following RFC 9111 section 4.4. The <code>Location</code> and
+   * <code>Content-Location</code> of the response are invalidated as well when
+   * they have the same origin as the request.
+   *
+   * @param httpClient HttpClient
+   * @param response HttpResponse to the request of httpClient
+   * @throws HttpInvocationException if the cache cannot be updated
+   */
+  void invalidate(final HttpClient httpClient, final HttpResponse response) throws HttpInvocationException {
+    if (httpClient.getMethod().isSafe() || response.getStatus() < 200 || response.getStatus() >= 400) {
+      return;
+    }
+    final String uri = httpClient.getUri();
+    final List<String> uris = new ArrayList<String>();
+    uris.add(uri);
+    for (final String header : Arrays.asList("Location", "Content-Location")) {
+      final String location = sameOrigin(uri, response.getHeaderSingleValue(header));
+      if (null != location) {
+        uris.add(location);
+      }
+    }
+    try {
+      synchronized (monitor) {
+        final FileLock lock = lock();
+        try {
+          for (final String target : uris) {
+            for (final HttpMethod method : Arrays.asList(HttpMethod.GET, HttpMethod.HEAD)) {
+              remove(key(method, target));
+            }
+          }
+        } finally {
+          release(lock);
+        }
+      }
+    } catch (final IOException e) {
+      throw new HttpInvocationException("Failed to invalidate cache entries in " + directory.getAbsolutePath(), e);
+    }
+  }
+
+  /**
+   * Drop all stored responses.
+   *
+   * @throws IOException on failure
+   */
+  public void clear() throws IOException {
+    synchronized (monitor) {
+      final FileLock lock = lock();
+      try {
+        for (final File file : listFiles()) {
+          if (file.getName().endsWith(META_SUFFIX) || file.getName().endsWith(BODY_SUFFIX)) {
+            file.delete();
+          }
+        }
+      } finally {
+        release(lock);
+      }
+    }
+  }
+
+  /**
+   * @return the number of bytes currently stored
+   */
+  public long getSize() {
+    long size = 0L;
+    for (final File file : listFiles()) {
+      if (file.getName().endsWith(META_SUFFIX) || file.getName().endsWith(BODY_SUFFIX)) {
+        size += file.length();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return the number of requests answered from the cache, including
+   *         revalidated ones
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of cacheable requests which needed a full response
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the directory
+   */
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * @return the maxSize
+   */
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  private Properties load(final String key, final HttpClient httpClient) throws IOException {
+    synchronized (monitor) {
+      final FileLock lock = lock();
+      try {
+        final File meta = new File(directory, key + META_SUFFIX);
+        if (!meta.isFile()) {
+          return null;
+        }
+        final Properties entry = readProperties(meta);
+        if (!httpClient.getUri().equals(entry.getProperty("uri")) || !httpClient.getMethod().name().equals(entry.getProperty("method")) || !varyMatches(httpClient, entry)) {
+          return null;
+        }
+        // the entry is used, keep it from eviction
+        meta.setLastModified(System.currentTimeMillis());
+        return entry;
+      } finally {
+        release(lock);
+      }
+    }
+  }
+
+  private HttpResponse serve(final HttpClient httpClient, final Properties entry, final ResponseSink sink) throws HttpInvocationException {
+    final InputStream is;
+    try {
+      is = new FileInputStream(new File(directory, entry.getProperty("body") + BODY_SUFFIX));
+    } catch (final FileNotFoundException e) {
+      return null;
+    }
+    final HttpResponse response = new HttpResponse(httpClient);
+    try {
+      try {
+        response.setStatus(Integer.parseInt(entry.getProperty("status")));
+        response.setMessage(entry.getProperty("message"));
+        response.setHeaders(headers(entry));
+        response.getHeaders().put("Age", single(Long.toString(currentAge(entry) / 1000)));
+        response.readHeaderFields();
+        response.setCached(true);
+        if (null == sink) {
+          response.setEntity(httpClient.readEntity(response, is));
+          response.setEntityLength(response.getEntity().length);
+        } else {
+          response.setEntityLength(sink.receive(response, is));
+        }
+      } finally {
+        is.close();
+      }
+    } catch (final IOException e) {
+      throw new HttpInvocationException("Failed to read cached entity from " + directory.getAbsolutePath(), e);
+    }
+    return response;
+  }
+
+  private void store(final String key, final Properties entry, final File tmp, final String digest) throws IOException {
+    synchronized (monitor) {
+      final FileLock lock = lock();
+      try {
+        final File body = new File(directory, digest + BODY_SUFFIX);
+        if (body.exists()) {
+          // the same content is already stored
+          tmp.delete();
+        } else if (!tmp.renameTo(body)) {
+          throw new IOException("Could not rename " + tmp.getAbsolutePath() + " to " + body.getAbsolutePath());
+        }
+        body.setLastModified(System.currentTimeMillis());
+        entry.setProperty("body", digest);
+        writeMeta(key, entry);
+        evict();
+      } finally {
+        release(lock);
+      }
+    }
+  }
+
+  private void refresh(final String key, final Properties entry, final HttpResponse notModified, final long requestTime) throws IOException {
+    // headers of the 304 response replace the stored ones
+    final Map<String, List<String>> headers = headers(entry);
+    for (final Map.Entry<String, List<String>> header : notModified.getHeaders().entrySet()) {
+      if (null != header.getKey() && !"content-length".equalsIgnoreCase(header.getKey())) {
+        removeHeader(headers, header.getKey());
+        headers.put(header.getKey(), header.getValue());
+      }
+    }
+    setHeaders(entry, headers);
+    entry.setProperty("requestTime", Long.toString(requestTime));
+    entry.setProperty("responseTime", Long.toString(System.currentTimeMillis()));
+    synchronized (monitor) {
+      final FileLock lock = lock();
+      try {
+        writeMeta(key, entry);
+      } finally {
+        release(lock);
+      }
+    }
+  }
+
+  private void writeMeta(final String key, final Properties entry) throws IOException {
+    final File tmp = File.createTempFile("meta", TMP_SUFFIX, directory);
+    final OutputStream os = new FileOutputStream(tmp);
+    try {
+      entry.store(os, null);
+    } finally {
+      os.close();
+    }
+    final File meta = new File(directory, key + META_SUFFIX);
+    if (!tmp.renameTo(meta) && !(meta.delete() && tmp.renameTo(meta))) {
+      tmp.delete();
+      throw new IOException("Could not write " + meta.getAbsolutePath());
+    }
+  }
+
+  // drop an entry, and its body once unreferenced
+  private void remove(final String key) throws IOException {
+    final File meta = new File(directory, key + META_SUFFIX);
+    if (!meta.isFile()) {
+      return;
+    }
+    final String body = readProperties(meta).getProperty("body");
+    meta.delete();
+    for (final File file : listFiles()) {
+      if (file.getName().endsWith(META_SUFFIX) && body.equals(readProperties(file).getProperty("body"))) {
+        return;
+      }
+    }
+    new File(directory, body + BODY_SUFFIX).delete();
+  }
+
+  // drop least recently used entries, and their bodies once unreferenced, until the size fits
+  private void evict() throws IOException {
+    final long now = System.currentTimeMillis();
+    long size = 0L;
+    final List<File> metas = new ArrayList<File>();
+    for (final File file : listFiles()) {
+      if (file.getName().endsWith(META_SUFFIX)) {
+        metas.add(file);
+        size += file.length();
+      } else if (file.getName().endsWith(BODY_SUFFIX)) {
+        size += file.length();
+      } else if (file.getName().endsWith(TMP_SUFFIX) && now - file.lastModified() > ORPHAN_AGE) {
+        file.delete();
+      }
+    }
+    if (size <= maxSize) {
+      return;
+    }
+
+    final Map<File, String> bodies = new HashMap<File, String>();
+    final Map<String, Integer> references = new HashMap<String, Integer>();
+    for (final File meta : metas) {
+      final String body = readProperties(meta).getProperty("body");
+      bodies.put(meta, body);
+      references.put(body, null == references.get(body) ? 1 : references.get(body) + 1);
+    }
+    final File[] lru = metas.toArray(new File[metas.size()]);
+    Arrays.sort(lru, new Comparator<File>() {
+      @Override
+      public int compare(final File a, final File b) {
+        return a.lastModified() < b.lastModified() ? -1 : a.lastModified() == b.lastModified() ? 0 : 1;
+      }
+    });
+    for (int i = 0; i < lru.length && size > maxSize; i++) {
+      size -= lru[i].length();
+      lru[i].delete();
+      final String body = bodies.get(lru[i]);
+      final int remaining = references.get(body) - 1;
+      references.put(body, remaining);
+      if (remaining == 0) {
+        final File file = new File(directory, body + BODY_SUFFIX);
+        size -= file.length();
+        file.delete();
+      }
+    }
+  }
+
+  private File[] listFiles() {
+    final File[] files = directory.listFiles();
+    return null == files ? new File[0] : files;
+  }
+
+  private FileLock lock() throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+    try {
+      return raf.getChannel().lock();
+    } catch (final IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  private static void release(final FileLock lock) throws IOException {
+    try {
+      lock.release();
+    } finally {
+      lock.channel().close();
+    }
+  }
+
+  private static Properties readProperties(final File file) throws IOException {
+    final Properties properties = new Properties();
+    final InputStream is = new FileInputStream(file);
+    try {
+      properties.load(is);
+    } finally {
+      is.close();
+    }
+    return properties;
+  }
+
+  private boolean isFresh(final HttpClient httpClient, final Properties entry) {
+    final Map<String, String> request = directives(requestHeader(httpClient, "Cache-Control"));
+    final Map<String, String> response = directives(entry.getProperty("header.cache-control"));
+    if (request.containsKey("no-cache") || response.containsKey("no-cache") || "no-cache".equalsIgnoreCase(requestHeader(httpClient, "Pragma"))) {
+      return false;
+    }
+    final long age = currentAge(entry);
+    if (request.containsKey("max-age") && age > seconds(request.get("max-age"))) {
+      return false;
+    }
+    return age < freshnessLifetime(entry);
+  }
+
+  // RFC 9111 section 4.2.1, in milliseconds
+  private static long freshnessLifetime(final Properties entry) {
+    final Map<String, String> directives = directives(entry.getProperty("header.cache-control"));
+    if (directives.containsKey("s-maxage")) {
+      return seconds(directives.get("s-maxage"));
+    }
+    if (directives.containsKey("max-age")) {
+      return seconds(directives.get("max-age"));
+    }
+    final Date date = HttpResponse.parseDate(entry.getProperty("header.date"));
+    final long dateValue = null == date ? Long.parseLong(entry.getProperty("responseTime")) : date.getTime();
+    if (null != entry.getProperty("header.expires")) {
+      final Date expires = HttpResponse.parseDate(entry.getProperty("header.expires"));
+      return null == expires ? 0L : Math.max(0L, expires.getTime() - dateValue);
+    }
+    // heuristic freshness, a tenth of the time since the last modification
+    final Date lastModified = HttpResponse.parseDate(entry.getProperty("header.last-modified"));
+    return null == lastModified ? 0L : Math.max(0L, (dateValue - lastModified.getTime()) / 10);
+  }
+
+  // RFC 9111 section 4.2.3, in milliseconds
+  private static long currentAge(final Properties entry) {
+    final long requestTime = Long.parseLong(entry.getProperty("requestTime"));
+    final long responseTime = Long.parseLong(entry.getProperty("responseTime"));
+    final Date date = HttpResponse.parseDate(entry.getProperty("header.date"));
+    final long apparentAge = null == date ? 0L : Math.max(0L, responseTime - date.getTime());
+    final long ageValue = null == entry.getProperty("header.age") ? 0L : seconds(entry.getProperty("header.age"));
+    final long correctedAge = ageValue + responseTime - requestTime;
+    return Math.max(apparentAge, correctedAge) + System.currentTimeMillis() - responseTime;
+  }
+
+  private static boolean isStorable(final HttpClient httpClient, final HttpResponse response) {
+    if (!CACHEABLE_STATUS.contains(response.getStatus())) {
+      return false;
+    }
+    final Map<String, String> directives = directives(join(response.getHeader("Cache-Control")));
+    // a shared cache never stores private responses
+    if (directives.containsKey("no-store") || directives.containsKey("private") || "*".equals(trim(join(response.getHeader("Vary"))))) {
+      return false;
+    }
+    final boolean credentials = null != httpClient.getUsername() || null != requestHeader(httpClient, "Authorization");
+    if (credentials && !directives.containsKey("public")) {
+      return false;
+    }
+    return directives.containsKey("s-maxage") || directives.containsKey("max-age") || null != response.getHeader("Expires") || null != response.getHeader("ETag") || null != response.getHeader("Last-Modified");
+  }
+
+  private static Properties describe(final HttpClient httpClient, final HttpResponse response, final long requestTime) {
+    final Properties entry = new Properties();
+    entry.setProperty("uri", httpClient.getUri());
+    entry.setProperty("method", httpClient.getMethod().name());
+    entry.setProperty("status", Integer.toString(response.getStatus()));
+    if (null != response.getMessage()) {
+      entry.setProperty("message", response.getMessage());
+    }
+    entry.setProperty("requestTime", Long.toString(requestTime));
+    entry.setProperty("responseTime", Long.toString(System.currentTimeMillis()));
+    setHeaders(entry, response.getHeaders());
+    // the request headers selected by Vary must match for the entry to be used
+    final String vary = join(response.getHeader("Vary"));
+    if (null != vary) {
+      for (final String name : vary.split(",")) {
+        final String value = requestHeader(httpClient, name.trim());
+        if (null != value) {
+          entry.setProperty("vary." + name.trim().toLowerCase(Locale.ENGLISH), value);
+        }
+      }
+    }
+    return entry;
+  }
+
+  private static boolean varyMatches(final HttpClient httpClient, final Properties entry) {
+    final String vary = entry.getProperty("header.vary");
+    if (null == vary) {
+      return true;
+    }
+    for (final String name : vary.split(",")) {
+      final String stored = entry.getProperty("vary." + name.trim().toLowerCase(Locale.ENGLISH));
+      final String value = requestHeader(httpClient, name.trim());
+      if (null == stored ? null != value : !stored.equals(value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // headers are kept as header.<lower case name> with values joined, plus
+  // the original name and each value for serving
+  private static void setHeaders(final Properties entry, final Map<String, List<String>> headers) {
+    for (final String name : entry.stringPropertyNames()) {
+      if (name.startsWith("header.") || name.startsWith("headers.")) {
+        entry.remove(name);
+      }
+    }
+    int i = 0;
+    for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+      if (null == header.getKey()) {
+        entry.setProperty("statusLine", join(header.getValue()));
+        continue;
+      }
+      entry.setProperty("header." + header.getKey().toLowerCase(Locale.ENGLISH), join(header.getValue()));
+      for (final String value : header.getValue()) {
+        entry.setProperty("headers." + i + ".name", header.getKey());
+        entry.setProperty("headers." + i + ".value", value);
+        i++;
+      }
+    }
+  }
+
+  private static Map<String, List<String>> headers(final Properties entry) {
+    final Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+    if (null != entry.getProperty("statusLine")) {
+      headers.put(null, single(entry.getProperty("statusLine")));
+    }
+    for (int i = 0; null != entry.getProperty("headers." + i + ".name"); i++) {
+      final String name = entry.getProperty("headers." + i + ".name");
+      if (!headers.containsKey(name)) {
+        headers.put(name, new ArrayList<String>());
+      }
+      headers.get(name).add(entry.getProperty("headers." + i + ".value"));
+    }
+    return headers;
+  }
+
+  private static void removeHeader(final Map<String, List<String>> headers, final String name) {
+    for (final String key : new ArrayList<String>(headers.keySet())) {
+      if (null != key && key.equalsIgnoreCase(name)) {
+        headers.remove(key);
+      }
+    }
+  }
+
+  private static List<String> single(final String value) {
+    final List<String> values = new ArrayList<String>(1);
+    values.add(value);
+    return values;
+  }
+
+  private static String requestHeader(final HttpClient httpClient, final String name) {
+    for (final Map.Entry<String, String> header : httpClient.getHeaders().entrySet()) {
+      if (header.getKey().equalsIgnoreCase(name)) {
+        return header.getValue();
+      }
+    }
+    return null;
+  }
+
+  private static Map<String, String> directives(final String cacheControl) {
+    final Map<String, String> directives = new HashMap<String, String>();
+    if (null != cacheControl) {
+      for (final String directive : cacheControl.split(",")) {
+        final String[] pair = directive.split("=", 2);
+        final String name = pair[0].trim().toLowerCase(Locale.ENGLISH);
+        if (name.length() > 0) {
+          directives.put(name, pair.length > 1 ? trim(pair[1]).replace("\"", "") : null);
+        }
+      }
+    }
+    return directives;
+  }
+
+  // delta-seconds in milliseconds, invalid values count as 0
+  private static long seconds(final String value) {
+    try {
+      return Math.max(0L, Long.parseLong(trim(value))) * 1000;
+    } catch (final NumberFormatException e) {
+      return 0L;
+    }
+  }
+
+  private static String join(final List<String> values) {
+    if (null == values || values.isEmpty()) {
+      return null;
+    }
+    final StringBuilder sb = new StringBuilder();
+    for (final String value : values) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(value);
+    }
+    return sb.toString();
+  }
+
+  private static String trim(final String value) {
+    return null == value ? null : value.trim();
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(final byte[] bytes) {
+    final StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (final byte b : bytes) {
+      sb.append(HEX[b >> 4 & 0xf]).append(HEX[b & 0xf]);
+    }
+    return sb.toString();
+  }
+
+  private static String key(final HttpClient httpClient) throws HttpInvocationException {
+    return key(httpClient.getMethod(), httpClient.getUri());
+  }
+
+  private static String key(final HttpMethod method, final String uri) throws HttpInvocationException {
+    try {
+      return hex(sha256().digest((method.name() + " " + uri).getBytes("UTF-8")));
+    } catch (final UnsupportedEncodingException e) {
+      throw new HttpInvocationException(e);
+    }
+  }
+
+  // location resolved against uri, or null if missing, invalid or of another origin
+  private static String sameOrigin(final String uri, final String location) {
+    if (null == location) {
+      return null;
+    }
+    try {
+      final URI base = new URI(uri);
+      final URI resolved = base.resolve(location);
+      if (!base.getScheme().equalsIgnoreCase(resolved.getScheme()) || !base.getHost().equalsIgnoreCase(resolved.getHost()) || base.getPort() != resolved.getPort()) {
+        return null;
+      }
+      return resolved.toString();
+    } catch (final URISyntaxException e) {
+      return null;
+    } catch (final IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Copies everything read through it, closing it leaves the underlying
+   * stream open.
+   */
+  private static final class TeeInputStream extends FilterInputStream {
+
+    private final OutputStream copy;
+    private long count;
+
+    private TeeInputStream(final InputStream in, final OutputStream copy) {
+      super(in);
+      this.copy = copy;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int b = super.read();
+      if (b >= 0) {
+        copy.write(b);
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      final int num = super.read(b, off, len);
+      if (num > 0) {
+        copy.write(b, off, num);
+        count += num;
+      }
+      return num;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+      final byte[] buf = new byte[(int) Math.min(n, StreamUtils.COPY_BUFFER_SIZE)];
+      final int num = read(buf, 0, buf.length);
+      return num < 0 ? 0 : num;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() {
+      // the caller of the sink closes the underlying stream
+    }
+
+    // copy whatever the reader left unread
+    private void drain() throws IOException {
+      final byte[] buf = new byte[StreamUtils.COPY_BUFFER_SIZE];
+      while (read(buf, 0, buf.length) >= 0) {
+        continue;
+      }
+    }
+
+  }
+
+  /**
+   * Hands the response to the caller's sink while storing a copy of a
+   * storable response.
+   */
+  private final class StoreSink extends ResponseSink {
+
+    private final HttpClient httpClient;
+    private final String key;
+    private final ResponseSink sink;
+    private final long requestTime;
+    private final boolean revalidate;
+
+    private StoreSink(final HttpClient httpClient, final String key, final ResponseSink sink, final long requestTime, final boolean revalidate) {
+      this.httpClient = httpClient;
+      this.key = key;
+      this.sink = sink;
+      this.requestTime = requestTime;
+      this.revalidate = revalidate;
+    }
+
+    @Override
+    public long receive(final HttpResponse response, final InputStream is) throws IOException {
+      if (revalidate && HttpURLConnection.HTTP_NOT_MODIFIED == response.getStatus()) {
+        // the stored entity is served instead
+        return 0L;
+      }
+      if (!isStorable(httpClient, response)) {
+        return deliver(response, is);
+      }
+
+      // a decoded entity has no length to compare with
+      final long expected = HttpMethod.HEAD == httpClient.getMethod() ? -1L : response.getContentLength();
+      final File tmp = File.createTempFile("body", TMP_SUFFIX, directory);
+      boolean stored = false;
+      try {
+        final MessageDigest md = sha256();
+        final OutputStream os = new DigestOutputStream(new FileOutputStream(tmp), md);
+        final TeeInputStream tee = new TeeInputStream(is, os);
+        final long count;
+        try {
+          count = deliver(response, tee);
+          tee.drain();
+        } finally {
+          os.close();
+        }
+        // never store an entity cut short by the connection
+        if (expected < 0 || tee.count == expected) {
+          store(key, describe(httpClient, response, requestTime), tmp, hex(md.digest()));
+          stored = true;
+        }
+        return count;
+      } finally {
+        if (!stored) {
+          tmp.delete();
+        }
+      }
+    }
+
+    private long deliver(final HttpResponse response, final InputStream is) throws IOException {
+      if (null != sink) {
+        return sink.receive(response, is);
+      }
+      response.setEntity(httpClient.readEntity(response, is));
+      return response.getEntity().length;
+    }
+
+  }
+
+}
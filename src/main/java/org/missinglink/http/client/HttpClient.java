@@ -17,45 +17,47 @@
 package org.missinglink.http.client;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.security.GeneralSecurityException;
 import java.security.KeyStore;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
-import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLHandshakeException;
-import javax.net.ssl.SSLSession;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
-import javax.net.ssl.X509TrustManager;
 
 import org.missinglink.http.encoding.Base64;
 import org.missinglink.http.exception.HttpCertificateException;
+import org.missinglink.http.exception.HttpClientException;
 import org.missinglink.http.exception.HttpInvocationException;
+import org.missinglink.http.exception.HttpTimeoutException;
 import org.missinglink.http.exception.InvalidStreamException;
 import org.missinglink.http.exception.InvalidUriException;
+import org.missinglink.tools.SizeLimitExceededException;
 import org.missinglink.tools.StreamUtils;
 
 /**
- * HTTP client which wraps core Java classes {@link URL},
+ * HTTP client which by default wraps core Java classes {@link URL},
  * {@link HttpURLConnection} and {@link HttpsURLConnection} for communication
- * functionality.
+ * functionality, see {@link HttpTransport}.
  * <p>
  * Supports TLS/SSL connections per connection (as opposed to a JVM-wide
  * configuration based on the System Property -Djavax.net.ssl.trustStore) using
@@ -76,6 +78,7 @@ public class HttpClient {
   // HTTP headers
   public static final String ACCEPT = "Accept";
   public static final String CONTENT_TYPE = "Content-Type";
+  public static final String CONTENT_ENCODING = "Content-Encoding";
 
   private String protocol;
   private String host;
@@ -85,18 +88,37 @@ public class HttpClient {
   private String username;
   private String password;
   private InputStream entity;
+  private RequestEntity requestEntity;
   private boolean binaryEntity = false;
   private boolean followRedirects = true;
   private boolean setContentLength = false;
   private InputStream keyStore;
+  private byte[] keyStoreBytes;
   private String keyStorePassword;
   private boolean trustAll = false;
+  private ClientCertificate clientCertificate;
+  private SslContextCache sslContextCache = SslContextCache.getDefault();
+  private HttpConnectionPool connectionPool = HttpConnectionPool.getDefault();
+  private int segments = 1;
+  private boolean resume = false;
+  private boolean conditional = false;
+  private HttpCache cache;
+  private ExecutorService executor;
+  private HttpTransport transport;
+  private long maxEntitySize = -1L;
+  private boolean compressed = false;
+  private RetryPolicy retryPolicy;
+  private int connectTimeout;
+  private int readTimeout;
+  private long deadline;
 
   private final Map<String, String> queryUnencoded = new LinkedHashMap<String, String>();
   private final Map<String, String> queryEncoded = new LinkedHashMap<String, String>();
 
   private final Map<String, String> headers = new HashMap<String, String>();
 
+  private final List<HttpClientListener> listeners = new ArrayList<HttpClientListener>();
+
   protected HttpClient() {
     super();
   }
@@ -128,6 +150,9 @@ public class HttpClient {
    * @throws IOException on failure
    */
   public String getEntityAsString() throws IOException {
+    if (null != requestEntity) {
+      return readRequestEntity() ? StreamUtils.inputStreamToString(getRequestContent().openStream()) : null;
+    }
     if (null == entity || entity.available() == 0) {
       return null;
     }
@@ -144,6 +169,9 @@ public class HttpClient {
    * @throws IOException on failure
    */
   public byte[] getEntityAsByteArray() throws IOException {
+    if (null != requestEntity) {
+      return readRequestEntity() ? StreamUtils.inputStreamToByteArray(getRequestContent().openStream()) : null;
+    }
     if (null == entity || entity.available() == 0) {
       return null;
     }
@@ -153,159 +181,618 @@ public class HttpClient {
     return result;
   }
 
-  private static class TrustAllTrustManager implements TrustManager, X509TrustManager {
-    @Override
-    public X509Certificate[] getAcceptedIssuers() {
-      return null;
-    }
+  // a streamed entity can only be read up front if it can be read again
+  private boolean readRequestEntity() {
+    return requestEntity.isRepeatable() && getRequestContent().getContentLength() != 0;
+  }
 
-    public boolean isServerTrusted(final X509Certificate[] certs) {
-      return true;
-    }
+  // the entity content as given, before it is compressed for sending
+  private RequestEntity getRequestContent() {
+    return requestEntity instanceof GzipRequestEntity ? ((GzipRequestEntity) requestEntity).getEntity() : requestEntity;
+  }
 
-    public boolean isClientTrusted(final X509Certificate[] certs) {
-      return true;
-    }
+  /**
+   * @return true if the in memory entity is sent as is rather than as text in
+   *         the platform charset
+   */
+  public boolean isBinaryEntity() {
+    return binaryEntity;
+  }
 
-    @Override
-    public void checkServerTrusted(final X509Certificate[] certs, final String authType) throws CertificateException {
+  /**
+   * @return true if any HTTPS server certificate and host name is accepted
+   */
+  public boolean isTrustAll() {
+    return trustAll;
+  }
+
+  /**
+   * @return The BASIC <code>Authorization</code> header value for the
+   *         credentials, or null if no username is set
+   */
+  public String getAuthorization() {
+    if (null == username || username.length() == 0) {
+      return null;
     }
+    final String userpass = username + ":" + (null == password ? "" : password);
+    return "Basic " + Base64.encodeBytes(userpass.getBytes());
+  }
+
+  /**
+   * @return true if a request entity is set, either in memory or streamed
+   */
+  public boolean hasEntity() {
+    return null != entity || null != requestEntity;
+  }
+
+  /**
+   * @return true if the request may be sent on a pipelined connection, see
+   *         {@link #invokePipelined(List)}: an idempotent method without an
+   *         entity which is not answered from a {@link HttpCache}
+   */
+  public boolean isPipelineable() {
+    return method.isIdempotent() && !hasEntity() && null == cache;
+  }
 
-    @Override
-    public void checkClientTrusted(final X509Certificate[] certs, final String authType) throws CertificateException {
+  /**
+   * Return the {@link #keyStore} content, the stream is read once and kept so
+   * the client can be invoked repeatedly.
+   *
+   * @return The {@link KeyStore} content, or null if none is set
+   * @throws IOException on failure
+   */
+  protected synchronized byte[] getKeyStoreBytes() throws IOException {
+    if (null == keyStoreBytes && null != keyStore) {
+      keyStoreBytes = StreamUtils.inputStreamToByteArray(keyStore);
     }
+    return keyStoreBytes;
   }
 
   /**
    * Invoke the HTTP service represented by this {@link HttpClient}.
+   * <p>
+   * A connection for the route is leased from the {@link HttpConnectionPool}
+   * and returned once the response has been read; connections whose response
+   * was fully consumed are kept alive for the next request.
+   * </p>
    *
    * @return The {@link HttpResponse} for the HTTP invocation
    * @throws HttpInvocationException on failure
    * @throws HttpCertificateException on HTTPS failure
    */
   public HttpResponse invoke() throws HttpInvocationException, HttpCertificateException {
-    try {
-      final HttpResponse response = new HttpResponse(this);
-      final String uri = getUri();
-      final URL url = new URL(uri);
-
-      final HttpURLConnection httpUrlConnection = (HttpURLConnection) url.openConnection();
-      httpUrlConnection.setDoInput(true);
+    return invokeWithin(null, null);
+  }
 
-      // set method
-      httpUrlConnection.setRequestMethod(method.name());
+  /**
+   * Invoke the HTTP service represented by this {@link HttpClient}, streaming
+   * the response entity to sink rather than buffering it in
+   * {@link HttpResponse#getEntity()}.
+   *
+   * @param sink ResponseSink
+   * @return The {@link HttpResponse} for the HTTP invocation
+   * @throws HttpInvocationException on failure
+   * @throws HttpCertificateException on HTTPS failure
+   */
+  public HttpResponse invoke(final ResponseSink sink) throws HttpInvocationException, HttpCertificateException {
+    if (null == sink) {
+      throw new IllegalArgumentException("sink cannot be null");
+    }
+    return invokeWithin(sink, null);
+  }
 
-      // follow redirects
-      httpUrlConnection.setInstanceFollowRedirects(followRedirects);
+  /**
+   * Invoke the HTTP service represented by this {@link HttpClient}, writing
+   * the response entity to file, see {@link FileResponseSink}.
+   * <p>
+   * A GET request is downloaded according to {@link #isConditional()},
+   * {@link #isResume()} and {@link #getSegments()}.
+   * </p>
+   *
+   * @param file File
+   * @return The {@link HttpResponse} for the HTTP invocation
+   * @throws HttpInvocationException on failure
+   * @throws HttpCertificateException on HTTPS failure
+   */
+  public HttpResponse invoke(final File file) throws HttpInvocationException, HttpCertificateException {
+    if (null == file) {
+      throw new IllegalArgumentException("file cannot be null");
+    }
+    return invokeWithin(null, file);
+  }
 
-      // if HTTPS, check for HTTPS options
-      if (HTTPS.equalsIgnoreCase(protocol)) {
-        if (trustAll) {
-          final HostnameVerifier hv = new HostnameVerifier() {
-            @Override
-            public boolean verify(final String urlHostName, final SSLSession session) {
-              return true;
-            }
-          };
+  /**
+   * Invoke the HTTP service represented by this {@link HttpClient} on the
+   * {@link #getExecutor()}, see {@link #invoke()}.
+   *
+   * @return The {@link HttpFuture} of the response, cancelling it closes the
+   *         connection
+   */
+  public HttpFuture invokeAsync() {
+    return submit(new Callable<HttpResponse>() {
+      @Override
+      public HttpResponse call() throws HttpInvocationException, HttpCertificateException {
+        return invoke();
+      }
+    });
+  }
 
-          final TrustManager[] trustAllCerts = new TrustManager[] {new TrustAllTrustManager()};
+  /**
+   * Invoke the HTTP service represented by this {@link HttpClient} on the
+   * {@link #getExecutor()}, see {@link #invoke(ResponseSink)}.
+   *
+   * @param sink ResponseSink
+   * @return The {@link HttpFuture} of the response, cancelling it closes the
+   *         connection
+   */
+  public HttpFuture invokeAsync(final ResponseSink sink) {
+    if (null == sink) {
+      throw new IllegalArgumentException("sink cannot be null");
+    }
+    return submit(new Callable<HttpResponse>() {
+      @Override
+      public HttpResponse call() throws HttpInvocationException, HttpCertificateException {
+        return invoke(sink);
+      }
+    });
+  }
 
-          // Create the SSL context
-          final SSLContext sc = SSLContext.getInstance("SSL");
-          sc.init(null, trustAllCerts, null);
+  /**
+   * Invoke the HTTP service represented by this {@link HttpClient} on the
+   * {@link #getExecutor()}, see {@link #invoke(File)}.
+   *
+   * @param file File
+   * @return The {@link HttpFuture} of the response, cancelling it closes the
+   *         connections
+   */
+  public HttpFuture invokeAsync(final File file) {
+    return submit(new Callable<HttpResponse>() {
+      @Override
+      public HttpResponse call() throws HttpInvocationException, HttpCertificateException {
+        return invoke(file);
+      }
+    });
+  }
 
-          ((HttpsURLConnection) httpUrlConnection).setSSLSocketFactory(sc.getSocketFactory());
+  /**
+   * Invoke the HTTP services represented by httpClients with HTTP/1.1
+   * pipelining: the requests to the same route are written back to back on
+   * one persistent connection and the responses are read in order, saving a
+   * round trip per request.
+   * <p>
+   * The {@link HttpTransport} and {@link HttpConnectionPool} of the first
+   * request to a route are used for all requests to it, the
+   * {@link UrlConnectionTransport} does not pipeline, see
+   * {@link NioTransport}, and {@link Http2Transport} sends the requests as
+   * concurrent streams. When the server closes the connection before all
+   * responses were read, or a response is a redirect to follow, the remaining
+   * requests are sent again one at a time, which is safe as they are
+   * idempotent. Response entities are buffered.
+   * </p>
+   *
+   * @param httpClients List of HttpClient, each {@link #isPipelineable()}
+   * @return The {@link HttpResponse} of each request, in order
+   * @throws HttpInvocationException on failure
+   * @throws HttpCertificateException on HTTPS failure
+   */
+  public static List<HttpResponse> invokePipelined(final List<HttpClient> httpClients) throws HttpInvocationException, HttpCertificateException {
+    final Map<String, List<Integer>> routes = new LinkedHashMap<String, List<Integer>>();
+    for (int i = 0; i < httpClients.size(); i++) {
+      final HttpClient httpClient = httpClients.get(i);
+      if (!httpClient.isPipelineable()) {
+        throw new IllegalArgumentException("Cannot pipeline " + httpClient.getMethod().name() + " " + httpClient.getUri() + ", only idempotent requests without entity or cache can be");
+      }
+      List<Integer> indexes = routes.get(httpClient.getRoute());
+      if (null == indexes) {
+        indexes = new ArrayList<Integer>();
+        routes.put(httpClient.getRoute(), indexes);
+      }
+      indexes.add(Integer.valueOf(i));
+    }
 
-          // Set the default host name verifier to enable the connection.
-          ((HttpsURLConnection) httpUrlConnection).setHostnameVerifier(hv);
+    final HttpResponse[] responses = new HttpResponse[httpClients.size()];
+    for (final List<Integer> indexes : routes.values()) {
+      final List<HttpClient> route = new ArrayList<HttpClient>(indexes.size());
+      for (final Integer i : indexes) {
+        route.add(httpClients.get(i.intValue()));
+      }
+      for (final HttpClient httpClient : route) {
+        httpClient.fireRequestStarted();
+      }
+      final List<HttpResponse> pipelined = route.get(0).pipeline(route);
+      for (int i = 0; i < route.size(); i++) {
+        final HttpResponse response = i < pipelined.size() ? pipelined.get(i) : null;
+        if (null == response) {
+          responses[indexes.get(i).intValue()] = route.get(i).send(null);
         } else {
-          if (null != keyStore) {
-            final KeyStore ks = KeyStore.getInstance("JKS");
-            ks.load(keyStore, null == keyStorePassword ? new char[]{} : keyStorePassword.toCharArray());
-            final TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-            tmf.init(ks);
-
-            final SSLContext ssl = SSLContext.getInstance("TLS");
-            ssl.init(null, tmf.getTrustManagers(), null);
-
-            ((HttpsURLConnection) httpUrlConnection).setSSLSocketFactory(ssl.getSocketFactory());
-          }
+          route.get(i).fireRequestCompleted(response);
+          responses[indexes.get(i).intValue()] = response;
         }
       }
+    }
+    return Arrays.asList(responses);
+  }
+
+  private List<HttpResponse> pipeline(final List<HttpClient> route) throws HttpInvocationException, HttpCertificateException {
+    try {
+      return getTransport().executePipelined(route);
+    } catch (final SSLHandshakeException e) {
+      throw failed(route, new HttpCertificateException(e));
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw failed(route, new HttpInvocationException(e));
+    } catch (final Throwable t) {
+      throw failed(route, new HttpInvocationException(t));
+    }
+  }
 
-      // if username is set, add BASIC authentication header
-      if (null != username && username.length() > 0) {
-        final String userpass = username + ":" + (null == password ? "" : password);
-        final String basicAuth = "Basic " + Base64.encodeBytes(userpass.getBytes());
-        httpUrlConnection.setRequestProperty("Authorization", basicAuth);
+  private static <E extends HttpClientException> E failed(final List<HttpClient> route, final E e) {
+    for (final HttpClient httpClient : route) {
+      httpClient.fireRequestFailed(e);
+    }
+    return e;
+  }
+
+  private HttpFuture submit(final Callable<HttpResponse> callable) {
+    final HttpFuture future = new HttpFuture(callable);
+    getExecutor().execute(future);
+    return future;
+  }
+
+  HttpResponse download(final File file) throws HttpInvocationException, HttpCertificateException {
+    if (HttpMethod.GET == method && !hasEntity()) {
+      if (resume) {
+        return new ResumableDownload(this, file).invoke();
+      }
+      if (segments > 1) {
+        return new SegmentedDownload(this, file, segments).invoke();
       }
+    }
+    return invoke(ResponseSink.toFile(file));
+  }
 
-      // set headers
-      if (headers.size() > 0) {
-        for (final Entry<String, String> header : headers.entrySet()) {
-          httpUrlConnection.setRequestProperty(header.getKey(), header.getValue());
-        }
+  /**
+   * Create a copy of this {@link HttpClient} without its request entity, for
+   * related requests such as the ranges of a segmented download.
+   *
+   * @return The copy, which can be changed through {@link #build()}
+   * @throws HttpInvocationException if the {@link KeyStore} cannot be read
+   */
+  protected HttpClient copyWithoutEntity() throws HttpInvocationException {
+    final HttpClient copy = new HttpClient();
+    copy.protocol = protocol;
+    copy.host = host;
+    copy.port = port;
+    copy.path = path;
+    copy.method = method;
+    copy.username = username;
+    copy.password = password;
+    copy.followRedirects = followRedirects;
+    copy.setContentLength = setContentLength;
+    copy.keyStore = keyStore;
+    try {
+      copy.keyStoreBytes = getKeyStoreBytes();
+    } catch (final IOException e) {
+      throw new HttpInvocationException(e);
+    }
+    copy.keyStorePassword = keyStorePassword;
+    copy.trustAll = trustAll;
+    copy.clientCertificate = clientCertificate;
+    copy.sslContextCache = sslContextCache;
+    copy.connectionPool = connectionPool;
+    copy.segments = segments;
+    copy.resume = resume;
+    copy.cache = cache;
+    copy.executor = executor;
+    copy.transport = transport;
+    copy.maxEntitySize = maxEntitySize;
+    copy.compressed = compressed;
+    copy.retryPolicy = retryPolicy;
+    copy.connectTimeout = connectTimeout;
+    copy.readTimeout = readTimeout;
+    copy.deadline = deadline;
+    copy.queryUnencoded.putAll(queryUnencoded);
+    copy.queryEncoded.putAll(queryEncoded);
+    copy.headers.putAll(headers);
+    copy.listeners.addAll(listeners);
+    return copy;
+  }
+
+  // invoke within the deadline, unless an enclosing invocation set one
+  private HttpResponse invokeWithin(final ResponseSink sink, final File file) throws HttpInvocationException, HttpCertificateException {
+    final Cancellation current = Cancellation.current();
+    if (deadline <= 0 || null != current && current.hasDeadline()) {
+      return null == file ? invokeWith(sink) : invokeTo(file);
+    }
+    final Cancellation cancellation = null == current ? new Cancellation() : current;
+    final Cancellation previous = Cancellation.enter(cancellation);
+    final TimerTask watchdog = cancellation.expireAfter(deadline);
+    try {
+      return null == file ? invokeWith(sink) : invokeTo(file);
+    } catch (final HttpInvocationException e) {
+      if (cancellation.isExpired() && !(e instanceof HttpTimeoutException)) {
+        throw deadlineExceeded(e);
+      }
+      throw e;
+    } catch (final HttpCertificateException e) {
+      if (cancellation.isExpired()) {
+        throw deadlineExceeded(e);
       }
+      throw e;
+    } finally {
+      watchdog.cancel();
+      cancellation.clearDeadline();
+      Cancellation.exit(previous);
+    }
+  }
 
-      // if an entity is set, write it to the connection
-      if (null != entity) {
+  private HttpResponse invokeTo(final File file) throws HttpInvocationException, HttpCertificateException {
+    if (conditional && HttpMethod.GET == method && !hasEntity()) {
+      return new ConditionalDownload(this, file).invoke();
+    }
+    return download(file);
+  }
 
-        httpUrlConnection.setDoOutput(true);
+  private HttpTimeoutException deadlineExceeded(final Throwable cause) {
+    return new HttpTimeoutException("Request exceeded its deadline of " + deadline + " ms", cause);
+  }
 
-        // if entity is binary then put raw data into output stream
-        if (binaryEntity) {
-          httpUrlConnection.getOutputStream().write(getEntityAsByteArray());
-          httpUrlConnection.getOutputStream().close();
-        } else {
-          final OutputStreamWriter writer = new OutputStreamWriter(httpUrlConnection.getOutputStream());
-          final String entityAsString = getEntityAsString();
-          writer.write(entityAsString);
-          writer.close();
-        }
-      }
+  private HttpResponse invokeWith(final ResponseSink sink) throws HttpInvocationException, HttpCertificateException {
+    if (null != cache && cache.accepts(this)) {
+      return cache.invoke(this, sink);
+    }
+    final HttpResponse response = exchange(sink);
+    if (null != cache) {
+      cache.invalidate(this, response);
+    }
+    return response;
+  }
 
-      // read the response entity
-      try {
-        final InputStream responseEntityInputStream = httpUrlConnection.getInputStream();
-        if (null != responseEntityInputStream) {
-          response.setEntity(StreamUtils.inputStreamToByteArray(responseEntityInputStream));
+  // send the request, bypassing any HttpCache
+  HttpResponse exchange(final ResponseSink sink) throws HttpInvocationException, HttpCertificateException {
+    fireRequestStarted();
+    return send(sink);
+  }
+
+  // send a request whose start was already announced to the listeners
+  private HttpResponse send(final ResponseSink sink) throws HttpInvocationException, HttpCertificateException {
+    HttpResponse response;
+    int attempts = 1;
+    try {
+      for (;; attempts++) {
+        try {
+          response = execute(sink);
+        } catch (final IOException e) {
+          if (retry(attempts, null, e)) {
+            continue;
+          }
+          throw e;
+        }
+        if (!retry(attempts, response, null)) {
+          break;
         }
-      } catch (final IOException e) {
-        // ignore
       }
-
-      // read the error entity
-      final InputStream errorEntityInputStream = httpUrlConnection.getErrorStream();
-      if (null != errorEntityInputStream) {
-        response.setEntity(StreamUtils.inputStreamToByteArray(errorEntityInputStream));
+    } catch (final SSLHandshakeException e) {
+      // a handshake aborted by the deadline is no certificate problem
+      if (isExpired()) {
+        throw fireRequestFailed(deadlineExceeded(e));
       }
+      throw fireRequestFailed(new HttpCertificateException(e));
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw fireRequestFailed(new HttpInvocationException(e));
+    } catch (final SocketTimeoutException e) {
+      throw fireRequestFailed(new HttpTimeoutException(e));
+    } catch (final HttpConnectionPool.LeaseTimeoutException e) {
+      throw fireRequestFailed(new HttpTimeoutException(e.getMessage(), e));
+    } catch (final Throwable t) {
+      throw fireRequestFailed(isExpired() ? deadlineExceeded(t) : new HttpInvocationException(t));
+    }
+    response.setAttempts(attempts);
+    fireRequestCompleted(response);
+    return response;
+  }
 
-      response.setStatus(httpUrlConnection.getResponseCode());
-      response.setMessage(httpUrlConnection.getResponseMessage());
+  private static boolean isExpired() {
+    final Cancellation cancellation = Cancellation.current();
+    return null != cancellation && cancellation.isExpired();
+  }
 
-      response.setContentEncoding(httpUrlConnection.getContentEncoding());
-      response.setContentLength(httpUrlConnection.getContentLength());
-      response.setContentType(httpUrlConnection.getContentType());
-      response.setDate(0L == httpUrlConnection.getDate() ? null : new Date(httpUrlConnection.getDate()));
-      response.setExpires(0L == httpUrlConnection.getExpiration() ? null : new Date(httpUrlConnection.getExpiration()));
-      response.setLastModified(0L == httpUrlConnection.getLastModified() ? null : new Date(httpUrlConnection.getLastModified()));
+  private HttpResponse execute(final ResponseSink sink) throws IOException, GeneralSecurityException, InterruptedException {
+    try {
+      return getTransport().execute(this, sink);
+    } catch (final HttpTransport.StaleConnectionException e) {
+      // the server closed a kept alive connection before the request could
+      // be sent, send it once more on another connection and leave further
+      // failures to the RetryPolicy
+    }
+    try {
+      return getTransport().execute(this, sink);
+    } catch (final HttpTransport.StaleConnectionException e) {
+      throw (IOException) e.getCause();
+    }
+  }
 
-      if (null != httpUrlConnection.getHeaderFields() && httpUrlConnection.getHeaderFields().size() > 0) {
-        for (final Entry<String, List<String>> entry : httpUrlConnection.getHeaderFields().entrySet()) {
-          response.getHeaders().put(entry.getKey(), entry.getValue());
-        }
-      }
+  // wait for the delay of the RetryPolicy, false if the request is not retried
+  private boolean retry(final int attempts, final HttpResponse response, final IOException failure) throws InterruptedException {
+    if (null == retryPolicy) {
+      return false;
+    }
+    final Cancellation cancellation = Cancellation.current();
+    if (null != cancellation && cancellation.isCancelled()) {
+      return false;
+    }
+    final long delay = retryPolicy.getDelay(this, attempts, response, failure);
+    if (delay < 0 || null != cancellation && delay >= cancellation.getRemaining()) {
+      // no retry, or none which could finish within the deadline
+      return false;
+    }
+    if (delay > 0) {
+      Thread.sleep(delay);
+    }
+    return true;
+  }
 
-      httpUrlConnection.disconnect();
+  void fireRequestStarted() {
+    for (int i = 0; i < listeners.size(); i++) {
+      listeners.get(i).requestStarted(this);
+    }
+  }
 
-      return response;
-    } catch (final SSLHandshakeException e) {
-      throw new HttpCertificateException(e);
-    } catch (final Throwable t) {
-      throw new HttpInvocationException(t);
+  void fireTlsHandshakeCompleted() {
+    for (int i = 0; i < listeners.size(); i++) {
+      listeners.get(i).tlsHandshakeCompleted(this);
+    }
+  }
+
+  void fireConnectionAcquired(final boolean reused) {
+    for (int i = 0; i < listeners.size(); i++) {
+      listeners.get(i).connectionAcquired(this, reused);
     }
   }
 
+  void fireFirstByteReceived() {
+    for (int i = 0; i < listeners.size(); i++) {
+      listeners.get(i).firstByteReceived(this);
+    }
+  }
+
+  void fireRequestCompleted(final HttpResponse response) {
+    for (int i = 0; i < listeners.size(); i++) {
+      listeners.get(i).requestCompleted(this, response);
+    }
+  }
+
+  <E extends HttpClientException> E fireRequestFailed(final E e) {
+    for (int i = 0; i < listeners.size(); i++) {
+      listeners.get(i).requestFailed(this, e);
+    }
+    return e;
+  }
+
+  /**
+   * @return the number of concurrent ranges {@link #invoke(File)} downloads
+   */
+  public int getSegments() {
+    return segments;
+  }
+
+  /**
+   * @return true if {@link #invoke(File)} downloads through a sidecar which
+   *         an interrupted download is resumed from
+   */
+  public boolean isResume() {
+    return resume;
+  }
+
+  /**
+   * @return true if {@link #invoke(File)} only downloads an entity which
+   *         changed since the file was written
+   */
+  public boolean isConditional() {
+    return conditional;
+  }
+
+  /**
+   * @return true if gzip or deflate compressed responses are asked for and
+   *         decoded
+   */
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+  /**
+   * @return the milliseconds to wait for a connection to be established, or 0
+   *         to wait indefinitely
+   */
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * @return the milliseconds to wait for data from the server, or 0 to wait
+   *         indefinitely
+   */
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  /**
+   * @return the milliseconds an invocation may take in total, or 0 for no
+   *         limit
+   */
+  public long getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * @return the {@link RetryPolicy} for transient failures, or null if a
+   *         request is sent only once
+   */
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * @return the maximum number of bytes of a response entity buffered in
+   *         {@link HttpResponse#getEntity()}, or -1 for no limit
+   */
+  public long getMaxEntitySize() {
+    return maxEntitySize;
+  }
+
+  /**
+   * Buffer a response entity, sized for its Content-Length and bounded by
+   * {@link #getMaxEntitySize()}; the stream is closed.
+   *
+   * @param response HttpResponse whose headers were read
+   * @param is InputStream of the entity
+   * @return The entity
+   * @throws SizeLimitExceededException if the entity exceeds the maximum size
+   * @throws IOException on failure
+   */
+  byte[] readEntity(final HttpResponse response, final InputStream is) throws IOException {
+    final boolean empty = HttpMethod.HEAD == method || HttpURLConnection.HTTP_NO_CONTENT == response.getStatus() || HttpURLConnection.HTTP_NOT_MODIFIED == response.getStatus();
+    return StreamUtils.inputStreamToByteArray(is, empty ? 0L : response.getContentLength(), maxEntitySize);
+  }
+
+  /**
+   * @return the {@link HttpCache} consulted for GET and HEAD requests, or null
+   */
+  public HttpCache getCache() {
+    return cache;
+  }
+
+  /**
+   * @return the {@link HttpClientListener}s notified of the requests sent
+   */
+  public List<HttpClientListener> getListeners() {
+    return Collections.unmodifiableList(listeners);
+  }
+
+  /**
+   * @return the {@link HttpTransport} exchanging requests,
+   *         {@link HttpTransport#getDefault()} unless one was set
+   */
+  public HttpTransport getTransport() {
+    return null != transport ? transport : HttpTransport.getDefault();
+  }
+
+  /**
+   * @return the {@link ExecutorService} running {@link #invokeAsync()},
+   *         {@link HttpExecutors#getDefault()} unless one was set
+   */
+  public ExecutorService getExecutor() {
+    return null != executor ? executor : HttpExecutors.getDefault();
+  }
+
+  /**
+   * @return The {@link HttpConnectionPool} route of this {@link HttpClient}
+   */
+  public String getRoute() {
+    return HttpConnectionPool.route(protocol, host, port);
+  }
+
   /**
    * Build and return the URI.
    *
@@ -377,6 +864,21 @@ public class HttpClient {
     return keyStorePassword;
   }
 
+  /**
+   * @return the client certificate presented to HTTPS servers, or null if
+   *         none is set
+   */
+  public ClientCertificate getClientCertificate() {
+    return clientCertificate;
+  }
+
+  /**
+   * @return the cache of the HTTPS socket factories and their TLS sessions
+   */
+  public SslContextCache getSslContextCache() {
+    return sslContextCache;
+  }
+
   /**
    * @return the queryUnencoded
    */
@@ -433,6 +935,27 @@ public class HttpClient {
     return entity;
   }
 
+  /**
+   * @return the streamed request entity
+   */
+  public RequestEntity getRequestEntity() {
+    return requestEntity;
+  }
+
+  /**
+   * @return the connectionPool
+   */
+  public HttpConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
+  /**
+   * @return A snapshot of the statistics of the {@link HttpConnectionPool}
+   */
+  public HttpConnectionPoolStats getConnectionPoolStats() {
+    return connectionPool.getStats();
+  }
+
   /**
    * {@link HttpClient} builder.
    *
@@ -709,6 +1232,7 @@ public class HttpClient {
         throw new InvalidStreamException("InputStream of type [" + is.getClass().getName() + "] does not support marking");
       }
       httpClient.entity = is;
+      httpClient.requestEntity = null;
       httpClient.binaryEntity = binary;
       if (httpClient.setContentLength) {
         try {
@@ -764,6 +1288,81 @@ public class HttpClient {
       return entity(str, false);
     }
 
+    /**
+     * Set a streamed request entity on the {@link HttpClient}. The entity is
+     * copied to the connection as it is sent, using fixed-length streaming
+     * when its length is known and chunked streaming otherwise, and is never
+     * held in memory.
+     *
+     * @param entity RequestEntity
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder entity(final RequestEntity entity) {
+      httpClient.requestEntity = entity;
+      if (null != entity) {
+        httpClient.entity = null;
+        httpClient.binaryEntity = true;
+      }
+      return this;
+    }
+
+    /**
+     * Stream the request entity from a file, see {@link #entity(RequestEntity)}.
+     *
+     * @param file File
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder entity(final File file) {
+      return entity(null == file ? null : RequestEntity.of(file));
+    }
+
+    /**
+     * Set a streamed request entity, gzip compressed while it is sent when
+     * compress is true, see {@link GzipRequestEntity}. A compressed entity is
+     * sent chunked with a <code>Content-Encoding: gzip</code> header, the
+     * server has to accept compressed request bodies.
+     *
+     * @param entity RequestEntity
+     * @param compress boolean
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder entity(final RequestEntity entity, final boolean compress) {
+      if (!compress || null == entity || entity instanceof GzipRequestEntity) {
+        entity(entity);
+      } else {
+        entity(RequestEntity.gzip(entity));
+      }
+      if (compress && null != entity) {
+        header(CONTENT_ENCODING, GzipRequestEntity.CONTENT_ENCODING);
+      }
+      return this;
+    }
+
+    /**
+     * Stream the request entity from a file, gzip compressed while it is sent
+     * when compress is true, see {@link #entity(RequestEntity, boolean)}.
+     *
+     * @param file File
+     * @param compress boolean
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder entity(final File file, final boolean compress) {
+      return entity(null == file ? null : RequestEntity.of(file), compress);
+    }
+
+    /**
+     * Stream the request entity from an {@link InputStream} which need not
+     * support marking, see {@link #entity(RequestEntity)}. The stream can be
+     * sent only once.
+     *
+     * @param is InputStream
+     * @param length long the length in bytes, or -1 if unknown
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder entity(final InputStream is, final long length) {
+      return entity(null == is ? null : RequestEntity.of(is, length));
+    }
+
     /**
      * Set the {@link InputStream} to use when creating a {@link KeyStore}
      *
@@ -785,11 +1384,49 @@ public class HttpClient {
      */
     public HttpClientBuilder keyStore(final InputStream is, final String password, final boolean trustAll) {
       httpClient.keyStore = is;
+      httpClient.keyStoreBytes = null;
       httpClient.keyStorePassword = password;
       httpClient.trustAll = trustAll;
       return this;
     }
 
+    /**
+     * Present a client certificate to HTTPS servers which require one (mutual
+     * TLS), the type of the {@link KeyStore} is detected from its content.
+     *
+     * @param is InputStream of a PKCS12 or JKS {@link KeyStore}
+     * @param password String the password of the {@link KeyStore} and its key
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder clientCertificate(final InputStream is, final String password) {
+      return clientCertificate(ClientCertificate.of(is, password));
+    }
+
+    /**
+     * Present a client certificate to HTTPS servers which require one (mutual
+     * TLS), see {@link ClientCertificate}.
+     *
+     * @param clientCertificate ClientCertificate, null presents none
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder clientCertificate(final ClientCertificate clientCertificate) {
+      httpClient.clientCertificate = clientCertificate;
+      return this;
+    }
+
+    /**
+     * Take HTTPS socket factories from sslContextCache rather than
+     * {@link SslContextCache#getDefault()}, for a TLS session cache of a
+     * different size or timeout.
+     *
+     * @param sslContextCache SslContextCache
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder sslContextCache(final SslContextCache sslContextCache) {
+      httpClient.sslContextCache = null == sslContextCache ? SslContextCache.getDefault() : sslContextCache;
+      return this;
+    }
+
     public HttpClientBuilder followRedirects(final boolean follow) {
       httpClient.followRedirects = follow;
       return this;
@@ -799,6 +1436,204 @@ public class HttpClient {
       httpClient.setContentLength = setHeader;
       return this;
     }
+
+    /**
+     * Set the {@link HttpConnectionPool} to lease connections from, defaults to
+     * {@link HttpConnectionPool#getDefault()}.
+     *
+     * @param pool HttpConnectionPool
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder connectionPool(final HttpConnectionPool pool) {
+      httpClient.connectionPool = null == pool ? HttpConnectionPool.getDefault() : pool;
+      return this;
+    }
+
+    /**
+     * Download the response entity of {@link HttpClient#invoke(File)} as this
+     * many concurrent byte ranges when the server supports them, defaults to 1.
+     *
+     * @param segments int
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder segments(final int segments) {
+      if (segments < 1) {
+        throw new IllegalArgumentException("segments must be at least 1, was " + segments);
+      }
+      httpClient.segments = segments;
+      return this;
+    }
+
+    /**
+     * Make {@link HttpClient#invoke(File)} of a GET request write to a
+     * <code>.part</code> sidecar first and resume an interrupted download
+     * from it, see {@link ResumableDownload}. Takes precedence over
+     * {@link #segments(int)}.
+     *
+     * @param resume boolean
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder resume(final boolean resume) {
+      httpClient.resume = resume;
+      return this;
+    }
+
+    /**
+     * Make {@link HttpClient#invoke(File)} of a GET request remember the
+     * validators of the downloaded entity and only download it again if it
+     * changed, see {@link ConditionalDownload}.
+     *
+     * @param conditional boolean
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder conditional(final boolean conditional) {
+      httpClient.conditional = conditional;
+      return this;
+    }
+
+    /**
+     * Ask for gzip or deflate compressed responses with
+     * <code>Accept-Encoding</code>, unless that header is set explicitly, and
+     * decode compressed entities while they are read, whether buffered or
+     * streamed to a {@link ResponseSink} or file. Range requests are not
+     * compressed. By default entities are received as the server sends them.
+     *
+     * @param compressed boolean
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder compressed(final boolean compressed) {
+      httpClient.compressed = compressed;
+      return this;
+    }
+
+    /**
+     * Limit the response entities buffered in {@link HttpResponse#getEntity()}
+     * to maxEntitySize bytes, a larger one fails the request as soon as its
+     * Content-Length or the bytes read exceed it rather than exhausting the
+     * heap. Entities streamed to a {@link ResponseSink} or file are not
+     * limited. By default there is no limit.
+     *
+     * @param maxEntitySize long bytes, or -1 for no limit
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder maxEntitySize(final long maxEntitySize) {
+      httpClient.maxEntitySize = maxEntitySize;
+      return this;
+    }
+
+    /**
+     * Send a request again after a transient failure as decided by
+     * retryPolicy, see {@link RetryPolicy}. The number of attempts is recorded
+     * on the {@link HttpResponse}. By default a request is sent only once.
+     *
+     * @param retryPolicy RetryPolicy, may be null
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder retryPolicy(final RetryPolicy retryPolicy) {
+      httpClient.retryPolicy = retryPolicy;
+      return this;
+    }
+
+    /**
+     * Fail with a {@link HttpTimeoutException} if a connection cannot be
+     * established within connectTimeout milliseconds. By default the
+     * operating system limit applies.
+     *
+     * @param connectTimeout int milliseconds, or 0 to wait indefinitely
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder connectTimeout(final int connectTimeout) {
+      if (connectTimeout < 0) {
+        throw new IllegalArgumentException("connectTimeout cannot be negative, was " + connectTimeout);
+      }
+      httpClient.connectTimeout = connectTimeout;
+      return this;
+    }
+
+    /**
+     * Fail with a {@link HttpTimeoutException} if the server sends no data
+     * for readTimeout milliseconds while the response is awaited or read. By
+     * default reads wait indefinitely.
+     *
+     * @param readTimeout int milliseconds, or 0 to wait indefinitely
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder readTimeout(final int readTimeout) {
+      if (readTimeout < 0) {
+        throw new IllegalArgumentException("readTimeout cannot be negative, was " + readTimeout);
+      }
+      httpClient.readTimeout = readTimeout;
+      return this;
+    }
+
+    /**
+     * Limit the total time of {@link HttpClient#invoke()}, including
+     * redirects, retries and the transfer of the entity. A watchdog closes the
+     * connections of an invocation which runs past its deadline, which then
+     * fails with a {@link HttpTimeoutException}. No retry is attempted which
+     * could not start within the deadline. By default there is no limit.
+     *
+     * @param deadline long milliseconds, or 0 for no limit
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder deadline(final long deadline) {
+      if (deadline < 0) {
+        throw new IllegalArgumentException("deadline cannot be negative, was " + deadline);
+      }
+      httpClient.deadline = deadline;
+      return this;
+    }
+
+    /**
+     * Set the {@link HttpCache} to answer GET and HEAD requests from, by
+     * default responses are not cached.
+     *
+     * @param cache HttpCache, may be null
+     * @return The new {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder cache(final HttpCache cache) {
+      httpClient.cache = cache;
+      return this;
+    }
+
+    /**
+     * Run {@link HttpClient#invokeAsync()} on executor rather than
+     * {@link HttpExecutors#getDefault()}.
+     *
+     * @param executor ExecutorService
+     * @return {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder executor(final ExecutorService executor) {
+      httpClient.executor = executor;
+      return this;
+    }
+
+    /**
+     * Exchange requests through transport rather than
+     * {@link HttpTransport#getDefault()}, such as a {@link NioTransport} or a
+     * {@link Http2Transport}.
+     *
+     * @param transport HttpTransport
+     * @return {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder transport(final HttpTransport transport) {
+      httpClient.transport = transport;
+      return this;
+    }
+
+    /**
+     * Notify listener of the requests sent, see {@link HttpClientListener}.
+     *
+     * @param listener HttpClientListener
+     * @return {@link HttpClientBuilder}
+     */
+    public HttpClientBuilder listener(final HttpClientListener listener) {
+      if (null == listener) {
+        throw new IllegalArgumentException("listener cannot be null");
+      }
+      httpClient.listeners.add(listener);
+      return this;
+    }
   }
 
 }
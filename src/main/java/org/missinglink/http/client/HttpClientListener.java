@@ -0,0 +1,92 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import org.missinglink.http.exception.HttpClientException;
+
+/**
+ * Receives the events of the requests a {@link HttpClient} sends, see
+ * {@link HttpClient.HttpClientBuilder#listener(HttpClientListener)}.
+ * <p>
+ * The events of a request are delivered on the thread sending it, in the
+ * order {@link #requestStarted(HttpClient)}, then per connection used
+ * {@link #tlsHandshakeCompleted(HttpClient)} if a new TLS connection was
+ * opened, {@link #connectionAcquired(HttpClient, boolean)} and
+ * {@link #firstByteReceived(HttpClient)}, and finally one of
+ * {@link #requestCompleted(HttpClient, HttpResponse)} or
+ * {@link #requestFailed(HttpClient, HttpClientException)}. A followed redirect
+ * repeats the per connection events. Responses served by a {@link HttpCache}
+ * without contacting the server raise no events, the requests of a segmented
+ * download or a cache revalidation raise their own.
+ * </p>
+ * <p>
+ * A listener may be called from many threads at once and should return
+ * quickly, an exception it throws fails the request.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public interface HttpClientListener {
+
+  /**
+   * The request is about to be sent.
+   *
+   * @param httpClient HttpClient
+   */
+  void requestStarted(HttpClient httpClient);
+
+  /**
+   * The TLS handshake of a new connection completed.
+   *
+   * @param httpClient HttpClient
+   */
+  void tlsHandshakeCompleted(HttpClient httpClient);
+
+  /**
+   * A connection to send the request on was opened or taken from the kept
+   * alive ones.
+   *
+   * @param httpClient HttpClient
+   * @param reused boolean true if the connection was kept alive
+   */
+  void connectionAcquired(HttpClient httpClient, boolean reused);
+
+  /**
+   * The status line of the response was received.
+   *
+   * @param httpClient HttpClient
+   */
+  void firstByteReceived(HttpClient httpClient);
+
+  /**
+   * The response was received, including its entity.
+   *
+   * @param httpClient HttpClient
+   * @param response HttpResponse
+   */
+  void requestCompleted(HttpClient httpClient, HttpResponse response);
+
+  /**
+   * The request failed.
+   *
+   * @param httpClient HttpClient
+   * @param e HttpClientException about to be thrown
+   */
+  void requestFailed(HttpClient httpClient, HttpClientException e);
+
+}
@@ -0,0 +1,404 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-route pool of persistent (keep-alive) HTTP connections which
+ * {@link HttpClient#invoke()} borrows from and returns to.
+ * <p>
+ * A route is the protocol, host and port of a request. At most
+ * {@link #getMaxPerRoute()} connections may be leased for a route at any time,
+ * further callers block until a connection is released, for at most
+ * {@link #getLeaseTimeout()} milliseconds. Connections released
+ * in a reusable state are kept idle for at most {@link #getIdleTimeout()}
+ * milliseconds; when validation on borrow is enabled an idle connection is
+ * checked with {@link PooledConnection#isOpen()} before it is handed out
+ * again.
+ * </p>
+ * <p>
+ * For the {@link HttpURLConnection} based transport the socket itself lives in
+ * the JDK keep-alive cache once the response has been fully read and closed,
+ * the pool bounds and accounts for those connections rather than holding the
+ * socket. A released connection is assumed to be kept alive, so the reused
+ * and evicted counts of {@link #getStats()} are exact for the NIO and HTTP/2
+ * transports only, which hold their sockets in the pool.
+ * </p>
+ * <p>
+ * The JVM wide {@link #getDefault()} pool does not limit the connections per
+ * route, a limit is opted into by giving a client a pool of its own.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class HttpConnectionPool {
+
+  public static final int DEFAULT_MAX_PER_ROUTE = 5;
+  public static final long DEFAULT_IDLE_TIMEOUT = 5000L;
+  public static final long DEFAULT_LEASE_TIMEOUT = 60000L;
+  public static final int UNLIMITED = Integer.MAX_VALUE;
+
+  private static final HttpConnectionPool DEFAULT_POOL = new HttpConnectionPool(UNLIMITED, DEFAULT_IDLE_TIMEOUT, true);
+
+  private final int maxPerRoute;
+  private final long idleTimeout;
+  private final boolean validateOnBorrow;
+  private final long leaseTimeout;
+
+  private final Map<String, Route> routes = new HashMap<String, Route>();
+
+  private final AtomicLong created = new AtomicLong();
+  private final AtomicLong reused = new AtomicLong();
+  private final AtomicLong evicted = new AtomicLong();
+
+  /**
+   * A connection which can be kept idle in a {@link HttpConnectionPool}.
+   */
+  public interface PooledConnection {
+
+    /**
+     * @return true if the connection can still be used for another request
+     */
+    boolean isOpen();
+
+    /**
+     * Close the connection, it will not be handed out again.
+     */
+    void close();
+
+  }
+
+  /**
+   * Signals that no connection for a route became available within the lease
+   * timeout, all of them are in use or were never released.
+   */
+  public static class LeaseTimeoutException extends InterruptedIOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public LeaseTimeoutException(final String message) {
+      super(message);
+    }
+
+  }
+
+  /**
+   * A connection slot leased from a {@link HttpConnectionPool} for a route,
+   * must be handed back with {@link HttpConnectionPool#release(Lease, PooledConnection)}.
+   */
+  public static final class Lease {
+
+    private final String route;
+    private final PooledConnection connection;
+    private boolean released;
+
+    private Lease(final String route, final PooledConnection connection) {
+      this.route = route;
+      this.connection = connection;
+    }
+
+    /**
+     * @return the route
+     */
+    public String getRoute() {
+      return route;
+    }
+
+    /**
+     * @return the idle connection handed out with this lease, or null if a new
+     *         connection has to be opened
+     */
+    public PooledConnection getConnection() {
+      return connection;
+    }
+
+    /**
+     * @return true if this lease reuses an idle connection
+     */
+    public boolean isReused() {
+      return null != connection;
+    }
+
+  }
+
+  private static final class IdleConnection {
+
+    private final PooledConnection connection;
+    private final long since;
+
+    private IdleConnection(final PooledConnection connection, final long since) {
+      this.connection = connection;
+      this.since = since;
+    }
+
+  }
+
+  private static final class Route {
+
+    private final Semaphore permits;
+    private final LinkedList<IdleConnection> idle = new LinkedList<IdleConnection>();
+
+    private Route(final int maxPerRoute) {
+      permits = new Semaphore(maxPerRoute, true);
+    }
+
+  }
+
+  /**
+   * Create a pool with {@link #DEFAULT_MAX_PER_ROUTE},
+   * {@link #DEFAULT_IDLE_TIMEOUT}, {@link #DEFAULT_LEASE_TIMEOUT} and
+   * validation on borrow.
+   */
+  public HttpConnectionPool() {
+    this(DEFAULT_MAX_PER_ROUTE, DEFAULT_IDLE_TIMEOUT, true);
+  }
+
+  /**
+   * Create a pool with {@link #DEFAULT_LEASE_TIMEOUT}.
+   *
+   * @param maxPerRoute int maximum number of leased connections per route, or
+   *          {@link #UNLIMITED}
+   * @param idleTimeout long milliseconds an idle connection is kept
+   * @param validateOnBorrow boolean check idle connections before reuse
+   */
+  public HttpConnectionPool(final int maxPerRoute, final long idleTimeout, final boolean validateOnBorrow) {
+    this(maxPerRoute, idleTimeout, validateOnBorrow, DEFAULT_LEASE_TIMEOUT);
+  }
+
+  /**
+   * @param maxPerRoute int maximum number of leased connections per route, or
+   *          {@link #UNLIMITED}
+   * @param idleTimeout long milliseconds an idle connection is kept
+   * @param validateOnBorrow boolean check idle connections before reuse
+   * @param leaseTimeout long milliseconds to wait for a connection while
+   *          maxPerRoute are leased, negative to wait indefinitely
+   */
+  public HttpConnectionPool(final int maxPerRoute, final long idleTimeout, final boolean validateOnBorrow, final long leaseTimeout) {
+    super();
+    if (maxPerRoute < 1) {
+      throw new IllegalArgumentException("maxPerRoute must be at least 1, was " + maxPerRoute);
+    }
+    this.maxPerRoute = maxPerRoute;
+    this.idleTimeout = idleTimeout;
+    this.validateOnBorrow = validateOnBorrow;
+    this.leaseTimeout = leaseTimeout;
+  }
+
+  /**
+   * @return The JVM wide pool used by {@link HttpClient} instances which were
+   *         not given a pool of their own, it does not limit the connections
+   *         per route
+   */
+  public static HttpConnectionPool getDefault() {
+    return DEFAULT_POOL;
+  }
+
+  /**
+   * Build the route key for a protocol, host and port.
+   *
+   * @param protocol String
+   * @param host String
+   * @param port Integer, null for the protocol default
+   * @return The route key
+   */
+  public static String route(final String protocol, final String host, final Integer port) {
+    final String scheme = protocol.toLowerCase();
+    final int effectivePort = null != port ? port.intValue() : HttpClient.HTTPS.equals(scheme) ? 443 : 80;
+    return scheme + "://" + host.toLowerCase() + ":" + effectivePort;
+  }
+
+  /**
+   * Lease a connection slot for route, blocking for at most
+   * {@link #getLeaseTimeout()} while {@link #getMaxPerRoute()} connections are
+   * already leased.
+   *
+   * @param route String
+   * @return The {@link Lease}
+   * @throws LeaseTimeoutException if no connection became available in time
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public Lease lease(final String route) throws LeaseTimeoutException, InterruptedException {
+    final Route r = getRoute(route);
+    if (leaseTimeout < 0) {
+      r.permits.acquire();
+    } else if (!r.permits.tryAcquire(leaseTimeout, TimeUnit.MILLISECONDS)) {
+      throw new LeaseTimeoutException("No connection to " + route + " became available within " + leaseTimeout + " ms, all " + maxPerRoute + " are in use");
+    }
+    try {
+      final PooledConnection connection = borrowIdle(r);
+      if (null == connection) {
+        created.incrementAndGet();
+      } else {
+        reused.incrementAndGet();
+      }
+      return new Lease(route, connection);
+    } catch (final RuntimeException e) {
+      r.permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Hand a lease back to the pool.
+   *
+   * @param lease Lease
+   * @param connection PooledConnection to keep idle for reuse, or null if the
+   *          connection was closed
+   */
+  public void release(final Lease lease, final PooledConnection connection) {
+    synchronized (lease) {
+      if (lease.released) {
+        return;
+      }
+      lease.released = true;
+    }
+    final Route r = getRoute(lease.route);
+    try {
+      if (null != connection && connection.isOpen()) {
+        synchronized (r) {
+          r.idle.addFirst(new IdleConnection(connection, System.currentTimeMillis()));
+        }
+      }
+    } finally {
+      r.permits.release();
+    }
+  }
+
+  /**
+   * Close idle connections which exceeded {@link #getIdleTimeout()}.
+   */
+  public void closeExpired() {
+    final long now = System.currentTimeMillis();
+    for (final Route r : getRoutes()) {
+      synchronized (r) {
+        for (final Iterator<IdleConnection> it = r.idle.iterator(); it.hasNext();) {
+          final IdleConnection ic = it.next();
+          if (isExpired(ic, now)) {
+            it.remove();
+            discard(ic);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Close all idle connections.
+   */
+  public void closeIdle() {
+    for (final Route r : getRoutes()) {
+      synchronized (r) {
+        while (!r.idle.isEmpty()) {
+          discard(r.idle.removeFirst());
+        }
+      }
+    }
+  }
+
+  /**
+   * @return A snapshot of the pool statistics
+   */
+  public HttpConnectionPoolStats getStats() {
+    int leased = 0;
+    int idle = 0;
+    int routeCount = 0;
+    for (final Route r : getRoutes()) {
+      routeCount++;
+      leased += maxPerRoute - r.permits.availablePermits();
+      synchronized (r) {
+        idle += r.idle.size();
+      }
+    }
+    return new HttpConnectionPoolStats(routeCount, leased, idle, created.get(), reused.get(), evicted.get());
+  }
+
+  /**
+   * @return the maxPerRoute
+   */
+  public int getMaxPerRoute() {
+    return maxPerRoute;
+  }
+
+  /**
+   * @return the idleTimeout
+   */
+  public long getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /**
+   * @return the validateOnBorrow
+   */
+  public boolean isValidateOnBorrow() {
+    return validateOnBorrow;
+  }
+
+  /**
+   * @return the leaseTimeout
+   */
+  public long getLeaseTimeout() {
+    return leaseTimeout;
+  }
+
+  private PooledConnection borrowIdle(final Route r) {
+    final long now = System.currentTimeMillis();
+    synchronized (r) {
+      while (!r.idle.isEmpty()) {
+        final IdleConnection ic = r.idle.removeFirst();
+        if (isExpired(ic, now) || validateOnBorrow && !ic.connection.isOpen()) {
+          discard(ic);
+        } else {
+          return ic.connection;
+        }
+      }
+    }
+    return null;
+  }
+
+  private boolean isExpired(final IdleConnection ic, final long now) {
+    return idleTimeout >= 0 && now - ic.since > idleTimeout;
+  }
+
+  private void discard(final IdleConnection ic) {
+    evicted.incrementAndGet();
+    ic.connection.close();
+  }
+
+  private synchronized Route getRoute(final String route) {
+    Route r = routes.get(route);
+    if (null == r) {
+      r = new Route(maxPerRoute);
+      routes.put(route, r);
+    }
+    return r;
+  }
+
+  private synchronized Route[] getRoutes() {
+    return routes.values().toArray(new Route[routes.size()]);
+  }
+
+}
@@ -0,0 +1,92 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+/**
+ * Point in time statistics of a {@link HttpConnectionPool}.
+ *
+ * @author alex.sherwin
+ *
+ */
+public class HttpConnectionPoolStats {
+
+  private final int routes;
+  private final int leased;
+  private final int idle;
+  private final long created;
+  private final long reused;
+  private final long evicted;
+
+  public HttpConnectionPoolStats(final int routes, final int leased, final int idle, final long created, final long reused, final long evicted) {
+    super();
+    this.routes = routes;
+    this.leased = leased;
+    this.idle = idle;
+    this.created = created;
+    this.reused = reused;
+    this.evicted = evicted;
+  }
+
+  /**
+   * @return the number of routes known to the pool
+   */
+  public int getRoutes() {
+    return routes;
+  }
+
+  /**
+   * @return the number of connections currently leased
+   */
+  public int getLeased() {
+    return leased;
+  }
+
+  /**
+   * @return the number of connections currently kept idle
+   */
+  public int getIdle() {
+    return idle;
+  }
+
+  /**
+   * @return the number of leases which required a new connection
+   */
+  public long getCreated() {
+    return created;
+  }
+
+  /**
+   * @return the number of leases which reused an idle connection
+   */
+  public long getReused() {
+    return reused;
+  }
+
+  /**
+   * @return the number of idle connections closed due to expiry or failed
+   *         validation
+   */
+  public long getEvicted() {
+    return evicted;
+  }
+
+  @Override
+  public String toString() {
+    return "routes=" + routes + ", leased=" + leased + ", idle=" + idle + ", created=" + created + ", reused=" + reused + ", evicted=" + evicted;
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for {@link HttpClient#invokeAsync()}.
+ * <p>
+ * A blocking invocation occupies its thread for the whole exchange, so fanning
+ * out many requests needs many threads. On a JVM with virtual threads each
+ * invocation gets a virtual thread of its own, otherwise invocations share a
+ * bounded pool of daemon threads and queue up once all of them are busy.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public final class HttpExecutors {
+
+  public static final int DEFAULT_MAX_THREADS = 64;
+  public static final long DEFAULT_KEEP_ALIVE = 30000L;
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+    @Override
+    public Thread newThread(final Runnable r) {
+      final Thread t = new Thread(r, "http-async-" + THREAD_COUNT.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  };
+
+  private static ExecutorService defaultExecutor;
+
+  private HttpExecutors() {
+    super();
+  }
+
+  /**
+   * @return The JVM wide executor used by {@link HttpClient} instances which
+   *         were not given an executor of their own, created on first use
+   */
+  public static synchronized ExecutorService getDefault() {
+    if (null == defaultExecutor) {
+      final ExecutorService virtual = newVirtualThreadExecutor();
+      defaultExecutor = null != virtual ? virtual : newBoundedExecutor(DEFAULT_MAX_THREADS);
+    }
+    return defaultExecutor;
+  }
+
+  /**
+   * Create an executor which starts a virtual thread per task.
+   *
+   * @return The {@link ExecutorService}, or null if the running JVM does not
+   *         support virtual threads
+   */
+  public static ExecutorService newVirtualThreadExecutor() {
+    try {
+      final Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (final Exception e) {
+      // not available before Java 21
+      return null;
+    }
+  }
+
+  /**
+   * Create an executor running at most maxThreads tasks at once on daemon
+   * threads, which exit after {@link #DEFAULT_KEEP_ALIVE} milliseconds without
+   * work. Further tasks are queued.
+   *
+   * @param maxThreads int
+   * @return The {@link ExecutorService}
+   */
+  public static ExecutorService newBoundedExecutor(final int maxThreads) {
+    if (maxThreads < 1) {
+      throw new IllegalArgumentException("maxThreads must be at least 1, was " + maxThreads);
+    }
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, DEFAULT_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), THREAD_FACTORY);
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+}
@@ -0,0 +1,93 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.missinglink.http.exception.HttpCertificateException;
+import org.missinglink.http.exception.HttpInvocationException;
+
+/**
+ * The pending {@link HttpResponse} of {@link HttpClient#invokeAsync()}.
+ * <p>
+ * Cancelling a running invocation closes its connections, which are not
+ * returned to the keep-alive cache. A thread waiting for the response is
+ * released right away; one blocked reading the response entity is released as
+ * soon as that read returns, or right away on a virtual thread cancelled with
+ * interruption.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class HttpFuture extends FutureTask<HttpResponse> {
+
+  private final Cancellation cancellation = new Cancellation();
+
+  protected HttpFuture(final Callable<HttpResponse> callable) {
+    super(callable);
+  }
+
+  @Override
+  public void run() {
+    final Cancellation previous = Cancellation.enter(cancellation);
+    try {
+      super.run();
+    } finally {
+      Cancellation.exit(previous);
+    }
+  }
+
+  @Override
+  public boolean cancel(final boolean mayInterruptIfRunning) {
+    final boolean cancelled = super.cancel(mayInterruptIfRunning);
+    if (cancelled) {
+      cancellation.cancel();
+    }
+    return cancelled;
+  }
+
+  /**
+   * Wait for the response, rethrowing the failure of the invocation.
+   *
+   * @return The {@link HttpResponse}
+   * @throws HttpInvocationException on failure, cancellation or interruption
+   * @throws HttpCertificateException on HTTPS failure
+   */
+  public HttpResponse getResponse() throws HttpInvocationException, HttpCertificateException {
+    try {
+      return get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HttpInvocationException(e);
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof HttpCertificateException) {
+        throw (HttpCertificateException) e.getCause();
+      }
+      if (e.getCause() instanceof HttpInvocationException) {
+        throw (HttpInvocationException) e.getCause();
+      }
+      throw new HttpInvocationException(e.getCause());
+    } catch (final CancellationException e) {
+      throw new HttpInvocationException("Request cancelled", e);
+    }
+  }
+
+}
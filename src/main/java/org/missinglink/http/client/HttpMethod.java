@@ -22,6 +22,22 @@ package org.missinglink.http.client;
  */
 public enum HttpMethod {
 
-  GET, POST, PUT, TRACE, OPTIONS, HEAD, DELETE
+  GET, POST, PUT, TRACE, OPTIONS, HEAD, DELETE;
+
+  /**
+   * @return true if sending the request more than once has the same effect as
+   *         sending it once, see RFC 7231 section 4.2.2
+   */
+  public boolean isIdempotent() {
+    return POST != this;
+  }
+
+  /**
+   * @return true if the request is read-only and does not change state on
+   *         the server, see RFC 7231 section 4.2.1
+   */
+  public boolean isSafe() {
+    return GET == this || HEAD == this || OPTIONS == this || TRACE == this;
+  }
 
 }
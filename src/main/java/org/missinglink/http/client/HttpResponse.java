@@ -16,10 +16,15 @@
 
 package org.missinglink.http.client;
 
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
 
 /**
  * Wraps the response of an HTTP request.
@@ -35,8 +40,16 @@ public class HttpResponse {
   private String message;
 
   private byte[] entity;
+  private File entityFile;
+  private long entityLength = -1L;
+  private long entityOffset;
+  private boolean cached;
+  private HttpTiming timing;
+  private TlsSession tlsSession;
+  private int attempts = 1;
 
   private String contentEncoding;
+  private String decodedContentEncoding;
   private String contentType;
   private int contentLength;
   private Date date;
@@ -54,12 +67,21 @@ public class HttpResponse {
     if (headers.containsKey(header)) {
       return headers.get(header);
     }
+    // header names are case insensitive
+    if (null != header) {
+      for (final Map.Entry<String, List<String>> entry : headers.entrySet()) {
+        if (header.equalsIgnoreCase(entry.getKey())) {
+          return entry.getValue();
+        }
+      }
+    }
     return null;
   }
 
   public String getHeaderSingleValue(final String header) {
-    if (headers.containsKey(header) && null != headers.get(header) && headers.get(header).size() > 0) {
-      return headers.get(header).get(0);
+    final List<String> values = getHeader(header);
+    if (null != values && values.size() > 0) {
+      return values.get(0);
     }
     return null;
   }
@@ -161,6 +183,119 @@ public class HttpResponse {
     this.entity = responseEntity;
   }
 
+  /**
+   * @return the file the entity was written to by a {@link FileResponseSink},
+   *         or null
+   */
+  public File getEntityFile() {
+    return entityFile;
+  }
+
+  /**
+   * @param entityFile
+   *          the entityFile to set
+   */
+  public void setEntityFile(final File entityFile) {
+    this.entityFile = entityFile;
+  }
+
+  /**
+   * @return the number of entity bytes received, or -1 if there was no entity
+   */
+  public long getEntityLength() {
+    return entityLength;
+  }
+
+  /**
+   * @param entityLength
+   *          the entityLength to set
+   */
+  public void setEntityLength(final long entityLength) {
+    this.entityLength = entityLength;
+  }
+
+  /**
+   * @return the number of entity bytes already present in
+   *         {@link #getEntityFile()} from an interrupted download which this
+   *         response resumed
+   */
+  public long getEntityOffset() {
+    return entityOffset;
+  }
+
+  /**
+   * @param entityOffset
+   *          the entityOffset to set
+   */
+  public void setEntityOffset(final long entityOffset) {
+    this.entityOffset = entityOffset;
+  }
+
+  /**
+   * @return true if this response was served by a {@link HttpCache}, possibly
+   *         after revalidation
+   */
+  public boolean isCached() {
+    return cached;
+  }
+
+  /**
+   * @param cached
+   *          the cached to set
+   */
+  public void setCached(final boolean cached) {
+    this.cached = cached;
+  }
+
+  /**
+   * @return the time spent in the phases of the request, or null if the
+   *         response was served by a {@link HttpCache} without contacting the
+   *         server
+   */
+  public HttpTiming getTiming() {
+    return timing;
+  }
+
+  /**
+   * @param timing
+   *          the timing to set
+   */
+  public void setTiming(final HttpTiming timing) {
+    this.timing = timing;
+  }
+
+  /**
+   * @return the TLS session of the connection the response was received on,
+   *         or null if it was not received over HTTPS
+   */
+  public TlsSession getTlsSession() {
+    return tlsSession;
+  }
+
+  /**
+   * @param tlsSession
+   *          the tlsSession to set
+   */
+  public void setTlsSession(final TlsSession tlsSession) {
+    this.tlsSession = tlsSession;
+  }
+
+  /**
+   * @return the number of times the request was sent to get this response,
+   *         more than 1 if it was retried by a {@link RetryPolicy}
+   */
+  public int getAttempts() {
+    return attempts;
+  }
+
+  /**
+   * @param attempts
+   *          the attempts to set
+   */
+  public void setAttempts(final int attempts) {
+    this.attempts = attempts;
+  }
+
   /**
    * @return the message
    */
@@ -176,6 +311,23 @@ public class HttpResponse {
     this.message = message;
   }
 
+  /**
+   * @return the Content-Encoding the entity was decoded from, see
+   *         {@link HttpClient#isCompressed()}, or null if it was received as
+   *         is
+   */
+  public String getDecodedContentEncoding() {
+    return decodedContentEncoding;
+  }
+
+  /**
+   * @param decodedContentEncoding
+   *          the decodedContentEncoding to set
+   */
+  public void setDecodedContentEncoding(final String decodedContentEncoding) {
+    this.decodedContentEncoding = decodedContentEncoding;
+  }
+
   /**
    * @return the contentEncoding
    */
@@ -236,4 +388,42 @@ public class HttpResponse {
     this.date = date;
   }
 
+  /**
+   * Set the content type, encoding and length and the dates from the
+   * corresponding {@link #getHeaders()}.
+   */
+  void readHeaderFields() {
+    setContentType(getHeaderSingleValue("Content-Type"));
+    setContentEncoding(getHeaderSingleValue("Content-Encoding"));
+    setContentLength(parseInt(getHeaderSingleValue("Content-Length")));
+    setDate(parseDate(getHeaderSingleValue("Date")));
+    setExpires(parseDate(getHeaderSingleValue("Expires")));
+    setLastModified(parseDate(getHeaderSingleValue("Last-Modified")));
+  }
+
+  private static int parseInt(final String value) {
+    try {
+      return null == value ? -1 : Integer.parseInt(value.trim());
+    } catch (final NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * @param value String an HTTP date, may be null
+   * @return The {@link Date}, or null if value is not a valid HTTP date
+   */
+  static Date parseDate(final String value) {
+    if (null == value) {
+      return null;
+    }
+    final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    try {
+      return format.parse(value.trim());
+    } catch (final ParseException e) {
+      return null;
+    }
+  }
+
 }
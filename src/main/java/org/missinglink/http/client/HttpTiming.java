@@ -0,0 +1,152 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.util.Locale;
+
+/**
+ * The time spent in the phases of a request, in nanoseconds, see
+ * {@link HttpResponse#getTiming()}.
+ * <p>
+ * The phases follow each other: resolving the host name, opening the TCP
+ * connection, the TLS handshake, sending the request and waiting for the
+ * status line of the response, and reading the entity. A request on a kept
+ * alive connection spends no time in the first three. When redirects are
+ * followed, the phases of all requests add up.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class HttpTiming {
+
+  private static final double NANOS_PER_MILLI = 1000000d;
+
+  private final long start;
+
+  private long dns;
+  private long connect;
+  private long tls;
+  private long firstByte;
+  private long transfer;
+  private long total;
+  private boolean connectionReused = true;
+
+  HttpTiming() {
+    this(System.nanoTime());
+  }
+
+  HttpTiming(final long start) {
+    super();
+    this.start = start;
+  }
+
+  /**
+   * @return the nanoseconds spent resolving the host name
+   */
+  public long getDns() {
+    return dns;
+  }
+
+  /**
+   * @return the nanoseconds spent opening the TCP connection
+   */
+  public long getConnect() {
+    return connect;
+  }
+
+  /**
+   * @return the nanoseconds spent in the TLS handshake
+   */
+  public long getTls() {
+    return tls;
+  }
+
+  /**
+   * @return the nanoseconds from sending the request until the status line of
+   *         the response was read, time to first byte
+   */
+  public long getFirstByte() {
+    return firstByte;
+  }
+
+  /**
+   * @return the nanoseconds spent reading the response entity
+   */
+  public long getTransfer() {
+    return transfer;
+  }
+
+  /**
+   * @return the nanoseconds the whole request took
+   */
+  public long getTotal() {
+    return total;
+  }
+
+  /**
+   * @return true if no new connection was opened for the request
+   */
+  public boolean isConnectionReused() {
+    return connectionReused;
+  }
+
+  /**
+   * Convert nanoseconds to milliseconds.
+   *
+   * @param nanos long
+   * @return The milliseconds
+   */
+  public static double toMillis(final long nanos) {
+    return nanos / NANOS_PER_MILLI;
+  }
+
+  void addDns(final long nanos) {
+    dns += nanos;
+    connectionReused = false;
+  }
+
+  void addConnect(final long nanos) {
+    connect += nanos;
+    connectionReused = false;
+  }
+
+  void addTls(final long nanos) {
+    tls += nanos;
+    connectionReused = false;
+  }
+
+  void addFirstByte(final long nanos) {
+    firstByte += nanos;
+  }
+
+  void addTransfer(final long nanos) {
+    transfer += nanos;
+  }
+
+  void finish() {
+    total = System.nanoTime() - start;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ENGLISH, "dns=%.3f ms, connect=%.3f ms, tls=%.3f ms, firstByte=%.3f ms, transfer=%.3f ms, total=%.3f ms%s", Double.valueOf(toMillis(dns)),
+        Double.valueOf(toMillis(connect)), Double.valueOf(toMillis(tls)), Double.valueOf(toMillis(firstByte)), Double.valueOf(toMillis(transfer)), Double.valueOf(toMillis(total)),
+        connectionReused ? ", connection reused" : "");
+  }
+
+}
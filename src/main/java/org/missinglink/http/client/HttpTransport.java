@@ -0,0 +1,149 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exchanges the request of a {@link HttpClient} for its {@link HttpResponse}
+ * over the wire.
+ * <p>
+ * {@link HttpClient} decides what to send, caching, downloads and retries
+ * happen above the transport; the transport owns connections, buffers and
+ * threads. An implementation leases a connection slot for
+ * {@link HttpClient#getRoute()} from {@link HttpClient#getConnectionPool()}
+ * for every exchange and releases it once the response has been read.
+ * </p>
+ * <p>
+ * The default transport is {@link UrlConnectionTransport}, an alternative
+ * transport is set with
+ * {@link HttpClient.HttpClientBuilder#transport(HttpTransport)}.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public abstract class HttpTransport {
+
+  private static final HttpTransport DEFAULT_TRANSPORT = new UrlConnectionTransport();
+
+  protected HttpTransport() {
+    super();
+  }
+
+  /**
+   * @return The JVM wide transport used by {@link HttpClient} instances which
+   *         were not given a transport of their own
+   */
+  public static HttpTransport getDefault() {
+    return DEFAULT_TRANSPORT;
+  }
+
+  /**
+   * Send the request of httpClient and read the response.
+   *
+   * @param httpClient HttpClient the request
+   * @param sink ResponseSink to stream the entity to, or null to buffer it in
+   *          {@link HttpResponse#getEntity()}
+   * @return The {@link HttpResponse}
+   * @throws StaleConnectionException if a kept alive connection turned out to
+   *           be closed before the request was sent, the request is sent once
+   *           more
+   * @throws IOException on failure
+   * @throws GeneralSecurityException on HTTPS configuration failure
+   * @throws InterruptedException if interrupted while waiting for a connection
+   */
+  public abstract HttpResponse execute(HttpClient httpClient, ResponseSink sink) throws IOException, GeneralSecurityException, InterruptedException;
+
+  /**
+   * Send the requests of httpClients, which share a route and are
+   * {@link HttpClient#isPipelineable()}, back to back on one connection and
+   * read their responses in order.
+   * <p>
+   * The returned list holds the buffered response of each request in order.
+   * It ends early if the connection was closed before all responses were read,
+   * and holds null for a response which has to be followed as a redirect;
+   * {@link HttpClient#invokePipelined(List)} sends those requests again one at
+   * a time. The default implementation does not pipeline and returns an empty
+   * list.
+   * </p>
+   *
+   * @param httpClients List of HttpClient
+   * @return The responses read in order
+   * @throws IOException if no connection could be opened
+   * @throws GeneralSecurityException on HTTPS configuration failure
+   * @throws InterruptedException if interrupted while waiting for a connection
+   */
+  public List<HttpResponse> executePipelined(final List<HttpClient> httpClients) throws IOException, GeneralSecurityException, InterruptedException {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Release the threads and connections held by this transport, the default
+   * implementation holds none.
+   */
+  public void close() {
+    // nothing to release
+  }
+
+  /**
+   * Tell whether e is what a kept alive connection closed by the server looks
+   * like before any byte of the response was read: a reset connection, a
+   * broken pipe or the end of the stream. Timeouts never are.
+   *
+   * @param e IOException
+   * @return true if the connection was closed by the server
+   */
+  protected static boolean isStale(final IOException e) {
+    if (e instanceof InterruptedIOException) {
+      return false;
+    }
+    if (isClosed(e)) {
+      return true;
+    }
+    // TLS wraps the failure of the underlying socket
+    final Throwable cause = e.getCause();
+    return cause instanceof IOException && !(cause instanceof InterruptedIOException) && isClosed(cause);
+  }
+
+  private static boolean isClosed(final Throwable t) {
+    // subclasses such as ConnectException fail to open a connection at all
+    return SocketException.class == t.getClass() || t instanceof EOFException;
+  }
+
+  /**
+   * Signals that a kept alive connection was closed by the server before the
+   * request could be sent, so it is safe to send it again on another
+   * connection.
+   */
+  public static class StaleConnectionException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public StaleConnectionException(final IOException cause) {
+      super(cause);
+    }
+
+  }
+
+}
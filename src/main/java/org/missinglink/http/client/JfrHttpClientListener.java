@@ -0,0 +1,251 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.missinglink.http.exception.HttpClientException;
+
+/**
+ * {@link HttpClientListener} which records each request as a Java Flight
+ * Recorder event named {@value #EVENT_NAME}, so HTTP calls show up next to GC
+ * and CPU activity in the same recording.
+ * <p>
+ * The event spans the request and carries its method, URI, status, entity
+ * length, the phases of its {@link HttpTiming} and the error of a failed
+ * request. It is defined at runtime through the {@code jdk.jfr} API, which
+ * needs Java 9 or later; {@link #isAvailable()} tells whether the running JVM
+ * has it. While the event is not enabled in a recording a request costs one
+ * check.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public final class JfrHttpClientListener implements HttpClientListener {
+
+  public static final String EVENT_NAME = "org.missinglink.http.Request";
+
+  private static final String[] FIELDS = {"method", "uri", "status", "entityLength", "connectionReused", "dns", "connect", "tls", "firstByte", "transfer", "error"};
+  private static final int METHOD = 0;
+  private static final int URI = 1;
+  private static final int STATUS = 2;
+  private static final int ENTITY_LENGTH = 3;
+  private static final int CONNECTION_REUSED = 4;
+  private static final int DNS = 5;
+  private static final int ERROR = 10;
+
+  private static final JfrHttpClientListener INSTANCE = create();
+
+  private final Object eventFactory;
+  private final Object eventType;
+  private final Method newEvent;
+  private final Method isEnabled;
+  private final Method begin;
+  private final Method end;
+  private final Method shouldCommit;
+  private final Method commit;
+  private final Method set;
+
+  // the events of the requests in flight on the calling thread, a pipeline
+  // starts several before completing them in order
+  private final ThreadLocal<List<Started>> started = new ThreadLocal<List<Started>>() {
+    @Override
+    protected List<Started> initialValue() {
+      return new LinkedList<Started>();
+    }
+  };
+
+  private static final class Started {
+    private final HttpClient httpClient;
+    private final Object event;
+
+    private Started(final HttpClient httpClient, final Object event) {
+      this.httpClient = httpClient;
+      this.event = event;
+    }
+  }
+
+  private JfrHttpClientListener() throws Exception {
+    final Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+    final Constructor<?> annotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+    final Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+    final Constructor<?> valueDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class, List.class);
+
+    final List<Object> annotations = new ArrayList<Object>();
+    annotations.add(annotationElement.newInstance(Class.forName("jdk.jfr.Name"), EVENT_NAME));
+    annotations.add(annotationElement.newInstance(Class.forName("jdk.jfr.Label"), "HTTP Request"));
+    annotations.add(annotationElement.newInstance(Class.forName("jdk.jfr.Category"), new String[] {"HTTP"}));
+
+    final List<Object> fields = new ArrayList<Object>();
+    for (int i = 0; i < FIELDS.length; i++) {
+      final Class<?> type = i == METHOD || i == URI || i == ERROR ? String.class : i == STATUS ? int.class : i == CONNECTION_REUSED ? boolean.class : long.class;
+      final List<Object> fieldAnnotations = new ArrayList<Object>();
+      fieldAnnotations.add(annotationElement.newInstance(Class.forName("jdk.jfr.Label"), FIELDS[i]));
+      if (i >= DNS && i < ERROR) {
+        fieldAnnotations.add(annotationElement.newInstance(Class.forName("jdk.jfr.Timespan"), "NANOSECONDS"));
+      } else if (i == ENTITY_LENGTH) {
+        fieldAnnotations.add(annotationElement.newInstance(Class.forName("jdk.jfr.DataAmount"), "BYTES"));
+      }
+      fields.add(valueDescriptor.newInstance(type, FIELDS[i], fieldAnnotations));
+    }
+
+    final Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+    eventFactory = eventFactoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+    eventType = eventFactoryClass.getMethod("getEventType").invoke(eventFactory);
+    newEvent = eventFactoryClass.getMethod("newEvent");
+    isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+
+    final Class<?> eventClass = Class.forName("jdk.jfr.Event");
+    begin = eventClass.getMethod("begin");
+    end = eventClass.getMethod("end");
+    shouldCommit = eventClass.getMethod("shouldCommit");
+    commit = eventClass.getMethod("commit");
+    set = eventClass.getMethod("set", int.class, Object.class);
+  }
+
+  private static JfrHttpClientListener create() {
+    try {
+      return new JfrHttpClientListener();
+    } catch (final Exception e) {
+      // not a Java 9 or later JVM, or one without JFR
+      return null;
+    } catch (final LinkageError e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return true if the running JVM can record Java Flight Recorder events
+   */
+  public static boolean isAvailable() {
+    return null != INSTANCE;
+  }
+
+  /**
+   * @return The shared listener
+   * @throws UnsupportedOperationException if the JVM cannot record Java
+   *           Flight Recorder events, see {@link #isAvailable()}
+   */
+  public static JfrHttpClientListener getDefault() {
+    if (null == INSTANCE) {
+      throw new UnsupportedOperationException("Java Flight Recorder is not available on this JVM");
+    }
+    return INSTANCE;
+  }
+
+  @Override
+  public void requestStarted(final HttpClient httpClient) {
+    if (!Boolean.TRUE.equals(invoke(isEnabled, eventType))) {
+      return;
+    }
+    final Object event = invoke(newEvent, eventFactory);
+    invoke(begin, event);
+    started.get().add(new Started(httpClient, event));
+  }
+
+  @Override
+  public void tlsHandshakeCompleted(final HttpClient httpClient) {
+    // part of the timing of the completed request
+  }
+
+  @Override
+  public void connectionAcquired(final HttpClient httpClient, final boolean reused) {
+    // part of the timing of the completed request
+  }
+
+  @Override
+  public void firstByteReceived(final HttpClient httpClient) {
+    // part of the timing of the completed request
+  }
+
+  @Override
+  public void requestCompleted(final HttpClient httpClient, final HttpResponse response) {
+    final Object event = take(httpClient);
+    if (null == event || !ended(event)) {
+      return;
+    }
+    setValue(event, METHOD, httpClient.getMethod().name());
+    setValue(event, URI, httpClient.getUri());
+    setValue(event, STATUS, Integer.valueOf(response.getStatus()));
+    setValue(event, ENTITY_LENGTH, Long.valueOf(response.getEntityLength()));
+    final HttpTiming timing = response.getTiming();
+    if (null != timing) {
+      setValue(event, CONNECTION_REUSED, Boolean.valueOf(timing.isConnectionReused()));
+      final long[] phases = {timing.getDns(), timing.getConnect(), timing.getTls(), timing.getFirstByte(), timing.getTransfer()};
+      for (int i = 0; i < phases.length; i++) {
+        setValue(event, DNS + i, Long.valueOf(phases[i]));
+      }
+    }
+    invoke(commit, event);
+  }
+
+  @Override
+  public void requestFailed(final HttpClient httpClient, final HttpClientException e) {
+    final Object event = take(httpClient);
+    if (null == event || !ended(event)) {
+      return;
+    }
+    setValue(event, METHOD, httpClient.getMethod().name());
+    setValue(event, URI, httpClient.getUri());
+    setValue(event, ERROR, String.valueOf(null != e.getCause() ? e.getCause() : e));
+    invoke(commit, event);
+  }
+
+  private Object take(final HttpClient httpClient) {
+    for (final Iterator<Started> it = started.get().iterator(); it.hasNext();) {
+      final Started s = it.next();
+      if (s.httpClient == httpClient) {
+        it.remove();
+        return s.event;
+      }
+    }
+    return null;
+  }
+
+  private boolean ended(final Object event) {
+    invoke(end, event);
+    return Boolean.TRUE.equals(invoke(shouldCommit, event));
+  }
+
+  private void setValue(final Object event, final int index, final Object value) {
+    try {
+      set.invoke(event, Integer.valueOf(index), value);
+    } catch (final IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (final InvocationTargetException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static Object invoke(final Method method, final Object target) {
+    try {
+      return method.invoke(target);
+    } catch (final IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (final InvocationTargetException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+}
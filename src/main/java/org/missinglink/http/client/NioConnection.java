@@ -0,0 +1,380 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+
+/**
+ * A non-blocking socket connection driven by a {@link NioReactor}, exposed to
+ * the thread of an exchange as blocking streams.
+ * <p>
+ * The reactor appends received bytes to an inbound queue and sends the bytes
+ * of an outbound queue as the socket accepts them. Both queues are bounded by
+ * {@link #HIGH_WATER_MARK}: reading from the socket pauses while the inbound
+ * queue is full, and a writer blocks while the outbound queue is full. A kept
+ * alive connection stays registered for reading while it is idle, so a
+ * connection closed by the server is noticed before it is reused.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+final class NioConnection implements HttpConnectionPool.PooledConnection, Closeable {
+
+  static final int HIGH_WATER_MARK = 256 * 1024;
+
+  private final NioReactor reactor;
+  private final SocketChannel channel;
+  private final String route;
+
+  // selector thread only
+  private SelectionKey key;
+
+  private final Object lock = new Object();
+  private final LinkedList<ByteBuffer> inbound = new LinkedList<ByteBuffer>();
+  private final LinkedList<ByteBuffer> outbound = new LinkedList<ByteBuffer>();
+  private int inboundSize;
+  private int outboundSize;
+  private boolean connected;
+  private boolean readPaused;
+  private boolean eof;
+  private boolean closed;
+  private IOException failure;
+  private int readTimeout;
+
+  private final InputStream in = new Input();
+  private final OutputStream out = new Output();
+
+  private final Runnable resumeRead = new Runnable() {
+    @Override
+    public void run() {
+      interest(SelectionKey.OP_READ, true);
+    }
+  };
+
+  private final Runnable resumeWrite = new Runnable() {
+    @Override
+    public void run() {
+      interest(SelectionKey.OP_WRITE, true);
+    }
+  };
+
+  NioConnection(final NioReactor reactor, final SocketChannel channel, final String route) {
+    this.reactor = reactor;
+    this.channel = channel;
+    this.route = route;
+  }
+
+  /**
+   * @return The route this connection was opened for
+   */
+  String getRoute() {
+    return route;
+  }
+
+  /**
+   * @return The stream of received bytes, reads block until bytes arrive
+   */
+  InputStream getInputStream() {
+    return in;
+  }
+
+  /**
+   * @return The stream of bytes to send, {@link OutputStream#flush()} blocks
+   *         until all bytes were handed to the socket
+   */
+  OutputStream getOutputStream() {
+    return out;
+  }
+
+  /**
+   * Wait until the connection is established.
+   *
+   * @param timeout int milliseconds, or 0 to wait indefinitely
+   * @throws IOException if connecting failed or timed out
+   */
+  void awaitConnected(final int timeout) throws IOException {
+    final long deadline = deadline(timeout);
+    synchronized (lock) {
+      while (!connected) {
+        checkFailure();
+        await(deadline, "Connect to " + route + " timed out");
+      }
+    }
+  }
+
+  /**
+   * @param readTimeout int milliseconds a read waits for bytes to arrive, or
+   *          0 to wait indefinitely
+   */
+  void setReadTimeout(final int readTimeout) {
+    synchronized (lock) {
+      this.readTimeout = readTimeout;
+    }
+  }
+
+  @Override
+  public boolean isOpen() {
+    synchronized (lock) {
+      return connected && !closed && !eof && null == failure && inbound.isEmpty();
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (lock) {
+      closed = true;
+      lock.notifyAll();
+    }
+    try {
+      channel.close();
+    } catch (final IOException e) {
+      // ignore
+    }
+  }
+
+  // selector thread
+
+  void setKey(final SelectionKey key) {
+    this.key = key;
+  }
+
+  void finishConnect() throws IOException {
+    channel.finishConnect();
+    connected();
+  }
+
+  void connected() {
+    synchronized (lock) {
+      connected = true;
+      key.interestOps(SelectionKey.OP_READ | (outbound.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+      lock.notifyAll();
+    }
+  }
+
+  void read(final ByteBuffer buffer) throws IOException {
+    final int n = channel.read(buffer);
+    synchronized (lock) {
+      if (n < 0) {
+        eof = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+      } else if (n > 0) {
+        buffer.flip();
+        final ByteBuffer copy = ByteBuffer.allocate(n);
+        copy.put(buffer).flip();
+        inbound.add(copy);
+        inboundSize += n;
+        if (inboundSize >= HIGH_WATER_MARK) {
+          readPaused = true;
+          key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+      }
+      lock.notifyAll();
+    }
+  }
+
+  void write() throws IOException {
+    synchronized (lock) {
+      if (!outbound.isEmpty()) {
+        final ByteBuffer[] buffers = outbound.toArray(new ByteBuffer[outbound.size()]);
+        outboundSize -= (int) channel.write(buffers);
+        while (!outbound.isEmpty() && !outbound.getFirst().hasRemaining()) {
+          outbound.removeFirst();
+        }
+      }
+      if (outbound.isEmpty()) {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+      }
+      lock.notifyAll();
+    }
+  }
+
+  void fail(final IOException e) {
+    synchronized (lock) {
+      if (null == failure) {
+        failure = e;
+      }
+      lock.notifyAll();
+    }
+    try {
+      channel.close();
+    } catch (final IOException ce) {
+      // ignore
+    }
+  }
+
+  private void interest(final int op, final boolean on) {
+    if (null == key || !key.isValid()) {
+      return;
+    }
+    synchronized (lock) {
+      if (connected) {
+        key.interestOps(on ? key.interestOps() | op : key.interestOps() & ~op);
+      }
+    }
+  }
+
+  // exchange thread, lock held
+
+  private void checkFailure() throws IOException {
+    if (null != failure) {
+      final IOException e = new SocketException(failure.getMessage());
+      e.initCause(failure);
+      throw e;
+    }
+    if (closed) {
+      throw new SocketException("Connection closed");
+    }
+  }
+
+  private void await() throws InterruptedIOException {
+    try {
+      lock.wait();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting on " + route);
+    }
+  }
+
+  // wait until notified or the deadline of System.currentTimeMillis() passed
+  private void await(final long deadline, final String timeoutMessage) throws InterruptedIOException {
+    if (deadline <= 0) {
+      await();
+      return;
+    }
+    final long remaining = deadline - System.currentTimeMillis();
+    if (remaining <= 0) {
+      throw new SocketTimeoutException(timeoutMessage);
+    }
+    try {
+      lock.wait(remaining);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting on " + route);
+    }
+  }
+
+  private static long deadline(final int timeout) {
+    return timeout > 0 ? System.currentTimeMillis() + timeout : 0L;
+  }
+
+  private final class Input extends InputStream {
+
+    @Override
+    public int read() throws IOException {
+      final byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (0 == len) {
+        return 0;
+      }
+      synchronized (lock) {
+        final long deadline = deadline(readTimeout);
+        while (inbound.isEmpty()) {
+          checkFailure();
+          if (eof) {
+            return -1;
+          }
+          await(deadline, "Read from " + route + " timed out");
+        }
+        int n = 0;
+        while (n < len && !inbound.isEmpty()) {
+          final ByteBuffer head = inbound.getFirst();
+          final int count = Math.min(len - n, head.remaining());
+          head.get(b, off + n, count);
+          n += count;
+          if (!head.hasRemaining()) {
+            inbound.removeFirst();
+          }
+        }
+        inboundSize -= n;
+        if (readPaused && inboundSize < HIGH_WATER_MARK / 2) {
+          readPaused = false;
+          reactor.execute(resumeRead);
+        }
+        return n;
+      }
+    }
+
+    @Override
+    public int available() {
+      synchronized (lock) {
+        return inboundSize;
+      }
+    }
+
+  }
+
+  private final class Output extends OutputStream {
+
+    @Override
+    public void write(final int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+      if (0 == len) {
+        return;
+      }
+      final ByteBuffer copy = ByteBuffer.allocate(len);
+      copy.put(b, off, len).flip();
+      synchronized (lock) {
+        while (outboundSize >= HIGH_WATER_MARK) {
+          checkFailure();
+          await();
+        }
+        checkFailure();
+        if (eof) {
+          throw new EOFException("Connection closed by " + route);
+        }
+        final boolean idle = outbound.isEmpty();
+        outbound.add(copy);
+        outboundSize += len;
+        if (idle) {
+          reactor.execute(resumeWrite);
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      synchronized (lock) {
+        while (!outbound.isEmpty()) {
+          checkFailure();
+          await();
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,174 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A selector thread which performs the socket I/O of many
+ * {@link NioConnection} instances.
+ * <p>
+ * Interest in readiness events is only changed on the selector thread, other
+ * threads hand changes over with {@link #execute(Runnable)}. A single read
+ * buffer is shared by all connections of the reactor, received bytes are
+ * copied to the connection they belong to.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+final class NioReactor implements Runnable {
+
+  static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private final Selector selector;
+  private final Thread thread;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+  private volatile boolean running = true;
+
+  NioReactor(final String name) throws IOException {
+    selector = Selector.open();
+    thread = new Thread(this, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Open a non-blocking connection to address, the connection is established
+   * asynchronously, see {@link NioConnection#awaitConnected(int)}.
+   *
+   * @param route String the {@link HttpConnectionPool} route
+   * @param address InetSocketAddress
+   * @return The {@link NioConnection}
+   * @throws IOException on failure
+   */
+  NioConnection connect(final String route, final InetSocketAddress address) throws IOException {
+    if (!running) {
+      throw new ClosedSelectorException();
+    }
+    final SocketChannel channel = SocketChannel.open();
+    try {
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      final NioConnection connection = new NioConnection(this, channel, route);
+      final boolean connected = channel.connect(address);
+      execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            connection.setKey(channel.register(selector, connected ? 0 : SelectionKey.OP_CONNECT, connection));
+            if (connected) {
+              connection.connected();
+            }
+          } catch (final ClosedChannelException e) {
+            connection.fail(e);
+          }
+        }
+      });
+      return connection;
+    } catch (final IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Run task on the selector thread.
+   *
+   * @param task Runnable
+   */
+  void execute(final Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  /**
+   * Stop the selector thread and close all of its connections.
+   */
+  void close() {
+    running = false;
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (running) {
+        selector.select();
+        runTasks();
+        final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          final SelectionKey key = it.next();
+          it.remove();
+          process(key);
+        }
+      }
+    } catch (final IOException e) {
+      // the selector failed, connections are failed below
+    } finally {
+      runTasks();
+      for (final SelectionKey key : selector.keys()) {
+        ((NioConnection) key.attachment()).fail(new ClosedChannelException());
+      }
+      try {
+        selector.close();
+      } catch (final IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while (null != (task = tasks.poll())) {
+      task.run();
+    }
+  }
+
+  private void process(final SelectionKey key) {
+    final NioConnection connection = (NioConnection) key.attachment();
+    try {
+      if (key.isConnectable()) {
+        connection.finishConnect();
+      }
+      if (key.isValid() && key.isReadable()) {
+        readBuffer.clear();
+        connection.read(readBuffer);
+      }
+      if (key.isValid() && key.isWritable()) {
+        connection.write();
+      }
+    } catch (final CancelledKeyException e) {
+      // closed by another thread
+    } catch (final IOException e) {
+      connection.fail(e);
+    }
+  }
+
+}
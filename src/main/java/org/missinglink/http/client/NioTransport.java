@@ -0,0 +1,628 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.missinglink.tools.StreamUtils;
+
+/**
+ * {@link HttpTransport} speaking HTTP/1.1 over non-blocking sockets, with the
+ * socket I/O of all in-flight requests multiplexed over a few selector
+ * threads.
+ * <p>
+ * The thread of an exchange writes the request and parses the response from
+ * buffers which the selector threads fill and drain, see
+ * {@link NioConnection}. Kept alive connections are held idle in the
+ * {@link HttpConnectionPool} of the {@link HttpClient} and reused for the same
+ * route. Responses are framed by <code>Content-Length</code>, chunked transfer
+ * coding or the end of the connection. Redirects to the same protocol are
+ * followed like {@link java.net.HttpURLConnection} does.
+ * </p>
+ * <p>
+ * {@link #executePipelined(List)} writes up to 16 requests ahead of the
+ * response being read on one connection, see
+ * {@link HttpClient#invokePipelined(List)}.
+ * </p>
+ * <p>
+ * HTTPS requests are delegated to {@link HttpTransport#getDefault()}. The
+ * selector threads are daemon threads and are stopped by {@link #close()}.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class NioTransport extends HttpTransport {
+
+  public static final int DEFAULT_IO_THREADS = 2;
+
+  /**
+   * The number of redirects followed, the default of
+   * {@link java.net.HttpURLConnection}.
+   */
+  public static final int MAX_REDIRECTS = 20;
+
+  // a response entity left unread is skipped up to this many bytes to keep
+  // the connection alive, larger ones close the connection
+  private static final int DRAIN_LIMIT = 64 * 1024;
+
+  // requests written ahead of the response being read on a pipelined
+  // connection, bounded so neither side blocks on a full buffer
+  private static final int PIPELINE_DEPTH = 16;
+
+  private static final String CRLF = "\r\n";
+  private static final String ISO_8859_1 = "ISO-8859-1";
+
+  private static final AtomicInteger TRANSPORT_COUNT = new AtomicInteger();
+
+  private final NioReactor[] reactors;
+  private final AtomicInteger next = new AtomicInteger();
+
+  /**
+   * Create a transport with {@link #DEFAULT_IO_THREADS} selector threads.
+   *
+   * @throws IOException if a selector cannot be opened
+   */
+  public NioTransport() throws IOException {
+    this(DEFAULT_IO_THREADS);
+  }
+
+  /**
+   * @param ioThreads int the number of selector threads
+   * @throws IOException if a selector cannot be opened
+   */
+  public NioTransport(final int ioThreads) throws IOException {
+    super();
+    if (ioThreads < 1) {
+      throw new IllegalArgumentException("ioThreads must be at least 1, was " + ioThreads);
+    }
+    final int id = TRANSPORT_COUNT.incrementAndGet();
+    reactors = new NioReactor[ioThreads];
+    try {
+      for (int i = 0; i < ioThreads; i++) {
+        reactors[i] = new NioReactor("http-nio-" + id + "-" + (i + 1));
+      }
+    } catch (final IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * A request of an exchange, which differs from the {@link HttpClient} when a
+   * redirect is followed.
+   */
+  private static final class Request {
+    private final URI uri;
+    private final String method;
+    private final boolean sendEntity;
+    private final boolean followRedirects;
+    private URI location;
+
+    private Request(final URI uri, final String method, final boolean sendEntity, final boolean followRedirects) {
+      this.uri = uri;
+      this.method = method;
+      this.sendEntity = sendEntity;
+      this.followRedirects = followRedirects;
+    }
+  }
+
+  /**
+   * An entity framed by <code>Content-Length</code>.
+   */
+  private static final class LengthInputStream extends InputStream {
+    private final InputStream in;
+    private long remaining;
+
+    private LengthInputStream(final InputStream in, final long length) {
+      this.in = in;
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (0 == remaining) {
+        return -1;
+      }
+      final int n = in.read(b, off, (int) Math.min(len, remaining));
+      if (n < 0) {
+        throw new EOFException("Premature end of entity, " + remaining + " bytes missing");
+      }
+      remaining -= n;
+      return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(remaining, in.available());
+    }
+  }
+
+  @Override
+  public HttpResponse execute(final HttpClient httpClient, final ResponseSink sink) throws IOException, GeneralSecurityException, InterruptedException {
+    if (HttpClient.HTTPS.equalsIgnoreCase(httpClient.getProtocol())) {
+      return HttpTransport.getDefault().execute(httpClient, sink);
+    }
+    URI uri = URI.create(httpClient.getUri());
+    String method = httpClient.getMethod().name();
+    boolean sendEntity = httpClient.hasEntity();
+    // the phases of followed redirects add up
+    final HttpTiming timing = new HttpTiming();
+    for (int redirects = 0;; redirects++) {
+      final Request request = new Request(uri, method, sendEntity, httpClient.getFollowRedirects() && redirects < MAX_REDIRECTS);
+      final HttpResponse response = exchange(httpClient, request, sink, timing);
+      if (null == request.location) {
+        timing.finish();
+        response.setTiming(timing);
+        return response;
+      }
+      // like HttpURLConnection, only a POST becomes a GET
+      if ("POST".equals(method) && 307 != response.getStatus()) {
+        method = "GET";
+        sendEntity = false;
+      }
+      uri = request.location;
+    }
+  }
+
+  @Override
+  public List<HttpResponse> executePipelined(final List<HttpClient> httpClients) throws IOException, GeneralSecurityException, InterruptedException {
+    final List<HttpResponse> responses = new ArrayList<HttpResponse>(httpClients.size());
+    if (httpClients.isEmpty() || HttpClient.HTTPS.equalsIgnoreCase(httpClients.get(0).getProtocol())) {
+      return responses;
+    }
+    final URI uri = URI.create(httpClients.get(0).getUri());
+    final String route = HttpConnectionPool.route(uri.getScheme(), uri.getHost(), uri.getPort() < 0 ? null : Integer.valueOf(uri.getPort()));
+    final HttpConnectionPool connectionPool = httpClients.get(0).getConnectionPool();
+    final HttpConnectionPool.Lease lease = connectionPool.lease(route);
+    final Cancellation cancellation = Cancellation.current();
+    NioConnection connection = null;
+    boolean reusable = false;
+    // the first response carries the time spent connecting
+    HttpTiming timing = new HttpTiming();
+    try {
+      final boolean reused = lease.getConnection() instanceof NioConnection;
+      connection = reused ? (NioConnection) lease.getConnection() : connect(httpClients.get(0), route, uri, timing);
+      connection.setReadTimeout(httpClients.get(0).getReadTimeout());
+      if (null != cancellation) {
+        cancellation.register(connection);
+      }
+
+      final InputStream is = connection.getInputStream();
+      final Request[] requests = new Request[httpClients.size()];
+      try {
+        for (int written = 0; responses.size() < requests.length;) {
+          for (; written < requests.length && written - responses.size() < PIPELINE_DEPTH; written++) {
+            final HttpClient httpClient = httpClients.get(written);
+            requests[written] = new Request(URI.create(httpClient.getUri()), httpClient.getMethod().name(), false, httpClient.getFollowRedirects());
+            httpClient.fireConnectionAcquired(reused || written > 0);
+            writeRequest(httpClient, requests[written], connection.getOutputStream());
+          }
+
+          // a response waits from the end of its predecessor
+          final Request request = requests[responses.size()];
+          final HttpResponse response = new HttpResponse(httpClients.get(responses.size()));
+          final long sent = System.nanoTime();
+          final String version = readHead(is, response, route);
+          final long firstByte = System.nanoTime();
+          httpClients.get(responses.size()).fireFirstByteReceived();
+          final InputStream entity = entityStream(is, request, response);
+          final HttpClient httpClient = httpClients.get(responses.size());
+          response.setEntity(httpClient.readEntity(response, ContentDecoder.decode(httpClient, response, entity)));
+          response.setEntityLength(response.getEntity().length);
+          timing.addFirstByte(firstByte - sent);
+          timing.addTransfer(System.nanoTime() - firstByte);
+          timing.finish();
+          response.setTiming(timing);
+          timing = new HttpTiming();
+          // a redirect is followed by sending the request again on its own
+          responses.add(null == redirect(httpClients.get(responses.size()), request, response) ? response : null);
+
+          if (entity == is || !isKeepAlive(version, response)) {
+            // the server closes the connection, the remaining requests are
+            // sent one at a time
+            return responses;
+          }
+        }
+      } catch (final InterruptedIOException e) {
+        throw e;
+      } catch (final IOException e) {
+        // the server closed the connection without answering all requests,
+        // which are idempotent and sent again one at a time
+        return responses;
+      }
+
+      reusable = null == cancellation || !cancellation.isCancelled();
+      return responses;
+    } finally {
+      if (null != connection) {
+        if (null != cancellation) {
+          cancellation.unregister(connection);
+        }
+        if (!reusable) {
+          connection.close();
+        }
+      }
+      connectionPool.release(lease, reusable ? connection : null);
+    }
+  }
+
+  @Override
+  public void close() {
+    for (final NioReactor reactor : reactors) {
+      if (null != reactor) {
+        reactor.close();
+      }
+    }
+  }
+
+  private HttpResponse exchange(final HttpClient httpClient, final Request request, final ResponseSink sink, final HttpTiming timing) throws IOException, InterruptedException {
+    final String route = HttpConnectionPool.route(request.uri.getScheme(), request.uri.getHost(), request.uri.getPort() < 0 ? null : Integer.valueOf(request.uri.getPort()));
+    final HttpConnectionPool connectionPool = httpClient.getConnectionPool();
+    final HttpConnectionPool.Lease lease = connectionPool.lease(route);
+    final Cancellation cancellation = Cancellation.current();
+    NioConnection connection = null;
+    boolean reusable = false;
+    try {
+      // the pool may be shared with another transport
+      final boolean reused = lease.getConnection() instanceof NioConnection;
+      connection = reused ? (NioConnection) lease.getConnection() : connect(httpClient, route, request.uri, timing);
+      connection.setReadTimeout(httpClient.getReadTimeout());
+      if (null != cancellation) {
+        cancellation.register(connection);
+      }
+      httpClient.fireConnectionAcquired(reused);
+
+      final HttpResponse response = new HttpResponse(httpClient);
+      final String version;
+      final long sending = System.nanoTime();
+      try {
+        writeRequest(httpClient, request, connection.getOutputStream());
+        version = readHead(connection.getInputStream(), response, route);
+      } catch (final IOException e) {
+        if (reused && isStale(e) && isReplayable(httpClient, request)) {
+          throw new StaleConnectionException(e);
+        }
+        throw e;
+      }
+
+      final long firstByte = System.nanoTime();
+      timing.addFirstByte(firstByte - sending);
+      httpClient.fireFirstByteReceived();
+      final InputStream entity = entityStream(connection.getInputStream(), request, response);
+      request.location = redirect(httpClient, request, response);
+      if (null == request.location) {
+        final InputStream decoded = ContentDecoder.decode(httpClient, response, entity);
+        if (null == sink) {
+          response.setEntity(httpClient.readEntity(response, decoded));
+          response.setEntityLength(response.getEntity().length);
+        } else {
+          response.setEntityLength(sink.receive(response, decoded));
+        }
+      }
+
+      reusable = entity != connection.getInputStream() && isKeepAlive(version, response) && drain(entity) && (null == cancellation || !cancellation.isCancelled());
+      timing.addTransfer(System.nanoTime() - firstByte);
+      return response;
+    } finally {
+      if (null != connection) {
+        if (null != cancellation) {
+          cancellation.unregister(connection);
+        }
+        if (!reusable) {
+          connection.close();
+        }
+      }
+      connectionPool.release(lease, reusable ? connection : null);
+    }
+  }
+
+  private NioConnection connect(final HttpClient httpClient, final String route, final URI uri, final HttpTiming timing) throws IOException {
+    final long resolving = System.nanoTime();
+    final InetSocketAddress address = new InetSocketAddress(uri.getHost(), uri.getPort() < 0 ? 80 : uri.getPort());
+    if (address.isUnresolved()) {
+      throw new UnknownHostException(uri.getHost());
+    }
+    final long connecting = System.nanoTime();
+    timing.addDns(connecting - resolving);
+    final NioReactor reactor = reactors[(next.getAndIncrement() & Integer.MAX_VALUE) % reactors.length];
+    final NioConnection connection = reactor.connect(route, address);
+    try {
+      connection.awaitConnected(httpClient.getConnectTimeout());
+    } catch (final IOException e) {
+      connection.close();
+      throw e;
+    }
+    timing.addConnect(System.nanoTime() - connecting);
+    return connection;
+  }
+
+  /**
+   * Write the request line, headers and entity of request.
+   *
+   * @param httpClient HttpClient
+   * @param request Request
+   * @param os OutputStream
+   * @throws IOException on failure
+   */
+  private void writeRequest(final HttpClient httpClient, final Request request, final OutputStream os) throws IOException {
+    final Map<String, String> headers = httpClient.getHeaders();
+    final StringBuilder head = new StringBuilder(256);
+    head.append(request.method).append(' ').append(requestTarget(request.uri)).append(" HTTP/1.1").append(CRLF);
+    if (!containsHeader(headers, "Host")) {
+      head.append("Host: ").append(request.uri.getHost());
+      if (request.uri.getPort() >= 0) {
+        head.append(':').append(request.uri.getPort());
+      }
+      head.append(CRLF);
+    }
+    if (!containsHeader(headers, "User-Agent")) {
+      head.append("User-Agent: Java/").append(System.getProperty("java.version")).append(CRLF);
+    }
+    if (!containsHeader(headers, "Accept")) {
+      head.append("Accept: */*").append(CRLF);
+    }
+    final String authorization = httpClient.getAuthorization();
+    if (null != authorization && !containsHeader(headers, "Authorization")) {
+      head.append("Authorization: ").append(authorization).append(CRLF);
+    }
+    final String acceptEncoding = ContentDecoder.acceptEncoding(httpClient);
+    if (null != acceptEncoding) {
+      head.append(ContentDecoder.ACCEPT_ENCODING).append(": ").append(acceptEncoding).append(CRLF);
+    }
+    for (final Entry<String, String> header : headers.entrySet()) {
+      // the entity is framed below, a header without value is not sent
+      if (null != header.getValue() && !"Content-Length".equalsIgnoreCase(header.getKey()) && !"Transfer-Encoding".equalsIgnoreCase(header.getKey())) {
+        head.append(header.getKey()).append(": ").append(header.getValue()).append(CRLF);
+      }
+    }
+
+    byte[] bytes = null;
+    RequestEntity requestEntity = null;
+    if (request.sendEntity) {
+      if (!containsHeader(headers, HttpClient.CONTENT_TYPE)) {
+        head.append(HttpClient.CONTENT_TYPE).append(": application/x-www-form-urlencoded").append(CRLF);
+      }
+      if (null != httpClient.getEntity()) {
+        bytes = httpClient.isBinaryEntity() ? httpClient.getEntityAsByteArray() : httpClient.getEntityAsString().getBytes();
+        head.append("Content-Length: ").append(bytes.length).append(CRLF);
+      } else {
+        requestEntity = httpClient.getRequestEntity();
+        if (requestEntity.getContentLength() >= 0) {
+          head.append("Content-Length: ").append(requestEntity.getContentLength()).append(CRLF);
+        } else {
+          head.append("Transfer-Encoding: chunked").append(CRLF);
+        }
+      }
+    }
+    head.append(CRLF);
+
+    os.write(head.toString().getBytes(ISO_8859_1));
+    if (null != bytes) {
+      os.write(bytes);
+    } else if (null != requestEntity) {
+      writeRequestEntity(requestEntity, os);
+    }
+    os.flush();
+  }
+
+  private static void writeRequestEntity(final RequestEntity requestEntity, final OutputStream os) throws IOException {
+    final InputStream is = requestEntity.openStream();
+    try {
+      if (requestEntity.getContentLength() >= 0) {
+        StreamUtils.copy(is, os);
+        return;
+      }
+      final byte[] buf = new byte[StreamUtils.COPY_BUFFER_SIZE];
+      for (int num; (num = is.read(buf)) != -1;) {
+        if (num > 0) {
+          os.write((Integer.toHexString(num) + CRLF).getBytes(ISO_8859_1));
+          os.write(buf, 0, num);
+          os.write(CRLF.getBytes(ISO_8859_1));
+        }
+      }
+      os.write(("0" + CRLF + CRLF).getBytes(ISO_8859_1));
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Read the status line and headers into response, skipping interim 1xx
+   * responses.
+   *
+   * @param is InputStream
+   * @param response HttpResponse
+   * @param route String
+   * @return The HTTP version of the response
+   * @throws IOException on failure
+   */
+  private static String readHead(final InputStream is, final HttpResponse response, final String route) throws IOException {
+    String statusLine;
+    do {
+      statusLine = ChunkedInputStream.readLine(is);
+      if (null == statusLine) {
+        throw new EOFException("Connection closed by " + route + " without a response");
+      }
+      parseStatusLine(statusLine, response);
+      response.setHeaders(readHeaders(is));
+    } while (response.getStatus() / 100 == 1 && 101 != response.getStatus());
+
+    // the status line is kept under the null key like HttpURLConnection does
+    final List<String> status = new ArrayList<String>(1);
+    status.add(statusLine);
+    response.getHeaders().put(null, status);
+    response.readHeaderFields();
+    return statusLine.substring(0, statusLine.indexOf(' '));
+  }
+
+  private static void parseStatusLine(final String statusLine, final HttpResponse response) throws IOException {
+    final int first = statusLine.indexOf(' ');
+    if (!statusLine.startsWith("HTTP/") || first < 0) {
+      throw new IOException("Invalid status line [" + statusLine + "]");
+    }
+    final int second = statusLine.indexOf(' ', first + 1);
+    try {
+      response.setStatus(Integer.parseInt(second < 0 ? statusLine.substring(first + 1) : statusLine.substring(first + 1, second)));
+    } catch (final NumberFormatException e) {
+      throw new IOException("Invalid status line [" + statusLine + "]");
+    }
+    response.setMessage(second < 0 ? null : statusLine.substring(second + 1));
+  }
+
+  private static Map<String, List<String>> readHeaders(final InputStream is) throws IOException {
+    final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+    List<String> values = null;
+    for (String line; null != (line = ChunkedInputStream.readLine(is)) && line.length() > 0;) {
+      if ((' ' == line.charAt(0) || '\t' == line.charAt(0)) && null != values && !values.isEmpty()) {
+        // obsolete line folding continues the previous value
+        values.set(values.size() - 1, values.get(values.size() - 1) + " " + line.trim());
+        continue;
+      }
+      final int colon = line.indexOf(':');
+      if (colon <= 0) {
+        throw new IOException("Invalid header [" + line + "]");
+      }
+      final String name = line.substring(0, colon).trim();
+      values = headers.get(name);
+      if (null == values) {
+        values = new ArrayList<String>(1);
+        headers.put(name, values);
+      }
+      values.add(line.substring(colon + 1).trim());
+    }
+    return headers;
+  }
+
+  /**
+   * @return The entity of response, or is itself if the entity ends with the
+   *         connection
+   */
+  private static InputStream entityStream(final InputStream is, final Request request, final HttpResponse response) throws IOException {
+    final int status = response.getStatus();
+    if ("HEAD".equals(request.method) || 204 == status || 304 == status) {
+      return new LengthInputStream(is, 0L);
+    }
+    final String transferEncoding = response.getHeaderSingleValue("Transfer-Encoding");
+    if (null != transferEncoding && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked")) {
+      return new ChunkedInputStream(is);
+    }
+    final String contentLength = response.getHeaderSingleValue("Content-Length");
+    if (null != contentLength) {
+      try {
+        return new LengthInputStream(is, Long.parseLong(contentLength.trim()));
+      } catch (final NumberFormatException e) {
+        throw new IOException("Invalid Content-Length [" + contentLength + "]");
+      }
+    }
+    return is;
+  }
+
+  private static boolean isKeepAlive(final String version, final HttpResponse response) {
+    final String connection = response.getHeaderSingleValue("Connection");
+    if ("HTTP/1.0".equals(version)) {
+      return "keep-alive".equalsIgnoreCase(connection);
+    }
+    return !"close".equalsIgnoreCase(connection);
+  }
+
+  /**
+   * Skip what is left of entity, if little enough.
+   *
+   * @return true if the end of entity was reached
+   */
+  private static boolean drain(final InputStream entity) throws IOException {
+    final byte[] buf = new byte[4096];
+    for (int skipped = 0; skipped <= DRAIN_LIMIT;) {
+      final int n = entity.read(buf);
+      if (n < 0) {
+        return true;
+      }
+      skipped += n;
+    }
+    return false;
+  }
+
+  /**
+   * @return The location to follow, or null if the response is final
+   */
+  private static URI redirect(final HttpClient httpClient, final Request request, final HttpResponse response) {
+    final int status = response.getStatus();
+    if (!request.followRedirects || status < 300 || status > 307 || 304 == status || 305 == status || 306 == status) {
+      return null;
+    }
+    final String location = response.getHeaderSingleValue("Location");
+    if (null == location) {
+      return null;
+    }
+    final URI target;
+    try {
+      target = request.uri.resolve(location.trim());
+    } catch (final IllegalArgumentException e) {
+      return null;
+    }
+    // a streamed entity cannot be sent twice
+    if (!request.uri.getScheme().equalsIgnoreCase(target.getScheme()) || !isReplayable(httpClient, request)) {
+      return null;
+    }
+    return target;
+  }
+
+  private static boolean isReplayable(final HttpClient httpClient, final Request request) {
+    return !request.sendEntity || null != httpClient.getEntity() || httpClient.getRequestEntity().isRepeatable();
+  }
+
+  private static String requestTarget(final URI uri) {
+    final String path = uri.getRawPath();
+    final StringBuilder sb = new StringBuilder(null == path || path.length() == 0 ? "/" : path);
+    if (null != uri.getRawQuery()) {
+      sb.append('?').append(uri.getRawQuery());
+    }
+    return sb.toString();
+  }
+
+  private static boolean containsHeader(final Map<String, String> headers, final String name) {
+    for (final String header : headers.keySet()) {
+      if (name.equalsIgnoreCase(header)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
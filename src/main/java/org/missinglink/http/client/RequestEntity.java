@@ -0,0 +1,197 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A request entity which is streamed to the connection rather than held in
+ * memory.
+ *
+ * @author alex.sherwin
+ *
+ */
+public abstract class RequestEntity {
+
+  protected RequestEntity() {
+    super();
+  }
+
+  /**
+   * Open the entity content, the caller closes the returned stream.
+   *
+   * @return The entity content
+   * @throws IOException on failure
+   */
+  public abstract InputStream openStream() throws IOException;
+
+  /**
+   * @return The length of the entity in bytes, or -1 if unknown
+   */
+  public abstract long getContentLength();
+
+  /**
+   * @return true if {@link #openStream()} may be called more than once
+   */
+  public abstract boolean isRepeatable();
+
+  /**
+   * Create an entity streamed from a file.
+   *
+   * @param file File
+   * @return The {@link RequestEntity}
+   */
+  public static RequestEntity of(final File file) {
+    return new FileEntity(file);
+  }
+
+  /**
+   * Create an entity streamed from an {@link InputStream}, which can be read
+   * only once.
+   *
+   * @param is InputStream
+   * @param length long the length in bytes, or -1 if unknown
+   * @return The {@link RequestEntity}
+   */
+  public static RequestEntity of(final InputStream is, final long length) {
+    return new StreamEntity(is, length);
+  }
+
+  /**
+   * Create an entity from content already in memory, which can be sent more
+   * than once.
+   *
+   * @param bytes byte[]
+   * @return The {@link RequestEntity}
+   */
+  public static RequestEntity of(final byte[] bytes) {
+    return new ByteArrayEntity(bytes);
+  }
+
+  /**
+   * Wrap entity so it is gzip compressed while it is sent, see
+   * {@link GzipRequestEntity}.
+   *
+   * @param entity RequestEntity
+   * @return The {@link GzipRequestEntity}
+   */
+  public static GzipRequestEntity gzip(final RequestEntity entity) {
+    return new GzipRequestEntity(entity);
+  }
+
+  private static final class FileEntity extends RequestEntity {
+
+    private final File file;
+
+    private FileEntity(final File file) {
+      this.file = file;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+      return new FileInputStream(file);
+    }
+
+    @Override
+    public long getContentLength() {
+      return file.length();
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return file.getAbsolutePath();
+    }
+
+  }
+
+  private static final class ByteArrayEntity extends RequestEntity {
+
+    private final byte[] bytes;
+
+    private ByteArrayEntity(final byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public InputStream openStream() {
+      return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public long getContentLength() {
+      return bytes.length;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return bytes.length + " bytes";
+    }
+
+  }
+
+  private static final class StreamEntity extends RequestEntity {
+
+    private final InputStream is;
+    private final long length;
+    private boolean consumed;
+
+    private StreamEntity(final InputStream is, final long length) {
+      this.is = is;
+      this.length = length;
+    }
+
+    @Override
+    public synchronized InputStream openStream() throws IOException {
+      if (consumed) {
+        throw new IOException("Entity stream of type [" + is.getClass().getName() + "] has already been consumed");
+      }
+      consumed = true;
+      return is;
+    }
+
+    @Override
+    public long getContentLength() {
+      return length;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return is.getClass().getName() + " stream, " + (length < 0 ? "unknown length" : length + " bytes");
+    }
+
+  }
+
+}
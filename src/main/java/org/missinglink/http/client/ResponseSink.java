@@ -0,0 +1,57 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Receives the response entity of {@link HttpClient#invoke(ResponseSink)} as
+ * a stream instead of having it buffered into
+ * {@link HttpResponse#getEntity()}.
+ *
+ * @author alex.sherwin
+ *
+ */
+public abstract class ResponseSink {
+
+  protected ResponseSink() {
+    super();
+  }
+
+  /**
+   * Consume the response entity, the caller closes the stream afterwards.
+   *
+   * @param response HttpResponse the status and headers are already set
+   * @param is InputStream the response entity
+   * @return The number of bytes consumed
+   * @throws IOException on failure
+   */
+  public abstract long receive(HttpResponse response, InputStream is) throws IOException;
+
+  /**
+   * Create a sink writing the response entity to a file.
+   *
+   * @param file File
+   * @return The {@link FileResponseSink}
+   */
+  public static FileResponseSink toFile(final File file) {
+    return new FileResponseSink(file);
+  }
+
+}
@@ -0,0 +1,229 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.Properties;
+
+import org.missinglink.http.exception.HttpCertificateException;
+import org.missinglink.http.exception.HttpInvocationException;
+
+/**
+ * Downloads the entity of a GET request into a file so that an interrupted
+ * transfer can be continued by the next invocation.
+ * <p>
+ * The entity is written to a <code>.part</code> sidecar of the file, next to
+ * a <code>.part.state</code> file recording the URI and the validator
+ * (strong ETag or Last-Modified) of the response. When both exist the next
+ * invocation requests the remaining bytes with <code>Range</code> and
+ * <code>If-Range</code>; a server answering 200 instead, because the entity
+ * changed or ranges are not supported, starts the download over. The sidecar
+ * is renamed to the file once the entity is complete, so the file never
+ * holds a partial entity.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+final class ResumableDownload {
+
+  static final String PART_SUFFIX = ".part";
+  static final String STATE_SUFFIX = ".part.state";
+
+  private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+  private static final String URI = "uri";
+  private static final String VALIDATOR = "validator";
+
+  private final HttpClient httpClient;
+  private final File file;
+  private final File part;
+  private final File state;
+
+  ResumableDownload(final HttpClient httpClient, final File file) {
+    this.httpClient = httpClient;
+    this.file = file;
+    this.part = new File(file.getPath() + PART_SUFFIX);
+    this.state = new File(file.getPath() + STATE_SUFFIX);
+  }
+
+  HttpResponse invoke() throws HttpInvocationException, HttpCertificateException {
+    final String validator = readValidator();
+    final long offset = null != validator && part.isFile() ? part.length() : 0L;
+    if (offset > 0) {
+      final HttpClient range = httpClient.copyWithoutEntity().build().header("Range", "bytes=" + offset + "-").header("If-Range", validator).toHttpClient();
+      final HttpResponse response = range.invoke(new ResumeSink(offset));
+      if (HttpURLConnection.HTTP_NOT_MODIFIED == response.getStatus()) {
+        // a conditional request found the file up to date
+        discard();
+        return response;
+      }
+      if (HTTP_RANGE_NOT_SATISFIABLE != response.getStatus()) {
+        return response;
+      }
+      // the sidecar no longer matches the entity, start over
+      discard();
+    }
+    return httpClient.invoke(new ResumeSink(0L));
+  }
+
+  private String readValidator() throws HttpInvocationException {
+    if (!state.isFile()) {
+      return null;
+    }
+    final Properties properties = new Properties();
+    try {
+      final InputStream is = new FileInputStream(state);
+      try {
+        properties.load(is);
+      } finally {
+        is.close();
+      }
+    } catch (final IOException e) {
+      throw new HttpInvocationException("Failed to read download state " + state.getAbsolutePath(), e);
+    }
+    return httpClient.getUri().equals(properties.getProperty(URI)) ? properties.getProperty(VALIDATOR) : null;
+  }
+
+  private void writeValidator(final String validator) throws IOException {
+    if (null == validator) {
+      // without a validator the download cannot be resumed safely
+      if (state.exists() && !state.delete()) {
+        throw new IOException("Could not delete " + state.getAbsolutePath());
+      }
+      return;
+    }
+    final Properties properties = new Properties();
+    properties.setProperty(URI, httpClient.getUri());
+    properties.setProperty(VALIDATOR, validator);
+    final OutputStream os = new FileOutputStream(state);
+    try {
+      properties.store(os, null);
+    } finally {
+      os.close();
+    }
+  }
+
+  private void discard() {
+    part.delete();
+    state.delete();
+  }
+
+  // If-Range takes a strong entity tag or a date
+  private static String validator(final HttpResponse response) {
+    final String etag = response.getHeaderSingleValue("ETag");
+    if (null != etag && !etag.startsWith("W/")) {
+      return etag;
+    }
+    return response.getHeaderSingleValue("Last-Modified");
+  }
+
+  // the complete entity length from Content-Range or Content-Length, or -1
+  private static long entityLength(final HttpResponse response, final long offset) {
+    try {
+      if (HttpURLConnection.HTTP_PARTIAL == response.getStatus()) {
+        final String range = response.getHeaderSingleValue("Content-Range");
+        final String total = range.substring(range.indexOf('/') + 1).trim();
+        return "*".equals(total) ? -1L : Long.parseLong(total);
+      }
+      final String length = response.getHeaderSingleValue("Content-Length");
+      return null == length ? -1L : offset + Long.parseLong(length.trim());
+    } catch (final RuntimeException e) {
+      return -1L;
+    }
+  }
+
+  private static long rangeStart(final HttpResponse response) {
+    final String range = response.getHeaderSingleValue("Content-Range");
+    try {
+      return Long.parseLong(range.substring("bytes ".length(), range.indexOf('-')).trim());
+    } catch (final RuntimeException e) {
+      return -1L;
+    }
+  }
+
+  private final class ResumeSink extends ResponseSink {
+
+    private final long offset;
+
+    private ResumeSink(final long offset) {
+      this.offset = offset;
+    }
+
+    @Override
+    public long receive(final HttpResponse response, final InputStream is) throws IOException {
+      final long position;
+      if (HttpURLConnection.HTTP_OK == response.getStatus()) {
+        // a new entity, record its validator before any of it is written
+        position = 0L;
+        FileResponseSink.mkdirs(part);
+        writeValidator(validator(response));
+      } else if (HttpURLConnection.HTTP_PARTIAL == response.getStatus() && offset > 0) {
+        if (rangeStart(response) != offset) {
+          discard();
+          throw new IOException("Expected a range starting at " + offset + " but got " + response.getHeaderSingleValue("Content-Range"));
+        }
+        position = offset;
+      } else if (offset > 0) {
+        // the range request failed, keep the sidecar for the next invocation
+        return 0L;
+      } else {
+        return new FileResponseSink(file).receive(response, is);
+      }
+
+      final RandomAccessFile raf = new RandomAccessFile(part, "rw");
+      final long count;
+      try {
+        raf.setLength(position);
+        count = FileResponseSink.transfer(is, raf.getChannel(), position, Long.MAX_VALUE);
+      } finally {
+        raf.close();
+      }
+
+      final long expected = entityLength(response, position);
+      if (expected >= 0 && part.length() != expected) {
+        throw new IOException("Download of " + file.getAbsolutePath() + " incomplete after " + part.length() + " of " + expected + " bytes, invoke again to resume");
+      }
+      complete();
+
+      // report the complete entity
+      response.setStatus(HttpURLConnection.HTTP_OK);
+      response.setEntityFile(file);
+      response.setEntityOffset(position);
+      return count;
+    }
+
+    private void complete() throws IOException {
+      if (!part.renameTo(file)) {
+        // some platforms cannot rename onto an existing file
+        if (file.exists() && !file.delete() || !part.renameTo(file)) {
+          throw new IOException("Could not rename " + part.getAbsolutePath() + " to " + file.getAbsolutePath());
+        }
+      }
+      state.delete();
+    }
+
+  }
+
+}
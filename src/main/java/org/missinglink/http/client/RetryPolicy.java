@@ -0,0 +1,323 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+import javax.net.ssl.SSLException;
+
+import org.missinglink.tools.SizeLimitExceededException;
+
+/**
+ * Decides whether and when {@link HttpClient#invoke()} sends a request again
+ * after a transient failure: an I/O error such as a refused or reset
+ * connection, or one of the {@link #getRetryStatuses()} such as
+ * <code>503 Service Unavailable</code>.
+ * <p>
+ * The delay before attempt <i>n + 1</i> grows exponentially from
+ * {@link #getInitialBackoff()} up to {@link #getMaxBackoff()}, and is reduced
+ * by a random share of at most {@link #getJitter()} so that clients failing
+ * at the same time do not retry in lockstep. A <code>Retry-After</code>
+ * header takes precedence over the computed delay; when it asks for more than
+ * {@link #getMaxBackoff()} the response is returned as is.
+ * </p>
+ * <p>
+ * Only requests with an idempotent {@link HttpMethod} are retried unless
+ * {@link #isRetryNonIdempotent()} is set, and only if their entity can be
+ * sent again: in memory entities and repeatable {@link RequestEntity}
+ * instances such as files are replayed, a {@link RequestEntity} streamed from
+ * an {@link java.io.InputStream} is not. Implement
+ * {@link RequestEntity#openStream()} to reopen the source for other streamed
+ * entities.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class RetryPolicy {
+
+  public static final long DEFAULT_INITIAL_BACKOFF = 200L;
+  public static final long DEFAULT_MAX_BACKOFF = 30000L;
+  public static final double DEFAULT_JITTER = 0.5d;
+
+  private static final Integer[] DEFAULT_RETRY_STATUSES = {Integer.valueOf(429), Integer.valueOf(502), Integer.valueOf(503), Integer.valueOf(504)};
+
+  private final Random random = new Random();
+
+  private int maxAttempts;
+  private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+  private long maxBackoff = DEFAULT_MAX_BACKOFF;
+  private double jitter = DEFAULT_JITTER;
+  private boolean retryNonIdempotent;
+  private boolean retryAfter = true;
+  private Set<Integer> retryStatuses = new LinkedHashSet<Integer>();
+
+  protected RetryPolicy() {
+    super();
+  }
+
+  /**
+   * Create a {@link RetryPolicyBuilder} for a policy sending a request at
+   * most maxAttempts times, including the first attempt.
+   *
+   * @param maxAttempts int at least 1
+   * @return The new {@link RetryPolicyBuilder}
+   */
+  public static RetryPolicyBuilder maxAttempts(final int maxAttempts) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("maxAttempts must be at least 1, was " + maxAttempts);
+    }
+    final RetryPolicy retryPolicy = new RetryPolicy();
+    retryPolicy.maxAttempts = maxAttempts;
+    Collections.addAll(retryPolicy.retryStatuses, DEFAULT_RETRY_STATUSES);
+    return new RetryPolicyBuilder(retryPolicy);
+  }
+
+  /**
+   * Return the milliseconds to wait before sending the request of httpClient
+   * again.
+   *
+   * @param httpClient HttpClient
+   * @param attempts int the number of attempts made so far
+   * @param response HttpResponse of the last attempt, or null if it failed
+   * @param failure IOException of the last attempt, or null if it returned a
+   *          response
+   * @return The delay in milliseconds, or -1 if the request is not retried
+   */
+  public long getDelay(final HttpClient httpClient, final int attempts, final HttpResponse response, final IOException failure) {
+    if (attempts >= maxAttempts || !canReplay(httpClient)) {
+      return -1L;
+    }
+    if (null != failure) {
+      // a certificate or a response over the size limit won't change
+      return failure instanceof SSLException || failure instanceof SizeLimitExceededException ? -1L : getBackoff(attempts);
+    }
+    if (null == response || !retryStatuses.contains(Integer.valueOf(response.getStatus()))) {
+      return -1L;
+    }
+    final long delay = retryAfter ? getRetryAfter(response) : -1L;
+    if (delay < 0) {
+      return getBackoff(attempts);
+    }
+    return delay > maxBackoff ? -1L : delay;
+  }
+
+  /**
+   * @param httpClient HttpClient
+   * @return true if the request may be sent again
+   */
+  protected boolean canReplay(final HttpClient httpClient) {
+    if (!retryNonIdempotent && !httpClient.getMethod().isIdempotent()) {
+      return false;
+    }
+    return null == httpClient.getRequestEntity() || httpClient.getRequestEntity().isRepeatable();
+  }
+
+  /**
+   * @param attempts int the number of attempts made so far
+   * @return The exponential backoff with jitter applied, in milliseconds
+   */
+  protected long getBackoff(final int attempts) {
+    long backoff = initialBackoff;
+    for (int i = 1; i < attempts && backoff < maxBackoff; i++) {
+      backoff *= 2;
+    }
+    backoff = Math.min(backoff, maxBackoff);
+    if (jitter > 0) {
+      final double share;
+      synchronized (random) {
+        share = random.nextDouble();
+      }
+      backoff -= (long) (backoff * jitter * share);
+    }
+    return backoff;
+  }
+
+  /**
+   * @param response HttpResponse
+   * @return The delay asked for by the <code>Retry-After</code> header in
+   *         milliseconds, either in seconds or as an HTTP date, or -1 if
+   *         missing or invalid
+   */
+  static long getRetryAfter(final HttpResponse response) {
+    final String value = response.getHeaderSingleValue("Retry-After");
+    if (null == value) {
+      return -1L;
+    }
+    try {
+      final long seconds = Long.parseLong(value.trim());
+      return seconds < 0 ? -1L : seconds * 1000L;
+    } catch (final NumberFormatException e) {
+      final Date date = HttpResponse.parseDate(value);
+      return null == date ? -1L : Math.max(0L, date.getTime() - System.currentTimeMillis());
+    }
+  }
+
+  /**
+   * @return the maximum number of attempts, including the first one
+   */
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * @return the delay in milliseconds before the first retry
+   */
+  public long getInitialBackoff() {
+    return initialBackoff;
+  }
+
+  /**
+   * @return the maximum delay in milliseconds before a retry
+   */
+  public long getMaxBackoff() {
+    return maxBackoff;
+  }
+
+  /**
+   * @return the share of a delay, between 0 and 1, which is randomly taken off
+   */
+  public double getJitter() {
+    return jitter;
+  }
+
+  /**
+   * @return true if requests with a method which is not idempotent are retried
+   *         as well
+   */
+  public boolean isRetryNonIdempotent() {
+    return retryNonIdempotent;
+  }
+
+  /**
+   * @return true if a <code>Retry-After</code> header is honoured
+   */
+  public boolean isRetryAfter() {
+    return retryAfter;
+  }
+
+  /**
+   * @return the response statuses which are retried
+   */
+  public Set<Integer> getRetryStatuses() {
+    return Collections.unmodifiableSet(retryStatuses);
+  }
+
+  @Override
+  public String toString() {
+    return "maxAttempts=" + maxAttempts + ", backoff=" + initialBackoff + "-" + maxBackoff + "ms, jitter=" + jitter + ", statuses=" + retryStatuses;
+  }
+
+  /**
+   * Builder for {@link RetryPolicy}, see {@link RetryPolicy#maxAttempts(int)}.
+   */
+  public static class RetryPolicyBuilder {
+
+    private final RetryPolicy retryPolicy;
+
+    protected RetryPolicyBuilder(final RetryPolicy retryPolicy) {
+      super();
+      this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Set the delay before the first retry, doubled for every further retry
+     * up to maxBackoff.
+     *
+     * @param initialBackoff long milliseconds
+     * @param maxBackoff long milliseconds
+     * @return The new {@link RetryPolicyBuilder}
+     */
+    public RetryPolicyBuilder backoff(final long initialBackoff, final long maxBackoff) {
+      if (initialBackoff < 0 || maxBackoff < initialBackoff) {
+        throw new IllegalArgumentException("Invalid backoff " + initialBackoff + "-" + maxBackoff);
+      }
+      retryPolicy.initialBackoff = initialBackoff;
+      retryPolicy.maxBackoff = maxBackoff;
+      return this;
+    }
+
+    /**
+     * Set the share of a delay which is randomly taken off, defaults to
+     * {@link RetryPolicy#DEFAULT_JITTER}.
+     *
+     * @param jitter double between 0 for none and 1 for a delay anywhere up to
+     *          the backoff
+     * @return The new {@link RetryPolicyBuilder}
+     */
+    public RetryPolicyBuilder jitter(final double jitter) {
+      if (jitter < 0 || jitter > 1) {
+        throw new IllegalArgumentException("jitter must be between 0 and 1, was " + jitter);
+      }
+      retryPolicy.jitter = jitter;
+      return this;
+    }
+
+    /**
+     * Retry requests whose method is not idempotent, such as POST, as well.
+     * The server may then process such a request more than once.
+     *
+     * @param retryNonIdempotent boolean
+     * @return The new {@link RetryPolicyBuilder}
+     */
+    public RetryPolicyBuilder retryNonIdempotent(final boolean retryNonIdempotent) {
+      retryPolicy.retryNonIdempotent = retryNonIdempotent;
+      return this;
+    }
+
+    /**
+     * Honour the <code>Retry-After</code> header of a retried response,
+     * defaults to true.
+     *
+     * @param retryAfter boolean
+     * @return The new {@link RetryPolicyBuilder}
+     */
+    public RetryPolicyBuilder retryAfter(final boolean retryAfter) {
+      retryPolicy.retryAfter = retryAfter;
+      return this;
+    }
+
+    /**
+     * Set the response statuses which are retried, replacing the defaults 429,
+     * 502, 503 and 504.
+     *
+     * @param statuses int...
+     * @return The new {@link RetryPolicyBuilder}
+     */
+    public RetryPolicyBuilder retryStatuses(final int... statuses) {
+      retryPolicy.retryStatuses = new LinkedHashSet<Integer>();
+      for (final int status : statuses) {
+        retryPolicy.retryStatuses.add(Integer.valueOf(status));
+      }
+      return this;
+    }
+
+    /**
+     * @return The built {@link RetryPolicy}
+     */
+    public RetryPolicy toRetryPolicy() {
+      return retryPolicy;
+    }
+
+  }
+
+}
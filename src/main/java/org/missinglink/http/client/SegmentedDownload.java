@@ -0,0 +1,254 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.missinglink.http.client.HttpClient.HttpClientBuilder;
+import org.missinglink.http.exception.HttpCertificateException;
+import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.exception.HttpInvocationException;
+
+/**
+ * Downloads the entity of a GET request into a file as concurrent byte
+ * ranges.
+ * <p>
+ * A HEAD request determines the entity length and whether the server accepts
+ * byte ranges. A temporary file next to the target is preallocated and each
+ * range is fetched on its own connection and written at its offset; the
+ * target is replaced only once every range is complete. Servers without range
+ * support, small entities and servers ignoring a range request fall back to a
+ * single stream.
+ * Ranges are made conditional on the validator of the HEAD response with
+ * <code>If-Range</code>, so an entity changing mid-download is not mixed.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+final class SegmentedDownload {
+
+  /**
+   * The smallest range worth a connection of its own.
+   */
+  static final long MIN_SEGMENT_SIZE = 64L * 1024;
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+    @Override
+    public Thread newThread(final Runnable r) {
+      final Thread t = new Thread(r, "http-segment-" + THREAD_COUNT.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  };
+
+  private final HttpClient httpClient;
+  private final File file;
+  private final int segments;
+
+  SegmentedDownload(final HttpClient httpClient, final File file, final int segments) {
+    this.httpClient = httpClient;
+    this.file = file;
+    this.segments = segments;
+  }
+
+  HttpResponse invoke() throws HttpInvocationException, HttpCertificateException {
+    // the ranges refer to the uncompressed entity
+    final HttpResponse head = httpClient.copyWithoutEntity().build().head().compressed(false).toHttpClient().invoke();
+
+    if (HttpURLConnection.HTTP_NOT_MODIFIED == head.getStatus()) {
+      return head;
+    }
+
+    final long length = contentLength(head);
+    final int count = (int) Math.min(segments, length / MIN_SEGMENT_SIZE);
+    if (HttpURLConnection.HTTP_OK != head.getStatus() || !"bytes".equalsIgnoreCase(head.getHeaderSingleValue("Accept-Ranges")) || count < 2) {
+      return httpClient.invoke(ResponseSink.toFile(file));
+    }
+
+    boolean complete = false;
+    try {
+      FileResponseSink.mkdirs(file);
+      // the target is only replaced once every range has arrived
+      final File tmp = File.createTempFile("." + file.getName() + "-", ".tmp", file.getAbsoluteFile().getParentFile());
+      try {
+        final RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+          raf.setLength(length);
+          complete = download(raf.getChannel(), length, count, validator(head));
+        } finally {
+          raf.close();
+        }
+        if (complete) {
+          FileResponseSink.rename(tmp, file);
+        }
+      } finally {
+        if (tmp.exists() && !tmp.delete()) {
+          tmp.deleteOnExit();
+        }
+      }
+    } catch (final IOException e) {
+      throw new HttpInvocationException(e);
+    }
+
+    if (!complete) {
+      // the server ignored the range requests
+      return httpClient.invoke(ResponseSink.toFile(file));
+    }
+
+    head.setEntityFile(file);
+    head.setEntityLength(length);
+    return head;
+  }
+
+  private boolean download(final FileChannel channel, final long length, final int count, final String validator) throws HttpInvocationException, HttpCertificateException {
+    final ExecutorService executor = Executors.newFixedThreadPool(count, THREAD_FACTORY);
+    final Cancellation cancellation = Cancellation.current();
+    try {
+      final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(count);
+      final long size = (length + count - 1) / count;
+      for (long start = 0; start < length; start += size) {
+        futures.add(executor.submit(new Segment(channel, start, Math.min(start + size, length) - 1, validator, cancellation)));
+      }
+      boolean complete = true;
+      for (final Future<Boolean> future : futures) {
+        complete &= get(future);
+      }
+      return complete;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static boolean get(final Future<Boolean> future) throws HttpInvocationException, HttpCertificateException {
+    try {
+      return future.get().booleanValue();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HttpInvocationException(e);
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof HttpCertificateException) {
+        throw (HttpCertificateException) e.getCause();
+      }
+      if (e.getCause() instanceof HttpInvocationException) {
+        throw (HttpInvocationException) e.getCause();
+      }
+      throw new HttpInvocationException(e.getCause());
+    }
+  }
+
+  private static long contentLength(final HttpResponse response) {
+    final String value = response.getHeaderSingleValue("Content-Length");
+    if (null != value) {
+      try {
+        return Long.parseLong(value.trim());
+      } catch (final NumberFormatException e) {
+        // unknown
+      }
+    }
+    return -1L;
+  }
+
+  // If-Range takes a strong entity tag or a date
+  private static String validator(final HttpResponse response) {
+    final String etag = response.getHeaderSingleValue("ETag");
+    if (null != etag && !etag.startsWith("W/")) {
+      return etag;
+    }
+    return response.getHeaderSingleValue("Last-Modified");
+  }
+
+  private final class Segment implements Callable<Boolean> {
+
+    private final FileChannel channel;
+    private final long start;
+    private final long end;
+    private final String validator;
+    private final Cancellation cancellation;
+
+    private Segment(final FileChannel channel, final long start, final long end, final String validator, final Cancellation cancellation) {
+      this.channel = channel;
+      this.start = start;
+      this.end = end;
+      this.validator = validator;
+      this.cancellation = cancellation;
+    }
+
+    @Override
+    public Boolean call() throws HttpClientException {
+      final HttpClientBuilder builder = httpClient.copyWithoutEntity().build().header("Range", "bytes=" + start + "-" + end);
+      if (null != validator) {
+        builder.header("If-Range", validator);
+      }
+      final RangeSink sink = new RangeSink(channel, start, end - start + 1);
+      // a cancelled download closes the connections of all segments
+      final Cancellation previous = Cancellation.enter(cancellation);
+      try {
+        builder.toHttpClient().invoke(sink);
+      } finally {
+        Cancellation.exit(previous);
+      }
+      return Boolean.valueOf(sink.partial);
+    }
+
+  }
+
+  private static final class RangeSink extends ResponseSink {
+
+    private final FileChannel channel;
+    private final long position;
+    private final long length;
+    private boolean partial;
+
+    private RangeSink(final FileChannel channel, final long position, final long length) {
+      this.channel = channel;
+      this.position = position;
+      this.length = length;
+    }
+
+    @Override
+    public long receive(final HttpResponse response, final InputStream is) throws IOException {
+      if (HttpURLConnection.HTTP_PARTIAL != response.getStatus()) {
+        return 0L;
+      }
+      final long count = FileResponseSink.transfer(is, channel, position, length);
+      if (count != length) {
+        throw new IOException("Range starting at " + position + " ended after " + count + " of " + length + " bytes");
+      }
+      partial = true;
+      return count;
+    }
+
+  }
+
+}
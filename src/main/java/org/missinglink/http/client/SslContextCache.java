@@ -0,0 +1,401 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Cache of initialized {@link SSLSocketFactory} instances keyed by the digest
+ * of the {@link KeyStore} content, its password, the trust mode and the
+ * {@link ClientCertificate} presented.
+ * <p>
+ * Parsing a {@link KeyStore} and initializing a {@link SSLContext} is
+ * expensive, and a fresh {@link SSLContext} cannot resume TLS sessions of
+ * another one. Sharing one socket factory per configuration lets repeated
+ * requests skip both, and lets the JDK keep-alive cache reuse HTTPS
+ * connections, which it only does for the same socket factory. The
+ * {@link KeyManager KeyManagers} of a {@link ClientCertificate} are cached
+ * apart, so its private key is loaded once whatever certificates are
+ * trusted.
+ * </p>
+ * <p>
+ * The client session cache of each {@link SSLContext} holds the TLS sessions
+ * a new connection to a server resumes with an abbreviated handshake; its
+ * size and timeout are set with
+ * {@link #SslContextCache(int, int, int)}, see
+ * {@link HttpResponse#getTlsSession()} for whether a handshake resumed a
+ * session. When either is set, requests without trust settings use an
+ * {@link SSLContext} of this cache trusting the default certificates of the
+ * JVM instead of the JVM default socket factory.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class SslContextCache {
+
+  public static final int DEFAULT_MAX_ENTRIES = 32;
+
+  /**
+   * Keep the session cache size or timeout of the JDK, 20480 sessions for 24
+   * hours.
+   */
+  public static final int JDK_DEFAULT = -1;
+
+  private static final SslContextCache DEFAULT_CACHE = new SslContextCache(DEFAULT_MAX_ENTRIES);
+
+  private static final String TRUST_ALL_KEY = "trustAll";
+  private static final String DEFAULT_TRUST_KEY = "default";
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final int sessionCacheSize;
+  private final int sessionTimeout;
+
+  private final Map<String, SSLSocketFactory> factories;
+  private final Map<String, KeyManager[]> keyManagers;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong keyManagerLoads = new AtomicLong();
+
+  private static class TrustAllTrustManager implements TrustManager, X509TrustManager {
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+      return null;
+    }
+
+    public boolean isServerTrusted(final X509Certificate[] certs) {
+      return true;
+    }
+
+    public boolean isClientTrusted(final X509Certificate[] certs) {
+      return true;
+    }
+
+    @Override
+    public void checkServerTrusted(final X509Certificate[] certs, final String authType) throws CertificateException {
+    }
+
+    @Override
+    public void checkClientTrusted(final X509Certificate[] certs, final String authType) throws CertificateException {
+    }
+  }
+
+  /**
+   * @param maxEntries int the number of socket factories to keep, least
+   *          recently used ones are dropped first
+   */
+  public SslContextCache(final int maxEntries) {
+    this(maxEntries, JDK_DEFAULT, JDK_DEFAULT);
+  }
+
+  /**
+   * @param maxEntries int the number of socket factories to keep, least
+   *          recently used ones are dropped first
+   * @param sessionCacheSize int the number of TLS sessions each
+   *          {@link SSLContext} keeps for resumption, 0 for no limit or
+   *          {@link #JDK_DEFAULT}
+   * @param sessionTimeout int seconds a TLS session is kept for resumption,
+   *          0 for no limit or {@link #JDK_DEFAULT}
+   */
+  public SslContextCache(final int maxEntries, final int sessionCacheSize, final int sessionTimeout) {
+    super();
+    this.sessionCacheSize = sessionCacheSize;
+    this.sessionTimeout = sessionTimeout;
+    factories = new LinkedHashMap<String, SSLSocketFactory>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, SSLSocketFactory> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    keyManagers = new LinkedHashMap<String, KeyManager[]>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, KeyManager[]> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * @return The JVM wide cache used by {@link HttpClient} instances which
+   *         were not given a cache of their own
+   */
+  public static SslContextCache getDefault() {
+    return DEFAULT_CACHE;
+  }
+
+  /**
+   * Return the socket factory which accepts any server certificate.
+   *
+   * @return The cached {@link SSLSocketFactory}
+   * @throws GeneralSecurityException on failure
+   */
+  public SSLSocketFactory getTrustAllSocketFactory() throws GeneralSecurityException {
+    try {
+      return getTrustAllSocketFactory(null);
+    } catch (final IOException e) {
+      // only a client certificate is read
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Return the socket factory which accepts any server certificate and
+   * presents clientCertificate.
+   *
+   * @param clientCertificate ClientCertificate, may be null
+   * @return The cached {@link SSLSocketFactory}
+   * @throws GeneralSecurityException on failure
+   * @throws IOException if the client certificate cannot be read
+   */
+  public SSLSocketFactory getTrustAllSocketFactory(final ClientCertificate clientCertificate) throws GeneralSecurityException, IOException {
+    final String key = key(TRUST_ALL_KEY, clientCertificate);
+    synchronized (factories) {
+      SSLSocketFactory factory = factories.get(key);
+      if (null == factory) {
+        misses.incrementAndGet();
+        final SSLContext sc = SSLContext.getInstance("SSL");
+        sc.init(getKeyManagers(clientCertificate), new TrustManager[] {new TrustAllTrustManager()}, null);
+        configureSessions(sc);
+        factory = sc.getSocketFactory();
+        factories.put(key, factory);
+      } else {
+        hits.incrementAndGet();
+      }
+      return factory;
+    }
+  }
+
+  /**
+   * Return the socket factory trusting the certificates of a JKS
+   * {@link KeyStore}.
+   *
+   * @param keyStore byte[] the {@link KeyStore} content
+   * @param password String, may be null
+   * @return The cached {@link SSLSocketFactory}
+   * @throws GeneralSecurityException on failure
+   * @throws IOException if the {@link KeyStore} cannot be read
+   */
+  public SSLSocketFactory getSocketFactory(final byte[] keyStore, final String password) throws GeneralSecurityException, IOException {
+    return getSocketFactory(keyStore, password, null);
+  }
+
+  /**
+   * Return the socket factory trusting the certificates of a JKS
+   * {@link KeyStore} and presenting clientCertificate.
+   *
+   * @param keyStore byte[] the {@link KeyStore} content, or null to trust the
+   *          default certificates of the JVM
+   * @param password String, may be null
+   * @param clientCertificate ClientCertificate, may be null
+   * @return The cached {@link SSLSocketFactory}
+   * @throws GeneralSecurityException on failure
+   * @throws IOException if a {@link KeyStore} cannot be read
+   */
+  public SSLSocketFactory getSocketFactory(final byte[] keyStore, final String password, final ClientCertificate clientCertificate) throws GeneralSecurityException, IOException {
+    final String key = key(null == keyStore ? DEFAULT_TRUST_KEY : digest(keyStore, password), clientCertificate);
+    synchronized (factories) {
+      SSLSocketFactory factory = factories.get(key);
+      if (null == factory) {
+        misses.incrementAndGet();
+        final TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        if (null == keyStore) {
+          tmf.init((KeyStore) null);
+        } else {
+          final KeyStore ks = KeyStore.getInstance("JKS");
+          ks.load(new ByteArrayInputStream(keyStore), null == password ? new char[]{} : password.toCharArray());
+          tmf.init(ks);
+        }
+
+        final SSLContext ssl = SSLContext.getInstance("TLS");
+        ssl.init(getKeyManagers(clientCertificate), tmf.getTrustManagers(), null);
+        configureSessions(ssl);
+        factory = ssl.getSocketFactory();
+        factories.put(key, factory);
+      } else {
+        hits.incrementAndGet();
+      }
+      return factory;
+    }
+  }
+
+  /**
+   * Return the socket factory for the trust settings and client certificate
+   * of httpClient. Without either, a factory trusting the default
+   * certificates of the JVM is returned when the TLS session cache size or
+   * timeout is set, so they apply to ordinary HTTPS requests as well.
+   *
+   * @param httpClient HttpClient
+   * @return The cached {@link SSLSocketFactory}, or null if the defaults of
+   *         the JVM apply
+   * @throws GeneralSecurityException on failure
+   * @throws IOException if a {@link KeyStore} cannot be read
+   */
+  public SSLSocketFactory getSocketFactory(final HttpClient httpClient) throws GeneralSecurityException, IOException {
+    if (httpClient.isTrustAll()) {
+      return getTrustAllSocketFactory(httpClient.getClientCertificate());
+    }
+    if (null != httpClient.getKeyStore() || null != httpClient.getClientCertificate()) {
+      return getSocketFactory(httpClient.getKeyStoreBytes(), httpClient.getKeyStorePassword(), httpClient.getClientCertificate());
+    }
+    if (JDK_DEFAULT != sessionCacheSize || JDK_DEFAULT != sessionTimeout) {
+      return getSocketFactory(null, null, null);
+    }
+    return null;
+  }
+
+  /**
+   * Return the {@link KeyManager KeyManagers} presenting clientCertificate,
+   * its private key is loaded once.
+   *
+   * @param clientCertificate ClientCertificate, may be null
+   * @return The cached {@link KeyManager KeyManagers}, or null if
+   *         clientCertificate is null
+   * @throws GeneralSecurityException if the private key cannot be recovered
+   * @throws IOException if the {@link KeyStore} cannot be read
+   */
+  public KeyManager[] getKeyManagers(final ClientCertificate clientCertificate) throws GeneralSecurityException, IOException {
+    if (null == clientCertificate) {
+      return null;
+    }
+    final String key = identity(clientCertificate);
+    synchronized (keyManagers) {
+      KeyManager[] managers = keyManagers.get(key);
+      if (null == managers) {
+        keyManagerLoads.incrementAndGet();
+        managers = clientCertificate.createKeyManagers();
+        keyManagers.put(key, managers);
+      }
+      return managers;
+    }
+  }
+
+  /**
+   * Drop all cached socket factories and key managers.
+   */
+  public void clear() {
+    synchronized (factories) {
+      factories.clear();
+    }
+    synchronized (keyManagers) {
+      keyManagers.clear();
+    }
+  }
+
+  /**
+   * @return the number of cached socket factories
+   */
+  public int size() {
+    synchronized (factories) {
+      return factories.size();
+    }
+  }
+
+  /**
+   * @return the number of lookups served from the cache
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of lookups which initialized a new {@link SSLContext}
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the number of TLS sessions each {@link SSLContext} keeps, 0 for
+   *         no limit or {@link #JDK_DEFAULT}
+   */
+  public int getSessionCacheSize() {
+    return sessionCacheSize;
+  }
+
+  /**
+   * @return the seconds a TLS session is kept, 0 for no limit or
+   *         {@link #JDK_DEFAULT}
+   */
+  public int getSessionTimeout() {
+    return sessionTimeout;
+  }
+
+  /**
+   * @return the number of client certificate private keys loaded
+   */
+  public long getKeyManagerLoads() {
+    return keyManagerLoads.get();
+  }
+
+  private void configureSessions(final SSLContext ssl) {
+    final SSLSessionContext sessions = ssl.getClientSessionContext();
+    if (sessionCacheSize >= 0) {
+      sessions.setSessionCacheSize(sessionCacheSize);
+    }
+    if (sessionTimeout >= 0) {
+      sessions.setSessionTimeout(sessionTimeout);
+    }
+  }
+
+  private static String key(final String trust, final ClientCertificate clientCertificate) throws NoSuchAlgorithmException, IOException {
+    return null == clientCertificate ? trust : trust + "+" + identity(clientCertificate);
+  }
+
+  private static String identity(final ClientCertificate clientCertificate) throws NoSuchAlgorithmException, IOException {
+    return digest(clientCertificate.getBytes(), clientCertificate.getPassword()) + ":" + clientCertificate.getType() + ":" + clientCertificate.getAlias();
+  }
+
+  protected static String digest(final byte[] keyStore, final String password) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+    final MessageDigest md = MessageDigest.getInstance("SHA-256");
+    md.update(keyStore);
+    md.update((byte) 0);
+    if (null != password) {
+      md.update(password.getBytes("UTF-8"));
+    }
+    final byte[] digest = md.digest();
+    final StringBuilder sb = new StringBuilder(digest.length * 2);
+    for (final byte b : digest) {
+      sb.append(HEX[b >> 4 & 0xf]).append(HEX[b & 0xf]);
+    }
+    return sb.toString();
+  }
+
+}
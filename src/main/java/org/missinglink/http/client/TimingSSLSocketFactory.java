@@ -0,0 +1,166 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * {@link SSLSocketFactory} which notes when {@link HttpsURLConnection} layers
+ * TLS over its freshly connected TCP socket, splitting the connect time of
+ * {@link UrlConnectionTransport} into TCP connect and TLS handshake, and
+ * keeps the socket to describe its handshake, see {@link TlsSession}.
+ * <p>
+ * Unconnected sockets are not supported, so {@link HttpsURLConnection} falls
+ * back to connecting a plain socket and layering TLS over it with
+ * {@link #createSocket(Socket, String, int, boolean)}, which still sends the
+ * host name for SNI. One instance is kept per wrapped factory as the JDK only
+ * reuses kept alive connections for the same factory.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+final class TimingSSLSocketFactory extends SSLSocketFactory {
+
+  private static final int MAX_ENTRIES = 64;
+
+  private static final Map<SSLSocketFactory, TimingSSLSocketFactory> FACTORIES = new LinkedHashMap<SSLSocketFactory, TimingSSLSocketFactory>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<SSLSocketFactory, TimingSSLSocketFactory> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+
+  // when the calling thread last layered TLS over a connected socket
+  private static final ThreadLocal<Layered> LAYERED = new ThreadLocal<Layered>();
+
+  private final SSLSocketFactory delegate;
+
+  /**
+   * A socket the calling thread layered TLS over.
+   */
+  static final class Layered {
+
+    private final long nanos = System.nanoTime();
+    private final long millis = System.currentTimeMillis();
+    private Socket socket;
+
+    /**
+     * @return The {@link System#nanoTime()} the TCP connection was
+     *         established
+     */
+    long getNanos() {
+      return nanos;
+    }
+
+    /**
+     * Describe the handshake of the socket, once it completed.
+     *
+     * @param handshakeTime long nanoseconds the handshake took
+     * @return The {@link TlsSession}, or null if the socket is not a
+     *         {@link SSLSocket}
+     */
+    TlsSession getTlsSession(final long handshakeTime) {
+      return socket instanceof SSLSocket ? TlsSession.handshake(((SSLSocket) socket).getSession(), millis, handshakeTime) : null;
+    }
+
+  }
+
+  private TimingSSLSocketFactory(final SSLSocketFactory delegate) {
+    super();
+    this.delegate = delegate;
+  }
+
+  /**
+   * @param factory SSLSocketFactory
+   * @return The timing factory wrapping factory
+   */
+  static SSLSocketFactory wrap(final SSLSocketFactory factory) {
+    if (factory instanceof TimingSSLSocketFactory) {
+      return factory;
+    }
+    synchronized (FACTORIES) {
+      TimingSSLSocketFactory timing = FACTORIES.get(factory);
+      if (null == timing) {
+        timing = new TimingSSLSocketFactory(factory);
+        FACTORIES.put(factory, timing);
+      }
+      return timing;
+    }
+  }
+
+  /**
+   * Return and forget the socket the calling thread last layered TLS over.
+   *
+   * @return The {@link Layered} socket, or null if no new connection was
+   *         opened
+   */
+  static Layered takeLayered() {
+    final Layered layered = LAYERED.get();
+    LAYERED.remove();
+    return layered;
+  }
+
+  @Override
+  public Socket createSocket(final Socket s, final String host, final int port, final boolean autoClose) throws IOException {
+    final Layered layered = new Layered();
+    layered.socket = delegate.createSocket(s, host, port, autoClose);
+    LAYERED.set(layered);
+    return layered.socket;
+  }
+
+  @Override
+  public Socket createSocket(final String host, final int port) throws IOException {
+    return delegate.createSocket(host, port);
+  }
+
+  @Override
+  public Socket createSocket(final String host, final int port, final InetAddress localHost, final int localPort) throws IOException {
+    return delegate.createSocket(host, port, localHost, localPort);
+  }
+
+  @Override
+  public Socket createSocket(final InetAddress host, final int port) throws IOException {
+    return delegate.createSocket(host, port);
+  }
+
+  @Override
+  public Socket createSocket(final InetAddress address, final int port, final InetAddress localAddress, final int localPort) throws IOException {
+    return delegate.createSocket(address, port, localAddress, localPort);
+  }
+
+  @Override
+  public String[] getDefaultCipherSuites() {
+    return delegate.getDefaultCipherSuites();
+  }
+
+  @Override
+  public String[] getSupportedCipherSuites() {
+    return delegate.getSupportedCipherSuites();
+  }
+
+}
@@ -0,0 +1,145 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.util.Locale;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * The TLS session of the connection a response was received on, see
+ * {@link HttpResponse#getTlsSession()}.
+ * <p>
+ * A request which opened a new connection performed a handshake: a full one,
+ * or an abbreviated one when the server resumed a session cached by the
+ * {@link javax.net.ssl.SSLContext} of the client, see
+ * {@link SslContextCache}. A request on a kept alive connection performed
+ * none.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class TlsSession {
+
+  private final String protocol;
+  private final String cipherSuite;
+  private final boolean handshake;
+  private final boolean resumed;
+  private final long handshakeTime;
+
+  TlsSession(final String protocol, final String cipherSuite, final boolean handshake, final boolean resumed, final long handshakeTime) {
+    super();
+    this.protocol = protocol;
+    this.cipherSuite = cipherSuite;
+    this.handshake = handshake;
+    this.resumed = resumed;
+    this.handshakeTime = handshakeTime;
+  }
+
+  /**
+   * Describe the handshake which established session.
+   * <p>
+   * The JDK keeps the creation time of a resumed session, for TLS 1.3 as well
+   * where resumption creates a session of its own, so a session created
+   * before the handshake started was resumed.
+   * </p>
+   *
+   * @param session SSLSession
+   * @param started long the {@link System#currentTimeMillis()} before the
+   *          handshake started
+   * @param handshakeTime long nanoseconds the handshake took
+   * @return The {@link TlsSession}
+   */
+  static TlsSession handshake(final SSLSession session, final long started, final long handshakeTime) {
+    return new TlsSession(session.getProtocol(), session.getCipherSuite(), true, session.getCreationTime() < started, handshakeTime);
+  }
+
+  /**
+   * Describe session for a request on a kept alive connection.
+   *
+   * @param session SSLSession
+   * @return The {@link TlsSession}
+   */
+  static TlsSession reused(final SSLSession session) {
+    return new TlsSession(session.getProtocol(), session.getCipherSuite(), false, false, 0L);
+  }
+
+  /**
+   * @return The same session seen by a later request on the connection
+   */
+  TlsSession reused() {
+    return new TlsSession(protocol, cipherSuite, false, false, 0L);
+  }
+
+  /**
+   * @return the negotiated protocol, such as <code>TLSv1.3</code>, or null if
+   *         unknown
+   */
+  public String getProtocol() {
+    return protocol;
+  }
+
+  /**
+   * @return the negotiated cipher suite
+   */
+  public String getCipherSuite() {
+    return cipherSuite;
+  }
+
+  /**
+   * @return true if the request opened a new connection and performed a
+   *         handshake, false if it reused a kept alive connection
+   */
+  public boolean isHandshake() {
+    return handshake;
+  }
+
+  /**
+   * @return true if the handshake resumed a cached session
+   */
+  public boolean isResumed() {
+    return resumed;
+  }
+
+  /**
+   * @return true if a full handshake was performed
+   */
+  public boolean isFullHandshake() {
+    return handshake && !resumed;
+  }
+
+  /**
+   * @return the nanoseconds the handshake took, 0 if none was performed
+   */
+  public long getHandshakeTime() {
+    return handshakeTime;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(null == protocol ? "TLS" : protocol).append(' ').append(cipherSuite).append(", ");
+    if (handshake) {
+      sb.append(resumed ? "resumed" : "full").append(" handshake ").append(String.format(Locale.ENGLISH, "%.3f ms", Double.valueOf(HttpTiming.toMillis(handshakeTime))));
+    } else {
+      sb.append("kept alive connection");
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,450 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map.Entry;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.missinglink.tools.StreamUtils;
+
+/**
+ * {@link HttpTransport} which wraps core Java classes {@link URL},
+ * {@link HttpURLConnection} and {@link HttpsURLConnection}.
+ * <p>
+ * The sockets live in the JDK keep-alive cache, a connection whose response
+ * was fully read is left there for the next request and the
+ * {@link HttpConnectionPool} only bounds and accounts for them.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class UrlConnectionTransport extends HttpTransport {
+
+  private static final HostnameVerifier TRUST_ALL_HOSTNAME_VERIFIER = new HostnameVerifier() {
+    @Override
+    public boolean verify(final String urlHostName, final SSLSession session) {
+      return true;
+    }
+  };
+
+  public UrlConnectionTransport() {
+    super();
+  }
+
+  /**
+   * Marks a connection left in the JDK keep-alive cache after its response was
+   * fully read and closed. The JDK does not tell whether the socket is still
+   * open or is reused for the next request, so this placeholder only counts
+   * against the limit of the {@link HttpConnectionPool}.
+   */
+  private static class KeepAliveConnection implements HttpConnectionPool.PooledConnection {
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+      // the JDK keep-alive cache closes the socket on its own
+    }
+  }
+
+  /**
+   * Closes a connection when the invocation is cancelled.
+   */
+  private static class Disconnect implements Closeable {
+    private final HttpURLConnection httpUrlConnection;
+
+    Disconnect(final HttpURLConnection httpUrlConnection) {
+      this.httpUrlConnection = httpUrlConnection;
+    }
+
+    @Override
+    public void close() {
+      httpUrlConnection.disconnect();
+    }
+  }
+
+  @Override
+  public HttpResponse execute(final HttpClient httpClient, final ResponseSink sink) throws IOException, GeneralSecurityException, InterruptedException {
+    final HttpConnectionPool connectionPool = httpClient.getConnectionPool();
+    final HttpConnectionPool.Lease lease = connectionPool.lease(httpClient.getRoute());
+    final Cancellation cancellation = Cancellation.current();
+    HttpURLConnection httpUrlConnection = null;
+    Disconnect disconnect = null;
+    boolean reusable = false;
+    try {
+      final HttpResponse response = new HttpResponse(httpClient);
+      final HttpTiming timing = new HttpTiming();
+      response.setTiming(timing);
+      httpUrlConnection = openConnection(httpClient);
+      if (null != cancellation) {
+        disconnect = new Disconnect(httpUrlConnection);
+        cancellation.register(disconnect);
+      }
+
+      final boolean opened = connect(httpClient, httpUrlConnection, lease.isReused(), response, timing);
+
+      // write the entity and wait for the response status, a kept alive
+      // connection which the server has closed in the meantime fails here
+      final long connected = System.nanoTime();
+      try {
+        writeEntity(httpClient, httpUrlConnection);
+        httpUrlConnection.getResponseCode();
+      } catch (final IOException e) {
+        final RequestEntity requestEntity = httpClient.getRequestEntity();
+        if (!opened && isStale(e) && null != requestEntity && requestEntity.isRepeatable()) {
+          // the JDK only resends buffered requests on its own
+          throw new StaleConnectionException(e);
+        }
+        throw e;
+      }
+
+      final long firstByte = System.nanoTime();
+      timing.addFirstByte(firstByte - connected);
+      httpClient.fireFirstByteReceived();
+
+      // a fully read response leaves the connection to the keep-alive cache
+      reusable = readResponse(httpUrlConnection, response, sink) && (null == cancellation || !cancellation.isCancelled());
+      timing.addTransfer(System.nanoTime() - firstByte);
+      timing.finish();
+
+      return response;
+    } finally {
+      if (null != disconnect) {
+        cancellation.unregister(disconnect);
+      }
+      if (null != httpUrlConnection && !reusable) {
+        httpUrlConnection.disconnect();
+      }
+      connectionPool.release(lease, reusable ? new KeepAliveConnection() : null);
+    }
+  }
+
+  /**
+   * Connect httpUrlConnection, noting the time spent resolving the host name,
+   * connecting and in the TLS handshake in timing, the {@link TlsSession} in
+   * response and notifying the {@link HttpClientListener}s.
+   * <p>
+   * A connection taken from the JDK keep-alive cache spends no time in these
+   * phases. Over HTTPS a new connection is recognized by the TLS layering of
+   * {@link TimingSSLSocketFactory}, over HTTP the {@link HttpConnectionPool}
+   * lease tells whether a kept alive connection may be available. The host
+   * name is resolved up front into the JVM wide address cache which the
+   * connection then uses, unless a proxy resolves it instead.
+   * </p>
+   * <p>
+   * The JDK does not tell whether a plain HTTP connection was taken from its
+   * keep-alive cache, so only an HTTPS connection is known to be new.
+   * </p>
+   *
+   * @param httpClient HttpClient
+   * @param httpUrlConnection HttpURLConnection, configured but not connected
+   * @param leaseReused boolean true if a kept alive connection is available
+   * @param response HttpResponse to note the {@link TlsSession} in
+   * @param timing HttpTiming
+   * @return true if a new connection is known to have been opened
+   * @throws IOException on failure
+   */
+  protected boolean connect(final HttpClient httpClient, final HttpURLConnection httpUrlConnection, final boolean leaseReused, final HttpResponse response, final HttpTiming timing) throws IOException {
+    if (!leaseReused && isDirect(httpClient)) {
+      final long resolving = System.nanoTime();
+      try {
+        InetAddress.getAllByName(httpClient.getHost());
+        timing.addDns(System.nanoTime() - resolving);
+      } catch (final UnknownHostException e) {
+        // no resolution to time, the connection reports the failure
+      }
+    }
+
+    TimingSSLSocketFactory.takeLayered();
+    final long connecting = System.nanoTime();
+    httpUrlConnection.connect();
+    final long connected = System.nanoTime();
+    if (HttpClient.HTTPS.equalsIgnoreCase(httpClient.getProtocol())) {
+      final TimingSSLSocketFactory.Layered layered = TimingSSLSocketFactory.takeLayered();
+      if (null != layered) {
+        timing.addConnect(layered.getNanos() - connecting);
+        timing.addTls(connected - layered.getNanos());
+        response.setTlsSession(layered.getTlsSession(connected - layered.getNanos()));
+        httpClient.fireTlsHandshakeCompleted();
+      } else {
+        response.setTlsSession(keptAlive((HttpsURLConnection) httpUrlConnection));
+      }
+      httpClient.fireConnectionAcquired(null == layered);
+      return null != layered;
+    }
+    if (!leaseReused) {
+      timing.addConnect(connected - connecting);
+    }
+    httpClient.fireConnectionAcquired(leaseReused);
+    return false;
+  }
+
+  // the JDK connects through the proxies of the default ProxySelector
+  private static boolean isDirect(final HttpClient httpClient) {
+    final ProxySelector proxySelector = ProxySelector.getDefault();
+    if (null == proxySelector) {
+      return true;
+    }
+    for (final Proxy proxy : proxySelector.select(URI.create(httpClient.getUri()))) {
+      if (Proxy.Type.DIRECT != proxy.type()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Open and configure the connection for httpClient.
+   *
+   * @param httpClient HttpClient
+   * @return The {@link HttpURLConnection}, not yet connected
+   * @throws IOException on failure
+   * @throws GeneralSecurityException on HTTPS configuration failure
+   */
+  protected HttpURLConnection openConnection(final HttpClient httpClient) throws IOException, GeneralSecurityException {
+    final URL url = new URL(httpClient.getUri());
+
+    final HttpURLConnection httpUrlConnection = (HttpURLConnection) url.openConnection();
+    httpUrlConnection.setDoInput(true);
+
+    // set method
+    httpUrlConnection.setRequestMethod(httpClient.getMethod().name());
+
+    // follow redirects
+    httpUrlConnection.setInstanceFollowRedirects(httpClient.getFollowRedirects());
+
+    // 0 waits indefinitely
+    httpUrlConnection.setConnectTimeout(httpClient.getConnectTimeout());
+    httpUrlConnection.setReadTimeout(httpClient.getReadTimeout());
+
+    // if HTTPS, check for HTTPS options, socket factories are cached so TLS
+    // sessions and keep-alive connections can be reused
+    if (HttpClient.HTTPS.equalsIgnoreCase(httpClient.getProtocol())) {
+      final HttpsURLConnection httpsUrlConnection = (HttpsURLConnection) httpUrlConnection;
+      final SSLSocketFactory factory = httpClient.getSslContextCache().getSocketFactory(httpClient);
+      if (null != factory) {
+        httpsUrlConnection.setSSLSocketFactory(factory);
+      }
+      if (httpClient.isTrustAll()) {
+        // Set the default host name verifier to enable the connection.
+        httpsUrlConnection.setHostnameVerifier(TRUST_ALL_HOSTNAME_VERIFIER);
+      }
+      // time the TLS handshake apart from the TCP connect
+      httpsUrlConnection.setSSLSocketFactory(TimingSSLSocketFactory.wrap(httpsUrlConnection.getSSLSocketFactory()));
+    }
+
+    // if username is set, add BASIC authentication header
+    final String authorization = httpClient.getAuthorization();
+    if (null != authorization) {
+      httpUrlConnection.setRequestProperty("Authorization", authorization);
+    }
+
+    // set headers
+    if (httpClient.getHeaders().size() > 0) {
+      for (final Entry<String, String> header : httpClient.getHeaders().entrySet()) {
+        httpUrlConnection.setRequestProperty(header.getKey(), header.getValue());
+      }
+    }
+    final String acceptEncoding = ContentDecoder.acceptEncoding(httpClient);
+    if (null != acceptEncoding) {
+      httpUrlConnection.setRequestProperty(ContentDecoder.ACCEPT_ENCODING, acceptEncoding);
+    }
+
+    // the output mode has to be set before the connection is opened
+    if (null != httpClient.getRequestEntity()) {
+      httpUrlConnection.setDoOutput(true);
+      final long length = httpClient.getRequestEntity().getContentLength();
+      if (length < 0 || !setFixedLengthStreamingMode(httpUrlConnection, length)) {
+        httpUrlConnection.setChunkedStreamingMode(StreamUtils.COPY_BUFFER_SIZE);
+      }
+    }
+    if (null != httpClient.getEntity()) {
+      httpUrlConnection.setDoOutput(true);
+    }
+
+    return httpUrlConnection;
+  }
+
+  /**
+   * Write the request entity of httpClient, if any, to the connection.
+   *
+   * @param httpClient HttpClient
+   * @param httpUrlConnection HttpURLConnection
+   * @throws IOException on failure
+   */
+  protected void writeEntity(final HttpClient httpClient, final HttpURLConnection httpUrlConnection) throws IOException {
+    // if a streamed entity is set, copy it to the connection without
+    // buffering, note that a streamed request cannot be resent to follow a
+    // redirect or an authentication challenge
+    if (null != httpClient.getRequestEntity()) {
+      writeRequestEntity(httpClient.getRequestEntity(), httpUrlConnection);
+    }
+
+    // if an entity is set, write it to the connection
+    if (null != httpClient.getEntity()) {
+
+      // if entity is binary then put raw data into output stream
+      if (httpClient.isBinaryEntity()) {
+        httpUrlConnection.getOutputStream().write(httpClient.getEntityAsByteArray());
+        httpUrlConnection.getOutputStream().close();
+      } else {
+        final OutputStreamWriter writer = new OutputStreamWriter(httpUrlConnection.getOutputStream());
+        final String entityAsString = httpClient.getEntityAsString();
+        writer.write(entityAsString);
+        writer.close();
+      }
+    }
+  }
+
+  /**
+   * Read status, headers and entity from the connection into response.
+   *
+   * @param httpUrlConnection HttpURLConnection
+   * @param response HttpResponse
+   * @param sink ResponseSink to stream the entity to, or null to buffer it in
+   *          the response
+   * @return true if the entity was read completely and the connection may be
+   *         kept alive
+   * @throws IOException on failure
+   */
+  protected boolean readResponse(final HttpURLConnection httpUrlConnection, final HttpResponse response, final ResponseSink sink) throws IOException {
+    readHeaders(httpUrlConnection, response);
+
+    // the entity of an error status is only available from the error stream
+    InputStream entityInputStream;
+    try {
+      entityInputStream = httpUrlConnection.getInputStream();
+    } catch (final IOException e) {
+      entityInputStream = httpUrlConnection.getErrorStream();
+    }
+    if (null == entityInputStream) {
+      // an error status without an entity, the JDK has already handed the
+      // connection to its keep-alive cache
+      return !"close".equalsIgnoreCase(httpUrlConnection.getHeaderField("Connection"));
+    }
+
+    try {
+      entityInputStream = ContentDecoder.decode(response.getHttpClient(), response, entityInputStream);
+      if (null == sink) {
+        response.setEntity(response.getHttpClient().readEntity(response, entityInputStream));
+        response.setEntityLength(response.getEntity().length);
+      } else {
+        response.setEntityLength(sink.receive(response, entityInputStream));
+      }
+    } finally {
+      entityInputStream.close();
+    }
+
+    return !"close".equalsIgnoreCase(httpUrlConnection.getHeaderField("Connection"));
+  }
+
+  /**
+   * Read status and headers from the connection into response.
+   *
+   * @param httpUrlConnection HttpURLConnection
+   * @param response HttpResponse
+   * @throws IOException on failure
+   */
+  protected void readHeaders(final HttpURLConnection httpUrlConnection, final HttpResponse response) throws IOException {
+    response.setStatus(httpUrlConnection.getResponseCode());
+    response.setMessage(httpUrlConnection.getResponseMessage());
+
+    response.setContentEncoding(httpUrlConnection.getContentEncoding());
+    response.setContentLength(httpUrlConnection.getContentLength());
+    response.setContentType(httpUrlConnection.getContentType());
+    response.setDate(0L == httpUrlConnection.getDate() ? null : new Date(httpUrlConnection.getDate()));
+    response.setExpires(0L == httpUrlConnection.getExpiration() ? null : new Date(httpUrlConnection.getExpiration()));
+    response.setLastModified(0L == httpUrlConnection.getLastModified() ? null : new Date(httpUrlConnection.getLastModified()));
+
+    if (null != httpUrlConnection.getHeaderFields() && httpUrlConnection.getHeaderFields().size() > 0) {
+      for (final Entry<String, List<String>> entry : httpUrlConnection.getHeaderFields().entrySet()) {
+        response.getHeaders().put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Stream requestEntity to the connection, with a fixed length if known or
+   * chunked otherwise as set up by {@link #openConnection(HttpClient)}.
+   *
+   * @param requestEntity RequestEntity
+   * @param httpUrlConnection HttpURLConnection
+   * @throws IOException on failure
+   */
+  protected void writeRequestEntity(final RequestEntity requestEntity, final HttpURLConnection httpUrlConnection) throws IOException {
+    final InputStream is = requestEntity.openStream();
+    try {
+      final OutputStream os = httpUrlConnection.getOutputStream();
+      StreamUtils.copy(is, os);
+      os.close();
+    } finally {
+      is.close();
+    }
+  }
+
+  // HttpsURLConnection.getSSLSession() is only available from Java 12 on,
+  // before only the cipher suite of a kept alive connection is known
+  private static TlsSession keptAlive(final HttpsURLConnection httpsUrlConnection) {
+    try {
+      final Object optional = HttpsURLConnection.class.getMethod("getSSLSession").invoke(httpsUrlConnection);
+      final Object session = optional.getClass().getMethod("orElse", Object.class).invoke(optional, (Object) null);
+      if (session instanceof SSLSession) {
+        return TlsSession.reused((SSLSession) session);
+      }
+    } catch (final Exception e) {
+      // fall through
+    }
+    return new TlsSession(null, httpsUrlConnection.getCipherSuite(), false, false, 0L);
+  }
+
+  // setFixedLengthStreamingMode(long) is only available from Java 7 on
+  private static boolean setFixedLengthStreamingMode(final HttpURLConnection httpUrlConnection, final long length) {
+    if (length <= Integer.MAX_VALUE) {
+      httpUrlConnection.setFixedLengthStreamingMode((int) length);
+      return true;
+    }
+    try {
+      HttpURLConnection.class.getMethod("setFixedLengthStreamingMode", long.class).invoke(httpUrlConnection, Long.valueOf(length));
+      return true;
+    } catch (final Exception e) {
+      return false;
+    }
+  }
+
+}
@@ -0,0 +1,59 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.exception;
+
+/**
+ * Thrown when a request exceeds its connect timeout, read timeout or overall
+ * deadline.
+ *
+ * @author alex.sherwin
+ * 
+ */
+public class HttpTimeoutException extends HttpInvocationException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * 
+   */
+  public HttpTimeoutException() {
+    super();
+  }
+
+  /**
+   * @param message String
+   * @param cause Throwable
+   */
+  public HttpTimeoutException(final String message, final Throwable cause) {
+    super(message, cause);
+  }
+
+  /**
+   * @param message String
+   */
+  public HttpTimeoutException(final String message) {
+    super(message);
+  }
+
+  /**
+   * @param cause Throwable
+   */
+  public HttpTimeoutException(final Throwable cause) {
+    super(cause);
+  }
+
+}
@@ -0,0 +1,144 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram of non-negative values, such as latencies in
+ * microseconds, with a bounded relative error in the style of HdrHistogram.
+ * <p>
+ * Values below 128 are counted exactly. Larger values fall into one of 64
+ * linear sub-buckets of their power of two, so a recorded value is reported
+ * within 1/64 (about 1.6%) of its actual value whatever its magnitude, using
+ * a fixed array of a few thousand counters. Percentiles report the highest
+ * value of their bucket.
+ * </p>
+ *
+ * @author alex.sherwin
+ *
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+  private final AtomicLongArray counts = new AtomicLongArray(indexOf(Long.MAX_VALUE) + 1);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong max = new AtomicLong();
+
+  public LatencyHistogram() {
+    super();
+  }
+
+  /**
+   * Record value, negative values are recorded as 0.
+   *
+   * @param value long
+   */
+  public void record(final long value) {
+    final long v = Math.max(0L, value);
+    counts.incrementAndGet(indexOf(v));
+    totalCount.incrementAndGet();
+    sum.addAndGet(v);
+    for (long current = min.get(); v < current && !min.compareAndSet(current, v); current = min.get()) {
+      // retry
+    }
+    for (long current = max.get(); v > current && !max.compareAndSet(current, v); current = max.get()) {
+      // retry
+    }
+  }
+
+  /**
+   * @return the number of recorded values
+   */
+  public long getTotalCount() {
+    return totalCount.get();
+  }
+
+  /**
+   * @return the smallest recorded value, or 0 if none was recorded
+   */
+  public long getMin() {
+    return 0 == totalCount.get() ? 0L : min.get();
+  }
+
+  /**
+   * @return the largest recorded value, or 0 if none was recorded
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @return the mean of the recorded values, or 0 if none was recorded
+   */
+  public double getMean() {
+    final long n = totalCount.get();
+    return 0 == n ? 0d : (double) sum.get() / n;
+  }
+
+  /**
+   * Return the value below or at which percentile percent of the recorded
+   * values fall.
+   *
+   * @param percentile double between 0 and 100
+   * @return The highest value of the bucket holding the percentile, capped at
+   *         {@link #getMax()}, or 0 if no value was recorded
+   */
+  public long getValueAtPercentile(final double percentile) {
+    if (percentile < 0d || percentile > 100d) {
+      throw new IllegalArgumentException("percentile must be between 0 and 100, was " + percentile);
+    }
+    final long n = totalCount.get();
+    if (0 == n) {
+      return 0L;
+    }
+    final long rank = Math.max(1L, (long) Math.ceil(percentile / 100d * n));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValueOf(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  static int indexOf(final long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    // shift the value into [64, 128), the shift selects the bucket
+    final int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+  }
+
+  static long highestValueOf(final int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    final int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+    final long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+}
@@ -0,0 +1,48 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.tools;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a stream holds more bytes than it may be buffered with.
+ *
+ * @author alex.sherwin
+ *
+ */
+public class SizeLimitExceededException extends IOException {
+
+  private static final long serialVersionUID = 2417655071904623215L;
+
+  private final long limit;
+
+  /**
+   * @param limit long the maximum number of bytes
+   */
+  public SizeLimitExceededException(final long limit) {
+    super("Entity exceeds the maximum size of " + limit + " bytes");
+    this.limit = limit;
+  }
+
+  /**
+   * @return the maximum number of bytes
+   */
+  public long getLimit() {
+    return limit;
+  }
+
+}
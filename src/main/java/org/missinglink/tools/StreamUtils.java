@@ -16,11 +16,11 @@
 
 package org.missinglink.tools;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Arrays;
 
 /**
  * @author alex.sherwin
@@ -28,41 +28,39 @@ import java.io.InputStreamReader;
  */
 public abstract class StreamUtils {
 
+  /**
+   * Buffer size used when copying streams.
+   */
+  public static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  // a larger Content-Length is trusted only as far as the bytes arrive
+  private static final int MAX_PRESIZE = 16 * 1024 * 1024;
+  private static final int INITIAL_SIZE = 8 * 1024;
+  private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+  // copy buffer of the calling thread, taken while in use so nested copies
+  // get a buffer of their own
+  private static final ThreadLocal<byte[]> COPY_BUFFER = new ThreadLocal<byte[]>();
+
   protected StreamUtils() {
     super();
   }
 
   /**
-   * Read from an {@link InputStream} and return it as a String.
+   * Read from an {@link InputStream} and return it as a String in the
+   * platform charset, the stream is closed.
    *
    * @param is InputStream
    * @return A String created from reading the {@link InputStream}
    * @throws IOException on failure
    */
   public static String inputStreamToString(final InputStream is) throws IOException {
-
-    final BufferedReader in = new BufferedReader(new InputStreamReader(is));
-
-    final StringBuilder sb = new StringBuilder();
-    final int pageSize = 1024;
-    final byte[] buf = new byte[pageSize];
-
-    int ret = is.read(buf, 0, pageSize);
-
-    while (ret > 0) {
-      final byte[] bufPage = new byte[ret];
-      System.arraycopy(buf, 0, bufPage, 0, ret);
-      sb.append(new String(bufPage));
-      ret = is.read(buf, 0, pageSize);
-    }
-    in.close();
-
-    return sb.toString();
+    return new String(inputStreamToByteArray(is));
   }
 
   /**
    * Read from an {@link InputStream} and return it as a <code>byte[]</code>
-   * array.
+   * array, the stream is closed.
    *
    * @param is InputStream
    * @return A <code>byte[]</code> array created from reading the
@@ -70,12 +68,64 @@ public abstract class StreamUtils {
    * @throws IOException on failure
    */
   public static byte[] inputStreamToByteArray(final InputStream is) throws IOException {
-    return inputStreamToByteArrayOutputStream(is).toByteArray();
+    return inputStreamToByteArray(is, -1L, -1L);
+  }
+
+  /**
+   * Read from an {@link InputStream} and return it as a <code>byte[]</code>
+   * array, the stream is closed.
+   * <p>
+   * The bytes are read straight into the array, which is sized for
+   * expectedLength up front, such as the Content-Length of a response, and
+   * doubled when more arrive. Reading stops with a
+   * {@link SizeLimitExceededException} as soon as the stream, or
+   * expectedLength, exceeds maxLength.
+   * </p>
+   *
+   * @param is InputStream
+   * @param expectedLength long the number of bytes expected, or -1 if unknown
+   * @param maxLength long the maximum number of bytes, or -1 for no limit
+   * @return A <code>byte[]</code> array created from reading the
+   *         {@link InputStream}
+   * @throws SizeLimitExceededException if the stream holds more than
+   *           maxLength bytes
+   * @throws IOException on failure
+   */
+  public static byte[] inputStreamToByteArray(final InputStream is, final long expectedLength, final long maxLength) throws IOException {
+    try {
+      final long limit = maxLength < 0 ? MAX_ARRAY_LENGTH : Math.min(maxLength, MAX_ARRAY_LENGTH);
+      if (expectedLength > limit) {
+        throw new SizeLimitExceededException(limit);
+      }
+      byte[] buf = new byte[expectedLength >= 0 ? (int) Math.min(expectedLength, MAX_PRESIZE) : (int) Math.min(INITIAL_SIZE, limit)];
+      int count = 0;
+      for (;;) {
+        if (count == buf.length) {
+          // full, probe for the end of the stream before growing
+          final int b = is.read();
+          if (b < 0) {
+            return buf;
+          }
+          if (count >= limit) {
+            throw new SizeLimitExceededException(limit);
+          }
+          buf = Arrays.copyOf(buf, (int) Math.min(limit, Math.max(2L * buf.length, INITIAL_SIZE)));
+          buf[count++] = (byte) b;
+        }
+        final int num = is.read(buf, count, buf.length - count);
+        if (num < 0) {
+          return count == buf.length ? buf : Arrays.copyOf(buf, count);
+        }
+        count += num;
+      }
+    } finally {
+      is.close();
+    }
   }
 
   /**
    * Read from an {@link InputStream} and return it as a
-   * {@link ByteArrayOutputStream}.
+   * {@link ByteArrayOutputStream}, the stream is closed.
    *
    * @param is InputStream
    * @return A {@link ByteArrayOutputStream} created from reading the
@@ -83,24 +133,41 @@ public abstract class StreamUtils {
    * @throws IOException on failure
    */
   public static ByteArrayOutputStream inputStreamToByteArrayOutputStream(final InputStream is) throws IOException {
-
-    final BufferedReader in = new BufferedReader(new InputStreamReader(is));
-    final ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-    final int pageSize = 1024;
-    final byte[] buf = new byte[pageSize];
-
-    int ret = is.read(buf, 0, pageSize);
-
-    while (ret > 0) {
-      final byte[] bufPage = new byte[ret];
-      System.arraycopy(buf, 0, bufPage, 0, ret);
-      out.write(bufPage);
-      ret = is.read(buf, 0, pageSize);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_SIZE);
+    try {
+      copy(is, out);
+    } finally {
+      is.close();
     }
-    in.close();
-
     return out;
   }
 
+  /**
+   * Copy everything from an {@link InputStream} to an {@link OutputStream}
+   * through a single buffer, neither stream is closed.
+   *
+   * @param is InputStream
+   * @param os OutputStream
+   * @return The number of bytes copied
+   * @throws IOException on failure
+   */
+  public static long copy(final InputStream is, final OutputStream os) throws IOException {
+    byte[] buf = COPY_BUFFER.get();
+    if (null == buf) {
+      buf = new byte[COPY_BUFFER_SIZE];
+    } else {
+      COPY_BUFFER.remove();
+    }
+    try {
+      long count = 0;
+      for (int num; (num = is.read(buf)) != -1;) {
+        os.write(buf, 0, num);
+        count += num;
+      }
+      return count;
+    } finally {
+      COPY_BUFFER.set(buf);
+    }
+  }
+
 }
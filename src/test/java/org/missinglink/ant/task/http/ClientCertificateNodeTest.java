@@ -0,0 +1,101 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.ant.task.http;
+
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.tools.ant.BuildException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClientCertificateNodeTest extends AbstractAntTest {
+
+  public ClientCertificateNodeTest() throws IOException {
+    super("<typedef name=\"httpclient\" classname=\"org.missinglink.ant.task.http.HttpClientNode\" />\n" +
+        "<target name=\"client_certificate\">\n" +
+        "  <http url=\"${server_uri}" + CLIENT_CERTIFICATE_CONTEXT + "\" entityProperty=\"subject\">\n" +
+        "    <keystore file=\"${keystore_file}\" password=\"${keystore_password}\" />\n" +
+        "    <clientcertificate file=\"${client_keystore_file}\" password=\"${keystore_password}\" type=\"${client_keystore_type}\" alias=\"${client_alias}\" />\n" +
+        "  </http>\n" +
+        "</target>\n" +
+        "<target name=\"shared_client_certificate\">\n" +
+        "  <httpclient id=\"mtls\">\n" +
+        "    <keystore file=\"${keystore_file}\" password=\"${keystore_password}\" />\n" +
+        "    <clientcertificate file=\"${client_keystore_file}\" password=\"${keystore_password}\" alias=\"${client_alias}\" />\n" +
+        "  </httpclient>\n" +
+        "  <http url=\"${server_uri}" + CLIENT_CERTIFICATE_CONTEXT + "\" clientref=\"mtls\" entityProperty=\"subject\" />\n" +
+        "</target>\n" +
+        "<target name=\"no_client_certificate\">\n" +
+        "  <http url=\"${server_uri}" + CLIENT_CERTIFICATE_CONTEXT + "\">\n" +
+        "    <keystore file=\"${keystore_file}\" password=\"${keystore_password}\" />\n" +
+        "  </http>\n" +
+        "</target>");
+  }
+
+  @Before
+  public void before() throws Exception {
+    startHttpsServer(true);
+    project.setNewProperty("server_uri", getHttpsServerUri());
+    project.setNewProperty("keystore_file", getKeyStoreFile());
+    project.setNewProperty("keystore_password", KEYSTORE_PASSWORD);
+    project.setNewProperty("client_alias", CLIENT_ALIAS);
+  }
+
+  @After
+  public void after() {
+    stopHttpsServer();
+  }
+
+  @Test
+  public void testPkcs12() {
+    project.setNewProperty("client_keystore_file", getClass().getResource(CLIENT_KEYSTORE_P12).getFile());
+    project.setNewProperty("client_keystore_type", "pkcs12");
+    buildRule.executeTarget("client_certificate");
+    assertThat(project.getProperty("subject"), startsWith("CN=" + CLIENT_ALIAS + ","));
+  }
+
+  @Test
+  public void testJks() {
+    project.setNewProperty("client_keystore_file", getClass().getResource(CLIENT_KEYSTORE_JKS).getFile());
+    project.setNewProperty("client_keystore_type", "JKS");
+    buildRule.executeTarget("client_certificate");
+    assertThat(project.getProperty("subject"), startsWith("CN=" + CLIENT_ALIAS + ","));
+  }
+
+  @Test
+  public void testSharedClientCertificate() {
+    project.setNewProperty("client_keystore_file", getClass().getResource(CLIENT_KEYSTORE_P12).getFile());
+    buildRule.executeTarget("shared_client_certificate");
+    assertThat(project.getProperty("subject"), startsWith("CN=" + CLIENT_ALIAS + ","));
+  }
+
+  @Test
+  public void testNoClientCertificate() {
+    try {
+      buildRule.executeTarget("no_client_certificate");
+      fail("Target should have thrown a BuildException");
+    } catch (final BuildException ex) {
+      // the server requires a client certificate
+    }
+  }
+
+}
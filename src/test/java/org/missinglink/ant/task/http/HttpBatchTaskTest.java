@@ -0,0 +1,125 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.ant.task.http;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpBatchTaskTest extends AbstractAntTest {
+
+  public HttpBatchTaskTest() throws IOException {
+    super("<taskdef name=\"httpbatch\" classname=\"org.missinglink.ant.task.http.HttpBatchTask\" />\n" +
+        "<target name=\"batch\">\n" +
+        "  <httpbatch threads=\"3\">\n" +
+        "    <http url=\"${server_uri}" + PING_CONTEXT + "\" statusProperty=\"status1\" />\n" +
+        "    <http url=\"${server_uri}" + ECHO_CONTEXT + "?" + ECHO_TEXT + "=two\" entityProperty=\"entity2\" />\n" +
+        "    <http url=\"${server_uri}" + PING_CONTEXT + "\" statusProperty=\"status3\" />\n" +
+        "    <http url=\"${server_uri}" + PING_CONTEXT + "\" statusProperty=\"status4\" />\n" +
+        "    <http url=\"${server_uri}" + PING_CONTEXT + "\" statusProperty=\"status5\" />\n" +
+        "  </httpbatch>\n" +
+        "</target>\n" +
+        "<target name=\"failing_batch\">\n" +
+        "  <httpbatch threads=\"2\" failOnError=\"${fail}\" failuresProperty=\"failures\">\n" +
+        "    <http url=\"${server_uri}" + INTERNAL_SERVER_ERROR_CONTEXT + "\" />\n" +
+        "    <http url=\"${server_uri}" + PING_CONTEXT + "\" statusProperty=\"status\" />\n" +
+        "    <http url=\"${server_uri}/doesnt/exist\" />\n" +
+        "  </httpbatch>\n" +
+        "</target>\n" +
+        "<target name=\"pipelined_batch\">\n" +
+        "  <httpbatch threads=\"2\" pipelined=\"true\" failOnError=\"false\" failuresProperty=\"failures\">\n" +
+        "    <http url=\"${server_uri}" + ECHO_CONTEXT + "?" + ECHO_TEXT + "=one\" entityProperty=\"entity1\" />\n" +
+        "    <http url=\"${server_uri}" + ECHO_CONTEXT + "\" method=\"POST\" entityProperty=\"entity2\">\n" +
+        "      <entity value=\"two\" />\n" +
+        "    </http>\n" +
+        "    <http url=\"${server_uri}" + ECHO_CONTEXT + "?" + ECHO_TEXT + "=three\" entityProperty=\"entity3\" />\n" +
+        "    <http url=\"${server_uri}/doesnt/exist\" />\n" +
+        "    <http url=\"${server_uri}" + PING_CONTEXT + "\" statusProperty=\"status5\" />\n" +
+        "  </httpbatch>\n" +
+        "</target>");
+  }
+
+  @Before
+  public void before() throws Exception {
+    startHttpServer();
+    project.setNewProperty("server_uri", getHttpServerUri());
+  }
+
+  @After
+  public void after() {
+    stopHttpServer();
+  }
+
+  @Test
+  public void testBatch() {
+    final List<String> taskLog = buildRule.logExecuteTarget("batch", Project.MSG_INFO);
+
+    assertThat(taskLog, hasItem(startsWith("[httpbatch] Batch of 5 HTTP requests on 3 threads finished in ")));
+    assertEquals("200", project.getProperty("status1"));
+    assertEquals("two", project.getProperty("entity2"));
+    assertEquals("200", project.getProperty("status3"));
+    assertEquals("200", project.getProperty("status4"));
+    assertEquals("200", project.getProperty("status5"));
+  }
+
+  @Test
+  public void testPipelinedBatch() {
+    final List<String> taskLog = buildRule.logExecuteTarget("pipelined_batch", Project.MSG_VERBOSE);
+
+    assertThat(taskLog, hasItem(startsWith("[httpbatch] Pipelining 4 HTTP requests to ")));
+    assertEquals("one", project.getProperty("entity1"));
+    assertEquals("two", project.getProperty("entity2"));
+    assertEquals("three", project.getProperty("entity3"));
+    assertEquals("200", project.getProperty("status5"));
+    assertEquals("1", project.getProperty("failures"));
+  }
+
+  @Test
+  public void testFailuresAreCollected() {
+    project.setProperty("fail", "true");
+    try {
+      buildRule.executeTarget("failing_batch");
+      fail("Target should have thrown a BuildException");
+    } catch (final BuildException ex) {
+      assertThat(ex.getMessage(), startsWith("2 of 3 HTTP requests failed:"));
+      assertThat(ex.getMessage(), containsString("Expected Status [200] but got [500]"));
+      assertThat(ex.getMessage(), containsString("Expected Status [200] but got [404]"));
+    }
+    assertEquals("200", project.getProperty("status"));
+    assertEquals("2", project.getProperty("failures"));
+  }
+
+  @Test
+  public void testFailuresWithoutFailOnError() {
+    project.setProperty("fail", "false");
+    buildRule.executeTarget("failing_batch");
+    assertEquals("2", project.getProperty("failures"));
+  }
+
+}
@@ -0,0 +1,154 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.ant.task.http;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.client.HttpConnectionPoolStats;
+import org.missinglink.http.exception.HttpTimeoutException;
+
+public class HttpClientNodeTest extends AbstractAntTest {
+
+  public HttpClientNodeTest() throws IOException {
+    super("<typedef name=\"httpclient\" classname=\"org.missinglink.ant.task.http.HttpClientNode\" />\n" +
+        "<httpclient id=\"shared\" maxPerRoute=\"2\" readTimeout=\"200\">\n" +
+        "  <headers>\n" +
+        "    <header name=\"X-Shared\" value=\"node\" />\n" +
+        "    <header name=\"X-Override\" value=\"node\" />\n" +
+        "  </headers>\n" +
+        "</httpclient>\n" +
+        "<httpclient id=\"alias\" refid=\"shared\" />\n" +
+        "<httpclient id=\"retrying\" retryBackoff=\"10\" retryNonIdempotent=\"true\" />\n" +
+        "<path id=\"notaclient\" />\n" +
+        "<target name=\"shared_get\">\n" +
+        "  <http url=\"${server_uri}" + ECHO_HEADERS_CONTEXT + "\" clientref=\"shared\">\n" +
+        "    <headers>\n" +
+        "      <header name=\"X-Override\" value=\"task\" />\n" +
+        "    </headers>\n" +
+        "  </http>\n" +
+        "  <http url=\"${server_uri}" + PING_CONTEXT + "\" clientref=\"shared\" />\n" +
+        "  <http url=\"${server_uri}" + PING_CONTEXT + "\" clientref=\"shared\" />\n" +
+        "</target>\n" +
+        "<target name=\"slow_get\">\n" +
+        "  <http url=\"${server_uri}" + SLOW_CONTEXT + "?" + SLOW_MILLIS + "=1000\" clientref=\"shared\" readTimeout=\"${read_timeout}\" />\n" +
+        "</target>\n" +
+        "<target name=\"alias_get\">\n" +
+        "  <http url=\"${server_uri}" + ECHO_HEADERS_CONTEXT + "\" clientref=\"alias\" />\n" +
+        "  <http url=\"${server_uri}" + PING_CONTEXT + "\" clientref=\"alias\" />\n" +
+        "</target>\n" +
+        "<target name=\"alias_with_attribute\">\n" +
+        "  <httpclient id=\"invalid\" refid=\"shared\" maxPerRoute=\"4\" />\n" +
+        "</target>\n" +
+        "<target name=\"retried_post\">\n" +
+        "  <http url=\"${server_uri}" + FLAKY_CONTEXT + "?" + FLAKY_FAILURES + "=2\" method=\"POST\" clientref=\"retrying\" maxAttempts=\"3\" />\n" +
+        "</target>\n" +
+        "<target name=\"invalid_ref\">\n" +
+        "  <http url=\"${server_uri}" + PING_CONTEXT + "\" clientref=\"notaclient\" />\n" +
+        "</target>");
+  }
+
+  @Before
+  public void before() throws Exception {
+    startHttpServer();
+    project.setNewProperty("server_uri", getHttpServerUri());
+  }
+
+  @After
+  public void after() {
+    stopHttpServer();
+  }
+
+  @Test
+  public void testSharedConfiguration() {
+    final List<String> taskLog = buildRule.logExecuteTarget("shared_get", Project.MSG_DEBUG);
+
+    assertThat(taskLog, hasItem(equalTo("[http] \tX-Req-X-shared: node")));
+    assertThat(taskLog, hasItem(equalTo("[http] \tX-Req-X-override: task")));
+
+    final HttpConnectionPoolStats stats = ((HttpClientNode) project.getReference("shared")).getConnectionPool().getStats();
+    assertEquals(3, stats.getCreated() + stats.getReused());
+    assertEquals(2, stats.getReused());
+  }
+
+  @Test
+  public void testSharedReadTimeout() {
+    project.setProperty("read_timeout", "0");
+    buildRule.executeTarget("slow_get");
+    project.setProperty("read_timeout", "100");
+    try {
+      buildRule.executeTarget("slow_get");
+      fail("Target should have thrown a BuildException");
+    } catch (final BuildException ex) {
+      assertThat(ex.getCause(), instanceOf(HttpTimeoutException.class));
+    }
+  }
+
+  @Test
+  public void testReferenceToClient() {
+    final List<String> taskLog = buildRule.logExecuteTarget("alias_get", Project.MSG_DEBUG);
+    assertThat(taskLog, hasItem(equalTo("[http] \tX-Req-X-shared: node")));
+
+    final HttpClientNode alias = (HttpClientNode) project.getReference("alias");
+    final HttpClientNode shared = (HttpClientNode) project.getReference("shared");
+    assertSame(shared.getConnectionPool(), alias.getConnectionPool());
+    assertEquals(2, alias.getMaxPerRoute());
+    assertEquals(200, alias.getReadTimeout());
+    assertEquals(1, shared.getConnectionPool().getStats().getReused());
+  }
+
+  @Test
+  public void testReferenceWithAttribute() {
+    try {
+      buildRule.executeTarget("alias_with_attribute");
+      fail("Target should have thrown a BuildException");
+    } catch (final BuildException ex) {
+      assertThat(ex.getMessage(), startsWith("You must not specify more than one attribute when using refid"));
+    }
+  }
+
+  @Test
+  public void testTaskRetryKeepsClientSettings() {
+    buildRule.executeTarget("retried_post");
+    assertEquals(3, flakyRequests.get());
+  }
+
+  @Test
+  public void testInvalidReference() {
+    try {
+      buildRule.executeTarget("invalid_ref");
+      fail("Target should have thrown a BuildException");
+    } catch (final BuildException ex) {
+      assertThat(ex.getMessage(), startsWith("clientref [notaclient] does not refer to an httpclient"));
+    }
+  }
+
+}
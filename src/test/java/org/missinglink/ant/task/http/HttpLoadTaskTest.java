@@ -0,0 +1,125 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.ant.task.http;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.tools.StreamUtils;
+
+public class HttpLoadTaskTest extends AbstractAntTest {
+
+  public HttpLoadTaskTest() throws IOException {
+    super("<taskdef name=\"httpload\" classname=\"org.missinglink.ant.task.http.HttpLoadTask\" />\n" +
+        "<target name=\"load\">\n" +
+        "  <httpload count=\"50\" rate=\"500\" threads=\"4\" reportFile=\"${report}\" maxP99=\"5000\" maxErrorRate=\"0\">\n" +
+        "    <http url=\"${server_uri}" + PING_CONTEXT + "\" />\n" +
+        "  </httpload>\n" +
+        "</target>\n" +
+        "<target name=\"closed_load\">\n" +
+        "  <httpload duration=\"0.3\" threads=\"2\" propertyPrefix=\"closed\">\n" +
+        "    <http url=\"${server_uri}" + ECHO_CONTEXT + "?" + ECHO_TEXT + "=load\" />\n" +
+        "  </httpload>\n" +
+        "</target>\n" +
+        "<target name=\"breached_load\">\n" +
+        "  <httpload count=\"20\" threads=\"2\" maxErrorRate=\"10\" minThroughput=\"1000000\" failOnBreach=\"${fail}\">\n" +
+        "    <http url=\"${server_uri}" + INTERNAL_SERVER_ERROR_CONTEXT + "\" />\n" +
+        "  </httpload>\n" +
+        "</target>");
+  }
+
+  @Before
+  public void before() throws Exception {
+    startHttpServer();
+    project.setNewProperty("server_uri", getHttpServerUri());
+  }
+
+  @After
+  public void after() {
+    stopHttpServer();
+  }
+
+  @Test
+  public void testConstantRate() throws IOException {
+    final File report = File.createTempFile("httpload", ".json");
+    report.deleteOnExit();
+    project.setProperty("report", report.getAbsolutePath());
+
+    final List<String> taskLog = buildRule.logExecuteTarget("load", Project.MSG_INFO);
+
+    assertThat(taskLog, hasItem(startsWith("[httpload] 50 requests in ")));
+    assertThat(taskLog, hasItem(startsWith("[httpload] Latency ms: min=")));
+    assertEquals("50", project.getProperty("httpload.requests"));
+    assertEquals("0", project.getProperty("httpload.errors"));
+    assertEquals("0", project.getProperty("httpload.breaches"));
+    // 50 requests at 500 requests/s take at least 98 ms
+    assertTrue(Double.parseDouble(project.getProperty("httpload.duration")) >= 0.098d);
+    assertTrue(Double.parseDouble(project.getProperty("httpload.p50")) <= Double.parseDouble(project.getProperty("httpload.p99")));
+
+    final String json = StreamUtils.inputStreamToString(new FileInputStream(report));
+    assertThat(json, containsString("\"requests\": 50,"));
+    assertThat(json, containsString("\"p99\": "));
+    assertThat(json, containsString("\"breaches\": []"));
+  }
+
+  @Test
+  public void testClosedModelForDuration() {
+    buildRule.executeTarget("closed_load");
+    assertTrue(Long.parseLong(project.getProperty("closed.requests")) > 0L);
+    assertEquals("0", project.getProperty("closed.errors"));
+    assertTrue(Double.parseDouble(project.getProperty("closed.duration")) >= 0.3d);
+  }
+
+  @Test
+  public void testBreachFailsBuild() {
+    project.setProperty("fail", "true");
+    try {
+      buildRule.executeTarget("breached_load");
+      fail("Target should have thrown a BuildException");
+    } catch (final BuildException ex) {
+      assertThat(ex.getMessage(), startsWith("SLO breached for GET "));
+      assertThat(ex.getMessage(), containsString("error rate 100.000% > 10.000%"));
+      assertThat(ex.getMessage(), containsString("throughput "));
+    }
+    assertEquals("20", project.getProperty("httpload.errors"));
+    assertEquals("2", project.getProperty("httpload.breaches"));
+  }
+
+  @Test
+  public void testBreachWithoutFailOnBreach() {
+    project.setProperty("fail", "false");
+    final List<String> taskLog = buildRule.logExecuteTarget("breached_load", Project.MSG_WARN);
+    assertThat(taskLog, hasItem(startsWith("[httpload] SLO breached for GET ")));
+    assertThat(taskLog, hasItem(startsWith("[httpload] First failed request: Expected Status [200] but got [500]")));
+  }
+
+}
@@ -16,16 +16,47 @@
 
 package org.missinglink.ant.task.http;
 
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 import java.io.IOException;
+import java.util.List;
 
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.exception.HttpTimeoutException;
 
 public class HttpTaskTest extends AbstractHttpTaskTest {
 
   public HttpTaskTest() throws IOException {
     super("<target name=\"simple_get\">\n" +
         "  <http url=\"${server_uri}${server_context}\" />\n" +
+        "</target>\n" +
+        "<target name=\"timed_get\">\n" +
+        "  <http url=\"${server_uri}${server_context}\" timingProperty=\"ping.timing\" />\n" +
+        "</target>\n" +
+        "<target name=\"compressed_get\">\n" +
+        "  <http url=\"${server_uri}${server_context}\" compressed=\"true\" entityProperty=\"entity\" />\n" +
+        "</target>\n" +
+        "<target name=\"retried_get\">\n" +
+        "  <http url=\"${server_uri}${server_context}\" maxAttempts=\"3\" retryBackoff=\"10\" />\n" +
+        "</target>\n" +
+        "<target name=\"deadline_get\">\n" +
+        "  <http url=\"${server_uri}${server_context}\" readTimeout=\"5000\" deadline=\"300\" />\n" +
+        "</target>\n" +
+        "<target name=\"compressed_post\">\n" +
+        "  <http url=\"${server_uri}${server_context}\" method=\"POST\" entityProperty=\"entity\">\n" +
+        "    <entity compress=\"true\" value=\"${payload}\" />\n" +
+        "  </http>\n" +
         "</target>");
   }
 
@@ -40,4 +71,61 @@ public class HttpTaskTest extends AbstractHttpTaskTest {
     stopHttpServer();
   }
 
+  @Test
+  public void testTimingProperty() {
+    project.setProperty("server_context", PING_CONTEXT);
+    final List<String> taskLog = buildRule.logExecuteTarget("timed_get", Project.MSG_VERBOSE);
+
+    assertThat(taskLog, hasItem(startsWith("[http] Timing:\t\tdns=")));
+    for (final String phase : new String[] {"dns", "connect", "tls", "firstByte", "transfer", "total"}) {
+      assertNotNull(phase, project.getProperty("ping.timing." + phase));
+    }
+    assertEquals("0.000", project.getProperty("ping.timing.tls"));
+    assertTrue(Double.parseDouble(project.getProperty("ping.timing.total")) > 0d);
+    assertNotNull(project.getProperty("ping.timing.connectionReused"));
+  }
+
+  @Test
+  public void testCompressed() {
+    project.setProperty("server_context", COMPRESSED_CONTEXT);
+    final List<String> taskLog = buildRule.logExecuteTarget("compressed_get", Project.MSG_VERBOSE);
+
+    assertThat(taskLog, hasItem(equalTo("[http] Decoded:\t\tgzip")));
+    assertEquals(new String(COMPRESSED_ENTITY), project.getProperty("entity"));
+  }
+
+  @Test
+  public void testCompressedEntity() {
+    final StringBuilder payload = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      payload.append("{\"line\":").append(i).append("}");
+    }
+    project.setProperty("server_context", ECHO_CONTEXT);
+    project.setProperty("payload", payload.toString());
+    final List<String> taskLog = buildRule.logExecuteTarget("compressed_post", Project.MSG_VERBOSE);
+
+    assertThat(taskLog, hasItem(startsWith("[http] Compressed:\t\t" + payload.length() + " -> ")));
+    assertEquals(payload.toString(), project.getProperty("entity"));
+  }
+
+  @Test
+  public void testRetry() {
+    project.setProperty("server_context", FLAKY_CONTEXT + "?" + FLAKY_FAILURES + "=2");
+    final List<String> taskLog = buildRule.logExecuteTarget("retried_get", Project.MSG_VERBOSE);
+
+    assertThat(taskLog, hasItem(equalTo("[http] Attempts:\t\t3")));
+    assertEquals(3, flakyRequests.get());
+  }
+
+  @Test
+  public void testDeadline() {
+    project.setProperty("server_context", SLOW_CONTEXT + "?" + SLOW_MILLIS + "=2000");
+    try {
+      buildRule.executeTarget("deadline_get");
+      fail("the deadline should fail the build");
+    } catch (final BuildException e) {
+      assertTrue(e.getCause() instanceof HttpTimeoutException);
+    }
+  }
+
 }
@@ -16,10 +16,13 @@
 
 package org.missinglink.ant.task.http;
 
+import static org.junit.Assert.assertEquals;
+
 import java.io.IOException;
 
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 
 public class HttpsTaskTest extends AbstractHttpTaskTest {
 
@@ -28,6 +31,15 @@ public class HttpsTaskTest extends AbstractHttpTaskTest {
         "  <http url=\"${server_uri}${server_context}\">\n" +
         "    <keystore file=\"${keystore_file}\" password=\"${keystore_password}\" />\n" +
         "  </http>\n" +
+        "</target>\n" +
+        "<typedef name=\"httpclient\" classname=\"org.missinglink.ant.task.http.HttpClientNode\" />\n" +
+        "<target name=\"repeated_get\">\n" +
+        "  <httpclient id=\"sessions\" tlsSessionCacheSize=\"16\" tlsSessionTimeout=\"60\">\n" +
+        "    <keystore file=\"${keystore_file}\" password=\"${keystore_password}\" />\n" +
+        "  </httpclient>\n" +
+        "  <http url=\"${server_uri}" + CLOSE_CONTEXT + "\" clientref=\"sessions\" timingProperty=\"first\" />\n" +
+        "  <http url=\"${server_uri}" + PING_CONTEXT + "\" clientref=\"sessions\" timingProperty=\"second\" />\n" +
+        "  <http url=\"${server_uri}" + PING_CONTEXT + "\" clientref=\"sessions\" timingProperty=\"third\" />\n" +
         "</target>");
   }
 
@@ -44,4 +56,14 @@ public class HttpsTaskTest extends AbstractHttpTaskTest {
     stopHttpsServer();
   }
 
+  @Test
+  public void testRepeatedGetAvoidsFullHandshake() {
+    buildRule.executeTarget("repeated_get");
+    assertEquals("full", project.getProperty("first.tlsHandshake"));
+    // the first connection was closed, the second resumes its session
+    assertEquals("resumed", project.getProperty("second.tlsHandshake"));
+    assertEquals("none", project.getProperty("third.tlsHandshake"));
+    assertEquals(project.getProperty("first.tlsCipherSuite"), project.getProperty("third.tlsCipherSuite"));
+  }
+
 }
@@ -0,0 +1,184 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.ant.task.http;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.missinglink.tools.StreamUtils.inputStreamToByteArray;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.client.HttpCache;
+
+public class OutFileTest extends AbstractAntTest {
+
+  private File outFile;
+
+  public OutFileTest() throws IOException {
+    super("<target name=\"segmented_get\">\n" +
+        "  <http url=\"${server_uri}${server_context}\" outFile=\"${outfile}\" segments=\"4\" />\n" +
+        "</target>\n" +
+        "<target name=\"resumable_get\">\n" +
+        "  <http url=\"${server_uri}${server_context}\" outFile=\"${outfile}\" resume=\"true\" update=\"false\" />\n" +
+        "</target>\n" +
+        "<target name=\"conditional_get\">\n" +
+        "  <http url=\"${server_uri}${server_context}\" outFile=\"${outfile}\" conditional=\"true\" statusProperty=\"status\" />\n" +
+        "</target>\n" +
+        "<target name=\"get\">\n" +
+        "  <http url=\"${server_uri}${server_context}\" outFile=\"${outfile}\" />\n" +
+        "</target>\n" +
+        "<target name=\"cached_get\">\n" +
+        "  <http url=\"${server_uri}${server_context}\" outFile=\"${outfile}\" cacheDir=\"${cachedir}\" />\n" +
+        "</target>");
+  }
+
+  @Before
+  public void before() throws Exception {
+    startHttpServer();
+    project.setNewProperty("server_uri", getHttpServerUri());
+    outFile = File.createTempFile("outfile", ".bin");
+    outFile.deleteOnExit();
+    new File(outFile.getPath() + ".part").deleteOnExit();
+    new File(outFile.getPath() + ".part.state").deleteOnExit();
+    new File(outFile.getPath() + ".validators").deleteOnExit();
+    project.setProperty("outfile", outFile.getAbsolutePath());
+  }
+
+  @After
+  public void after() {
+    stopHttpServer();
+  }
+
+  @Test
+  public void testFailedGetKeepsOutFile() throws IOException {
+    final byte[] previous = "previous".getBytes();
+    final FileOutputStream fos = new FileOutputStream(outFile);
+    fos.write(previous);
+    fos.close();
+    project.setProperty("server_context", RANGE_CONTEXT);
+    rangeTruncate = 1024;
+    try {
+      buildRule.executeTarget("get");
+      fail("the download should have failed");
+    } catch (final BuildException e) {
+      // expected
+    }
+    assertArrayEquals(previous, inputStreamToByteArray(new FileInputStream(outFile)));
+    // the partial entity was removed
+    final String[] tmp = outFile.getParentFile().list(new FilenameFilter() {
+      @Override
+      public boolean accept(final File dir, final String name) {
+        return name.startsWith("." + outFile.getName() + "-");
+      }
+    });
+    assertEquals(0, tmp.length);
+
+    rangeTruncate = -1;
+    buildRule.executeTarget("get");
+    assertArrayEquals(RANGE_ENTITY, inputStreamToByteArray(new FileInputStream(outFile)));
+  }
+
+  @Test
+  public void testSegmentedGet() throws IOException {
+    project.setProperty("server_context", RANGE_CONTEXT);
+    buildRule.executeTarget("segmented_get");
+
+    assertEquals(4, rangeRequests.get());
+    assertArrayEquals(RANGE_ENTITY, read(outFile));
+  }
+
+  @Test
+  public void testResumableGet() throws IOException {
+    assertTrue(outFile.delete());
+    project.setProperty("server_context", RANGE_CONTEXT);
+    rangeTruncate = 1000;
+    try {
+      buildRule.executeTarget("resumable_get");
+      fail("Target should have thrown a BuildException");
+    } catch (final BuildException ex) {
+      // the partial download must not count as an existing outFile
+      assertFalse(outFile.exists());
+    }
+
+    rangeTruncate = -1;
+    final List<String> taskLog = buildRule.logExecuteTarget("resumable_get", Project.MSG_INFO);
+    assertThat(taskLog, hasItem(equalTo("[http] Download resumed at byte:\t1000")));
+    assertEquals(1, rangeRequests.get());
+    assertArrayEquals(RANGE_ENTITY, read(outFile));
+  }
+
+  @Test
+  public void testConditionalGet() throws IOException {
+    project.setProperty("server_context", RANGE_CONTEXT);
+    buildRule.executeTarget("conditional_get");
+    assertArrayEquals(RANGE_ENTITY, read(outFile));
+
+    final List<String> taskLog = buildRule.logExecuteTarget("conditional_get", Project.MSG_INFO);
+    assertThat(taskLog, hasItem(equalTo("[http] Entity not modified, keeping file:\t" + outFile.getAbsolutePath())));
+    assertEquals("304", project.getProperty("status"));
+    assertArrayEquals(RANGE_ENTITY, read(outFile));
+  }
+
+  @Test
+  public void testCachedGet() throws IOException {
+    final File cacheDir = File.createTempFile("http", ".cache");
+    assertTrue(cacheDir.delete());
+    project.setProperty("cachedir", cacheDir.getAbsolutePath());
+    project.setProperty("server_context", RANGE_CONTEXT);
+    try {
+      buildRule.executeTarget("cached_get");
+      assertTrue(outFile.delete());
+
+      final List<String> taskLog = buildRule.logExecuteTarget("cached_get", Project.MSG_VERBOSE);
+      assertThat(taskLog, hasItem(equalTo("[http] Cache:\t\thit")));
+      assertArrayEquals(RANGE_ENTITY, read(outFile));
+    } finally {
+      new HttpCache(cacheDir, 0L).clear();
+      for (final File file : cacheDir.listFiles()) {
+        file.delete();
+      }
+      cacheDir.delete();
+    }
+  }
+
+  private static byte[] read(final File file) throws IOException {
+    final FileInputStream is = new FileInputStream(file);
+    try {
+      return inputStreamToByteArray(is);
+    } finally {
+      is.close();
+    }
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.security.KeyStoreException;
+
+import javax.net.ssl.KeyManager;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.server.AbstractHttpServerTest;
+import org.missinglink.tools.StreamUtils;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class ClientCertificateTest extends AbstractHttpServerTest {
+
+  public ClientCertificateTest() {
+    super();
+  }
+
+  @Before
+  public void before() throws Exception {
+    startHttpsServer(true);
+  }
+
+  @After
+  public void after() {
+    stopHttpsServer();
+  }
+
+  private HttpClient.HttpClientBuilder uri() throws HttpClientException {
+    return HttpClient.uri(getHttpsServerUri() + CLIENT_CERTIFICATE_CONTEXT).keyStore(getKeyStore(), KEYSTORE_PASSWORD);
+  }
+
+  @Test
+  public void testPkcs12() throws HttpClientException {
+    final HttpResponse response = uri().clientCertificate(getClientKeyStore(CLIENT_KEYSTORE_P12), KEYSTORE_PASSWORD).toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertTrue(response.getEntityAsString(), response.getEntityAsString().startsWith("CN=" + CLIENT_ALIAS + ","));
+  }
+
+  @Test
+  public void testJks() throws Exception {
+    final byte[] jks = StreamUtils.inputStreamToByteArray(getClientKeyStore(CLIENT_KEYSTORE_JKS));
+    Assert.assertEquals(ClientCertificate.JKS, ClientCertificate.detectType(jks));
+    final ClientCertificate clientCertificate = ClientCertificate.of(jks, KEYSTORE_PASSWORD, null, CLIENT_ALIAS);
+    final HttpResponse response = uri().clientCertificate(clientCertificate).toHttpClient().invoke();
+    Assert.assertTrue(response.getEntityAsString(), response.getEntityAsString().startsWith("CN=" + CLIENT_ALIAS + ","));
+  }
+
+  @Test
+  public void testTrustAll() throws HttpClientException {
+    final ClientCertificate clientCertificate = ClientCertificate.of(getClientKeyStore(CLIENT_KEYSTORE_P12), KEYSTORE_PASSWORD, ClientCertificate.PKCS12, CLIENT_ALIAS);
+    final HttpResponse response = HttpClient.uri(getHttpsServerUri() + CLIENT_CERTIFICATE_CONTEXT).keyStore(null, null, true).clientCertificate(clientCertificate).toHttpClient().invoke();
+    Assert.assertTrue(response.getEntityAsString(), response.getEntityAsString().startsWith("CN=" + CLIENT_ALIAS + ","));
+  }
+
+  @Test(expected = HttpClientException.class)
+  public void testUntrustedAlias() throws HttpClientException {
+    // the server only trusts the certificate of CLIENT_ALIAS
+    uri().clientCertificate(ClientCertificate.of(getClientKeyStore(CLIENT_KEYSTORE_P12), KEYSTORE_PASSWORD, null, OTHER_CLIENT_ALIAS)).toHttpClient().invoke();
+  }
+
+  @Test(expected = HttpClientException.class)
+  public void testNoClientCertificate() throws HttpClientException {
+    uri().toHttpClient().invoke();
+  }
+
+  @Test
+  public void testUnknownAlias() throws Exception {
+    final SslContextCache cache = new SslContextCache(SslContextCache.DEFAULT_MAX_ENTRIES);
+    try {
+      cache.getKeyManagers(ClientCertificate.of(getClientKeyStore(CLIENT_KEYSTORE_P12), KEYSTORE_PASSWORD, null, "missing"));
+      Assert.fail("Expected a KeyStoreException");
+    } catch (final KeyStoreException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("[missing]"));
+    }
+  }
+
+  @Test
+  public void testKeyManagersCached() throws Exception {
+    final SslContextCache cache = new SslContextCache(SslContextCache.DEFAULT_MAX_ENTRIES);
+    final byte[] p12 = StreamUtils.inputStreamToByteArray(getClientKeyStore(CLIENT_KEYSTORE_P12));
+    final byte[] keyStore = StreamUtils.inputStreamToByteArray(getKeyStore());
+
+    final KeyManager[] keyManagers = cache.getKeyManagers(ClientCertificate.of(p12, KEYSTORE_PASSWORD, null, CLIENT_ALIAS));
+    Assert.assertSame(keyManagers, cache.getKeyManagers(ClientCertificate.of(p12.clone(), KEYSTORE_PASSWORD, null, CLIENT_ALIAS)));
+    Assert.assertNotSame(keyManagers, cache.getKeyManagers(ClientCertificate.of(p12, KEYSTORE_PASSWORD, null, OTHER_CLIENT_ALIAS)));
+    Assert.assertEquals(2, cache.getKeyManagerLoads());
+
+    // the key is loaded once whatever is trusted
+    final ClientCertificate clientCertificate = ClientCertificate.of(p12, KEYSTORE_PASSWORD, null, CLIENT_ALIAS);
+    Assert.assertSame(cache.getSocketFactory(keyStore, KEYSTORE_PASSWORD, clientCertificate), cache.getSocketFactory(keyStore, KEYSTORE_PASSWORD, clientCertificate));
+    Assert.assertNotSame(cache.getSocketFactory(keyStore, KEYSTORE_PASSWORD), cache.getSocketFactory(keyStore, KEYSTORE_PASSWORD, clientCertificate));
+    cache.getTrustAllSocketFactory(clientCertificate);
+    Assert.assertEquals(2, cache.getKeyManagerLoads());
+  }
+
+  @Test
+  public void testRepeatedInvokeLoadsKeyOnce() throws HttpClientException {
+    final HttpClient httpClient = uri().clientCertificate(getClientKeyStore(CLIENT_KEYSTORE_P12), KEYSTORE_PASSWORD).toHttpClient();
+    Assert.assertEquals(200, httpClient.invoke().getStatus());
+    final long loads = SslContextCache.getDefault().getKeyManagerLoads();
+    final long misses = SslContextCache.getDefault().getMisses();
+
+    Assert.assertEquals(200, httpClient.invoke().getStatus());
+    Assert.assertEquals(200, uri().clientCertificate(getClientKeyStore(CLIENT_KEYSTORE_P12), KEYSTORE_PASSWORD).toHttpClient().invoke().getStatus());
+    Assert.assertEquals(loads, SslContextCache.getDefault().getKeyManagerLoads());
+    Assert.assertEquals(misses, SslContextCache.getDefault().getMisses());
+  }
+
+}
@@ -0,0 +1,134 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.server.AbstractHttpServerTest;
+import org.missinglink.tools.StreamUtils;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class ConditionalDownloadTest extends AbstractHttpServerTest {
+
+  private File file;
+  private File validators;
+
+  public ConditionalDownloadTest() {
+    super();
+  }
+
+  @Before
+  public void before() throws IOException {
+    startHttpServer();
+    file = File.createTempFile("conditional", ".bin");
+    validators = new File(file.getPath() + ConditionalDownload.VALIDATORS_SUFFIX);
+    Assert.assertTrue(file.delete());
+    file.deleteOnExit();
+    validators.deleteOnExit();
+  }
+
+  @After
+  public void after() {
+    stopHttpServer();
+  }
+
+  private HttpResponse download() throws HttpClientException {
+    return HttpClient.uri(getHttpServerUri() + RANGE_CONTEXT).conditional(true).toHttpClient().invoke(file);
+  }
+
+  private void assertFile(final byte[] expected) throws IOException {
+    final FileInputStream is = new FileInputStream(file);
+    try {
+      Assert.assertArrayEquals(expected, StreamUtils.inputStreamToByteArray(is));
+    } finally {
+      is.close();
+    }
+  }
+
+  @Test
+  public void testNotModified() throws HttpClientException, IOException {
+    Assert.assertEquals(200, download().getStatus());
+    Assert.assertTrue(validators.isFile());
+
+    final HttpResponse response = download();
+    Assert.assertEquals(304, response.getStatus());
+    Assert.assertEquals(1, notModifiedResponses.get());
+    assertFile(RANGE_ENTITY);
+  }
+
+  @Test
+  public void testModified() throws HttpClientException, IOException {
+    Assert.assertEquals(200, download().getStatus());
+    rangeEtag = "\"range-v2\"";
+
+    Assert.assertEquals(200, download().getStatus());
+    Assert.assertEquals(0, notModifiedResponses.get());
+    Assert.assertEquals(304, download().getStatus());
+  }
+
+  @Test
+  public void testIfModifiedSince() throws HttpClientException, IOException {
+    rangeEtag = null;
+    Assert.assertEquals(200, download().getStatus());
+
+    Assert.assertEquals(304, download().getStatus());
+    assertFile(RANGE_ENTITY);
+  }
+
+  @Test
+  public void testMissingFileIsDownloaded() throws HttpClientException, IOException {
+    Assert.assertEquals(200, download().getStatus());
+    Assert.assertTrue(file.delete());
+
+    Assert.assertEquals(200, download().getStatus());
+    Assert.assertEquals(0, notModifiedResponses.get());
+    assertFile(RANGE_ENTITY);
+  }
+
+  @Test
+  public void testNotModifiedKeepsLocalContent() throws HttpClientException, IOException {
+    Assert.assertEquals(200, download().getStatus());
+    final FileOutputStream os = new FileOutputStream(file);
+    os.write(PING_RESPONSE.getBytes());
+    os.close();
+
+    Assert.assertEquals(304, download().getStatus());
+    assertFile(PING_RESPONSE.getBytes());
+  }
+
+  @Test
+  public void testNotModifiedWithSegments() throws HttpClientException, IOException {
+    Assert.assertEquals(200, download().getStatus());
+
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + RANGE_CONTEXT).conditional(true).segments(4).toHttpClient().invoke(file);
+    Assert.assertEquals(304, response.getStatus());
+    Assert.assertEquals(0, rangeRequests.get());
+    assertFile(RANGE_ENTITY);
+  }
+
+}
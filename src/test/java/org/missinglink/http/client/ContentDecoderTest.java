@@ -0,0 +1,119 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.server.AbstractHttpServerTest;
+import org.missinglink.tools.StreamUtils;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class ContentDecoderTest extends AbstractHttpServerTest {
+
+  private NioTransport transport;
+
+  public ContentDecoderTest() {
+    super();
+  }
+
+  @Before
+  public void before() throws IOException {
+    startHttpServer();
+    transport = new NioTransport(1);
+  }
+
+  @After
+  public void after() {
+    transport.close();
+    stopHttpServer();
+  }
+
+  private void assertDecoded(final HttpResponse response, final String encoding) {
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(encoding, response.getDecodedContentEncoding());
+    Assert.assertNull(response.getContentEncoding());
+    Assert.assertNull(response.getHeader("Content-Encoding"));
+    Assert.assertNull(response.getHeader("Content-Length"));
+    Assert.assertArrayEquals(COMPRESSED_ENTITY, response.getEntity());
+  }
+
+  @Test
+  public void testGzip() throws HttpClientException {
+    assertDecoded(HttpClient.uri(getHttpServerUri() + COMPRESSED_CONTEXT).compressed(true).toHttpClient().invoke(), "gzip");
+    assertDecoded(HttpClient.uri(getHttpServerUri() + COMPRESSED_CONTEXT).compressed(true).transport(transport).toHttpClient().invoke(), "gzip");
+  }
+
+  @Test
+  public void testDeflate() throws HttpClientException {
+    for (final String context : new String[] {COMPRESSED_CONTEXT, COMPRESSED_CONTEXT + "?" + RAW_DEFLATE}) {
+      assertDecoded(HttpClient.uri(getHttpServerUri() + context).compressed(true).header("Accept-Encoding", "deflate").toHttpClient().invoke(), "deflate");
+      assertDecoded(HttpClient.uri(getHttpServerUri() + context).compressed(true).header("Accept-Encoding", "deflate").transport(transport).toHttpClient().invoke(), "deflate");
+    }
+  }
+
+  @Test
+  public void testNotCompressedByDefault() throws HttpClientException {
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + COMPRESSED_CONTEXT).toHttpClient().invoke();
+    Assert.assertNull(response.getDecodedContentEncoding());
+    Assert.assertArrayEquals(COMPRESSED_ENTITY, response.getEntity());
+  }
+
+  @Test
+  public void testExplicitEncodingIsKept() throws HttpClientException {
+    // without compressed the caller decodes what it asked for
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + COMPRESSED_CONTEXT).header("Accept-Encoding", "gzip").toHttpClient().invoke();
+    Assert.assertEquals("gzip", response.getContentEncoding());
+    Assert.assertTrue(response.getEntity().length < COMPRESSED_ENTITY.length / 5);
+  }
+
+  @Test
+  public void testHead() throws HttpClientException {
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + COMPRESSED_CONTEXT).head().compressed(true).transport(transport).toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals("gzip", response.getContentEncoding());
+  }
+
+  @Test
+  public void testDecodedToFile() throws HttpClientException, IOException {
+    final File file = File.createTempFile("compressed", ".json");
+    file.deleteOnExit();
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + COMPRESSED_CONTEXT).compressed(true).toHttpClient().invoke(file);
+    Assert.assertEquals(COMPRESSED_ENTITY.length, response.getEntityLength());
+    Assert.assertArrayEquals(COMPRESSED_ENTITY, StreamUtils.inputStreamToByteArray(new FileInputStream(file)));
+  }
+
+  @Test
+  public void testKeepAliveAfterDecoding() throws HttpClientException {
+    final HttpConnectionPool pool = new HttpConnectionPool();
+    for (int i = 0; i < 3; i++) {
+      assertDecoded(HttpClient.uri(getHttpServerUri() + COMPRESSED_CONTEXT).compressed(true).transport(transport).connectionPool(pool).toHttpClient().invoke(), "gzip");
+    }
+    Assert.assertEquals(2, pool.getStats().getReused());
+    pool.closeIdle();
+  }
+
+}
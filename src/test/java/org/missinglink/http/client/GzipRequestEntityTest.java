@@ -0,0 +1,113 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.missinglink.tools.StreamUtils;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class GzipRequestEntityTest {
+
+  public GzipRequestEntityTest() {
+    super();
+  }
+
+  private static byte[] gunzip(final RequestEntity entity) throws IOException {
+    return StreamUtils.inputStreamToByteArray(new GZIPInputStream(entity.openStream()));
+  }
+
+  private static byte[] text(final int lines) {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      sb.append("<line number=\"").append(i).append("\">Hello World</line>\n");
+    }
+    return sb.toString().getBytes();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    final byte[] content = text(10000);
+    final GzipRequestEntity entity = RequestEntity.gzip(RequestEntity.of(content));
+    Assert.assertEquals(-1L, entity.getRawLength());
+    Assert.assertEquals(-1d, entity.getRatio(), 0d);
+
+    Assert.assertArrayEquals(content, gunzip(entity));
+    Assert.assertEquals(content.length, entity.getRawLength());
+    Assert.assertTrue(entity.getCompressedLength() > 0);
+    Assert.assertTrue(entity.getRatio() < 0.1d);
+  }
+
+  @Test
+  public void testCompressedLength() throws IOException {
+    final GzipRequestEntity entity = new GzipRequestEntity(RequestEntity.of(text(100)), Deflater.BEST_SPEED);
+    final byte[] compressed = StreamUtils.inputStreamToByteArray(entity.openStream());
+    Assert.assertEquals(compressed.length, entity.getCompressedLength());
+  }
+
+  @Test
+  public void testIncompressible() throws IOException {
+    final byte[] content = new byte[256 * 1024];
+    new Random(42L).nextBytes(content);
+    final GzipRequestEntity entity = RequestEntity.gzip(RequestEntity.of(content));
+    Assert.assertArrayEquals(content, gunzip(entity));
+    Assert.assertTrue(entity.getRatio() > 1d);
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    final GzipRequestEntity entity = RequestEntity.gzip(RequestEntity.of(new byte[0]));
+    Assert.assertArrayEquals(new byte[0], gunzip(entity));
+    Assert.assertEquals(0L, entity.getRawLength());
+    Assert.assertEquals(-1d, entity.getRatio(), 0d);
+  }
+
+  @Test
+  public void testSingleByteReads() throws IOException {
+    final byte[] content = text(10);
+    final InputStream is = RequestEntity.gzip(RequestEntity.of(content)).openStream();
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+    for (int b; (b = is.read()) != -1;) {
+      os.write(b);
+    }
+    is.close();
+    Assert.assertArrayEquals(content, StreamUtils.inputStreamToByteArray(new GZIPInputStream(new ByteArrayInputStream(os.toByteArray()))));
+  }
+
+  @Test
+  public void testRepeatable() throws IOException {
+    Assert.assertTrue(RequestEntity.gzip(RequestEntity.of(new byte[0])).isRepeatable());
+    Assert.assertFalse(RequestEntity.gzip(RequestEntity.of(new ByteArrayInputStream(new byte[0]), 0L)).isRepeatable());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLevel() {
+    new GzipRequestEntity(RequestEntity.of(new byte[0]), 10);
+  }
+
+}
@@ -0,0 +1,637 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.exception.HttpInvocationException;
+import org.missinglink.http.exception.HttpTimeoutException;
+import org.missinglink.http.server.AbstractHttpServerTest;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class Http2TransportTest extends AbstractHttpServerTest {
+
+  private Http2Server server;
+  private Http2Transport transport;
+  private HttpConnectionPool pool;
+
+  public Http2TransportTest() {
+    super();
+  }
+
+  @Before
+  public void before() throws IOException {
+    server = new Http2Server(new ServerSocket(0, 50, InetAddress.getByName("localhost")), 16384);
+    transport = new Http2Transport();
+    pool = new HttpConnectionPool();
+  }
+
+  @After
+  public void after() throws IOException {
+    transport.close();
+    server.close();
+  }
+
+  private HttpClient.HttpClientBuilder uri(final String path) throws HttpClientException {
+    return HttpClient.uri("http://localhost:" + server.getPort() + path).transport(transport).connectionPool(pool);
+  }
+
+  private static String pattern(final int size) {
+    final StringBuilder sb = new StringBuilder(size);
+    for (int i = 0; i < size; i++) {
+      sb.append((char) ('a' + i % 26));
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testGet() throws HttpClientException {
+    final HttpResponse response = uri("/ping").toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals("HTTP/2 200", response.getHeaderSingleValue(null));
+    Assert.assertEquals("text/plain", response.getContentType());
+    Assert.assertEquals("pong", response.getEntityAsString());
+  }
+
+  @Test
+  public void testPostEntity() throws HttpClientException {
+    // larger than the stream window of the server
+    final String entity = pattern(100000);
+    final HttpResponse response = uri("/echo").post().contentType("text/plain").header("X-Build", "1234").entity(entity).toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals("POST", response.getHeaderSingleValue("x-method"));
+    Assert.assertEquals("1234", response.getHeaderSingleValue("x-req-x-build"));
+    Assert.assertEquals(entity, response.getEntityAsString());
+  }
+
+  @Test
+  public void testStreamedEntity() throws HttpClientException {
+    final String entity = pattern(50000);
+    final RequestEntity requestEntity = RequestEntity.of(new ByteArrayInputStream(entity.getBytes()), -1L);
+    final HttpResponse response = uri("/echo").put().entity(requestEntity).toHttpClient().invoke();
+    Assert.assertEquals("PUT", response.getHeaderSingleValue("x-method"));
+    Assert.assertEquals(entity, response.getEntityAsString());
+  }
+
+  @Test
+  public void testFlowControl() throws HttpClientException {
+    transport = Http2Transport.builder().initialWindowSize(1024).toHttp2Transport();
+    final HttpResponse response = uri("/big?size=300000").toHttpClient().invoke();
+    Assert.assertEquals(pattern(300000), response.getEntityAsString());
+  }
+
+  @Test
+  public void testMultiplexing() throws Exception {
+    final int requests = 8;
+    final CountDownLatch done = new CountDownLatch(requests);
+    final AtomicInteger ok = new AtomicInteger();
+    for (int i = 0; i < requests; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            if ("slow".equals(uri("/slow?ms=200").toHttpClient().invoke().getEntityAsString())) {
+              ok.incrementAndGet();
+            }
+          } catch (final HttpClientException e) {
+            // counted as failed
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    Assert.assertTrue(done.await(10L, TimeUnit.SECONDS));
+    Assert.assertEquals(requests, ok.get());
+    Assert.assertEquals(1, server.connections.get());
+    Assert.assertTrue("max in flight " + server.maxInFlight.get(), server.maxInFlight.get() > 1);
+    Assert.assertTrue(server.maxInFlight.get() <= pool.getMaxPerRoute());
+  }
+
+  @Test
+  public void testPipelined() throws HttpClientException {
+    final List<HttpClient> httpClients = new ArrayList<HttpClient>();
+    for (int i = 0; i < 10; i++) {
+      httpClients.add(uri("/slow?ms=" + (10 - i) * 10).toHttpClient());
+    }
+    httpClients.add(uri("/redirect").toHttpClient());
+    final List<HttpResponse> responses = HttpClient.invokePipelined(httpClients);
+    Assert.assertEquals(11, responses.size());
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals("slow", responses.get(i).getEntityAsString());
+    }
+    Assert.assertEquals("pong", responses.get(10).getEntityAsString());
+    Assert.assertEquals(1, server.connections.get());
+    Assert.assertTrue(server.maxInFlight.get() > 1);
+  }
+
+  @Test
+  public void testHeaderCompression() throws HttpClientException {
+    for (int i = 0; i < 3; i++) {
+      uri("/ping").header("X-Build", "1234").header("X-Requested-By", "ant-http").toHttpClient().invoke();
+    }
+    Assert.assertEquals(3, server.headerBlockSizes.size());
+    // repeated headers are sent as indexes into the dynamic table
+    Assert.assertTrue(server.headerBlockSizes.toString(), server.headerBlockSizes.get(1).intValue() < server.headerBlockSizes.get(0).intValue() / 2);
+    Assert.assertEquals(server.headerBlockSizes.get(1), server.headerBlockSizes.get(2));
+  }
+
+  @Test
+  public void testRedirect() throws HttpClientException {
+    final HttpResponse response = uri("/redirect").toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals("pong", response.getEntityAsString());
+
+    final HttpResponse redirect = uri("/redirect").followRedirects(false).toHttpClient().invoke();
+    Assert.assertEquals(302, redirect.getStatus());
+    Assert.assertEquals("/ping", redirect.getHeaderSingleValue("location"));
+  }
+
+  @Test
+  public void testReadTimeout() throws HttpClientException {
+    try {
+      uri("/slow?ms=2000").readTimeout(100).toHttpClient().invoke();
+      Assert.fail("Expected a HttpTimeoutException");
+    } catch (final HttpTimeoutException e) {
+      // expected
+    }
+    // the cancelled stream does not affect the others of the connection
+    Assert.assertEquals("pong", uri("/ping").toHttpClient().invoke().getEntityAsString());
+    Assert.assertEquals(1, server.connections.get());
+  }
+
+  @Test
+  public void testServerClosedConnection() throws Exception {
+    Assert.assertEquals("pong", uri("/ping").toHttpClient().invoke().getEntityAsString());
+    server.closeConnections();
+    Thread.sleep(100L);
+    Assert.assertEquals("pong", uri("/ping").toHttpClient().invoke().getEntityAsString());
+    Assert.assertEquals(2, server.connections.get());
+  }
+
+  @Test
+  public void testMalformedFrame() throws HttpClientException {
+    try {
+      uri("/malformed").readTimeout(5000).toHttpClient().invoke();
+      Assert.fail("Expected a HttpInvocationException");
+    } catch (final HttpTimeoutException e) {
+      Assert.fail("The connection should fail, not time out");
+    } catch (final HttpInvocationException e) {
+      // expected
+    }
+    // the failed connection is replaced
+    Assert.assertEquals("pong", uri("/ping").toHttpClient().invoke().getEntityAsString());
+    Assert.assertEquals(2, server.connections.get());
+  }
+
+  @Test
+  public void testPriorKnowledgeDisabled() throws Exception {
+    startHttpServer();
+    try {
+      transport = Http2Transport.builder().priorKnowledge(false).toHttp2Transport();
+      final HttpResponse response = HttpClient.uri(getHttpServerUri() + PING_CONTEXT).transport(transport).toHttpClient().invoke();
+      Assert.assertEquals(PING_RESPONSE, response.getEntityAsString());
+      Assert.assertEquals(0, server.connections.get());
+    } finally {
+      stopHttpServer();
+    }
+  }
+
+  @Test
+  public void testHttpsFallback() throws Exception {
+    // the JDK server does not negotiate h2
+    startHttpsServer();
+    try {
+      final HttpResponse response = HttpClient.uri(getHttpsServerUri() + PING_CONTEXT).keyStore(getKeyStore(), KEYSTORE_PASSWORD).transport(transport).toHttpClient().invoke();
+      Assert.assertEquals(200, response.getStatus());
+      Assert.assertEquals(PING_RESPONSE, response.getEntityAsString());
+    } finally {
+      stopHttpsServer();
+    }
+  }
+
+  @Test
+  public void testHttps() throws Exception {
+    Assume.assumeTrue(Http2Transport.isAlpnAvailable());
+    server.close();
+
+    final KeyStore ks = KeyStore.getInstance("JKS");
+    ks.load(getKeyStore(), KEYSTORE_PASSWORD.toCharArray());
+    final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    kmf.init(ks, KEYSTORE_PASSWORD.toCharArray());
+    final SSLContext ssl = SSLContext.getInstance("TLS");
+    ssl.init(kmf.getKeyManagers(), null, null);
+    final SSLServerSocket serverSocket = (SSLServerSocket) ssl.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getByName("localhost"));
+    final SSLParameters parameters = serverSocket.getSSLParameters();
+    final Method setApplicationProtocols = SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+    setApplicationProtocols.invoke(parameters, new Object[] {new String[] {"h2"}});
+    serverSocket.setSSLParameters(parameters);
+    server = new Http2Server(serverSocket, 65535);
+
+    for (int i = 0; i < 2; i++) {
+      final HttpResponse response = HttpClient.uri("https://localhost:" + server.getPort() + "/ping").keyStore(getKeyStore(), KEYSTORE_PASSWORD).transport(transport).connectionPool(pool).toHttpClient().invoke();
+      Assert.assertEquals("HTTP/2 200", response.getHeaderSingleValue(null));
+      Assert.assertEquals("pong", response.getEntityAsString());
+      // the handshake is reported with the first response on the connection
+      Assert.assertEquals(0 == i, response.getTlsSession().isHandshake());
+      Assert.assertNotNull(response.getTlsSession().getProtocol());
+    }
+    Assert.assertEquals(1, server.connections.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMaxFrameSize() {
+    Http2Transport.builder().maxFrameSize(1024);
+  }
+
+  /**
+   * Just enough of a HTTP/2 server for the tests, handling each stream on a
+   * thread of its own and honouring the flow control windows of the client.
+   */
+  private static final class Http2Server implements Runnable {
+
+    private final ServerSocket serverSocket;
+    private final int initialWindowSize;
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final List<Integer> headerBlockSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+    private Http2Server(final ServerSocket serverSocket, final int initialWindowSize) {
+      this.serverSocket = serverSocket;
+      this.initialWindowSize = initialWindowSize;
+      final Thread acceptor = new Thread(this, "h2-acceptor");
+      acceptor.setDaemon(true);
+      acceptor.start();
+    }
+
+    private int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket socket = serverSocket.accept();
+          connections.incrementAndGet();
+          sockets.add(socket);
+          final Thread reader = new Thread(new ServerConnection(this, socket), "h2-server");
+          reader.setDaemon(true);
+          reader.start();
+        }
+      } catch (final IOException e) {
+        // closed
+      }
+    }
+
+    private void closeConnections() throws IOException {
+      synchronized (sockets) {
+        for (final Socket socket : sockets) {
+          socket.close();
+        }
+        sockets.clear();
+      }
+    }
+
+    private void close() throws IOException {
+      serverSocket.close();
+      closeConnections();
+    }
+
+  }
+
+  private static final class ServerStream {
+    private final int id;
+    private List<String[]> headers;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private int window;
+    private boolean reset;
+
+    private ServerStream(final int id, final int window) {
+      this.id = id;
+      this.window = window;
+    }
+
+    private String header(final String name) {
+      for (final String[] header : headers) {
+        if (header[0].equals(name)) {
+          return header[1];
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final class ServerConnection implements Runnable {
+
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+
+    private final Http2Server server;
+    private final Socket socket;
+    private final OutputStream out;
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    private final Map<Integer, ServerStream> streams = new HashMap<Integer, ServerStream>();
+
+    // send windows granted by the client, guarded by this
+    private int peerInitialWindowSize = 65535;
+    private int connectionWindow = 65535;
+    private boolean closed;
+
+    private ServerConnection(final Http2Server server, final Socket socket) throws IOException {
+      this.server = server;
+      this.socket = socket;
+      socket.setTcpNoDelay(true);
+      out = new BufferedOutputStream(socket.getOutputStream(), 32 * 1024);
+    }
+
+    @Override
+    public void run() {
+      try {
+        final DataInputStream in = new DataInputStream(socket.getInputStream());
+        in.readFully(new byte[24]);
+        final ByteArrayOutputStream settings = new ByteArrayOutputStream();
+        setting(settings, 0x3, 100);
+        setting(settings, 0x4, server.initialWindowSize);
+        writeFrame(SETTINGS, 0, 0, settings.toByteArray(), 0, settings.size());
+        while (true) {
+          final int length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+          final int type = in.readUnsignedByte();
+          final int flags = in.readUnsignedByte();
+          final int id = in.readInt() & 0x7fffffff;
+          final byte[] payload = new byte[length];
+          in.readFully(payload);
+          if (HEADERS == type) {
+            final ByteArrayOutputStream block = new ByteArrayOutputStream();
+            block.write(payload);
+            boolean endHeaders = 0 != (flags & END_HEADERS);
+            while (!endHeaders) {
+              final int n = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+              Assert.assertEquals(CONTINUATION, in.readUnsignedByte());
+              endHeaders = 0 != (in.readUnsignedByte() & END_HEADERS);
+              in.readInt();
+              final byte[] fragment = new byte[n];
+              in.readFully(fragment);
+              block.write(fragment);
+            }
+            server.headerBlockSizes.add(Integer.valueOf(block.size()));
+            final ServerStream stream;
+            synchronized (this) {
+              stream = new ServerStream(id, peerInitialWindowSize);
+              streams.put(Integer.valueOf(id), stream);
+            }
+            stream.headers = decoder.decode(block.toByteArray());
+            if (0 != (flags & END_STREAM)) {
+              dispatch(stream);
+            }
+          } else if (DATA == type) {
+            final ServerStream stream;
+            synchronized (this) {
+              stream = streams.get(Integer.valueOf(id));
+            }
+            stream.body.write(payload);
+            if (length > 0) {
+              windowUpdate(0, length);
+              if (0 == (flags & END_STREAM)) {
+                windowUpdate(id, length);
+              }
+            }
+            if (0 != (flags & END_STREAM)) {
+              dispatch(stream);
+            }
+          } else if (SETTINGS == type && 0 == (flags & ACK)) {
+            synchronized (this) {
+              for (int i = 0; i < length; i += 6) {
+                if (0x4 == ((payload[i] & 0xff) << 8 | payload[i + 1] & 0xff)) {
+                  final int value = readInt(payload, i + 2);
+                  for (final ServerStream stream : streams.values()) {
+                    stream.window += value - peerInitialWindowSize;
+                  }
+                  peerInitialWindowSize = value;
+                }
+              }
+              notifyAll();
+            }
+            writeFrame(SETTINGS, ACK, 0, new byte[0], 0, 0);
+          } else if (WINDOW_UPDATE == type) {
+            synchronized (this) {
+              if (0 == id) {
+                connectionWindow += readInt(payload, 0);
+              } else if (streams.containsKey(Integer.valueOf(id))) {
+                streams.get(Integer.valueOf(id)).window += readInt(payload, 0);
+              }
+              notifyAll();
+            }
+          } else if (RST_STREAM == type) {
+            synchronized (this) {
+              final ServerStream stream = streams.remove(Integer.valueOf(id));
+              if (null != stream) {
+                stream.reset = true;
+              }
+              notifyAll();
+            }
+          } else if (PING == type && 0 == (flags & ACK)) {
+            writeFrame(PING, ACK, 0, payload, 0, length);
+          } else if (GOAWAY == type) {
+            break;
+          }
+        }
+      } catch (final IOException e) {
+        // closed
+      } finally {
+        synchronized (this) {
+          closed = true;
+          notifyAll();
+        }
+        try {
+          socket.close();
+        } catch (final IOException e) {
+          // ignore
+        }
+      }
+    }
+
+    private void dispatch(final ServerStream stream) {
+      final Thread handler = new Thread("h2-stream-" + stream.id) {
+        @Override
+        public void run() {
+          final int inFlight = server.inFlight.incrementAndGet();
+          synchronized (server.maxInFlight) {
+            server.maxInFlight.set(Math.max(inFlight, server.maxInFlight.get()));
+          }
+          try {
+            handle(stream);
+          } catch (final Exception e) {
+            // the client sees the stream fail
+          } finally {
+            server.inFlight.decrementAndGet();
+          }
+        }
+      };
+      handler.setDaemon(true);
+      handler.start();
+    }
+
+    private void handle(final ServerStream stream) throws IOException, InterruptedException {
+      final String path = stream.header(":path");
+      final String query = path.indexOf('?') < 0 ? "" : path.substring(path.indexOf('?') + 1);
+      final List<String[]> headers = new ArrayList<String[]>();
+      byte[] body = new byte[0];
+      headers.add(new String[] {":status", "200"});
+      headers.add(new String[] {"content-type", "text/plain"});
+      if (path.startsWith("/ping")) {
+        body = "pong".getBytes();
+      } else if (path.startsWith("/echo")) {
+        headers.add(new String[] {"x-method", stream.header(":method")});
+        for (final String[] header : stream.headers) {
+          if (!header[0].startsWith(":")) {
+            headers.add(new String[] {"x-req-" + header[0], header[1]});
+          }
+        }
+        body = stream.body.toByteArray();
+      } else if (path.startsWith("/slow")) {
+        Thread.sleep(Long.parseLong(query.substring("ms=".length())));
+        body = "slow".getBytes();
+      } else if (path.startsWith("/big")) {
+        body = pattern(Integer.parseInt(query.substring("size=".length()))).getBytes();
+      } else if (path.startsWith("/malformed")) {
+        // a RST_STREAM frame shorter than its error code
+        writeFrame(RST_STREAM, 0, stream.id, new byte[2], 0, 2);
+        return;
+      } else if (path.startsWith("/redirect")) {
+        headers.set(0, new String[] {":status", "302"});
+        headers.add(new String[] {"location", "/ping"});
+      } else {
+        headers.set(0, new String[] {":status", "404"});
+      }
+      headers.add(new String[] {"content-length", Integer.toString(body.length)});
+
+      synchronized (out) {
+        final byte[] block = encoder.encode(headers);
+        writeFrame(HEADERS, END_HEADERS | (0 == body.length ? END_STREAM : 0), stream.id, block, 0, block.length);
+      }
+      for (int off = 0; off < body.length;) {
+        int n;
+        synchronized (this) {
+          while ((n = Math.min(Math.min(16384, body.length - off), Math.min(connectionWindow, stream.window))) <= 0) {
+            if (stream.reset || closed) {
+              return;
+            }
+            wait();
+          }
+          if (stream.reset) {
+            return;
+          }
+          connectionWindow -= n;
+          stream.window -= n;
+        }
+        writeFrame(DATA, off + n == body.length ? END_STREAM : 0, stream.id, body, off, n);
+        off += n;
+      }
+      synchronized (this) {
+        streams.remove(Integer.valueOf(stream.id));
+      }
+    }
+
+    private void windowUpdate(final int id, final int increment) throws IOException {
+      final byte[] payload = new byte[4];
+      writeInt(payload, 0, increment);
+      writeFrame(WINDOW_UPDATE, 0, id, payload, 0, 4);
+    }
+
+    private void writeFrame(final int type, final int flags, final int id, final byte[] payload, final int off, final int length) throws IOException {
+      final byte[] header = new byte[9];
+      header[0] = (byte) (length >>> 16);
+      header[1] = (byte) (length >>> 8);
+      header[2] = (byte) length;
+      header[3] = (byte) type;
+      header[4] = (byte) flags;
+      writeInt(header, 5, id);
+      synchronized (out) {
+        out.write(header);
+        out.write(payload, off, length);
+        out.flush();
+      }
+    }
+
+    private static void setting(final ByteArrayOutputStream out, final int id, final int value) {
+      final byte[] setting = new byte[6];
+      setting[1] = (byte) id;
+      writeInt(setting, 2, value);
+      out.write(setting, 0, 6);
+    }
+
+    private static void writeInt(final byte[] bytes, final int off, final int value) {
+      bytes[off] = (byte) (value >>> 24);
+      bytes[off + 1] = (byte) (value >>> 16);
+      bytes[off + 2] = (byte) (value >>> 8);
+      bytes[off + 3] = (byte) value;
+    }
+
+    private static int readInt(final byte[] bytes, final int off) {
+      return (bytes[off] & 0xff) << 24 | (bytes[off + 1] & 0xff) << 16 | (bytes[off + 2] & 0xff) << 8 | bytes[off + 3] & 0xff;
+    }
+
+  }
+
+}
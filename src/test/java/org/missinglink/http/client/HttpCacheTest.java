@@ -0,0 +1,245 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.server.AbstractHttpServerTest;
+import org.missinglink.tools.StreamUtils;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class HttpCacheTest extends AbstractHttpServerTest {
+
+  private File directory;
+  private HttpCache cache;
+
+  public HttpCacheTest() {
+    super();
+  }
+
+  @Before
+  public void before() throws IOException {
+    startHttpServer();
+    directory = File.createTempFile("http", ".cache");
+    Assert.assertTrue(directory.delete());
+    cache = new HttpCache(directory, HttpCache.DEFAULT_MAX_SIZE);
+  }
+
+  @After
+  public void after() throws IOException {
+    stopHttpServer();
+    cache.clear();
+    for (final File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  private HttpResponse get(final String context) throws HttpClientException {
+    return HttpClient.uri(getHttpServerUri() + context).cache(cache).toHttpClient().invoke();
+  }
+
+  @Test
+  public void testFreshResponseIsServedFromCache() throws HttpClientException {
+    final HttpResponse first = get(CACHE_CONTEXT);
+    Assert.assertFalse(first.isCached());
+
+    final HttpResponse second = get(CACHE_CONTEXT);
+    Assert.assertTrue(second.isCached());
+    Assert.assertEquals(200, second.getStatus());
+    Assert.assertEquals(first.getEntityAsString(), second.getEntityAsString());
+    Assert.assertEquals("text/plain", second.getContentType());
+    Assert.assertNotNull(second.getHeaderSingleValue("Age"));
+    Assert.assertEquals(1, cacheRequests.get());
+    Assert.assertEquals(1, cache.getHits());
+    Assert.assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testUnsafeRequestInvalidates() throws HttpClientException {
+    get(CACHE_CONTEXT);
+    Assert.assertTrue(get(CACHE_CONTEXT).isCached());
+
+    final HttpResponse put = HttpClient.uri(getHttpServerUri() + CACHE_CONTEXT).put().entity("updated").cache(cache).toHttpClient().invoke();
+    Assert.assertEquals(200, put.getStatus());
+    Assert.assertFalse(put.isCached());
+    // the stored entry and its body are gone
+    Assert.assertEquals(0L, cache.getSize());
+
+    Assert.assertFalse(get(CACHE_CONTEXT).isCached());
+    Assert.assertEquals(3, cacheRequests.get());
+    Assert.assertEquals(0, notModifiedResponses.get());
+  }
+
+  @Test
+  public void testSafeRequestDoesNotInvalidate() throws HttpClientException {
+    get(CACHE_CONTEXT);
+    HttpClient.uri(getHttpServerUri() + CACHE_CONTEXT).options().cache(cache).toHttpClient().invoke();
+    Assert.assertTrue(get(CACHE_CONTEXT).isCached());
+  }
+
+  @Test
+  public void testSharedInstancePerDirectory() throws IOException {
+    final HttpCache shared = HttpCache.getShared(directory, HttpCache.DEFAULT_MAX_SIZE);
+    Assert.assertSame(shared, HttpCache.getShared(new File(directory, "../" + directory.getName()), HttpCache.DEFAULT_MAX_SIZE));
+    Assert.assertNotSame(shared, HttpCache.getShared(directory, 1024L));
+    Assert.assertEquals(directory.getCanonicalFile(), shared.getDirectory());
+  }
+
+  @Test
+  public void testNoStore() throws HttpClientException {
+    cacheControl = "no-store";
+    get(CACHE_CONTEXT);
+    Assert.assertFalse(get(CACHE_CONTEXT).isCached());
+    Assert.assertEquals(2, cacheRequests.get());
+    Assert.assertEquals(0L, cache.getSize());
+  }
+
+  @Test
+  public void testPrivateIsNotStored() throws HttpClientException {
+    cacheControl = "private, max-age=60";
+    get(CACHE_CONTEXT);
+    Assert.assertFalse(get(CACHE_CONTEXT).isCached());
+    Assert.assertEquals(2, cacheRequests.get());
+    Assert.assertEquals(0L, cache.getSize());
+  }
+
+  @Test
+  public void testSharedMaxAgeOverridesMaxAge() throws HttpClientException {
+    cacheControl = "max-age=60, s-maxage=0";
+    get(CACHE_CONTEXT);
+    Assert.assertTrue(get(CACHE_CONTEXT).isCached());
+    Assert.assertEquals(2, cacheRequests.get());
+    Assert.assertEquals(1, notModifiedResponses.get());
+  }
+
+  @Test
+  public void testTruncatedEntityIsNotStored() throws HttpClientException {
+    rangeTruncate = 1024;
+    Assert.assertEquals(1024, get(RANGE_CONTEXT).getEntity().length);
+    Assert.assertEquals(0L, cache.getSize());
+
+    rangeTruncate = -1;
+    final HttpResponse response = get(RANGE_CONTEXT);
+    Assert.assertFalse(response.isCached());
+    Assert.assertArrayEquals(RANGE_ENTITY, response.getEntity());
+  }
+
+  @Test
+  public void testStaleResponseIsRevalidated() throws HttpClientException {
+    cacheControl = "no-cache";
+    final HttpResponse first = get(CACHE_CONTEXT);
+
+    final HttpResponse second = get(CACHE_CONTEXT);
+    Assert.assertTrue(second.isCached());
+    Assert.assertEquals(200, second.getStatus());
+    Assert.assertEquals(first.getEntityAsString(), second.getEntityAsString());
+    Assert.assertEquals(2, cacheRequests.get());
+    Assert.assertEquals(1, notModifiedResponses.get());
+  }
+
+  @Test
+  public void testRequestNoCache() throws HttpClientException {
+    get(CACHE_CONTEXT);
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + CACHE_CONTEXT).header("Cache-Control", "no-cache").cache(cache).toHttpClient().invoke();
+    Assert.assertTrue(response.isCached());
+    Assert.assertEquals(1, notModifiedResponses.get());
+  }
+
+  @Test
+  public void testVary() throws HttpClientException {
+    final HttpResponse a = HttpClient.uri(getHttpServerUri() + CACHE_CONTEXT).header(VARIANT_HEADER, "a").cache(cache).toHttpClient().invoke();
+    final HttpResponse b = HttpClient.uri(getHttpServerUri() + CACHE_CONTEXT).header(VARIANT_HEADER, "b").cache(cache).toHttpClient().invoke();
+    Assert.assertEquals("variant a", a.getEntityAsString());
+    Assert.assertEquals("variant b", b.getEntityAsString());
+    Assert.assertFalse(b.isCached());
+    Assert.assertEquals(2, cacheRequests.get());
+  }
+
+  @Test
+  public void testCredentialsAreNotStored() throws HttpClientException {
+    HttpClient.uri(getHttpServerUri() + CACHE_CONTEXT).credentials(USERNAME, PASSWORD).cache(cache).toHttpClient().invoke();
+    HttpClient.uri(getHttpServerUri() + CACHE_CONTEXT).credentials(USERNAME, PASSWORD).cache(cache).toHttpClient().invoke();
+    Assert.assertEquals(2, cacheRequests.get());
+  }
+
+  @Test
+  public void testIdenticalEntitiesAreStoredOnce() throws HttpClientException {
+    get(RANGE_CONTEXT);
+    get(RANGE_CONTEXT + "?copy");
+    Assert.assertTrue(cache.getSize() < 2 * RANGE_ENTITY.length);
+    Assert.assertTrue(get(RANGE_CONTEXT + "?copy").isCached());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() throws HttpClientException, IOException, InterruptedException {
+    cache = new HttpCache(directory, 150000L);
+    get(CACHE_CONTEXT + "?" + CACHE_SIZE + "=100000");
+    Thread.sleep(50L);
+    get(CACHE_CONTEXT + "?" + CACHE_SIZE + "=100001");
+    Assert.assertTrue(cache.getSize() <= 150000L);
+
+    Assert.assertTrue(get(CACHE_CONTEXT + "?" + CACHE_SIZE + "=100001").isCached());
+    Assert.assertFalse(get(CACHE_CONTEXT + "?" + CACHE_SIZE + "=100000").isCached());
+  }
+
+  @Test
+  public void testDirectorySharedBetweenInstances() throws HttpClientException, IOException {
+    get(CACHE_CONTEXT);
+    final HttpCache other = new HttpCache(directory, HttpCache.DEFAULT_MAX_SIZE);
+    Assert.assertTrue(HttpClient.uri(getHttpServerUri() + CACHE_CONTEXT).cache(other).toHttpClient().invoke().isCached());
+    Assert.assertEquals(1, cacheRequests.get());
+  }
+
+  @Test
+  public void testFileDownloadFromCache() throws HttpClientException, IOException {
+    final File file = File.createTempFile("cached", ".bin");
+    file.deleteOnExit();
+    final HttpClient httpClient = HttpClient.uri(getHttpServerUri() + RANGE_CONTEXT).cache(cache).toHttpClient();
+    httpClient.invoke(file);
+    Assert.assertTrue(file.delete());
+
+    final HttpResponse response = httpClient.invoke(file);
+    Assert.assertTrue(response.isCached());
+    Assert.assertEquals(RANGE_ENTITY.length, response.getEntityLength());
+    final FileInputStream is = new FileInputStream(file);
+    try {
+      Assert.assertArrayEquals(RANGE_ENTITY, StreamUtils.inputStreamToByteArray(is));
+    } finally {
+      is.close();
+    }
+  }
+
+  @Test
+  public void testHeadIsCachedSeparately() throws HttpClientException {
+    get(CACHE_CONTEXT);
+    final HttpResponse head = HttpClient.uri(getHttpServerUri() + CACHE_CONTEXT).head().cache(cache).toHttpClient().invoke();
+    Assert.assertFalse(head.isCached());
+    Assert.assertTrue(HttpClient.uri(getHttpServerUri() + CACHE_CONTEXT).head().cache(cache).toHttpClient().invoke().isCached());
+  }
+
+}
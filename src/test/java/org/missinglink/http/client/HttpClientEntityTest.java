@@ -17,8 +17,11 @@
 package org.missinglink.http.client;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -93,4 +96,54 @@ public class HttpClientEntityTest {
     Assert.assertEquals(str, httpClient.getEntityAsString());
   }
 
+  @Test
+  public void testFileEntity() throws InvalidUriException, IOException {
+    final String str = "Hello World";
+    final File file = File.createTempFile("entity", ".txt");
+    file.deleteOnExit();
+    final FileOutputStream os = new FileOutputStream(file);
+    os.write(str.getBytes());
+    os.close();
+
+    final HttpClient httpClient = HttpClient.uri("http://host/context").entity(file).toHttpClient();
+    Assert.assertNull(httpClient.getEntity());
+    Assert.assertTrue(httpClient.hasEntity());
+    Assert.assertEquals(str.getBytes().length, httpClient.getRequestEntity().getContentLength());
+    Assert.assertTrue(httpClient.getRequestEntity().isRepeatable());
+    Assert.assertEquals(str, httpClient.getEntityAsString());
+    Assert.assertEquals(str, httpClient.getEntityAsString());
+  }
+
+  @Test
+  public void testCompressedEntity() throws InvalidUriException, IOException {
+    final String str = "Hello World";
+    final HttpClient httpClient = HttpClient.uri("http://host/context").entity(RequestEntity.of(str.getBytes()), true).toHttpClient();
+    Assert.assertTrue(httpClient.getRequestEntity() instanceof GzipRequestEntity);
+    Assert.assertEquals(-1L, httpClient.getRequestEntity().getContentLength());
+    Assert.assertTrue(httpClient.getRequestEntity().isRepeatable());
+    Assert.assertEquals("gzip", httpClient.getHeaders().get(HttpClient.CONTENT_ENCODING));
+    // the entity is displayed as given rather than compressed
+    Assert.assertEquals(str, httpClient.getEntityAsString());
+  }
+
+  @Test
+  public void testNonMarkableStreamEntity() throws InvalidUriException, IOException {
+    final InputStream is = new SequenceInputStream(new ByteArrayInputStream("Hello ".getBytes()), new ByteArrayInputStream("World".getBytes()));
+    final HttpClient httpClient = HttpClient.uri("http://host/context").entity(is, -1L).toHttpClient();
+    Assert.assertTrue(httpClient.hasEntity());
+    Assert.assertEquals(-1L, httpClient.getRequestEntity().getContentLength());
+    Assert.assertFalse(httpClient.getRequestEntity().isRepeatable());
+    // a stream which can only be read once is not read for display
+    Assert.assertNull(httpClient.getEntityAsString());
+    Assert.assertEquals(SequenceInputStream.class.getName() + " stream, unknown length", httpClient.getRequestEntity().toString());
+    Assert.assertEquals(ByteArrayInputStream.class.getName() + " stream, 11 bytes", RequestEntity.of(new ByteArrayInputStream(new byte[11]), 11L).toString());
+  }
+
+  @Test
+  public void testStreamEntityReplacesBufferedEntity() throws InvalidUriException {
+    final HttpClient httpClient = HttpClient.uri("http://host/context").entity("Hello World").entity(new ByteArrayInputStream(new byte[0]), 0L).toHttpClient();
+    Assert.assertNull(httpClient.getEntity());
+    Assert.assertNotNull(httpClient.getRequestEntity());
+  }
+
 }
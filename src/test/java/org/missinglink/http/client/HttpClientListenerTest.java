@@ -0,0 +1,159 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.exception.HttpInvocationException;
+import org.missinglink.http.server.AbstractHttpServerTest;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class HttpClientListenerTest extends AbstractHttpServerTest {
+
+  private HttpConnectionPool pool;
+  private RecordingListener listener;
+
+  public HttpClientListenerTest() {
+    super();
+  }
+
+  private static class RecordingListener implements HttpClientListener {
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public void requestStarted(final HttpClient httpClient) {
+      events.add("started");
+    }
+
+    @Override
+    public void tlsHandshakeCompleted(final HttpClient httpClient) {
+      events.add("tls");
+    }
+
+    @Override
+    public void connectionAcquired(final HttpClient httpClient, final boolean reused) {
+      events.add(reused ? "reused" : "connected");
+    }
+
+    @Override
+    public void firstByteReceived(final HttpClient httpClient) {
+      events.add("firstByte");
+    }
+
+    @Override
+    public void requestCompleted(final HttpClient httpClient, final HttpResponse response) {
+      events.add("completed " + response.getStatus());
+    }
+
+    @Override
+    public void requestFailed(final HttpClient httpClient, final HttpClientException e) {
+      events.add("failed");
+    }
+  }
+
+  @Before
+  public void before() throws IOException {
+    startHttpServer();
+    pool = new HttpConnectionPool();
+    listener = new RecordingListener();
+  }
+
+  @After
+  public void after() {
+    pool.closeIdle();
+    stopHttpServer();
+  }
+
+  @Test
+  public void testEvents() throws HttpClientException {
+    final HttpClient httpClient = HttpClient.uri(getHttpServerUri() + PING_CONTEXT).connectionPool(pool).listener(listener).toHttpClient();
+    httpClient.invoke();
+    httpClient.invoke();
+    Assert.assertEquals(Arrays.asList("started", "connected", "firstByte", "completed 200", "started", "reused", "firstByte", "completed 200"), listener.events);
+  }
+
+  @Test
+  public void testNioEvents() throws HttpClientException, IOException {
+    final NioTransport transport = new NioTransport(1);
+    try {
+      final HttpClient httpClient = HttpClient.uri(getHttpServerUri() + PING_CONTEXT).connectionPool(pool).transport(transport).listener(listener).toHttpClient();
+      httpClient.invoke();
+      httpClient.invoke();
+      Assert.assertEquals(Arrays.asList("started", "connected", "firstByte", "completed 200", "started", "reused", "firstByte", "completed 200"), listener.events);
+    } finally {
+      transport.close();
+    }
+  }
+
+  @Test
+  public void testPipelinedEvents() throws HttpClientException, IOException {
+    final NioTransport transport = new NioTransport(1);
+    try {
+      final List<HttpClient> httpClients = new ArrayList<HttpClient>();
+      for (int i = 0; i < 2; i++) {
+        httpClients.add(HttpClient.uri(getHttpServerUri() + PING_CONTEXT).connectionPool(pool).transport(transport).listener(listener).toHttpClient());
+      }
+      HttpClient.invokePipelined(httpClients);
+      Assert.assertEquals(Arrays.asList("started", "started", "connected", "reused", "firstByte", "firstByte", "completed 200", "completed 200"), listener.events);
+    } finally {
+      transport.close();
+    }
+  }
+
+  @Test
+  public void testRetriedFailedEvent() throws HttpClientException {
+    final RetryPolicy retryPolicy = RetryPolicy.maxAttempts(3).backoff(10L, 100L).toRetryPolicy();
+    final HttpClient httpClient = HttpClient.uri("http://localhost:1" + PING_CONTEXT).retryPolicy(retryPolicy).listener(listener).toHttpClient();
+    try {
+      httpClient.invoke();
+      Assert.fail("Connecting to a closed port should fail");
+    } catch (final HttpInvocationException e) {
+      // the attempts make up one request
+      Assert.assertEquals(Arrays.asList("started", "failed"), listener.events);
+    }
+  }
+
+  @Test
+  public void testFailedEvent() throws HttpClientException {
+    final HttpClient httpClient = HttpClient.uri("http://localhost:1" + PING_CONTEXT).listener(listener).toHttpClient();
+    try {
+      httpClient.invoke();
+      Assert.fail("Connecting to a closed port should fail");
+    } catch (final HttpInvocationException e) {
+      Assert.assertEquals(Arrays.asList("started", "failed"), listener.events);
+    }
+  }
+
+  @Test
+  public void testListenersAreCopied() throws HttpClientException {
+    final HttpClient httpClient = HttpClient.uri(getHttpServerUri() + PING_CONTEXT).listener(listener).toHttpClient();
+    Assert.assertEquals(Collections.singletonList(listener), httpClient.copyWithoutEntity().getListeners());
+  }
+
+}
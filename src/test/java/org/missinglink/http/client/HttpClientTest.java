@@ -16,7 +16,19 @@
 
 package org.missinglink.http.client;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -24,6 +36,10 @@ import org.junit.Before;
 import org.junit.Test;
 import org.missinglink.http.server.AbstractHttpServerTest;
 import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.exception.HttpInvocationException;
+import org.missinglink.http.exception.HttpTimeoutException;
+import org.missinglink.tools.SizeLimitExceededException;
+import org.missinglink.tools.StreamUtils;
 
 /**
  * @author alex.sherwin
@@ -176,6 +192,17 @@ public class HttpClientTest extends AbstractHttpServerTest {
     Assert.assertEquals(200, response.getStatus());
   }
 
+  @Test
+  public void testPostCompressedEntity() throws HttpClientException {
+    final HttpClient httpClient = HttpClient.uri(getHttpServerUri() + ECHO_CONTEXT).post().entity(RequestEntity.of(COMPRESSED_ENTITY), true).toHttpClient();
+    final HttpResponse response = httpClient.invoke();
+    Assert.assertArrayEquals(COMPRESSED_ENTITY, response.getEntity());
+    Assert.assertEquals(200, response.getStatus());
+    final GzipRequestEntity entity = (GzipRequestEntity) httpClient.getRequestEntity();
+    Assert.assertEquals(COMPRESSED_ENTITY.length, entity.getRawLength());
+    Assert.assertTrue(entity.getRatio() < 0.5d);
+  }
+
   @Test
   public void testPutWithResponseEntity() throws HttpClientException {
     final HttpClient httpClient = HttpClient.uri(getHttpServerUri() + ECHO_CONTEXT).put().entity("Hello World").toHttpClient();
@@ -202,4 +229,185 @@ public class HttpClientTest extends AbstractHttpServerTest {
     Assert.assertEquals("World", response.getHeader(ECHO_HEADERS_PREFIX + "Hello").get(0));
     Assert.assertEquals(200, response.getStatus());
   }
+
+  @Test
+  public void testPostStreamedFile() throws HttpClientException, IOException {
+    final File file = File.createTempFile("entity", ".bin");
+    file.deleteOnExit();
+    final byte[] bytes = new byte[200000];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    final FileOutputStream os = new FileOutputStream(file);
+    os.write(bytes);
+    os.close();
+
+    final HttpClient httpClient = HttpClient.uri(getHttpServerUri() + ECHO_CONTEXT).post().entity(file).toHttpClient();
+    final HttpResponse response = httpClient.invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertArrayEquals(bytes, response.getEntity());
+  }
+
+  @Test
+  public void testPostChunkedStream() throws HttpClientException {
+    final SequenceInputStream is = new SequenceInputStream(new ByteArrayInputStream("Hello ".getBytes()), new ByteArrayInputStream("World".getBytes()));
+    final HttpClient httpClient = HttpClient.uri(getHttpServerUri() + ECHO_CONTEXT).post().entity(is, -1L).toHttpClient();
+    final HttpResponse response = httpClient.invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals("Hello World", response.getEntityAsString());
+  }
+
+  @Test
+  public void testInvokeToFile() throws HttpClientException, IOException {
+    // the sink creates missing parent directories
+    final File dir = File.createTempFile("response", ".dir");
+    Assert.assertTrue(dir.delete());
+    dir.deleteOnExit();
+    final File file = new File(dir, "hw.zip");
+    file.deleteOnExit();
+
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + HW_ZIP_CONTEXT).toHttpClient().invoke(file);
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertNull(response.getEntity());
+    Assert.assertEquals(file, response.getEntityFile());
+
+    final byte[] expected = StreamUtils.inputStreamToByteArray(getClass().getResourceAsStream(HW_ZIP));
+    Assert.assertEquals(expected.length, response.getEntityLength());
+    Assert.assertArrayEquals(expected, StreamUtils.inputStreamToByteArray(new FileInputStream(file)));
+  }
+
+  @Test
+  public void testInvokeToFileErrorEntity() throws HttpClientException, IOException {
+    final File file = File.createTempFile("response", ".txt");
+    file.deleteOnExit();
+
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + INTERNAL_SERVER_ERROR_CONTEXT).toHttpClient().invoke(file);
+    Assert.assertEquals(500, response.getStatus());
+    Assert.assertEquals(INTERNAL_SERVER_ERROR_RESPONSE, StreamUtils.inputStreamToString(new FileInputStream(file)));
+  }
+
+  @Test
+  public void testTiming() throws HttpClientException {
+    final HttpConnectionPool pool = new HttpConnectionPool();
+    final HttpTiming first = HttpClient.uri(getHttpServerUri() + PING_CONTEXT).connectionPool(pool).toHttpClient().invoke().getTiming();
+    Assert.assertNotNull(first);
+    Assert.assertFalse(first.isConnectionReused());
+    Assert.assertTrue(first.getConnect() > 0);
+    Assert.assertTrue(first.getFirstByte() > 0);
+    Assert.assertTrue(first.getTotal() >= first.getDns() + first.getConnect() + first.getFirstByte() + first.getTransfer());
+
+    final HttpTiming second = HttpClient.uri(getHttpServerUri() + PING_CONTEXT).connectionPool(pool).toHttpClient().invoke().getTiming();
+    Assert.assertTrue(second.isConnectionReused());
+    Assert.assertEquals(0, second.getConnect());
+    Assert.assertTrue(second.getTotal() > 0);
+  }
+
+  @Test
+  public void testProxyResolvesHost() throws HttpClientException {
+    final Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress("localhost", URI.create(getHttpServerUri()).getPort()));
+    final ProxySelector previous = ProxySelector.getDefault();
+    ProxySelector.setDefault(new ProxySelector() {
+      @Override
+      public List<Proxy> select(final URI uri) {
+        return Collections.singletonList(proxy);
+      }
+
+      @Override
+      public void connectFailed(final URI uri, final SocketAddress sa, final IOException ioe) {
+        // nothing to remember
+      }
+    });
+    try {
+      // the test server answers the proxied request itself
+      final HttpResponse response = HttpClient.uri("http://unresolvable.invalid" + PING_CONTEXT).connectionPool(new HttpConnectionPool()).toHttpClient().invoke();
+      Assert.assertEquals(PING_RESPONSE, response.getEntityAsString());
+      Assert.assertEquals(0, response.getTiming().getDns());
+    } finally {
+      ProxySelector.setDefault(previous);
+    }
+  }
+
+  @Test
+  public void testMaxEntitySize() throws HttpClientException {
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + PING_CONTEXT).maxEntitySize(PING_RESPONSE.length()).toHttpClient().invoke();
+    Assert.assertEquals(PING_RESPONSE, response.getEntityAsString());
+    try {
+      HttpClient.uri(getHttpServerUri() + PING_CONTEXT).maxEntitySize(PING_RESPONSE.length() - 1).toHttpClient().invoke();
+      Assert.fail("An entity above maxEntitySize should fail");
+    } catch (final HttpInvocationException e) {
+      Assert.assertTrue(e.getCause() instanceof SizeLimitExceededException);
+    }
+  }
+
+  @Test
+  public void testRetry() throws HttpClientException {
+    final RetryPolicy retryPolicy = RetryPolicy.maxAttempts(3).backoff(10L, 100L).toRetryPolicy();
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + FLAKY_CONTEXT + "?" + FLAKY_FAILURES + "=2").retryPolicy(retryPolicy).toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(3, response.getAttempts());
+    Assert.assertEquals(FLAKY_RESPONSE, response.getEntityAsString());
+  }
+
+  @Test
+  public void testRetryExhausted() throws HttpClientException {
+    final RetryPolicy retryPolicy = RetryPolicy.maxAttempts(2).backoff(10L, 100L).toRetryPolicy();
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + FLAKY_CONTEXT + "?" + FLAKY_FAILURES + "=5&" + FLAKY_RETRY_AFTER + "=0").retryPolicy(retryPolicy).toHttpClient().invoke();
+    Assert.assertEquals(503, response.getStatus());
+    Assert.assertEquals(2, response.getAttempts());
+    Assert.assertEquals(2, flakyRequests.get());
+  }
+
+  @Test
+  public void testRetryOnlyIdempotent() throws HttpClientException {
+    final RetryPolicy retryPolicy = RetryPolicy.maxAttempts(3).backoff(10L, 100L).toRetryPolicy();
+    final HttpResponse post = HttpClient.uri(getHttpServerUri() + FLAKY_CONTEXT + "?" + FLAKY_FAILURES + "=1").post().entity("Hello World").retryPolicy(retryPolicy).toHttpClient().invoke();
+    Assert.assertEquals(503, post.getStatus());
+    Assert.assertEquals(1, post.getAttempts());
+
+    final RetryPolicy forced = RetryPolicy.maxAttempts(3).backoff(10L, 100L).retryNonIdempotent(true).toRetryPolicy();
+    final HttpResponse forcedPost = HttpClient.uri(getHttpServerUri() + FLAKY_CONTEXT + "?" + FLAKY_FAILURES + "=2").post().entity(RequestEntity.of("Hello World".getBytes())).retryPolicy(forced).toHttpClient().invoke();
+    Assert.assertEquals(200, forcedPost.getStatus());
+    Assert.assertEquals(2, forcedPost.getAttempts());
+  }
+
+  @Test
+  public void testReadTimeout() throws HttpClientException {
+    final HttpClient httpClient = HttpClient.uri(getHttpServerUri() + SLOW_CONTEXT).query(SLOW_MILLIS, "2000").readTimeout(200).toHttpClient();
+    final long start = System.currentTimeMillis();
+    try {
+      httpClient.invoke();
+      Assert.fail("the read should time out");
+    } catch (final HttpTimeoutException e) {
+      Assert.assertTrue(System.currentTimeMillis() - start < 1500L);
+    }
+  }
+
+  @Test
+  public void testDeadline() throws HttpClientException {
+    final HttpClient httpClient = HttpClient.uri(getHttpServerUri() + SLOW_CONTEXT).query(SLOW_MILLIS, "2000").deadline(300L).toHttpClient();
+    final long start = System.currentTimeMillis();
+    try {
+      httpClient.invoke();
+      Assert.fail("the deadline should expire");
+    } catch (final HttpTimeoutException e) {
+      Assert.assertTrue(System.currentTimeMillis() - start < 1500L);
+    }
+    // the watchdog is gone once the invocation is done
+    Assert.assertEquals(200, HttpClient.uri(getHttpServerUri() + PING_CONTEXT).deadline(300L).toHttpClient().invoke().getStatus());
+  }
+
+  @Test
+  public void testDeadlineStopsRetries() throws HttpClientException {
+    final RetryPolicy retryPolicy = RetryPolicy.maxAttempts(3).backoff(10L, 5000L).toRetryPolicy();
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + FLAKY_CONTEXT + "?" + FLAKY_FAILURES + "=2&" + FLAKY_RETRY_AFTER + "=1").retryPolicy(retryPolicy).deadline(500L).toHttpClient().invoke();
+    // waiting a second for the retry would exceed the deadline
+    Assert.assertEquals(503, response.getStatus());
+    Assert.assertEquals(1, response.getAttempts());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeTimeout() throws HttpClientException {
+    HttpClient.uri(getHttpServerUri() + PING_CONTEXT).connectTimeout(-1);
+  }
+
 }
@@ -0,0 +1,243 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.exception.HttpTimeoutException;
+import org.missinglink.http.server.AbstractHttpServerTest;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class HttpConnectionPoolTest extends AbstractHttpServerTest {
+
+  private static final String ROUTE = "http://localhost:80";
+
+  public HttpConnectionPoolTest() {
+    super();
+  }
+
+  @Before
+  public void before() throws IOException {
+    startHttpServer();
+  }
+
+  @After
+  public void after() {
+    stopHttpServer();
+  }
+
+  private static class TestConnection implements HttpConnectionPool.PooledConnection {
+    private boolean open = true;
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() {
+      open = false;
+    }
+  }
+
+  @Test
+  public void testRoute() {
+    Assert.assertEquals("http://host:80", HttpConnectionPool.route("HTTP", "Host", null));
+    Assert.assertEquals("https://host:443", HttpConnectionPool.route("https", "host", null));
+    Assert.assertEquals("https://host:8443", HttpConnectionPool.route("https", "host", 8443));
+  }
+
+  @Test
+  public void testReuse() throws IOException, InterruptedException {
+    final HttpConnectionPool pool = new HttpConnectionPool();
+    final TestConnection connection = new TestConnection();
+
+    final HttpConnectionPool.Lease first = pool.lease(ROUTE);
+    Assert.assertFalse(first.isReused());
+    pool.release(first, connection);
+
+    final HttpConnectionPool.Lease second = pool.lease(ROUTE);
+    Assert.assertTrue(second.isReused());
+    Assert.assertSame(connection, second.getConnection());
+    pool.release(second, null);
+
+    final HttpConnectionPoolStats stats = pool.getStats();
+    Assert.assertEquals(1, stats.getCreated());
+    Assert.assertEquals(1, stats.getReused());
+    Assert.assertEquals(0, stats.getLeased());
+    Assert.assertEquals(0, stats.getIdle());
+  }
+
+  @Test
+  public void testIdleTimeout() throws IOException, InterruptedException {
+    final HttpConnectionPool pool = new HttpConnectionPool(1, 0L, false);
+    final TestConnection connection = new TestConnection();
+    pool.release(pool.lease(ROUTE), connection);
+    Thread.sleep(10L);
+
+    final HttpConnectionPool.Lease lease = pool.lease(ROUTE);
+    Assert.assertFalse(lease.isReused());
+    Assert.assertFalse(connection.isOpen());
+    Assert.assertEquals(1, pool.getStats().getEvicted());
+  }
+
+  @Test
+  public void testValidateOnBorrow() throws IOException, InterruptedException {
+    final HttpConnectionPool pool = new HttpConnectionPool(1, -1L, true);
+    final TestConnection connection = new TestConnection();
+    pool.release(pool.lease(ROUTE), connection);
+    connection.close();
+
+    Assert.assertFalse(pool.lease(ROUTE).isReused());
+    Assert.assertEquals(1, pool.getStats().getEvicted());
+  }
+
+  @Test
+  public void testMaxPerRoute() throws IOException, InterruptedException {
+    final HttpConnectionPool pool = new HttpConnectionPool(1, -1L, true);
+    final HttpConnectionPool.Lease lease = pool.lease(ROUTE);
+    final CountDownLatch leased = new CountDownLatch(1);
+    final Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          pool.release(pool.lease(ROUTE), null);
+          leased.countDown();
+        } catch (final IOException e) {
+          // test fails on the latch
+        } catch (final InterruptedException e) {
+          // test fails on the latch
+        }
+      }
+    };
+    waiter.start();
+    Assert.assertFalse(leased.await(100L, TimeUnit.MILLISECONDS));
+    pool.release(lease, null);
+    Assert.assertTrue(leased.await(5L, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testLeaseTimeout() throws IOException, InterruptedException {
+    final HttpConnectionPool pool = new HttpConnectionPool(1, -1L, true, 50L);
+    final HttpConnectionPool.Lease lease = pool.lease(ROUTE);
+    try {
+      pool.lease(ROUTE);
+      Assert.fail("expected a lease timeout");
+    } catch (final HttpConnectionPool.LeaseTimeoutException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains(ROUTE));
+    }
+    pool.release(lease, null);
+    pool.release(pool.lease(ROUTE), null);
+  }
+
+  @Test
+  public void testDefaultPoolIsUnlimited() throws IOException, InterruptedException {
+    final HttpConnectionPool pool = HttpConnectionPool.getDefault();
+    Assert.assertEquals(HttpConnectionPool.UNLIMITED, pool.getMaxPerRoute());
+    final String route = "http://unlimited:80";
+    final HttpConnectionPool.Lease[] leases = new HttpConnectionPool.Lease[HttpConnectionPool.DEFAULT_MAX_PER_ROUTE * 2];
+    for (int i = 0; i < leases.length; i++) {
+      leases[i] = pool.lease(route);
+    }
+    for (final HttpConnectionPool.Lease lease : leases) {
+      pool.release(lease, null);
+    }
+  }
+
+  @Test
+  public void testInvokeLeaseTimeout() throws IOException, InterruptedException, HttpClientException {
+    final HttpConnectionPool pool = new HttpConnectionPool(1, -1L, true, 50L);
+    final HttpClient httpClient = HttpClient.uri(getHttpServerUri() + PING_CONTEXT).connectionPool(pool).toHttpClient();
+    final HttpConnectionPool.Lease lease = pool.lease(httpClient.getRoute());
+    try {
+      httpClient.invoke();
+      Assert.fail("expected a timeout");
+    } catch (final HttpClientException e) {
+      Assert.assertTrue(e instanceof HttpTimeoutException);
+    } finally {
+      pool.release(lease, null);
+    }
+  }
+
+  @Test
+  public void testInvokeReusesConnections() throws HttpClientException {
+    final HttpConnectionPool pool = new HttpConnectionPool();
+    for (int i = 0; i < 3; i++) {
+      final HttpResponse response = HttpClient.uri(getHttpServerUri() + PING_CONTEXT).connectionPool(pool).toHttpClient().invoke();
+      Assert.assertEquals(200, response.getStatus());
+    }
+    final HttpConnectionPoolStats stats = HttpClient.uri(getHttpServerUri() + PING_CONTEXT).connectionPool(pool).toHttpClient().getConnectionPoolStats();
+    Assert.assertEquals(1, stats.getCreated());
+    Assert.assertEquals(2, stats.getReused());
+    Assert.assertEquals(0, stats.getLeased());
+    Assert.assertEquals(1, stats.getIdle());
+  }
+
+  @Test
+  public void testStaleFailures() {
+    Assert.assertTrue(HttpTransport.isStale(new SocketException("Connection reset")));
+    Assert.assertTrue(HttpTransport.isStale(new EOFException()));
+    Assert.assertTrue(HttpTransport.isStale(new SSLException(new SocketException("Broken pipe"))));
+    Assert.assertFalse(HttpTransport.isStale(new SocketTimeoutException("Read timed out")));
+    Assert.assertFalse(HttpTransport.isStale(new ConnectException("Connection refused")));
+    Assert.assertFalse(HttpTransport.isStale(new IOException("Server returned HTTP response code: 500")));
+  }
+
+  @Test
+  public void testTimeoutOnKeptAliveConnectionIsNotResent() throws IOException, HttpClientException {
+    final HttpConnectionPool pool = new HttpConnectionPool();
+    for (int i = 0; i < 3; i++) {
+      HttpClient.uri(getHttpServerUri() + PING_CONTEXT).connectionPool(pool).toHttpClient().invoke();
+    }
+    final File file = File.createTempFile("entity", ".txt");
+    file.deleteOnExit();
+    final HttpClient httpClient = HttpClient.uri(getHttpServerUri() + SLOW_CONTEXT).query(SLOW_MILLIS, "1500").post().entity(file).readTimeout(500).connectionPool(pool).toHttpClient();
+    try {
+      httpClient.invoke();
+      Assert.fail("expected a timeout");
+    } catch (final HttpTimeoutException e) {
+      // expected
+    }
+    Assert.assertEquals(1, slowRequests.get());
+  }
+
+  @Test
+  public void testErrorResponseReusesConnection() throws HttpClientException {
+    final HttpConnectionPool pool = new HttpConnectionPool();
+    HttpClient.uri(getHttpServerUri() + INTERNAL_SERVER_ERROR_CONTEXT).connectionPool(pool).toHttpClient().invoke();
+    HttpClient.uri(getHttpServerUri() + PING_CONTEXT).connectionPool(pool).toHttpClient().invoke();
+    Assert.assertEquals(1, pool.getStats().getReused());
+  }
+
+}
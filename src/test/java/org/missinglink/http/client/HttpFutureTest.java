@@ -0,0 +1,129 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.exception.HttpInvocationException;
+import org.missinglink.http.server.AbstractHttpServerTest;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class HttpFutureTest extends AbstractHttpServerTest {
+
+  public HttpFutureTest() {
+    super();
+  }
+
+  @Before
+  public void before() throws IOException {
+    startHttpServer();
+  }
+
+  @After
+  public void after() {
+    stopHttpServer();
+  }
+
+  @Test
+  public void testInvokeAsync() throws HttpClientException {
+    final HttpFuture future = HttpClient.uri(getHttpServerUri() + PING_CONTEXT).toHttpClient().invokeAsync();
+    final HttpResponse response = future.getResponse();
+    Assert.assertTrue(future.isDone());
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(PING_RESPONSE, response.getEntityAsString());
+  }
+
+  @Test
+  public void testFanOutOnBoundedExecutor() throws HttpClientException {
+    final ExecutorService executor = HttpExecutors.newBoundedExecutor(2);
+    try {
+      final List<HttpFuture> futures = new ArrayList<HttpFuture>();
+      for (int i = 0; i < 20; i++) {
+        futures.add(HttpClient.uri(getHttpServerUri() + ECHO_CONTEXT).query(ECHO_TEXT, "request" + i).executor(executor).toHttpClient().invokeAsync());
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        Assert.assertEquals("request" + i, futures.get(i).getResponse().getEntityAsString());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testVirtualThreadExecutor() throws HttpClientException {
+    final ExecutorService executor = HttpExecutors.newVirtualThreadExecutor();
+    Assume.assumeNotNull(executor);
+    try {
+      Assert.assertEquals(200, HttpClient.uri(getHttpServerUri() + PING_CONTEXT).executor(executor).toHttpClient().invokeAsync().getResponse().getStatus());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFailure() throws HttpClientException {
+    final HttpFuture future = HttpClient.uri("http://localhost:1" + PING_CONTEXT).toHttpClient().invokeAsync();
+    try {
+      future.getResponse();
+      Assert.fail("Expected an HttpInvocationException");
+    } catch (final HttpInvocationException e) {
+      Assert.assertTrue(future.isDone());
+    }
+  }
+
+  @Test
+  public void testCancelClosesConnection() throws Exception {
+    final HttpConnectionPool pool = new HttpConnectionPool();
+    final HttpFuture future = HttpClient.uri(getHttpServerUri() + SLOW_CONTEXT).query(SLOW_MILLIS, "30000").connectionPool(pool).toHttpClient().invokeAsync();
+    final long start = System.currentTimeMillis();
+    while (slowRequests.get() == 0) {
+      Assert.assertTrue("request not received", System.currentTimeMillis() - start < 5000L);
+      Thread.sleep(10L);
+    }
+
+    Assert.assertTrue(future.cancel(false));
+    Assert.assertTrue(future.isCancelled());
+
+    // the worker waiting for the response is released by the closed
+    // connection, not by the server
+    while (pool.getStats().getLeased() > 0) {
+      Assert.assertTrue("connection not closed", System.currentTimeMillis() - start < 5000L);
+      Thread.sleep(10L);
+    }
+    Assert.assertEquals(0, pool.getStats().getIdle());
+
+    try {
+      future.getResponse();
+      Assert.fail("Expected an HttpInvocationException");
+    } catch (final HttpInvocationException e) {
+      Assert.assertEquals("Request cancelled", e.getMessage());
+    }
+  }
+
+}
@@ -161,4 +161,20 @@ public class HttpsClientTest extends AbstractHttpServerTest {
     Assert.assertArrayEquals("Hello World".getBytes(), response.getEntity());
     Assert.assertEquals(200, response.getStatus());
   }
+
+  @Test
+  public void testTiming() throws HttpClientException {
+    // a new socket factory has no kept alive connections
+    SslContextCache.getDefault().clear();
+    final HttpClient httpClient = HttpClient.uri(getHttpsServerUri() + PING_CONTEXT)
+            .keyStore(getKeyStore(), KEYSTORE_PASSWORD).connectionPool(new HttpConnectionPool()).toHttpClient();
+    final HttpTiming first = httpClient.invoke().getTiming();
+    Assert.assertFalse(first.isConnectionReused());
+    Assert.assertTrue(first.getConnect() > 0);
+    Assert.assertTrue(first.getTls() > 0);
+
+    final HttpTiming second = httpClient.invoke().getTiming();
+    Assert.assertTrue(second.isConnectionReused());
+    Assert.assertEquals(0, second.getTls());
+  }
 }
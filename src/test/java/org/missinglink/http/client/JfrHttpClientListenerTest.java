@@ -0,0 +1,83 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.server.AbstractHttpServerTest;
+
+/**
+ * Records a request with the {@code jdk.jfr} API through reflection, the test
+ * is skipped on JVMs without Java Flight Recorder.
+ *
+ * @author alex.sherwin
+ *
+ */
+public class JfrHttpClientListenerTest extends AbstractHttpServerTest {
+
+  public JfrHttpClientListenerTest() {
+    super();
+  }
+
+  @Before
+  public void before() throws IOException {
+    Assume.assumeTrue(JfrHttpClientListener.isAvailable());
+    startHttpServer();
+  }
+
+  @After
+  public void after() {
+    stopHttpServer();
+  }
+
+  @Test
+  public void testRecordsRequest() throws Exception {
+    final Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+    final Object recording = recordingClass.getConstructor().newInstance();
+    recordingClass.getMethod("enable", String.class).invoke(recording, JfrHttpClientListener.EVENT_NAME);
+    recordingClass.getMethod("start").invoke(recording);
+    final File file = File.createTempFile("http", ".jfr");
+    file.deleteOnExit();
+    try {
+      HttpClient.uri(getHttpServerUri() + PING_CONTEXT).listener(JfrHttpClientListener.getDefault()).toHttpClient().invoke();
+      recordingClass.getMethod("stop").invoke(recording);
+      recordingClass.getMethod("dump", Class.forName("java.nio.file.Path")).invoke(recording, File.class.getMethod("toPath").invoke(file));
+    } finally {
+      recordingClass.getMethod("close").invoke(recording);
+    }
+
+    final Object path = File.class.getMethod("toPath").invoke(file);
+    final List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", Class.forName("java.nio.file.Path")).invoke(null, path);
+    Assert.assertEquals(1, events.size());
+    final Object event = events.get(0);
+    final Method getString = event.getClass().getMethod("getString", String.class);
+    final Method getInt = event.getClass().getMethod("getInt", String.class);
+    Assert.assertEquals("GET", getString.invoke(event, "method"));
+    Assert.assertEquals(getHttpServerUri() + PING_CONTEXT, getString.invoke(event, "uri"));
+    Assert.assertEquals(Integer.valueOf(200), getInt.invoke(event, "status"));
+    Assert.assertNull(getString.invoke(event, "error"));
+  }
+
+}
@@ -0,0 +1,380 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.exception.HttpInvocationException;
+import org.missinglink.http.exception.HttpTimeoutException;
+import org.missinglink.http.server.AbstractHttpServerTest;
+import org.missinglink.tools.SizeLimitExceededException;
+import org.missinglink.tools.StreamUtils;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class NioTransportTest extends AbstractHttpServerTest {
+
+  private static NioTransport transport;
+
+  private HttpConnectionPool pool;
+
+  public NioTransportTest() {
+    super();
+  }
+
+  @BeforeClass
+  public static void beforeClass() throws IOException {
+    transport = new NioTransport(2);
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    transport.close();
+  }
+
+  @Before
+  public void before() throws IOException {
+    startHttpServer();
+    pool = new HttpConnectionPool();
+  }
+
+  @After
+  public void after() {
+    pool.closeIdle();
+    stopHttpServer();
+  }
+
+  private HttpClient.HttpClientBuilder uri(final String context) throws HttpClientException {
+    return HttpClient.uri(getHttpServerUri() + context).transport(transport).connectionPool(pool);
+  }
+
+  @Test
+  public void testGet() throws HttpClientException {
+    final HttpResponse response = uri(PING_CONTEXT).toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals("OK", response.getMessage());
+    Assert.assertEquals("text/plain", response.getContentType());
+    Assert.assertEquals(PING_RESPONSE.length(), response.getContentLength());
+    Assert.assertEquals(PING_RESPONSE, response.getEntityAsString());
+  }
+
+  @Test
+  public void testKeepAlive() throws HttpClientException {
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals("request" + i, uri(ECHO_CONTEXT).query(ECHO_TEXT, "request" + i).toHttpClient().invoke().getEntityAsString());
+    }
+    final HttpConnectionPoolStats stats = pool.getStats();
+    Assert.assertEquals(1, stats.getCreated());
+    Assert.assertEquals(2, stats.getReused());
+    Assert.assertEquals(1, stats.getIdle());
+  }
+
+  @Test
+  public void testServerClosedIdleConnection() throws Exception {
+    Assert.assertEquals(200, uri(PING_CONTEXT).toHttpClient().invoke().getStatus());
+    stopHttpServer();
+    startHttpServer();
+    Thread.sleep(100L);
+
+    // the selector noticed the closed connection while it was idle
+    Assert.assertEquals(200, uri(PING_CONTEXT).toHttpClient().invoke().getStatus());
+    Assert.assertEquals(1, pool.getStats().getEvicted());
+  }
+
+  @Test
+  public void testPostEntity() throws HttpClientException {
+    final HttpResponse response = uri(ECHO_CONTEXT).post().contentType("text/plain").entity("Hello World").toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals("Hello World", response.getEntityAsString());
+  }
+
+  @Test
+  public void testPostStreamedEntity() throws HttpClientException, IOException {
+    final File file = File.createTempFile("entity", ".bin");
+    file.deleteOnExit();
+    final java.io.FileOutputStream os = new java.io.FileOutputStream(file);
+    try {
+      os.write(RANGE_ENTITY);
+    } finally {
+      os.close();
+    }
+    final HttpResponse response = uri(ECHO_CONTEXT).post().entity(file).toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertTrue(Arrays.equals(RANGE_ENTITY, response.getEntity()));
+  }
+
+  @Test
+  public void testPostCompressedEntity() throws HttpClientException {
+    final GzipRequestEntity entity = RequestEntity.gzip(RequestEntity.of(RANGE_ENTITY));
+    final HttpResponse response = uri(ECHO_CONTEXT).post().entity(entity, true).toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertTrue(Arrays.equals(RANGE_ENTITY, response.getEntity()));
+    Assert.assertEquals(RANGE_ENTITY.length, entity.getRawLength());
+    Assert.assertTrue(entity.getCompressedLength() > 0);
+  }
+
+  @Test
+  public void testPostChunkedStream() throws HttpClientException {
+    final SequenceInputStream is = new SequenceInputStream(new ByteArrayInputStream("Hello ".getBytes()), new ByteArrayInputStream("World".getBytes()));
+    final HttpResponse response = uri(ECHO_CONTEXT).post().entity(is, -1L).toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals("Hello World", response.getEntityAsString());
+  }
+
+  @Test
+  public void testErrorEntity() throws HttpClientException {
+    final HttpResponse response = uri(INTERNAL_SERVER_ERROR_CONTEXT).toHttpClient().invoke();
+    Assert.assertEquals(500, response.getStatus());
+    Assert.assertEquals(INTERNAL_SERVER_ERROR_RESPONSE, response.getEntityAsString());
+    Assert.assertEquals(200, uri(PING_CONTEXT).toHttpClient().invoke().getStatus());
+    Assert.assertEquals(1, pool.getStats().getReused());
+  }
+
+  @Test
+  public void testRedirect() throws HttpClientException {
+    HttpResponse response = uri(MOVED_PERM_CONTEXT).toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(PING_RESPONSE, response.getEntityAsString());
+
+    response = uri(MOVED_TEMP_CONTEXT).followRedirects(false).toHttpClient().invoke();
+    Assert.assertEquals(302, response.getStatus());
+    Assert.assertEquals(PING_CONTEXT, response.getHeaderSingleValue("Location"));
+    Assert.assertEquals(MOVED_TEMP_RESPONSE, response.getEntityAsString());
+
+    response = uri(SEE_OTHER_CONTEXT).post().entity("ignored").toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(PING_RESPONSE, response.getEntityAsString());
+  }
+
+  @Test
+  public void testChunkedResponseAndHeaders() throws HttpClientException {
+    final HttpResponse response = uri(ECHO_HEADERS_CONTEXT).header("X-Test", "value").toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals("chunked", response.getHeaderSingleValue("Transfer-Encoding"));
+    Assert.assertEquals("value", response.getHeaderSingleValue(ECHO_HEADERS_PREFIX + "X-test"));
+    Assert.assertEquals(0L, response.getEntityLength());
+    Assert.assertEquals(200, uri(PING_CONTEXT).toHttpClient().invoke().getStatus());
+    Assert.assertEquals(1, pool.getStats().getReused());
+  }
+
+  @Test
+  public void testHeaderWithoutValueIsNotSent() throws HttpClientException {
+    final HttpResponse response = uri(ECHO_HEADERS_CONTEXT).header("X-Test", null).toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertNull(response.getHeaderSingleValue(ECHO_HEADERS_PREFIX + "X-test"));
+  }
+
+  @Test
+  public void testBasicAuthentication() throws HttpClientException {
+    Assert.assertEquals(401, uri(SECURE_CONTEXT + PING_CONTEXT).toHttpClient().invoke().getStatus());
+    final HttpResponse response = uri(SECURE_CONTEXT + PING_CONTEXT).credentials(USERNAME, PASSWORD).toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(PING_RESPONSE, response.getEntityAsString());
+  }
+
+  @Test
+  public void testHead() throws HttpClientException {
+    final HttpResponse response = uri(RANGE_CONTEXT).head().toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(RANGE_ENTITY.length, response.getContentLength());
+    Assert.assertEquals(0L, response.getEntityLength());
+    // the fixture closes the connection after a HEAD response
+    Assert.assertEquals(200, uri(PING_CONTEXT).toHttpClient().invoke().getStatus());
+  }
+
+  @Test
+  public void testPipelined() throws HttpClientException {
+    final List<HttpClient> httpClients = new ArrayList<HttpClient>();
+    for (int i = 0; i < 40; i++) {
+      httpClients.add(uri(ECHO_CONTEXT).query(ECHO_TEXT, "request" + i).toHttpClient());
+    }
+    final List<HttpResponse> responses = HttpClient.invokePipelined(httpClients);
+    Assert.assertEquals(40, responses.size());
+    for (int i = 0; i < 40; i++) {
+      Assert.assertEquals("request" + i, responses.get(i).getEntityAsString());
+    }
+    final HttpConnectionPoolStats stats = pool.getStats();
+    Assert.assertEquals(1, stats.getCreated());
+    Assert.assertEquals(1, stats.getIdle());
+  }
+
+  @Test
+  public void testPipelinedFallsBackWhenConnectionCloses() throws HttpClientException {
+    // the fixture closes the connection after a HEAD response
+    final List<HttpClient> httpClients = Arrays.asList(uri(ECHO_CONTEXT).query(ECHO_TEXT, "first").toHttpClient(), uri(RANGE_CONTEXT).head().toHttpClient(),
+        uri(ECHO_CONTEXT).query(ECHO_TEXT, "third").toHttpClient(), uri(ECHO_CONTEXT).query(ECHO_TEXT, "fourth").toHttpClient());
+    final List<HttpResponse> responses = HttpClient.invokePipelined(httpClients);
+    Assert.assertEquals("first", responses.get(0).getEntityAsString());
+    Assert.assertEquals(RANGE_ENTITY.length, responses.get(1).getContentLength());
+    Assert.assertEquals("third", responses.get(2).getEntityAsString());
+    Assert.assertEquals("fourth", responses.get(3).getEntityAsString());
+    Assert.assertTrue(pool.getStats().getCreated() > 1);
+  }
+
+  @Test
+  public void testPipelinedRedirect() throws HttpClientException {
+    final List<HttpResponse> responses = HttpClient.invokePipelined(Arrays.asList(uri(MOVED_PERM_CONTEXT).toHttpClient(), uri(MOVED_TEMP_CONTEXT).followRedirects(false).toHttpClient(),
+        uri(PING_CONTEXT).toHttpClient()));
+    Assert.assertEquals(PING_RESPONSE, responses.get(0).getEntityAsString());
+    Assert.assertEquals(302, responses.get(1).getStatus());
+    Assert.assertEquals(PING_RESPONSE, responses.get(2).getEntityAsString());
+  }
+
+  @Test
+  public void testPipelinedSequentialTransport() throws HttpClientException {
+    final List<HttpResponse> responses = HttpClient.invokePipelined(Arrays.asList(HttpClient.uri(getHttpServerUri() + ECHO_CONTEXT).query(ECHO_TEXT, "one").toHttpClient(),
+        HttpClient.uri(getHttpServerUri() + ECHO_CONTEXT).query(ECHO_TEXT, "two").toHttpClient()));
+    Assert.assertEquals("one", responses.get(0).getEntityAsString());
+    Assert.assertEquals("two", responses.get(1).getEntityAsString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPipelinedRejectsPost() throws HttpClientException {
+    HttpClient.invokePipelined(Arrays.asList(uri(PING_CONTEXT).toHttpClient(), uri(ECHO_CONTEXT).post().entity("x").toHttpClient()));
+  }
+
+  @Test
+  public void testSegmentedDownload() throws HttpClientException, IOException {
+    final File file = File.createTempFile("segmented", ".bin");
+    file.deleteOnExit();
+    final HttpResponse response = uri(RANGE_CONTEXT).segments(4).toHttpClient().invoke(file);
+    Assert.assertEquals(200, response.getStatus());
+    final InputStream is = new java.io.FileInputStream(file);
+    try {
+      Assert.assertTrue(Arrays.equals(RANGE_ENTITY, StreamUtils.inputStreamToByteArray(is)));
+    } finally {
+      is.close();
+    }
+  }
+
+  @Test
+  public void testConcurrentRequests() throws HttpClientException {
+    final List<HttpFuture> futures = new ArrayList<HttpFuture>();
+    for (int i = 0; i < 20; i++) {
+      futures.add(uri(RANGE_CONTEXT).toHttpClient().invokeAsync());
+    }
+    for (final HttpFuture future : futures) {
+      Assert.assertTrue(Arrays.equals(RANGE_ENTITY, future.getResponse().getEntity()));
+    }
+  }
+
+  @Test
+  public void testCancelClosesConnection() throws Exception {
+    final HttpFuture future = uri(SLOW_CONTEXT).query(SLOW_MILLIS, "30000").toHttpClient().invokeAsync();
+    final long start = System.currentTimeMillis();
+    while (slowRequests.get() == 0) {
+      Assert.assertTrue("request not received", System.currentTimeMillis() - start < 5000L);
+      Thread.sleep(10L);
+    }
+    Assert.assertTrue(future.cancel(false));
+    while (pool.getStats().getLeased() > 0) {
+      Assert.assertTrue("connection not closed", System.currentTimeMillis() - start < 5000L);
+      Thread.sleep(10L);
+    }
+    Assert.assertEquals(0, pool.getStats().getIdle());
+  }
+
+  @Test
+  public void testConnectionRefused() throws HttpClientException {
+    try {
+      HttpClient.uri("http://localhost:1" + PING_CONTEXT).transport(transport).toHttpClient().invoke();
+      Assert.fail("Expected an HttpInvocationException");
+    } catch (final HttpInvocationException e) {
+      Assert.assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void testChunkedInputStream() throws IOException {
+    final InputStream is = new ByteArrayInputStream("4;ext=1\r\nWiki\r\n5\r\npedia\r\n0\r\nTrailer: x\r\n\r\nNEXT".getBytes("ISO-8859-1"));
+    final ChunkedInputStream chunked = new ChunkedInputStream(is);
+    Assert.assertEquals("Wikipedia", new String(StreamUtils.inputStreamToByteArray(chunked), "ISO-8859-1"));
+    Assert.assertTrue(chunked.isComplete());
+    Assert.assertEquals("NEXT", new String(StreamUtils.inputStreamToByteArray(is), "ISO-8859-1"));
+  }
+
+  @Test
+  public void testTiming() throws HttpClientException {
+    final HttpTiming first = uri(PING_CONTEXT).toHttpClient().invoke().getTiming();
+    Assert.assertFalse(first.isConnectionReused());
+    Assert.assertTrue(first.getConnect() > 0);
+    Assert.assertTrue(first.getFirstByte() > 0);
+
+    final HttpTiming second = uri(PING_CONTEXT).toHttpClient().invoke().getTiming();
+    Assert.assertTrue(second.isConnectionReused());
+    Assert.assertTrue(second.getTotal() >= second.getFirstByte() + second.getTransfer());
+  }
+
+  @Test
+  public void testMaxEntitySize() throws HttpClientException {
+    try {
+      uri(PING_CONTEXT).maxEntitySize(PING_RESPONSE.length() - 1).toHttpClient().invoke();
+      Assert.fail("An entity above maxEntitySize should fail");
+    } catch (final HttpInvocationException e) {
+      Assert.assertTrue(e.getCause() instanceof SizeLimitExceededException);
+    }
+    Assert.assertEquals(PING_RESPONSE, uri(PING_CONTEXT).maxEntitySize(PING_RESPONSE.length()).toHttpClient().invoke().getEntityAsString());
+  }
+
+  @Test
+  public void testRetry() throws HttpClientException {
+    final RetryPolicy retryPolicy = RetryPolicy.maxAttempts(3).backoff(10L, 100L).toRetryPolicy();
+    final HttpResponse response = uri(FLAKY_CONTEXT + "?" + FLAKY_FAILURES + "=2&" + FLAKY_STATUS + "=429&" + FLAKY_RETRY_AFTER + "=0").retryPolicy(retryPolicy).toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(3, response.getAttempts());
+    Assert.assertEquals(FLAKY_RESPONSE, response.getEntityAsString());
+  }
+
+  @Test
+  public void testReadTimeout() throws HttpClientException {
+    try {
+      uri(SLOW_CONTEXT).query(SLOW_MILLIS, "2000").readTimeout(200).toHttpClient().invoke();
+      Assert.fail("the read should time out");
+    } catch (final HttpTimeoutException e) {
+      Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+    }
+  }
+
+  @Test
+  public void testDeadline() throws HttpClientException {
+    final long start = System.currentTimeMillis();
+    try {
+      uri(SLOW_CONTEXT).query(SLOW_MILLIS, "2000").deadline(300L).toHttpClient().invoke();
+      Assert.fail("the deadline should expire");
+    } catch (final HttpTimeoutException e) {
+      Assert.assertTrue(System.currentTimeMillis() - start < 1500L);
+    }
+  }
+
+}
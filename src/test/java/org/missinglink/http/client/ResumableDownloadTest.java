@@ -0,0 +1,119 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.exception.HttpInvocationException;
+import org.missinglink.http.server.AbstractHttpServerTest;
+import org.missinglink.tools.StreamUtils;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class ResumableDownloadTest extends AbstractHttpServerTest {
+
+  private static final int TRUNCATE = 300000;
+
+  private File file;
+  private File part;
+  private File state;
+
+  public ResumableDownloadTest() {
+    super();
+  }
+
+  @Before
+  public void before() throws IOException {
+    startHttpServer();
+    file = File.createTempFile("resumable", ".bin");
+    part = new File(file.getPath() + ResumableDownload.PART_SUFFIX);
+    state = new File(file.getPath() + ResumableDownload.STATE_SUFFIX);
+    Assert.assertTrue(file.delete());
+    file.deleteOnExit();
+    part.deleteOnExit();
+    state.deleteOnExit();
+  }
+
+  @After
+  public void after() {
+    stopHttpServer();
+  }
+
+  private HttpClient client() throws HttpClientException {
+    return HttpClient.uri(getHttpServerUri() + RANGE_CONTEXT).resume(true).toHttpClient();
+  }
+
+  private void interrupted() throws HttpClientException {
+    rangeTruncate = TRUNCATE;
+    try {
+      client().invoke(file);
+      Assert.fail("Download should have been interrupted");
+    } catch (final HttpInvocationException e) {
+      // expected
+    }
+    rangeTruncate = -1;
+    Assert.assertFalse(file.exists());
+    Assert.assertEquals(TRUNCATE, part.length());
+    Assert.assertTrue(state.isFile());
+  }
+
+  @Test
+  public void testCompleteDownload() throws HttpClientException, IOException {
+    final HttpResponse response = client().invoke(file);
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(0, response.getEntityOffset());
+    Assert.assertArrayEquals(RANGE_ENTITY, StreamUtils.inputStreamToByteArray(new FileInputStream(file)));
+    Assert.assertFalse(part.exists());
+    Assert.assertFalse(state.exists());
+  }
+
+  @Test
+  public void testResumeInterruptedDownload() throws HttpClientException, IOException {
+    interrupted();
+
+    final HttpResponse response = client().invoke(file);
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(TRUNCATE, response.getEntityOffset());
+    Assert.assertEquals(RANGE_ENTITY.length - TRUNCATE, response.getEntityLength());
+    Assert.assertEquals(1, rangeRequests.get());
+    Assert.assertArrayEquals(RANGE_ENTITY, StreamUtils.inputStreamToByteArray(new FileInputStream(file)));
+    Assert.assertFalse(part.exists());
+    Assert.assertFalse(state.exists());
+  }
+
+  @Test
+  public void testChangedEntityStartsOver() throws HttpClientException, IOException {
+    interrupted();
+    rangeEtag = "\"range-v2\"";
+
+    final HttpResponse response = client().invoke(file);
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(0, response.getEntityOffset());
+    Assert.assertEquals(0, rangeRequests.get());
+    Assert.assertArrayEquals(RANGE_ENTITY, StreamUtils.inputStreamToByteArray(new FileInputStream(file)));
+  }
+
+}
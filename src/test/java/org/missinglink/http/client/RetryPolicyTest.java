@@ -0,0 +1,154 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.net.ssl.SSLHandshakeException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.missinglink.http.exception.InvalidUriException;
+import org.missinglink.tools.SizeLimitExceededException;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class RetryPolicyTest {
+
+  private static final IOException RESET = new IOException("Connection reset");
+
+  public RetryPolicyTest() {
+    super();
+  }
+
+  private static HttpClient get() throws InvalidUriException {
+    return HttpClient.uri("http://host/context").toHttpClient();
+  }
+
+  private static HttpResponse response(final HttpClient httpClient, final int status, final String retryAfter) {
+    final HttpResponse response = new HttpResponse(httpClient);
+    response.setStatus(status);
+    if (null != retryAfter) {
+      response.getHeaders().put("Retry-After", Collections.singletonList(retryAfter));
+    }
+    return response;
+  }
+
+  @Test
+  public void testBackoff() throws InvalidUriException {
+    final RetryPolicy retryPolicy = RetryPolicy.maxAttempts(10).backoff(100L, 1000L).jitter(0d).toRetryPolicy();
+    final HttpClient httpClient = get();
+    Assert.assertEquals(100L, retryPolicy.getDelay(httpClient, 1, null, RESET));
+    Assert.assertEquals(200L, retryPolicy.getDelay(httpClient, 2, null, RESET));
+    Assert.assertEquals(400L, retryPolicy.getDelay(httpClient, 3, null, RESET));
+    Assert.assertEquals(800L, retryPolicy.getDelay(httpClient, 4, null, RESET));
+    Assert.assertEquals(1000L, retryPolicy.getDelay(httpClient, 5, null, RESET));
+    Assert.assertEquals(1000L, retryPolicy.getDelay(httpClient, 9, null, RESET));
+    Assert.assertEquals(-1L, retryPolicy.getDelay(httpClient, 10, null, RESET));
+  }
+
+  @Test
+  public void testJitter() throws InvalidUriException {
+    final RetryPolicy retryPolicy = RetryPolicy.maxAttempts(2).backoff(1000L, 1000L).jitter(0.5d).toRetryPolicy();
+    final HttpClient httpClient = get();
+    for (int i = 0; i < 100; i++) {
+      final long delay = retryPolicy.getDelay(httpClient, 1, null, new ConnectException());
+      Assert.assertTrue(String.valueOf(delay), delay > 500L && delay <= 1000L);
+    }
+  }
+
+  @Test
+  public void testStatuses() throws InvalidUriException {
+    final RetryPolicy retryPolicy = RetryPolicy.maxAttempts(2).backoff(10L, 10L).jitter(0d).toRetryPolicy();
+    final HttpClient httpClient = get();
+    Assert.assertEquals(10L, retryPolicy.getDelay(httpClient, 1, response(httpClient, 503, null), null));
+    Assert.assertEquals(10L, retryPolicy.getDelay(httpClient, 1, response(httpClient, 429, null), null));
+    Assert.assertEquals(-1L, retryPolicy.getDelay(httpClient, 1, response(httpClient, 500, null), null));
+    Assert.assertEquals(-1L, retryPolicy.getDelay(httpClient, 1, response(httpClient, 200, null), null));
+
+    final RetryPolicy custom = RetryPolicy.maxAttempts(2).backoff(10L, 10L).jitter(0d).retryStatuses(500).toRetryPolicy();
+    Assert.assertEquals(10L, custom.getDelay(httpClient, 1, response(httpClient, 500, null), null));
+    Assert.assertEquals(-1L, custom.getDelay(httpClient, 1, response(httpClient, 503, null), null));
+  }
+
+  @Test
+  public void testRetryAfter() throws InvalidUriException {
+    final RetryPolicy retryPolicy = RetryPolicy.maxAttempts(2).backoff(10L, 5000L).jitter(0d).toRetryPolicy();
+    final HttpClient httpClient = get();
+    Assert.assertEquals(2000L, retryPolicy.getDelay(httpClient, 1, response(httpClient, 503, "2"), null));
+    // asking for more than the maximum backoff gives up
+    Assert.assertEquals(-1L, retryPolicy.getDelay(httpClient, 1, response(httpClient, 503, "60"), null));
+    // an invalid header falls back to the backoff
+    Assert.assertEquals(10L, retryPolicy.getDelay(httpClient, 1, response(httpClient, 503, "soon"), null));
+
+    final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    final long delay = retryPolicy.getDelay(httpClient, 1, response(httpClient, 503, format.format(new Date(System.currentTimeMillis() + 3000L))), null);
+    Assert.assertTrue(String.valueOf(delay), delay > 1000L && delay <= 3000L);
+    Assert.assertEquals(0L, retryPolicy.getDelay(httpClient, 1, response(httpClient, 503, format.format(new Date(0L))), null));
+
+    final RetryPolicy ignoring = RetryPolicy.maxAttempts(2).backoff(10L, 5000L).jitter(0d).retryAfter(false).toRetryPolicy();
+    Assert.assertEquals(10L, ignoring.getDelay(httpClient, 1, response(httpClient, 503, "60"), null));
+  }
+
+  @Test
+  public void testPermanentFailures() throws InvalidUriException {
+    final RetryPolicy retryPolicy = RetryPolicy.maxAttempts(2).toRetryPolicy();
+    final HttpClient httpClient = get();
+    Assert.assertEquals(-1L, retryPolicy.getDelay(httpClient, 1, null, new SSLHandshakeException("untrusted")));
+    Assert.assertEquals(-1L, retryPolicy.getDelay(httpClient, 1, null, new SizeLimitExceededException(1L)));
+  }
+
+  @Test
+  public void testIdempotency() throws InvalidUriException {
+    final HttpClient post = HttpClient.uri("http://host/context").post().entity("Hello World").toHttpClient();
+    Assert.assertEquals(-1L, RetryPolicy.maxAttempts(2).toRetryPolicy().getDelay(post, 1, null, RESET));
+    Assert.assertTrue(RetryPolicy.maxAttempts(2).retryNonIdempotent(true).toRetryPolicy().getDelay(post, 1, null, RESET) >= 0);
+
+    final HttpClient put = HttpClient.uri("http://host/context").put().entity("Hello World").toHttpClient();
+    Assert.assertTrue(RetryPolicy.maxAttempts(2).toRetryPolicy().getDelay(put, 1, null, RESET) >= 0);
+  }
+
+  @Test
+  public void testReplayableEntity() throws InvalidUriException {
+    final RetryPolicy retryPolicy = RetryPolicy.maxAttempts(2).toRetryPolicy();
+    final HttpClient repeatable = HttpClient.uri("http://host/context").put().entity(RequestEntity.of("Hello World".getBytes())).toHttpClient();
+    Assert.assertTrue(retryPolicy.getDelay(repeatable, 1, null, RESET) >= 0);
+    final HttpClient once = HttpClient.uri("http://host/context").put().entity(new ByteArrayInputStream("Hello World".getBytes()), -1L).toHttpClient();
+    Assert.assertEquals(-1L, retryPolicy.getDelay(once, 1, null, RESET));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMaxAttempts() {
+    RetryPolicy.maxAttempts(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidJitter() {
+    RetryPolicy.maxAttempts(2).jitter(1.5d);
+  }
+
+}
@@ -0,0 +1,120 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.exception.HttpInvocationException;
+import org.missinglink.http.server.AbstractHttpServerTest;
+import org.missinglink.tools.StreamUtils;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class SegmentedDownloadTest extends AbstractHttpServerTest {
+
+  private File file;
+
+  public SegmentedDownloadTest() {
+    super();
+  }
+
+  @Before
+  public void before() throws IOException {
+    startHttpServer();
+    file = File.createTempFile("segmented", ".bin");
+    file.deleteOnExit();
+  }
+
+  @After
+  public void after() {
+    stopHttpServer();
+  }
+
+  @Test
+  public void testSegmentedDownload() throws HttpClientException, IOException {
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + RANGE_CONTEXT).segments(4).toHttpClient().invoke(file);
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(file, response.getEntityFile());
+    Assert.assertEquals(RANGE_ENTITY.length, response.getEntityLength());
+    Assert.assertEquals(4, rangeRequests.get());
+    Assert.assertArrayEquals(RANGE_ENTITY, StreamUtils.inputStreamToByteArray(new FileInputStream(file)));
+  }
+
+  @Test
+  public void testSegmentsLimitedByMinimumSize() throws HttpClientException, IOException {
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + RANGE_CONTEXT).segments(100).toHttpClient().invoke(file);
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(RANGE_ENTITY.length / SegmentedDownload.MIN_SEGMENT_SIZE, rangeRequests.get());
+    Assert.assertArrayEquals(RANGE_ENTITY, StreamUtils.inputStreamToByteArray(new FileInputStream(file)));
+  }
+
+  @Test
+  public void testFallbackWithoutRangeSupport() throws HttpClientException, IOException {
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + RANGE_CONTEXT).query(NO_RANGES, null).segments(4).toHttpClient().invoke(file);
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(0, rangeRequests.get());
+    Assert.assertArrayEquals(RANGE_ENTITY, StreamUtils.inputStreamToByteArray(new FileInputStream(file)));
+  }
+
+  @Test
+  public void testSmallEntityIsNotSegmented() throws HttpClientException, IOException {
+    final HttpResponse response = HttpClient.uri(getHttpServerUri() + PING_CONTEXT).segments(4).toHttpClient().invoke(file);
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(PING_RESPONSE, StreamUtils.inputStreamToString(new FileInputStream(file)));
+  }
+
+  @Test
+  public void testTruncatedSegmentKeepsFile() throws HttpClientException, IOException {
+    final byte[] previous = "previous".getBytes();
+    final FileOutputStream fos = new FileOutputStream(file);
+    fos.write(previous);
+    fos.close();
+    rangeTruncate = 1024;
+    try {
+      HttpClient.uri(getHttpServerUri() + RANGE_CONTEXT).segments(4).toHttpClient().invoke(file);
+      Assert.fail("the download should have failed");
+    } catch (final HttpInvocationException e) {
+      // expected
+    }
+    Assert.assertArrayEquals(previous, StreamUtils.inputStreamToByteArray(new FileInputStream(file)));
+    // the partial entity was removed
+    final String[] tmp = file.getParentFile().list(new FilenameFilter() {
+      @Override
+      public boolean accept(final File dir, final String name) {
+        return name.startsWith("." + file.getName() + "-");
+      }
+    });
+    Assert.assertEquals(0, tmp.length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSegments() throws HttpClientException {
+    HttpClient.uri(getHttpServerUri() + RANGE_CONTEXT).segments(0);
+  }
+
+}
@@ -0,0 +1,102 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.server.AbstractHttpServerTest;
+import org.missinglink.tools.StreamUtils;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class SslContextCacheTest extends AbstractHttpServerTest {
+
+  public SslContextCacheTest() {
+    super();
+  }
+
+  @Before
+  public void before() throws Exception {
+    startHttpsServer();
+  }
+
+  @After
+  public void after() {
+    stopHttpsServer();
+  }
+
+  @Test
+  public void testSameKeyStoreSharesFactory() throws Exception {
+    final SslContextCache cache = new SslContextCache(SslContextCache.DEFAULT_MAX_ENTRIES);
+    final byte[] keyStore = StreamUtils.inputStreamToByteArray(getKeyStore());
+    Assert.assertSame(cache.getSocketFactory(keyStore, KEYSTORE_PASSWORD), cache.getSocketFactory(keyStore.clone(), KEYSTORE_PASSWORD));
+    Assert.assertEquals(1, cache.getMisses());
+    Assert.assertEquals(1, cache.getHits());
+  }
+
+  @Test(expected = IOException.class)
+  public void testPasswordIsPartOfKey() throws Exception {
+    final SslContextCache cache = new SslContextCache(SslContextCache.DEFAULT_MAX_ENTRIES);
+    final byte[] keyStore = StreamUtils.inputStreamToByteArray(getKeyStore());
+    cache.getSocketFactory(keyStore, KEYSTORE_PASSWORD);
+    cache.getSocketFactory(keyStore, "wrong");
+  }
+
+  @Test
+  public void testSessionSettingsApplyToDefaultTrust() throws Exception {
+    final HttpClient httpClient = HttpClient.uri("https://localhost/").toHttpClient();
+    Assert.assertNull(new SslContextCache(SslContextCache.DEFAULT_MAX_ENTRIES).getSocketFactory(httpClient));
+
+    final SslContextCache cache = new SslContextCache(SslContextCache.DEFAULT_MAX_ENTRIES, 16, SslContextCache.JDK_DEFAULT);
+    Assert.assertNotNull(cache.getSocketFactory(httpClient));
+    Assert.assertSame(cache.getSocketFactory(httpClient), cache.getSocketFactory(httpClient));
+    Assert.assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testTrustAllSharesFactory() throws Exception {
+    final SslContextCache cache = new SslContextCache(SslContextCache.DEFAULT_MAX_ENTRIES);
+    Assert.assertSame(cache.getTrustAllSocketFactory(), cache.getTrustAllSocketFactory());
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    final SslContextCache cache = new SslContextCache(1);
+    final byte[] keyStore = StreamUtils.inputStreamToByteArray(getKeyStore());
+    cache.getSocketFactory(keyStore, KEYSTORE_PASSWORD);
+    cache.getTrustAllSocketFactory();
+    Assert.assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testRepeatedInvokeReusesContext() throws Exception {
+    HttpClient.uri(getHttpsServerUri() + PING_CONTEXT).keyStore(getKeyStore(), KEYSTORE_PASSWORD).toHttpClient().invoke();
+    final long misses = SslContextCache.getDefault().getMisses();
+
+    final HttpClient httpClient = HttpClient.uri(getHttpsServerUri() + PING_CONTEXT).keyStore(getKeyStore(), KEYSTORE_PASSWORD).toHttpClient();
+    Assert.assertEquals(200, httpClient.invoke().getStatus());
+    Assert.assertEquals(200, httpClient.invoke().getStatus());
+    Assert.assertEquals(misses, SslContextCache.getDefault().getMisses());
+  }
+
+}
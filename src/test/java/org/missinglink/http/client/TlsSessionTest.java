@@ -0,0 +1,111 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.http.client;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.missinglink.http.exception.HttpClientException;
+import org.missinglink.http.server.AbstractHttpServerTest;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class TlsSessionTest extends AbstractHttpServerTest {
+
+  private SslContextCache cache;
+
+  public TlsSessionTest() {
+    super();
+  }
+
+  @Before
+  public void before() throws Exception {
+    startHttpsServer();
+    cache = new SslContextCache(SslContextCache.DEFAULT_MAX_ENTRIES);
+  }
+
+  @After
+  public void after() {
+    stopHttpsServer();
+  }
+
+  // the server closes the connection after the response, so each request
+  // performs a handshake
+  private TlsSession invokeAndClose() throws HttpClientException {
+    final HttpResponse response = HttpClient.uri(getHttpsServerUri() + CLOSE_CONTEXT).keyStore(getKeyStore(), KEYSTORE_PASSWORD).sslContextCache(cache).toHttpClient().invoke();
+    Assert.assertEquals(200, response.getStatus());
+    return response.getTlsSession();
+  }
+
+  @Test
+  public void testResumedHandshake() throws HttpClientException {
+    final TlsSession first = invokeAndClose();
+    Assert.assertTrue(first.isHandshake());
+    Assert.assertTrue(first.isFullHandshake());
+    Assert.assertFalse(first.isResumed());
+    Assert.assertTrue(first.getProtocol().startsWith("TLS"));
+    Assert.assertNotNull(first.getCipherSuite());
+    Assert.assertTrue(first.getHandshakeTime() > 0);
+
+    for (int i = 0; i < 2; i++) {
+      final TlsSession resumed = invokeAndClose();
+      Assert.assertTrue(resumed.toString(), resumed.isHandshake());
+      Assert.assertTrue(resumed.toString(), resumed.isResumed());
+      Assert.assertFalse(resumed.isFullHandshake());
+      Assert.assertEquals(first.getProtocol(), resumed.getProtocol());
+      Assert.assertEquals(first.getCipherSuite(), resumed.getCipherSuite());
+    }
+  }
+
+  @Test
+  public void testKeptAliveConnection() throws HttpClientException {
+    final HttpConnectionPool pool = new HttpConnectionPool();
+    final HttpClient httpClient = HttpClient.uri(getHttpsServerUri() + PING_CONTEXT).keyStore(getKeyStore(), KEYSTORE_PASSWORD).sslContextCache(cache).connectionPool(pool).toHttpClient();
+    final TlsSession first = httpClient.invoke().getTlsSession();
+    final TlsSession second = httpClient.invoke().getTlsSession();
+    Assert.assertTrue(first.isHandshake());
+    Assert.assertFalse(second.toString(), second.isHandshake());
+    Assert.assertFalse(second.isResumed());
+    Assert.assertEquals(0L, second.getHandshakeTime());
+    Assert.assertEquals(first.getCipherSuite(), second.getCipherSuite());
+  }
+
+  @Test
+  public void testSessionTimeout() throws Exception {
+    cache = new SslContextCache(SslContextCache.DEFAULT_MAX_ENTRIES, SslContextCache.JDK_DEFAULT, 1);
+    Assert.assertEquals(1, cache.getSessionTimeout());
+    Assert.assertTrue(invokeAndClose().isFullHandshake());
+    Assert.assertTrue(invokeAndClose().isResumed());
+    Thread.sleep(1500L);
+    // the cached session expired
+    Assert.assertTrue(invokeAndClose().isFullHandshake());
+  }
+
+  @Test
+  public void testPlainHttp() throws Exception {
+    startHttpServer();
+    try {
+      Assert.assertNull(HttpClient.uri(getHttpServerUri() + PING_CONTEXT).toHttpClient().invoke().getTlsSession());
+    } finally {
+      stopHttpServer();
+    }
+  }
+
+}
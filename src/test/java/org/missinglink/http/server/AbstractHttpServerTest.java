@@ -22,13 +22,16 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsExchange;
 import com.sun.net.httpserver.HttpsParameters;
 import com.sun.net.httpserver.HttpsServer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.net.BindException;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.URI;
@@ -39,12 +42,19 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.TrustManagerFactory;
 
 import org.missinglink.http.AbstractTest;
@@ -81,6 +91,18 @@ public abstract class AbstractHttpServerTest extends AbstractTest {
   protected static final String KEYSTORE_FILE = "/keystore.jks";
   protected static final String KEYSTORE_PASSWORD = "password";
 
+  // client certificates "client", trusted by the server when it requires a
+  // client certificate, and "other"
+  protected static final String CLIENT_KEYSTORE_P12 = "/client.p12";
+  protected static final String CLIENT_KEYSTORE_JKS = "/client.jks";
+  protected static final String CLIENT_ALIAS = "client";
+  protected static final String OTHER_CLIENT_ALIAS = "other";
+  protected static final String CLIENT_CERTIFICATE_CONTEXT = "/client-certificate";
+  protected static final String NO_CLIENT_CERTIFICATE = "none";
+
+  // responds like ping and closes the connection afterwards
+  protected static final String CLOSE_CONTEXT = "/close";
+
   protected static final String USERNAME = "user";
   protected static final String PASSWORD = "password";
 
@@ -93,11 +115,49 @@ public abstract class AbstractHttpServerTest extends AbstractTest {
   protected static final String ECHO_HEADERS_CONTEXT = "/echo-headers";
   protected static final String ECHO_HEADERS_PREFIX = "X-Req-";
 
-  private final int httpServerPort = 10080;
-  private final int httpsServerPort = 10443;
+  protected static final String RANGE_CONTEXT = "/range";
+  protected static final String RANGE_ETAG = "\"range-v1\"";
+  protected static final String RANGE_LAST_MODIFIED = "Thu, 01 Jan 2015 00:00:00 GMT";
+  protected static final String NO_RANGES = "noranges";
+  protected static final byte[] RANGE_ENTITY = rangeEntity(1024 * 1024);
+
+  protected static final String CACHE_CONTEXT = "/cache";
+  protected static final String CACHE_ETAG = "\"cache-v1\"";
+  protected static final String CACHE_SIZE = "size";
+  protected static final String VARIANT_HEADER = "X-Variant";
+
+  protected static final String SLOW_CONTEXT = "/slow";
+  protected static final String SLOW_MILLIS = "ms";
+  protected static final String SLOW_RESPONSE = "slow";
+
+  protected static final String COMPRESSED_CONTEXT = "/compressed";
+  protected static final String RAW_DEFLATE = "raw";
+  protected static final byte[] COMPRESSED_ENTITY = compressedEntity(64 * 1024);
+
+  protected static final String FLAKY_CONTEXT = "/flaky";
+  protected static final String FLAKY_FAILURES = "failures";
+  protected static final String FLAKY_STATUS = "status";
+  protected static final String FLAKY_RETRY_AFTER = "retryAfter";
+  protected static final String FLAKY_RESPONSE = "recovered";
+
+  // bound to a free port when first started, so connections kept alive to
+  // the server of a previous test are never reused, a restart keeps the port
+  private int httpServerPort;
+  private int httpsServerPort;
 
   private HttpServer httpServer;
   private HttpsServer httpsServer;
+  private ExecutorService httpExecutor;
+  private ExecutorService httpsExecutor;
+
+  protected final AtomicInteger rangeRequests = new AtomicInteger();
+  protected volatile String rangeEtag = RANGE_ETAG;
+  protected volatile int rangeTruncate = -1;
+  protected final AtomicInteger notModifiedResponses = new AtomicInteger();
+  protected final AtomicInteger cacheRequests = new AtomicInteger();
+  protected final AtomicInteger flakyRequests = new AtomicInteger();
+  protected volatile String cacheControl = "max-age=60";
+  protected final AtomicInteger slowRequests = new AtomicInteger();
 
   protected AbstractHttpServerTest() {
     super();
@@ -105,24 +165,41 @@ public abstract class AbstractHttpServerTest extends AbstractTest {
 
   protected void stopHttpServer() {
     httpServer.stop(0);
+    httpExecutor.shutdown();
   }
 
   protected void stopHttpsServer() {
     httpsServer.stop(0);
+    httpsExecutor.shutdown();
   }
 
   protected void startHttpServer() throws IOException {
     final InetSocketAddress addr = new InetSocketAddress(httpServerPort);
-    httpServer = HttpServer.create(addr, 0);
-    httpServer.setExecutor(Executors.newCachedThreadPool());
+    httpServer = HttpServer.create();
+    bind(httpServer, addr);
+    httpServerPort = httpServer.getAddress().getPort();
+    httpExecutor = Executors.newCachedThreadPool();
+    httpServer.setExecutor(httpExecutor);
     attachHttpHandlers(httpServer);
     httpServer.start();
   }
 
   protected void startHttpsServer() throws Exception {
+    startHttpsServer(false);
+  }
+
+  /**
+   * @param needClientAuth boolean require the client certificate
+   *          {@link #CLIENT_ALIAS} of {@link #CLIENT_KEYSTORE_P12}
+   * @throws Exception on failure
+   */
+  protected void startHttpsServer(final boolean needClientAuth) throws Exception {
     final InetSocketAddress addr = new InetSocketAddress(httpsServerPort);
-    httpsServer = HttpsServer.create(addr, 0);
-    httpsServer.setExecutor(Executors.newCachedThreadPool());
+    httpsServer = HttpsServer.create();
+    bind(httpsServer, addr);
+    httpsServerPort = httpsServer.getAddress().getPort();
+    httpsExecutor = Executors.newCachedThreadPool();
+    httpsServer.setExecutor(httpsExecutor);
     attachHttpHandlers(httpsServer);
 
     final char[] passphrase = KEYSTORE_PASSWORD.toCharArray();
@@ -132,6 +209,12 @@ public abstract class AbstractHttpServerTest extends AbstractTest {
     final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
     kmf.init(ks, passphrase);
 
+    if (needClientAuth) {
+      final KeyStore clients = KeyStore.getInstance("PKCS12");
+      clients.load(getClass().getResourceAsStream(CLIENT_KEYSTORE_P12), passphrase);
+      ks.setCertificateEntry(CLIENT_ALIAS, clients.getCertificate(CLIENT_ALIAS));
+    }
+
     final TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
     tmf.init(ks);
 
@@ -143,6 +226,7 @@ public abstract class AbstractHttpServerTest extends AbstractTest {
       public void configure(final HttpsParameters params) {
         final SSLContext c = getSSLContext();
         final SSLParameters sslparams = c.getDefaultSSLParameters();
+        sslparams.setNeedClientAuth(needClientAuth);
         params.setSSLParameters(sslparams);
       }
     });
@@ -150,6 +234,26 @@ public abstract class AbstractHttpServerTest extends AbstractTest {
     httpsServer.start();
   }
 
+  // a stopped server releases its port asynchronously, retry for a moment
+  protected void bind(final HttpServer server, final InetSocketAddress addr) throws IOException {
+    for (int attempt = 0;; attempt++) {
+      try {
+        server.bind(addr, 0);
+        return;
+      } catch (final BindException e) {
+        if (attempt >= 100) {
+          throw e;
+        }
+        try {
+          Thread.sleep(50L);
+        } catch (final InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
   protected void attachHttpHandlers(final HttpServer server) {
     // ping handler
     server.createContext(PING_CONTEXT, new HttpHandler() {
@@ -159,6 +263,15 @@ public abstract class AbstractHttpServerTest extends AbstractTest {
       }
     });
 
+    // ping handler which closes the connection
+    server.createContext(CLOSE_CONTEXT, new HttpHandler() {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Connection", "close");
+        pingResponse(exchange);
+      }
+    });
+
     // secure ping handler
     final HttpContext securePingContext = server.createContext(SECURE_CONTEXT + PING_CONTEXT, new HttpHandler() {
       @Override
@@ -288,6 +401,221 @@ public abstract class AbstractHttpServerTest extends AbstractTest {
       }
     });
     hwHdrContext.setAuthenticator(getBasicAuthenticator());
+
+    // cacheable response varying on VARIANT_HEADER, or CACHE_SIZE bytes
+    server.createContext(CACHE_CONTEXT, new HttpHandler() {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        cacheResponse(exchange);
+      }
+    });
+
+    // respond with SLOW_RESPONSE after SLOW_MILLIS
+    server.createContext(SLOW_CONTEXT, new HttpHandler() {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        slowResponse(exchange);
+      }
+    });
+
+    // serve COMPRESSED_ENTITY gzip or deflate encoded as accepted
+    server.createContext(COMPRESSED_CONTEXT, new HttpHandler() {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        compressedResponse(exchange);
+      }
+    });
+
+    // fail the first FLAKY_FAILURES requests with FLAKY_STATUS, default 503
+    server.createContext(FLAKY_CONTEXT, new HttpHandler() {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        flakyResponse(exchange);
+      }
+    });
+
+    // serve RANGE_ENTITY, honouring byte ranges unless NO_RANGES is queried
+    server.createContext(RANGE_CONTEXT, new HttpHandler() {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        rangeResponse(exchange);
+      }
+    });
+
+    // client certificate handler, responds with the subject of the client
+    // certificate
+    server.createContext(CLIENT_CERTIFICATE_CONTEXT, new HttpHandler() {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        String subject = NO_CLIENT_CERTIFICATE;
+        if (exchange instanceof HttpsExchange) {
+          try {
+            subject = ((HttpsExchange) exchange).getSSLSession().getPeerPrincipal().getName();
+          } catch (final SSLPeerUnverifiedException e) {
+            // none presented
+          }
+        }
+        final byte[] bytes = subject.getBytes();
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+      }
+    });
+  }
+
+  private static byte[] rangeEntity(final int length) {
+    final byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (i % 251);
+    }
+    return bytes;
+  }
+
+  private static byte[] compressedEntity(final int length) {
+    final StringBuilder sb = new StringBuilder(length);
+    for (int i = 0; sb.length() < length; i++) {
+      sb.append("{\"id\":").append(i).append(",\"name\":\"item ").append(i).append("\"}\n");
+    }
+    return sb.substring(0, length).getBytes();
+  }
+
+  private void compressedResponse(final HttpExchange exchange) throws IOException {
+    final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    if (null != acceptEncoding && acceptEncoding.contains("gzip")) {
+      exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+      final GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+      gzip.write(COMPRESSED_ENTITY);
+      gzip.close();
+    } else if (null != acceptEncoding && acceptEncoding.contains("deflate")) {
+      exchange.getResponseHeaders().set("Content-Encoding", "deflate");
+      final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, getQueryParams(exchange.getRequestURI()).containsKey(RAW_DEFLATE));
+      final DeflaterOutputStream deflate = new DeflaterOutputStream(bytes, deflater);
+      deflate.write(COMPRESSED_ENTITY);
+      deflate.close();
+      deflater.end();
+    } else {
+      bytes.write(COMPRESSED_ENTITY);
+    }
+    try {
+      exchange.sendResponseHeaders(200, "HEAD".equals(exchange.getRequestMethod()) ? -1 : bytes.size());
+      if (!"HEAD".equals(exchange.getRequestMethod())) {
+        exchange.getResponseBody().write(bytes.toByteArray());
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void cacheResponse(final HttpExchange exchange) throws IOException {
+    cacheRequests.incrementAndGet();
+    if (null != cacheControl) {
+      exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+    }
+    exchange.getResponseHeaders().set("ETag", CACHE_ETAG);
+    exchange.getResponseHeaders().set("Vary", VARIANT_HEADER);
+    if (CACHE_ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      notModifiedResponses.incrementAndGet();
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+    final String size = getQueryParams(exchange.getRequestURI()).get(CACHE_SIZE);
+    final byte[] entity = null == size ? ("variant " + exchange.getRequestHeaders().getFirst(VARIANT_HEADER)).getBytes() : rangeEntity(Integer.parseInt(size));
+    exchange.getResponseHeaders().set("Content-Type", "text/plain");
+    exchange.sendResponseHeaders(200, entity.length);
+    exchange.getResponseBody().write(entity);
+    exchange.close();
+  }
+
+  private void slowResponse(final HttpExchange exchange) throws IOException {
+    slowRequests.incrementAndGet();
+    final String millis = getQueryParams(exchange.getRequestURI()).get(SLOW_MILLIS);
+    try {
+      Thread.sleep(null == millis ? 10000L : Long.parseLong(millis));
+      exchange.getResponseHeaders().set("Content-Type", "text/plain");
+      exchange.sendResponseHeaders(200, SLOW_RESPONSE.getBytes().length);
+      exchange.getResponseBody().write(SLOW_RESPONSE.getBytes());
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (final IOException e) {
+      // the client went away
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void flakyResponse(final HttpExchange exchange) throws IOException {
+    final Map<String, String> params = getQueryParams(exchange.getRequestURI());
+    final String failures = params.get(FLAKY_FAILURES);
+    try {
+      StreamUtils.inputStreamToByteArray(exchange.getRequestBody());
+      exchange.getResponseHeaders().set("Content-Type", "text/plain");
+      if (flakyRequests.incrementAndGet() <= (null == failures ? 0 : Integer.parseInt(failures))) {
+        final String status = params.get(FLAKY_STATUS);
+        if (null != params.get(FLAKY_RETRY_AFTER)) {
+          exchange.getResponseHeaders().set("Retry-After", params.get(FLAKY_RETRY_AFTER));
+        }
+        exchange.sendResponseHeaders(null == status ? 503 : Integer.parseInt(status), -1);
+      } else {
+        exchange.sendResponseHeaders(200, FLAKY_RESPONSE.getBytes().length);
+        exchange.getResponseBody().write(FLAKY_RESPONSE.getBytes());
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void rangeResponse(final HttpExchange exchange) throws IOException {
+    final boolean ranges = !getQueryParams(exchange.getRequestURI()).containsKey(NO_RANGES);
+    final String range = exchange.getRequestHeaders().getFirst("Range");
+    final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+    int status = 200;
+    int start = 0;
+    int end = RANGE_ENTITY.length - 1;
+    exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+    final String etag = rangeEtag;
+    if (null != etag) {
+      exchange.getResponseHeaders().set("ETag", etag);
+    }
+    exchange.getResponseHeaders().set("Last-Modified", RANGE_LAST_MODIFIED);
+    final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+    final String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+    if (null != ifNoneMatch ? ifNoneMatch.equals(etag) : RANGE_LAST_MODIFIED.equals(ifModifiedSince)) {
+      notModifiedResponses.incrementAndGet();
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+    if (ranges) {
+      exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+      if (null != range && (null == ifRange || ifRange.equals(etag) || ifRange.equals(RANGE_LAST_MODIFIED))) {
+        rangeRequests.incrementAndGet();
+        final String[] bounds = range.substring("bytes=".length()).split("-", 2);
+        start = Integer.parseInt(bounds[0]);
+        if (bounds[1].length() > 0) {
+          end = Math.min(Integer.parseInt(bounds[1]), end);
+        }
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + RANGE_ENTITY.length);
+        status = 206;
+      }
+    }
+    final int length = end - start + 1;
+    if ("HEAD".equalsIgnoreCase(exchange.getRequestMethod())) {
+      exchange.getResponseHeaders().set("Content-Length", Integer.toString(length));
+      exchange.sendResponseHeaders(status, -1);
+    } else {
+      exchange.sendResponseHeaders(status, length);
+      if (rangeTruncate >= 0 && rangeTruncate < length) {
+        // closing short of the announced length drops the connection
+        exchange.getResponseBody().write(RANGE_ENTITY, start, rangeTruncate);
+        exchange.getResponseBody().close();
+        return;
+      }
+      exchange.getResponseBody().write(RANGE_ENTITY, start, length);
+    }
+    exchange.close();
   }
 
   private void echoResponse(HttpExchange exchange) throws IOException {
@@ -296,7 +624,8 @@ public abstract class AbstractHttpServerTest extends AbstractTest {
         responseEntity = getQueryParams(exchange.getRequestURI()).get(ECHO_TEXT).getBytes();
         exchange.getResponseHeaders().set("Content-Type", "text/plain");
     } else if ("POST".equalsIgnoreCase(exchange.getRequestMethod()) || "PUT".equalsIgnoreCase(exchange.getRequestMethod())) {
-      responseEntity = StreamUtils.inputStreamToByteArray(exchange.getRequestBody());
+      final boolean gzip = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+      responseEntity = StreamUtils.inputStreamToByteArray(gzip ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody());
       final List<String> contentType = exchange.getRequestHeaders().get("Content-Type");
       exchange.getResponseHeaders().set("Content-Type", contentType != null ? contentType.get(0) : "text/plain");
     } else if ("GET".equalsIgnoreCase(exchange.getRequestMethod())) {
@@ -452,6 +781,10 @@ public abstract class AbstractHttpServerTest extends AbstractTest {
     return getClass().getResourceAsStream(KEYSTORE_FILE);
   }
 
+  protected InputStream getClientKeyStore(final String resource) {
+    return getClass().getResourceAsStream(resource);
+  }
+
   protected String getKeyStoreFile() {
     return getClass().getResource(KEYSTORE_FILE).getFile();
   }
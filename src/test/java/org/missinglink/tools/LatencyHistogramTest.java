@@ -0,0 +1,86 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.tools;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void testEmpty() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    Assert.assertEquals(0L, histogram.getTotalCount());
+    Assert.assertEquals(0L, histogram.getMin());
+    Assert.assertEquals(0L, histogram.getMax());
+    Assert.assertEquals(0L, histogram.getValueAtPercentile(99d));
+    Assert.assertEquals(0d, histogram.getMean(), 0d);
+  }
+
+  @Test
+  public void testSmallValuesAreExact() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    Assert.assertEquals(100L, histogram.getTotalCount());
+    Assert.assertEquals(1L, histogram.getMin());
+    Assert.assertEquals(100L, histogram.getMax());
+    Assert.assertEquals(50.5d, histogram.getMean(), 0d);
+    Assert.assertEquals(50L, histogram.getValueAtPercentile(50d));
+    Assert.assertEquals(99L, histogram.getValueAtPercentile(99d));
+    Assert.assertEquals(100L, histogram.getValueAtPercentile(100d));
+  }
+
+  @Test
+  public void testRelativeError() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+      final long reported = LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(value));
+      Assert.assertTrue(value + " reported as " + reported, reported >= value);
+      Assert.assertTrue(value + " reported as " + reported, reported - value <= value / 64);
+      histogram.record(value);
+    }
+    histogram.record(Long.MAX_VALUE);
+    Assert.assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100d));
+  }
+
+  @Test
+  public void testPercentiles() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 990; i++) {
+      histogram.record(10000L);
+    }
+    for (int i = 0; i < 10; i++) {
+      histogram.record(1000000L);
+    }
+    Assert.assertEquals(10000d, histogram.getValueAtPercentile(50d), 10000d / 64);
+    Assert.assertEquals(10000d, histogram.getValueAtPercentile(99d), 10000d / 64);
+    Assert.assertEquals(1000000d, histogram.getValueAtPercentile(99.9d), 1000000d / 64);
+    Assert.assertEquals(1000000L, histogram.getMax());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidPercentile() {
+    new LatencyHistogram().getValueAtPercentile(101d);
+  }
+
+}
@@ -0,0 +1,145 @@
+/*
+ *   Copyright Alex Sherwin and other contributors as noted.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.missinglink.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author alex.sherwin
+ *
+ */
+public class StreamUtilsTest {
+
+  private static byte[] bytes(final int length) {
+    final byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  // hands out at most 100 bytes per read, like a socket
+  private static class TrickleInputStream extends FilterInputStream {
+    private boolean closed;
+
+    TrickleInputStream(final byte[] bytes) {
+      super(new ByteArrayInputStream(bytes));
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      return super.read(b, off, Math.min(len, 100));
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+  }
+
+  @Test
+  public void testInputStreamToByteArray() throws IOException {
+    for (final int length : new int[] {0, 1, 8191, 8192, 8193, 100000}) {
+      final byte[] expected = bytes(length);
+      Assert.assertArrayEquals(expected, StreamUtils.inputStreamToByteArray(new TrickleInputStream(expected)));
+      Assert.assertArrayEquals(expected, StreamUtils.inputStreamToByteArray(new TrickleInputStream(expected), length, length));
+      // a wrong Content-Length is only a hint
+      Assert.assertArrayEquals(expected, StreamUtils.inputStreamToByteArray(new TrickleInputStream(expected), length / 2, -1L));
+      Assert.assertArrayEquals(expected, StreamUtils.inputStreamToByteArray(new TrickleInputStream(expected), length * 2L, -1L));
+    }
+  }
+
+  @Test
+  public void testInputStreamIsClosed() throws IOException {
+    final TrickleInputStream is = new TrickleInputStream(bytes(10));
+    StreamUtils.inputStreamToByteArray(is);
+    Assert.assertTrue(is.closed);
+  }
+
+  @Test
+  public void testExpectedLengthExceedsMaxLength() throws IOException {
+    final TrickleInputStream is = new TrickleInputStream(bytes(1000));
+    try {
+      StreamUtils.inputStreamToByteArray(is, 1000L, 999L);
+      Assert.fail("Content-Length above the limit should fail");
+    } catch (final SizeLimitExceededException e) {
+      Assert.assertEquals(999L, e.getLimit());
+      Assert.assertEquals(1000, is.available());
+    }
+  }
+
+  @Test
+  public void testStreamExceedsMaxLength() throws IOException {
+    final TrickleInputStream is = new TrickleInputStream(bytes(100000));
+    try {
+      StreamUtils.inputStreamToByteArray(is, -1L, 10000L);
+      Assert.fail("An entity above the limit should fail");
+    } catch (final SizeLimitExceededException e) {
+      // stops reading right after the limit
+      Assert.assertEquals(100000 - 10001, is.available());
+      Assert.assertTrue(is.closed);
+    }
+  }
+
+  @Test
+  public void testInputStreamToString() throws IOException {
+    final String text = "Hello World ";
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      sb.append(text);
+    }
+    Assert.assertEquals(sb.toString(), StreamUtils.inputStreamToString(new TrickleInputStream(sb.toString().getBytes())));
+  }
+
+  @Test
+  public void testCopy() throws IOException {
+    final byte[] expected = bytes(3 * StreamUtils.COPY_BUFFER_SIZE + 1);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Assert.assertEquals(expected.length, StreamUtils.copy(new TrickleInputStream(expected), out));
+    Assert.assertArrayEquals(expected, out.toByteArray());
+    Assert.assertArrayEquals(expected, StreamUtils.inputStreamToByteArrayOutputStream(new ByteArrayInputStream(expected)).toByteArray());
+  }
+
+  @Test
+  public void testNestedCopy() throws IOException {
+    final byte[] expected = bytes(2 * StreamUtils.COPY_BUFFER_SIZE);
+    final ByteArrayOutputStream inner = new ByteArrayOutputStream();
+    // copies from a stream which itself copies on every read
+    final InputStream is = new FilterInputStream(new ByteArrayInputStream(expected)) {
+      @Override
+      public int read(final byte[] b, final int off, final int len) throws IOException {
+        final int num = super.read(b, off, len);
+        if (num > 0) {
+          StreamUtils.copy(new ByteArrayInputStream(b, off, num), inner);
+        }
+        return num;
+      }
+    };
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StreamUtils.copy(is, out);
+    Assert.assertArrayEquals(expected, out.toByteArray());
+    Assert.assertArrayEquals(expected, inner.toByteArray());
+  }
+
+}